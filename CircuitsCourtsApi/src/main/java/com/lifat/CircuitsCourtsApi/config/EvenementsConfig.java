@@ -0,0 +1,35 @@
+package com.lifat.CircuitsCourtsApi.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Pool de threads qui écrivent sur les connexions SSE du flux d'événements.
+ * Un envoi à un client lent bloque l'un de ces threads, jamais le relais ni le thread de la requête qui ouvre la connexion.
+ * Quand le pool et sa file sont pleins l'envoi est refusé (TaskRejectedException), la connexion est rattrapée depuis la
+ * bd au lot suivant.
+ */
+@Configuration
+public class EvenementsConfig {
+
+    @Value("${com.lifat.circuitscourtsapi.evenements.sse.threads: 4}")
+    private int threads;
+
+    @Value("${com.lifat.circuitscourtsapi.evenements.sse.fileThreads: 1000}")
+    private int fileThreads;
+
+    @Bean(name = "fluxEvenementsExecutor")
+    public ThreadPoolTaskExecutor fluxEvenementsExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(fileThreads);
+        executor.setThreadNamePrefix("flux-evenements-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        return executor;
+    }
+}
@@ -0,0 +1,41 @@
+package com.lifat.CircuitsCourtsApi.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Les commandes, commandes details et commandes producteur ont d'abord eu des ids AUTO_INCREMENT.
+ * Leurs ids viennent maintenant de la table id_generateurs (blocs de 50) : au démarrage on s'assure que
+ * chaque compteur est au-dessus du plus grand id deja present, pour ne jamais redonner un id existant.
+ * S'exécute après la création du schéma par hibernate et avant tout INSERT.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class IdGenerateursInitializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdGenerateursInitializer.class);
+
+    private static final int TAILLE_BLOC = 50;
+
+    private static final String[] TABLES = {"commandes", "commande_details", "commande_producteur"};
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    public void aligner() {
+        for (String table : TABLES) {
+            Long max = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM " + table, Long.class);
+            long minimum = max + 1 + TAILLE_BLOC;
+            jdbcTemplate.update("INSERT INTO id_generateurs (nom, valeur) VALUES (?, ?) ON DUPLICATE KEY UPDATE valeur = GREATEST(valeur, VALUES(valeur))",
+                    table, minimum);
+            logger.info("compteur d'id de " + table + " aligne, id max : " + max);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.lifat.CircuitsCourtsApi.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Supprime les index remplacés par d'autres dans les entités : hibernate (ddl-auto: update) crée les nouveaux index
+ * mais ne supprime jamais les anciens, qui ralentiraient les écritures sans servir aux lectures.
+ * S'exécute après la mise à jour du schéma par hibernate, ne fait rien si l'index a déjà été supprimé.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class IndexObsoletesInitializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexObsoletesInitializer.class);
+
+    //table, index : les index de commandes par date ou par client sont remplaces par idx_commandes_date_id
+    //(date_commande, id) et idx_commandes_client_date (id_client, date_commande, id), dans l'ordre du curseur par periode
+    private static final String[][] INDEX_OBSOLETES = {
+            {"commandes", "idx_commandes_date"},
+            {"commandes", "idx_commandes_date_client"},
+            {"commandes", "idx_commandes_client"}
+    };
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    public void supprimer() {
+        for (String[] index : INDEX_OBSOLETES) {
+            Integer present = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.statistics " +
+                    "WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?", Integer.class, index[0], index[1]);
+            if (present != null && present > 0) {
+                jdbcTemplate.execute("ALTER TABLE " + index[0] + " DROP INDEX " + index[1]);
+                logger.info("index obsolete " + index[1] + " supprime de " + index[0]);
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.lifat.CircuitsCourtsApi.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Pool de workers qui traitent les commandes deposees dans la file d'attente asynchrone.
+ * Le pool et sa file sont bornes : quand tout est plein la commande est refusee (TaskRejectedException) et remise en
+ * attente en bd, elle n'est jamais traitee par le thread des taches planifiees.
+ */
+@Configuration
+public class IntakeConfig {
+
+    @Value("${com.lifat.circuitscourtsapi.intake.workers: 4}")
+    private int workers;
+
+    @Value("${com.lifat.circuitscourtsapi.intake.fileWorkers: 100}")
+    private int fileWorkers;
+
+    @Bean(name = "commandeIntakeExecutor")
+    public ThreadPoolTaskExecutor commandeIntakeExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(fileWorkers);
+        executor.setThreadNamePrefix("commande-intake-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+}
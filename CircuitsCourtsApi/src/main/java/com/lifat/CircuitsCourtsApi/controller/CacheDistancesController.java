@@ -0,0 +1,39 @@
+package com.lifat.CircuitsCourtsApi.controller;
+
+import com.lifat.CircuitsCourtsApi.payload.response.CacheDistancesResponse;
+import com.lifat.CircuitsCourtsApi.service.calculTournee.CacheDistances;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * end point du cache des distances producteur-client et client-client.
+ */
+@CrossOrigin(origins = "http://localhost:3000")
+@RestController
+@RequestMapping("/api")
+public class CacheDistancesController {
+
+    @Autowired
+    private CacheDistances cacheDistances;
+
+    /**
+     * @return la taille du cache, ses succes, absences, evictions, invalidations et son taux de succes
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/distances/cache")
+    public ResponseEntity<CacheDistancesResponse> getStatistiques() {
+        return ResponseEntity.ok(cacheDistances.statistiques());
+    }
+
+    /**
+     * Vide le cache, apres une modification des coordonnees faite directement en bd par exemple.
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @DeleteMapping("/distances/cache")
+    public ResponseEntity<?> vider() {
+        cacheDistances.vider();
+        return ResponseEntity.noContent().build();
+    }
+}
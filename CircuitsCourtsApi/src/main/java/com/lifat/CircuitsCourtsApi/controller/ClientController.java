@@ -5,6 +5,7 @@ import com.lifat.CircuitsCourtsApi.model.Client;
 import com.lifat.CircuitsCourtsApi.payload.response.CustomerResponse;
 import com.lifat.CircuitsCourtsApi.service.AdresseService;
 import com.lifat.CircuitsCourtsApi.service.ClientService;
+import com.lifat.CircuitsCourtsApi.service.pagination.PageCurseur;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -12,8 +13,7 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.parameters.P;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.ArrayList;
-import java.util.Optional;
+import java.util.*;
 
 @CrossOrigin(origins = "http://localhost:3000")
 @RestController
@@ -33,11 +33,19 @@ public class ClientController {
 
     @PreAuthorize("hasRole('ORGANISATEUR') or hasRole('ADMIN')")
     @GetMapping("/clients")
-    public ResponseEntity<?> getClients() {
-        Iterable<Client> clients = clientService.getClients();
+    public ResponseEntity<?> getClients(@RequestParam(required = false) Long apres,
+                                        @RequestParam(required = false) Integer codePostal,
+                                        @RequestParam(defaultValue = "100") int taille) {
+        PageCurseur<Client> page = clientService.getClients(apres, codePostal, taille);
+        //les adresses de toute la page en une requete
+        List<Long> idClients = new ArrayList<>();
+        for (Client client : page.getElements()) {
+            idClients.add(client.getId());
+        }
+        Map<Long, List<Adresse>> adressesParClient = adresseService.getAdressesByClients(idClients);
         ArrayList<CustomerResponse> customerResponses = new ArrayList<>();
 
-        for (Client client : clients) {
+        for (Client client : page.getElements()) {
             CustomerResponse customerResponse = new CustomerResponse();
             customerResponse.setId(client.getId());
             customerResponse.setNom(client.getNom());
@@ -48,14 +56,12 @@ public class ClientController {
             customerResponse.setTelephone(client.getTelephone());
             customerResponse.setEmail(client.getEmail());
 
-            Iterable<Adresse> adresses = adresseService.getAdressesByClient(client);
-            customerResponse.setAdresses(adresses);
+            customerResponse.setAdresses(adressesParClient.getOrDefault(client.getId(), Collections.emptyList()));
 
             customerResponses.add(customerResponse);
         }
 
-        return ResponseEntity.ok(customerResponses);
-
+        return page.avec(customerResponses).toResponseEntity();
     }
 
     @PreAuthorize("hasRole('ORGANISATEUR') or hasRole('ADMIN')")
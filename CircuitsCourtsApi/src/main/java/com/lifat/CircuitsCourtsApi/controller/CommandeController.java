@@ -4,19 +4,29 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.github.fge.jsonpatch.JsonPatch;
 import com.github.fge.jsonpatch.JsonPatchException;
 import com.lifat.CircuitsCourtsApi.model.*;
+import com.lifat.CircuitsCourtsApi.payload.response.IntakeResponse;
 import com.lifat.CircuitsCourtsApi.payload.response.OrderDetailsResponse;
 import com.lifat.CircuitsCourtsApi.payload.response.OrderProductDetailsResponse;
 import com.lifat.CircuitsCourtsApi.payload.response.OrderProductProducerResponse;
 import com.lifat.CircuitsCourtsApi.service.*;
+import com.lifat.CircuitsCourtsApi.service.archive.ArchivageCommandesService;
+import com.lifat.CircuitsCourtsApi.service.commande.OrderDetailsQueryService;
+import com.lifat.CircuitsCourtsApi.service.commande.ProducerOrderQueueService;
+import com.lifat.CircuitsCourtsApi.service.idempotence.IdempotenceService;
+import com.lifat.CircuitsCourtsApi.service.intake.CommandeIntakeService;
+import com.lifat.CircuitsCourtsApi.service.reservation.ReservationPanierService;
 import com.sun.source.tree.TryTree;
 import org.checkerframework.checker.units.qual.A;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.Optional;
 
 //@CrossOrigin(origins = "http://localhost:3000")
@@ -42,13 +52,78 @@ public class CommandeController {
     @Autowired
     private ProduitService produitService;
 
+    @Autowired
+    private CommandeIntakeService commandeIntakeService;
+
+    @Autowired
+    private OrderDetailsQueryService orderDetailsQueryService;
+
+    @Autowired
+    private ProducerOrderQueueService producerOrderQueueService;
+
+    @Autowired
+    private IdempotenceService idempotenceService;
+
+    @Autowired
+    private ArchivageCommandesService archivageCommandesService;
+
     /**
-     * Commandes
+     * Commandes, page par page par id croissant.
+     * Si une page suivante existe, son curseur est renvoyé dans l'en-tête X-Next-Cursor, à passer dans le parametre apres.
+     *
+     * @param apres curseur de la page, absent pour la premiere page
+     * @param client seules les commandes de ce client
+     * @param producteur seules les commandes dont une commandeProducteur est à ce producteur
+     * @param produit seules les commandes qui contiennent ce produit
+     * @param depuis date de commande minimale incluse (yyyy-MM-dd)
+     * @param avant date de commande maximale exclue (yyyy-MM-dd)
+     * @param taille nombre de commandes par page
      */
     @GetMapping("/commandes")
     @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
-    public ResponseEntity<?> getCommandes() {
-        return ResponseEntity.ok(commandeService.getCommandes());
+    public ResponseEntity<?> getCommandes(@RequestParam(required = false) Long apres,
+                                          @RequestParam(required = false) Long client,
+                                          @RequestParam(required = false) Long producteur,
+                                          @RequestParam(required = false) Long produit,
+                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date depuis,
+                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date avant,
+                                          @RequestParam(defaultValue = "100") int taille) {
+        return commandeService.getCommandes(apres, client, producteur, produit, depuis, avant, taille).toResponseEntity();
+    }
+
+    /**
+     * Commandes passées entre deux dates, par date puis id croissants, page par page.
+     * Si une page suivante existe, son curseur est renvoyé dans l'en-tête X-Next-Cursor, à passer dans le parametre apres.
+     * Les commandes archivées ne sont pas renvoyées.
+     *
+     * @param depuis date de commande minimale incluse (yyyy-MM-dd)
+     * @param avant date de commande maximale exclue (yyyy-MM-dd), demain par défaut
+     * @param client seules les commandes de ce client
+     * @param apres curseur de la page, absent pour la premiere page
+     * @param taille nombre de commandes par page
+     */
+    @GetMapping("/commandes/periode")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
+    public ResponseEntity<?> getCommandesParPeriode(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date depuis,
+                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date avant,
+                                                    @RequestParam(required = false) Long client,
+                                                    @RequestParam(required = false) String apres,
+                                                    @RequestParam(defaultValue = "100") int taille) {
+        try {
+            return commandeService.getCommandesParPeriode(depuis, avant, client, apres, taille).toResponseEntity();
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * Archive tout de suite les commandes des mois clos, sans attendre le passage planifié.
+     * @return le nombre de commandes archivées
+     */
+    @PostMapping("/commandes/archivage")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> archiverCommandes() {
+        return ResponseEntity.ok(archivageCommandesService.archiver());
     }
 
     @GetMapping("/commandes/{id}")
@@ -80,12 +155,20 @@ public class CommandeController {
 
 
     /**
-     * Obtenir tous les détails de commandes.
+     * Obtenir les détails de commandes, page par page par id croissant, curseur suivant dans l'en-tête X-Next-Cursor.
+     *
+     * @param apres curseur de la page, absent pour la premiere page
+     * @param commande seuls les détails de cette commande
+     * @param produit seuls les détails de ce produit
+     * @param taille nombre de détails par page
      */
     @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
     @GetMapping("/commandes/details")
-    public ResponseEntity<?> getAllCommandeDetails() {
-        return ResponseEntity.ok(commandeDetailService.getCommandeDetails());
+    public ResponseEntity<?> getAllCommandeDetails(@RequestParam(required = false) Long apres,
+                                                   @RequestParam(required = false) Long commande,
+                                                   @RequestParam(required = false) Long produit,
+                                                   @RequestParam(defaultValue = "100") int taille) {
+        return commandeDetailService.getCommandeDetails(apres, commande, produit, taille).toResponseEntity();
     }
 
 
@@ -148,12 +231,19 @@ public class CommandeController {
 
 
     /**
-     * @return toutes les CommandeProducteur
+     * @param apres curseur de la page, absent pour la premiere page
+     * @param producteur seules les CommandeProducteur de ce producteur
+     * @param detail seules les CommandeProducteur de cette commandeDetail
+     * @param taille nombre de CommandeProducteur par page
+     * @return les CommandeProducteur page par page par id croissant, curseur suivant dans l'en-tête X-Next-Cursor
      */
     @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANSIATEUR')")
     @GetMapping("/commandes/producteurs")
-    public ResponseEntity<?> getAllCommandeProducteur() {
-        return ResponseEntity.ok(commandeProducteurService.getCommandeProducteurs());
+    public ResponseEntity<?> getAllCommandeProducteur(@RequestParam(required = false) Long apres,
+                                                      @RequestParam(required = false) Long producteur,
+                                                      @RequestParam(required = false) Long detail,
+                                                      @RequestParam(defaultValue = "100") int taille) {
+        return commandeProducteurService.getCommandeProducteurs(apres, producteur, detail, taille).toResponseEntity();
     }
 
     /**
@@ -197,29 +287,27 @@ public class CommandeController {
 
 
     /**
-     * Cherche les commandeInfo par producteur et toutes les commandes details et producteur associées
+     * Cherche les commandeInfo par producteur et toutes les commandes details et producteur associées, page par page.
+     * Si une page suivante existe, son curseur est renvoyé dans l'en-tête X-Next-Cursor, à passer dans le parametre apres.
      *
-     * @param id
+     * @param id id du producteur
+     * @param apres curseur de la page, absent pour la premiere page
+     * @param depuis date de commande minimale incluse (yyyy-MM-dd)
+     * @param avant date de commande maximale exclue (yyyy-MM-dd)
+     * @param taille nombre de commandes par page
      * @return les CommandeInfo d'un producteur.
      */
     @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR') or hasRole('PRODUCTEUR')")
     @GetMapping("/commandesInfo/producteur/{id}")
-    public ResponseEntity<?> getCommandesInfoByProducteurId(@PathVariable Long id) {
-        //une commandeInfo est créée à partir d'une commande obligatoirement,si pas de commandes pas de commande info.
-        Optional<Commande> existingCommande = commandeService.getCommande(id);
-        if (existingCommande.isEmpty()) {
-            return ResponseEntity.badRequest().body("la commande n°" + id + " n'existe pas");
+    public ResponseEntity<?> getCommandesInfoByProducteurId(@PathVariable Long id,
+                                                            @RequestParam(required = false) Long apres,
+                                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date depuis,
+                                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date avant,
+                                                            @RequestParam(defaultValue = "100") int taille) {
+        if (producteurServices.getProducteurById(id).isEmpty()) {
+            return ResponseEntity.badRequest().body("le producteur n°" + id + " n'existe pas");
         }
-        //recupere toutes les commandes du producteur
-        Collection<Commande> commandes = (Collection<Commande>) commandeService.getAllCommandesByProd(id);
-        Collection<CommandeInfo> commandesInfo = new ArrayList<>();
-        //pour chaque commandes recupere les commandesDetails du producteur associe a la commande et les commandeProducteur aussi
-        for (Commande c : commandes) {
-            CommandeInfo oneCommandeInfo = new CommandeInfo(c, commandeDetailService, commandeProducteurService);
-            oneCommandeInfo.fillWithCommandeDetailsAndCommandeProducteurByPRodAndCommande(id);
-            commandesInfo.add(oneCommandeInfo);
-        }
-        return ResponseEntity.ok(commandesInfo);
+        return producerOrderQueueService.getCommandes(id, apres, depuis, avant, taille).toResponseEntity();
     }
 
     /**
@@ -231,68 +319,34 @@ public class CommandeController {
     @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
     @GetMapping("/commandes/info/{id}")
     public ResponseEntity<?> getOrderInfoById(@PathVariable Long id) {
-        if (!commandeService.getCommande(id).isPresent()) {
-            return ResponseEntity.badRequest().body("la commande n°" + id + " n'existe pas");
-        }
-
-        Commande commande = commandeService.getCommande(id).get();
-        Iterable<Produit> produits = produitService.getProductsByOrder(id);
-        Iterable<CommandeDetail> commandeDetails = commandeDetailService.getCommandeDetailByCommandeId(id);
-
-        ArrayList<OrderProductDetailsResponse> orderProductResponses = new ArrayList<>();
-
-
-        for (CommandeDetail commandeDetail : commandeDetails) {
-            ArrayList<OrderProductProducerResponse> orderProductProducerResponses = new ArrayList<>();
-            if (!produitService.getProduit(commandeDetail.getIdProduit()).isPresent()) {
-                return ResponseEntity.badRequest().body("le produit n°" + commandeDetail.getIdProduit() + " n'existe pas");
-            }
-            Produit produit = produitService.getProduit(commandeDetail.getIdProduit()).get();
-            Iterable<CommandeProducteur> commandeProducteurs = commandeProducteurService.getCommandesProducteurByCommandeDetail(commandeDetail.getId());
-            for (CommandeProducteur cp : commandeProducteurs) {
-                Optional<Producteur> producteur = producteurServices.getProducteurById(cp.getIdProducteur());
-                if (produit != null && producteur.isPresent()) {
-                    Producteur producteur1 = producteur.get();
-                    orderProductProducerResponses.add(new OrderProductProducerResponse(producteur1.getId_Producteur(), producteur1.getDescription(), producteur1.getTags(), producteur1.getLibelle(), producteur1.getAdresse(), producteur1.getMail(), producteur1.getRayon_Livraison(), cp.getQuantite()));
-                }
-            }
-
-            orderProductResponses.add(new OrderProductDetailsResponse(produit.getId(), produit.getLibelle(), produit.getTva(), produit.getReference(), produit.getOrigineProduction(), produit.getOrigineTransformation(), produit.getAgriculture(), produit.getTypeProduit(), produit.getConditionnement(), produit.getDluo(), produit.getPrix(), commandeDetail.getQuantite(), orderProductProducerResponses));
+        try {
+            return ResponseEntity.ok(orderDetailsQueryService.getOrderDetails(id));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         }
-
-        OrderDetailsResponse orderDetailsResponse = new OrderDetailsResponse(commande.getId(), commande.getIdClient(), commande.getDateCommande(), orderProductResponses);
-
-
-        return ResponseEntity.ok(orderDetailsResponse);
     }
 
     /**
      * Mise a jour totale de la commande, met le stock a jour
      *
      * @param id de la commande
+     * @param idempotencyKey en-tete Idempotency-Key facultatif, une requete rejouee avec la meme cle renvoie la premiere reponse
      * @return la nouvelle commande
      */
     @PreAuthorize("hasRole('Admin') or hasRole ('ORGANISATEUR')")
     @PutMapping("/commande/update/{id}")
-    public ResponseEntity<?> udateCommande(@PathVariable Long id, @RequestBody CommandeInfo commandeInfo) {
-        try {
-            //si la verification de l'update de la commande info est valide on enregistre tout dans la bd
-            //la save d'un objet déja existant dans la bd == update.
-            CommandeInfo commandeInfo1 = commandeService.verifCommandeInfoUpdate(commandeInfo);
-            System.out.println(commandeInfo1.getCommandesProducteur().isEmpty());
-            System.out.println(commandeInfo1.getCommandesDetails().isEmpty());
-            //les verifications sont passées pour l'update
-            commandeService.saveCommande(commandeInfo.getCommande());
-            for (CommandeDetail cd : commandeInfo.getCommandesDetails()) {
-                commandeDetailService.saveCommandeDetail(cd);
-            }
-            for (CommandeProducteur cp : commandeInfo.getCommandesProducteur()) {
-                commandeProducteurService.saveCommandeProducteur(cp);
+    public ResponseEntity<?> udateCommande(@PathVariable Long id, @RequestBody CommandeInfo commandeInfo,
+                                           @RequestHeader(value = IdempotenceService.EN_TETE, required = false) String idempotencyKey) throws Exception {
+        return idempotenceService.executer(idempotencyKey, "commande/update/" + id, commandeInfo, () -> {
+            try {
+                //l'id de la commande est celui de l'url
+                commandeInfo.getCommande().setId(id);
+                //verification puis enregistrement des seules lignes modifiees, avec l'ecart de stock
+                return ResponseEntity.ok().body(commandeService.mettreAJourCommande(commandeInfo));
+            } catch (Exception e) {
+                return ResponseEntity.badRequest().body(e.getMessage());
             }
-            return ResponseEntity.ok().body(commandeInfo);
-        } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
-        }
+        });
     }
 
 
@@ -301,35 +355,48 @@ public class CommandeController {
      * met a jour le stock des producteur, leur enleve la quantite du produit demandé.
      *
      * @param commandeInfo : la commandeInfo à verifier et enregistrer dans la bd.
+     * @param idempotencyKey en-tete Idempotency-Key facultatif, une requete rejouee avec la meme cle renvoie la premiere reponse
+     * @param idReservation en-tete Reservation-Panier facultatif, la reservation de panier est alors convertie en commande
      * @return la nouvelle commande
      */
     @PreAuthorize("hasRole('Admin') or hasRole ('ORGANISATEUR')")
     @PostMapping("/commande/save")
-    public ResponseEntity<?> saveCommande(@RequestBody CommandeInfo commandeInfo) throws Exception {
-        //try {
-        //on verifie que la commande n'existe pas deja
-
-        commandeService.commandeExist(commandeInfo.getCommande().getId());
-        if (commandeService.verifCommandeInfo(commandeInfo)) {
-            commandeService.saveCommande(commandeInfo.getCommande());
-            //enregistrement des commande details
-            for (CommandeDetail cd : commandeInfo.getCommandesDetails()) {
-                commandeDetailService.saveCommandeDetail(cd);
-            }
+    public ResponseEntity<?> saveCommande(@RequestBody CommandeInfo commandeInfo,
+                                          @RequestHeader(value = IdempotenceService.EN_TETE, required = false) String idempotencyKey,
+                                          @RequestHeader(value = ReservationPanierService.EN_TETE, required = false) String idReservation) throws Exception {
+        //verification, reservation du stock et enregistrement dans une seule transaction
+        return idempotenceService.executer(idempotencyKey, "commande/save", commandeInfo,
+                () -> ResponseEntity.ok().body(commandeService.placerCommande(commandeInfo, idReservation)));
+    }
 
-            //enregistrement des commandes producteurs/update du stock
-            for (CommandeProducteur cp : commandeInfo.getCommandesProducteur()) {
-                commandeProducteurService.saveCommandeProducteur(cp);
-                Optional<CommandeDetail> commandeDetail = commandeDetailService.getCommandeDetail(cp.getIdCommandeDetails());
-                if (commandeDetail.isPresent()) {
-                    producteurServices.updateQteProduit(cp.getIdProducteur(), commandeDetail.get().getIdProduit(), cp.getQuantite());
-                }
-            }
+    /**
+     * depose une nouvelle commande dans la file d'attente asynchrone.
+     * La commande sera verifiee et enregistree plus tard par un worker, comme avec /commande/save.
+     *
+     * @param commandeInfo : la commandeInfo à verifier et enregistrer dans la bd.
+     * @return 202 avec le ticket permettant de suivre le traitement de la commande
+     */
+    @PreAuthorize("hasRole('Admin') or hasRole ('ORGANISATEUR')")
+    @PostMapping("/commande/intake")
+    public ResponseEntity<?> deposerCommande(@RequestBody CommandeInfo commandeInfo) throws Exception {
+        CommandeIntake intake = commandeIntakeService.deposer(commandeInfo);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/commande/intake/" + intake.getTicket()))
+                .body(new IntakeResponse(intake));
+    }
 
+    /**
+     * @param ticket le ticket renvoyé lors du dépot de la commande
+     * @return l'etat de la commande : en attente, en cours, acceptee (avec l'id de la commande) ou rejetee (avec le motif)
+     */
+    @PreAuthorize("hasRole('Admin') or hasRole ('ORGANISATEUR')")
+    @GetMapping("/commande/intake/{ticket}")
+    public ResponseEntity<?> getIntake(@PathVariable String ticket) {
+        Optional<CommandeIntake> intake = commandeIntakeService.getByTicket(ticket);
+        if (intake.isEmpty()) {
+            return ResponseEntity.badRequest().body("le ticket " + ticket + " n'existe pas");
         }
-        return ResponseEntity.ok().body(commandeInfo);
-
-
+        return ResponseEntity.ok(new IntakeResponse(intake.get()));
     }
 
     /**
@@ -340,21 +407,24 @@ public class CommandeController {
      * Met a jour le stock
      *
      * @param id id de la commande a supprimer
+     * @param idempotencyKey en-tete Idempotency-Key facultatif, une requete rejouee avec la meme cle renvoie la premiere reponse
      * @return 204 si la ressource o ete supprime
      * @throws Exception si la commande n'existe pas dans la bd.
      */
     @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
     @DeleteMapping("/commandesInfo/delete/{id}")
-    public ResponseEntity<?> deletCommandeInfo(@PathVariable Long id) {
-        try {
-            CommandeInfo deletCommande = commandeService.getCommandeInfo(id);
-            commandeService.deletCommandeInfo(deletCommande.getCommande().getId());
-            return ResponseEntity.noContent().build();
+    public ResponseEntity<?> deletCommandeInfo(@PathVariable Long id,
+                                               @RequestHeader(value = IdempotenceService.EN_TETE, required = false) String idempotencyKey) throws Exception {
+        return idempotenceService.executer(idempotencyKey, "commandesInfo/delete", id, () -> {
+            try {
+                commandeService.deletCommandeInfo(id);
+                return ResponseEntity.noContent().build();
 
-        } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            } catch (Exception e) {
+                return ResponseEntity.badRequest().body(e.getMessage());
 
-        }
+            }
+        });
     }
 
     /**
@@ -0,0 +1,103 @@
+package com.lifat.CircuitsCourtsApi.controller;
+
+import com.lifat.CircuitsCourtsApi.model.EvenementOutbox;
+import com.lifat.CircuitsCourtsApi.service.evenement.AbonneEvenements;
+import com.lifat.CircuitsCourtsApi.service.evenement.FluxEvenements;
+import com.lifat.CircuitsCourtsApi.service.evenement.OutboxService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * end point des événements sur les commandes et les stocks, pour consommer les changements au lieu de relire les tables.
+ * Chaque événement a une séquence croissante et continue, qui sert d'offset pour reprendre la lecture.
+ * Les événements concernent tous les producteurs : seuls les administrateurs et les organisateurs les lisent.
+ * Les offsets des abonnés internes (AbonneEvenements) ne sont avancés que par le relais.
+ */
+@CrossOrigin(origins = "http://localhost:3000")
+@RestController
+@RequestMapping("/api")
+public class EvenementController {
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Autowired
+    private FluxEvenements fluxEvenements;
+
+    @Autowired(required = false)
+    private List<AbonneEvenements> abonnes = Collections.emptyList();
+
+    /**
+     * Lecture par lots des événements publiés.
+     *
+     * @param apres séquence du dernier événement deja lu, 0 pour tout relire
+     * @param limite nombre maximum d'événements
+     * @return les événements de séquence supérieure à apres, dans l'ordre
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
+    @GetMapping("/evenements")
+    public ResponseEntity<?> getEvenements(@RequestParam(defaultValue = "0") long apres, @RequestParam(defaultValue = "500") int limite) {
+        List<EvenementOutbox> evenements = outboxService.lire(apres, Math.max(1, Math.min(limite, 5000)));
+        return ResponseEntity.ok(evenements);
+    }
+
+    /**
+     * Flux SSE des événements.
+     *
+     * @param consommateur nom facultatif du consommateur, le flux reprend alors à son offset enregistré ; pas celui d'un
+     * abonné interne, son offset avancerait avec le flux
+     * @param lastEventId en-tête envoyé par le navigateur à la reconnexion, prioritaire sur l'offset du consommateur
+     * @param depuis séquence de départ, pour les clients qui ne gèrent pas Last-Event-ID
+     * @return le flux, sans paramètre seuls les nouveaux événements sont envoyés
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
+    @GetMapping(value = "/evenements/flux", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> getFlux(@RequestParam(required = false) String consommateur,
+                                     @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                                     @RequestParam(required = false) Long depuis) {
+        if (estAbonneInterne(consommateur)) {
+            return ResponseEntity.badRequest().body(refusAbonneInterne(consommateur));
+        }
+        SseEmitter flux = fluxEvenements.ouvrir(consommateur, lastEventId != null ? lastEventId : depuis);
+        return ResponseEntity.ok(flux);
+    }
+
+    /**
+     * @param consommateur nom du consommateur
+     * @return la séquence du dernier événement traité par le consommateur
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
+    @GetMapping("/evenements/offsets/{consommateur}")
+    public ResponseEntity<?> getOffset(@PathVariable String consommateur) {
+        return ResponseEntity.ok(outboxService.getOffset(consommateur));
+    }
+
+    /**
+     * Enregistre la séquence du dernier événement traité par un consommateur qui lit par GET /evenements.
+     * L'offset d'un abonné interne ne peut pas être modifié.
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
+    @PutMapping("/evenements/offsets/{consommateur}")
+    public ResponseEntity<?> enregistrerOffset(@PathVariable String consommateur, @RequestParam long sequence) {
+        if (estAbonneInterne(consommateur)) {
+            return ResponseEntity.badRequest().body(refusAbonneInterne(consommateur));
+        }
+        outboxService.enregistrerOffset(consommateur, sequence);
+        return ResponseEntity.noContent().build();
+    }
+
+    private boolean estAbonneInterne(String consommateur) {
+        return consommateur != null && abonnes.stream().anyMatch(abonne -> abonne.getNom().equals(consommateur));
+    }
+
+    private static String refusAbonneInterne(String consommateur) {
+        return consommateur + " est un abonne interne de l'api, son offset n'est avance que par le relais";
+    }
+}
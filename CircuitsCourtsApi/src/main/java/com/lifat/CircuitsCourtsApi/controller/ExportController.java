@@ -0,0 +1,79 @@
+package com.lifat.CircuitsCourtsApi.controller;
+
+import com.lifat.CircuitsCourtsApi.service.export.ExportCommandesService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * End point d'export des commandes pour les traitements de reporting, à la place de la lecture page par page.
+ * Les lignes sont envoyées au fil de la lecture en bd, en NDJSON (un objet json par ligne) ou en CSV.
+ * Le type de retour doit rester ResponseEntity<StreamingResponseBody> pour que spring écrive la réponse en asynchrone.
+ */
+@CrossOrigin(origins = "http://localhost:3000")
+@RestController
+@RequestMapping("/api/export")
+public class ExportController {
+
+    @Autowired
+    private ExportCommandesService exportCommandesService;
+
+    /**
+     * @param format ndjson ou csv
+     * @param depuis date de commande minimale incluse (yyyy-MM-dd)
+     * @param avant date de commande maximale exclue (yyyy-MM-dd)
+     * @return toutes les commandes par id croissant
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
+    @GetMapping("/commandes")
+    public ResponseEntity<StreamingResponseBody> exporterCommandes(@RequestParam(defaultValue = "ndjson") String format,
+                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date depuis,
+                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date avant) {
+        return exporter(ExportCommandesService.Donnees.COMMANDES, format, depuis, avant);
+    }
+
+    /**
+     * @return toutes les commandesDetails par id croissant, filtrées sur la date de leur commande
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
+    @GetMapping("/commandes/details")
+    public ResponseEntity<StreamingResponseBody> exporterCommandesDetails(@RequestParam(defaultValue = "ndjson") String format,
+                                                      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date depuis,
+                                                      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date avant) {
+        return exporter(ExportCommandesService.Donnees.DETAILS, format, depuis, avant);
+    }
+
+    /**
+     * @return toutes les commandesProducteur par id croissant, filtrées sur la date de leur commande
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
+    @GetMapping("/commandes/producteurs")
+    public ResponseEntity<StreamingResponseBody> exporterCommandesProducteur(@RequestParam(defaultValue = "ndjson") String format,
+                                                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date depuis,
+                                                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date avant) {
+        return exporter(ExportCommandesService.Donnees.COMMANDES_PRODUCTEUR, format, depuis, avant);
+    }
+
+    private ResponseEntity<StreamingResponseBody> exporter(ExportCommandesService.Donnees donnees, String format, Date depuis, Date avant) {
+        ExportCommandesService.Format formatExport;
+        try {
+            formatExport = ExportCommandesService.Format.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            String message = "format inconnu : " + format + ", formats possibles : ndjson, csv";
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN)
+                    .body(sortie -> sortie.write(message.getBytes(StandardCharsets.UTF_8)));
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(formatExport.getContentType() + ";charset=UTF-8"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + donnees.getNom() + "." + formatExport.getExtension() + "\"")
+                .body(exportCommandesService.exporter(donnees, formatExport, depuis, avant));
+    }
+}
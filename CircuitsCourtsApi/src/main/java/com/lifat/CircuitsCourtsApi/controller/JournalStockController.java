@@ -0,0 +1,96 @@
+package com.lifat.CircuitsCourtsApi.controller;
+
+import com.lifat.CircuitsCourtsApi.payload.response.HistoriqueStockResponse;
+import com.lifat.CircuitsCourtsApi.service.stock.CleStock;
+import com.lifat.CircuitsCourtsApi.service.stock.JournalStock;
+import com.lifat.CircuitsCourtsApi.service.stock.ReconciliationStockService;
+import com.lifat.CircuitsCourtsApi.service.stock.RejeuStockService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Date;
+
+/**
+ * end point du journal des mouvements de stock : historique d'un produit chez un producteur, reconstruction du stock
+ * et réconciliation du stock avec les commandes.
+ */
+@CrossOrigin(origins = "http://localhost:3000")
+@RestController
+@RequestMapping("/api")
+public class JournalStockController {
+
+    @Autowired
+    private JournalStock journalStock;
+
+    @Autowired
+    private RejeuStockService rejeuStockService;
+
+    @Autowired
+    private ReconciliationStockService reconciliationStockService;
+
+    /**
+     * @param depuis date minimale des mouvements (ISO), tout le journal conservé par défaut
+     * @param limite nombre maximum de mouvements
+     * @return les mouvements du produit chez le producteur, du plus ancien au plus récent, et son stock d'après le journal
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR') or hasRole('PRODUCTEUR')")
+    @GetMapping("/stock/journal/{idProducteur}/{idProduit}")
+    public ResponseEntity<?> getHistorique(@PathVariable Long idProducteur, @PathVariable Long idProduit,
+                                           @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date depuis,
+                                           @RequestParam(defaultValue = "1000") int limite) {
+        if (!journalStock.isActif()) {
+            return ResponseEntity.badRequest().body("le journal de stock n'est pas actif");
+        }
+        long cle = CleStock.de(idProducteur, idProduit);
+        return ResponseEntity.ok(new HistoriqueStockResponse(idProducteur, idProduit, journalStock.stock(cle),
+                journalStock.historique(cle, depuis, Math.max(1, Math.min(limite, 100000)))));
+    }
+
+    /**
+     * Reconstruit le stock depuis le journal.
+     *
+     * @param jusqua date de l'état à reconstruire (ISO), l'état actuel du journal par défaut
+     * @param appliquer false pour seulement compter les couples dont le stock diffère
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/stock/journal/rejeu")
+    public ResponseEntity<?> rejouer(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date jusqua,
+                                     @RequestParam(defaultValue = "false") boolean appliquer) {
+        try {
+            return ResponseEntity.ok(rejeuStockService.rejouer(jusqua, appliquer));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * Enregistre tout de suite un instantané du journal et supprime les segments devenus inutiles.
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/stock/journal/instantane")
+    public ResponseEntity<?> instantane() {
+        if (!journalStock.isActif()) {
+            return ResponseEntity.badRequest().body("le journal de stock n'est pas actif");
+        }
+        journalStock.instantane();
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Compare le stock de chaque couple producteur/produit au stock attendu d'après sa référence et ses commandes.
+     *
+     * @param reparer true pour corriger les couples divergents
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/stock/reconciliation")
+    public ResponseEntity<?> reconcilier(@RequestParam(defaultValue = "false") boolean reparer) {
+        try {
+            return ResponseEntity.ok(reconciliationStockService.reconcilier(reparer));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+}
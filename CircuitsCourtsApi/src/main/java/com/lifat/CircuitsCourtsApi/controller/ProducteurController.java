@@ -2,16 +2,22 @@ package com.lifat.CircuitsCourtsApi.controller;
 
 import com.lifat.CircuitsCourtsApi.model.*;
 import com.lifat.CircuitsCourtsApi.payload.response.ProducteursProduitResponse;
+import com.lifat.CircuitsCourtsApi.service.ClientService;
 import com.lifat.CircuitsCourtsApi.service.CommandeService;
 import com.lifat.CircuitsCourtsApi.service.ProducteurServices;
-import com.lifat.CircuitsCourtsApi.service.ProduitProducteurService;
 import com.lifat.CircuitsCourtsApi.service.ProduitService;
+import com.lifat.CircuitsCourtsApi.service.disponibilite.DisponibiliteService;
+import com.lifat.CircuitsCourtsApi.service.livraison.IndexLivraison;
+import com.lifat.CircuitsCourtsApi.service.stock.ImportStockService;
+import com.lifat.CircuitsCourtsApi.service.stock.StockService;
 import org.apache.coyote.Response;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.InputStream;
 import java.util.*;
 
 @CrossOrigin(origins = "http://localhost:3000")
@@ -33,12 +39,26 @@ public class ProducteurController {
     private CommandeService commandeService;
 
     @Autowired
-    private ProduitProducteurService produitProducteurService;
+    private DisponibiliteService disponibiliteService;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private ImportStockService importStockService;
+
+    @Autowired
+    private ClientService clientService;
+
+    @Autowired
+    private IndexLivraison indexLivraison;
 
     @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
     @GetMapping("/producteurs")
-    public Iterable<Producteur> getAllProducteurs() {
-        return producteurServices.getAllProducteurs();
+    public ResponseEntity<List<Producteur>> getAllProducteurs(@RequestParam(required = false) Long apres,
+                                                              @RequestParam(required = false) Long produit,
+                                                              @RequestParam(defaultValue = "100") int taille) {
+        return producteurServices.getAllProducteurs(apres, produit, taille).toResponseEntity();
     }
 
     @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
@@ -79,40 +99,62 @@ public class ProducteurController {
     @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
     @GetMapping("/producteurs/produit/{idProduit}")
     public ResponseEntity<?> getProdByProduits(@PathVariable Long idProduit) {
-        Produit existingProduit = produitService.getProduit(idProduit).isPresent() ? produitService.getProduit(idProduit).get() : null;
-
-        if (existingProduit == null) {
+        //une seule lecture dans le cache des disponibilites, une requete seulement si le produit n'y est pas
+        List<ProducteursProduitResponse> producteursProduitResponses = disponibiliteService.getDisponibilites(idProduit);
+        if (producteursProduitResponses == null) {
             return ResponseEntity.badRequest().body("le produit n°" + idProduit + " n'existe pas.");
         }
+        return ResponseEntity.ok().body(producteursProduitResponses);
+    }
 
-        Collection<Producteur> producteurs = producteurServices.getAllProducteurdByProduits(idProduit);
-
-        ArrayList<ProducteursProduitResponse> producteursProduitResponses = new ArrayList<>();
-
-        producteurs.forEach(producteur -> {
-            ProduitProducteurId id = new ProduitProducteurId(existingProduit.getId(), producteur.getId_Producteur());
-            ProduitsProducteurs produitsProducteurs = produitProducteurService.getById(id).get();
-            ProducteursProduitResponse producteursProduitResponse = new ProducteursProduitResponse();
-
-            producteursProduitResponse.setId(producteur.getId_Producteur());
-            producteursProduitResponse.setNom(producteur.getLibelle());
-            producteursProduitResponse.setDescription(producteur.getDescription());
-            producteursProduitResponse.setTags(producteur.getTags());
-            producteursProduitResponse.setAdresse(producteur.getAdresse());
-            producteursProduitResponse.setMail(producteur.getMail());
-            producteursProduitResponse.setRayonLivraison(producteur.getRayon_Livraison());
-            producteursProduitResponse.setLatitude(producteur.getLatitude());
-            producteursProduitResponse.setLongitude(producteur.getLongitude());
-            producteursProduitResponse.setIdProduit(existingProduit.getId());
-            producteursProduitResponse.setLibelle(existingProduit.getLibelle());
-            producteursProduitResponse.setQuantite(produitsProducteurs.getQuantite());
-
-            producteursProduitResponses.add(producteursProduitResponse);
-        });
 
-        return ResponseEntity.ok().body(producteursProduitResponses);
+    /**
+     * Renvoi les producteurs qui peuvent livrer le client, du plus proche au plus eloigne.
+     *
+     * @param client  id du client
+     * @param produit si present, seuls les producteurs qui ont ce produit en stock
+     * @param limite  si present, les limite producteurs les plus proches
+     * @return la liste des producteurs avec leur distance au client
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
+    @GetMapping("/producteurs/livrables")
+    public ResponseEntity<?> getProducteursLivrables(@RequestParam Long client,
+                                                     @RequestParam(required = false) Long produit,
+                                                     @RequestParam(required = false) Integer limite) {
+        Optional<Client> existingClient = clientService.getClient(client);
+        if (existingClient.isEmpty()) {
+            return ResponseEntity.badRequest().body("le client n°" + client + " n'existe pas.");
+        }
+        try {
+            return ResponseEntity.ok().body(indexLivraison.getLivrables(existingClient.get(), produit, limite));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
     }
 
+    /**
+     * Renvoi les k producteurs les plus proches du client, qu'ils le livrent ou non.
+     *
+     * @param client  id du client
+     * @param produit si present, seuls les producteurs qui ont ce produit en stock
+     * @param k       nombre de producteurs
+     * @return la liste des producteurs avec leur distance au client
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
+    @GetMapping("/producteurs/proches")
+    public ResponseEntity<?> getProducteursProches(@RequestParam Long client,
+                                                   @RequestParam(required = false) Long produit,
+                                                   @RequestParam(defaultValue = "10") int k) {
+        Optional<Client> existingClient = clientService.getClient(client);
+        if (existingClient.isEmpty()) {
+            return ResponseEntity.badRequest().body("le client n°" + client + " n'existe pas.");
+        }
+        try {
+            return ResponseEntity.ok().body(indexLivraison.getPlusProches(existingClient.get(), produit, Math.min(k, 1000)));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
 
     /**
      * update la quantité d'un produit d'un producteur avec un put(update complete)
@@ -130,18 +172,46 @@ public class ProducteurController {
         if (existingProd.isEmpty() || existingProduit.isEmpty()) {
             return ResponseEntity.badRequest().body("le producteur n°" + id + "n'existe pas ou le produit n°" + produit.getId() + " n'existe pas");
         }
-        //recupere le produit producteur et modifie la quantite via son produitProducteurId
-        ProduitProducteurId produitProducteurId = new ProduitProducteurId(produit.getId(), id);
-        Optional<ProduitsProducteurs> pp = produitProducteurService.getById(produitProducteurId);
-        if (pp.isPresent()) {
-            pp.get().setQuantite(stock);
-            produitProducteurService.save(pp.get());
+        //modifie la quantite du produit producteur, dans le registre de stock s'il est actif
+        if (stockService.definir(id, produit.getId(), stock)) {
             //renvoi la nouvelle quantité du produit pour ce producteur
-            return ResponseEntity.ok().body(pp.get().getQuantite());
+            return ResponseEntity.ok().body(stock);
         }
         return ResponseEntity.badRequest().build();
     }
 
+    /**
+     * met a jour le stock de plusieurs produits d'un producteur en une requete, a partir d'un fichier envoye dans le corps.
+     * Les produits sont designes par leur reference, les produits que le producteur n'avait pas encore sont ajoutes.
+     *
+     * @param id     id du producteur
+     * @param format csv ou ndjson, deduit du Content-Type s'il est absent
+     * @param corps  le fichier, une ligne par produit : reference;quantite en csv, {"reference": ..., "quantite": ...} en ndjson
+     * @return le rapport de l'import, avec les lignes refusees et leur motif
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR') or hasRole ('PRODUCTEUR')")
+    @PostMapping("/producteur/produit/stock/{id}")
+    public ResponseEntity<?> importerStock(@PathVariable Long id,
+                                           @RequestParam(required = false) String format,
+                                           @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType,
+                                           InputStream corps) {
+        ImportStockService.Format formatImport;
+        if (format != null) {
+            try {
+                formatImport = ImportStockService.Format.valueOf(format.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body("format inconnu : " + format + ", formats possibles : csv, ndjson");
+            }
+        } else {
+            formatImport = contentType != null && contentType.contains("json") ? ImportStockService.Format.NDJSON : ImportStockService.Format.CSV;
+        }
+        try {
+            return ResponseEntity.ok(importStockService.importer(id, formatImport, corps));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
 
     /**
      * Renvoi tous les producteurs qui ont cette commande
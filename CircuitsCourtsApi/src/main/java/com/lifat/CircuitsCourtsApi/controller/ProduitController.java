@@ -35,13 +35,18 @@ public class ProduitController {
 
 
     /**
-     * Envoi de tous les produits
-     * @return tous les produits de la bd
+     * Envoi des produits page par page, par id croissant
+     * @param apres curseur de la page, absent pour la premiere page
+     * @param producteur seuls les produits de ce producteur
+     * @param taille nombre de produits par page
+     * @return les produits de la page, curseur suivant dans l'en-tête X-Next-Cursor
      */
     @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
     @GetMapping("/produits")
-    public ResponseEntity<?> getProduits() {
-        return ResponseEntity.ok(produitService.getProduits());
+    public ResponseEntity<?> getProduits(@RequestParam(required = false) Long apres,
+                                         @RequestParam(required = false) Long producteur,
+                                         @RequestParam(defaultValue = "100") int taille) {
+        return produitService.getProduits(apres, producteur, taille).toResponseEntity();
     }
 
     /**
@@ -0,0 +1,63 @@
+package com.lifat.CircuitsCourtsApi.controller;
+
+import com.lifat.CircuitsCourtsApi.payload.request.CartHoldRequest;
+import com.lifat.CircuitsCourtsApi.service.reservation.ReservationPanierService;
+import com.lifat.CircuitsCourtsApi.service.stock.StockInsuffisantException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * end point des réservations de panier : le stock est retenu pendant quelques minutes, puis converti en commande
+ * par POST /api/commande/save avec l'en-tête Reservation-Panier, ou rendu à l'expiration.
+ */
+@CrossOrigin(origins = "http://localhost:3000")
+@RestController
+@RequestMapping("/api")
+public class ReservationPanierController {
+
+    @Autowired
+    private ReservationPanierService reservationPanierService;
+
+    /**
+     * @param request les lignes du panier
+     * @return 201 avec l'id et la date d'expiration de la réservation, 409 si le stock d'une ligne ne suffit pas
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
+    @PostMapping("/reservations")
+    public ResponseEntity<?> reserver(@RequestBody CartHoldRequest request) {
+        try {
+            return ResponseEntity.status(HttpStatus.CREATED).body(reservationPanierService.reserver(request));
+        } catch (StockInsuffisantException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
+    @GetMapping("/reservations/{id}")
+    public ResponseEntity<?> getReservation(@PathVariable String id) {
+        try {
+            return ResponseEntity.ok(reservationPanierService.getReservation(id));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * Annule la réservation, son stock est rendu tout de suite.
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR')")
+    @DeleteMapping("/reservations/{id}")
+    public ResponseEntity<?> liberer(@PathVariable String id) {
+        try {
+            reservationPanierService.liberer(id);
+            return ResponseEntity.noContent().build();
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.lifat.CircuitsCourtsApi.controller;
+
+import com.lifat.CircuitsCourtsApi.payload.response.RoutageResponse;
+import com.lifat.CircuitsCourtsApi.service.routage.DistancesRoutieres;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * end point du reseau routier local (distances par la route).
+ */
+@CrossOrigin(origins = "http://localhost:3000")
+@RestController
+@RequestMapping("/api")
+public class RoutageController {
+
+    @Autowired
+    private DistancesRoutieres distancesRoutieres;
+
+    /**
+     * @return le fichier OSM, l'etat du chargement et la taille du reseau charge
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/routage")
+    public ResponseEntity<RoutageResponse> getStatut() {
+        return ResponseEntity.ok(distancesRoutieres.statut());
+    }
+
+    /**
+     * Relance le chargement du reseau routier, apres le remplacement du fichier OSM par exemple. Le chargement se fait
+     * en tache de fond, son avancement est donne par GET /routage.
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/routage/recharger")
+    public ResponseEntity<?> recharger() {
+        if (!distancesRoutieres.recharger()) {
+            return ResponseEntity.badRequest().body("aucun fichier OSM configure, ou chargement deja en cours");
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(distancesRoutieres.statut());
+    }
+}
@@ -0,0 +1,78 @@
+package com.lifat.CircuitsCourtsApi.controller;
+
+import com.lifat.CircuitsCourtsApi.service.ventes.VentesService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+
+/**
+ * End point des ventes agrégées par jour et par semaine, pour les tableaux de bord.
+ * Seules les tables d'agrégats sont lues, jamais les commandes.
+ */
+@CrossOrigin(origins = "http://localhost:3000")
+@RestController
+@RequestMapping("/api")
+public class VenteController {
+
+    @Autowired
+    private VentesService ventesService;
+
+    /**
+     * @param produit seules les ventes de ce produit
+     * @param producteur seules les ventes de ce producteur
+     * @param depuis premier jour inclus (yyyy-MM-dd), 30 jours avant avant par défaut
+     * @param avant dernier jour exclu (yyyy-MM-dd), demain par défaut
+     * @return les quantités vendues par jour, produit et producteur
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR') or hasRole('PRODUCTEUR')")
+    @GetMapping("/ventes/jours")
+    public ResponseEntity<?> getVentesParJour(@RequestParam(required = false) Long produit,
+                                              @RequestParam(required = false) Long producteur,
+                                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate depuis,
+                                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate avant) {
+        LocalDate fin = avant != null ? avant : LocalDate.now().plusDays(1);
+        LocalDate debut = depuis != null ? depuis : fin.minusDays(30);
+        return ResponseEntity.ok(ventesService.lire(VentesService.Periode.JOUR, produit, producteur, debut, fin));
+    }
+
+    /**
+     * @param produit seules les ventes de ce produit
+     * @param producteur seules les ventes de ce producteur
+     * @param depuis date de la première semaine incluse (yyyy-MM-dd), 12 semaines avant avant par défaut
+     * @param avant date de fin exclue (yyyy-MM-dd), demain par défaut
+     * @return les quantités vendues par semaine, produit et producteur ; le début d'une semaine est son lundi
+     */
+    @PreAuthorize("hasRole('ADMIN') or hasRole('ORGANISATEUR') or hasRole('PRODUCTEUR')")
+    @GetMapping("/ventes/semaines")
+    public ResponseEntity<?> getVentesParSemaine(@RequestParam(required = false) Long produit,
+                                                 @RequestParam(required = false) Long producteur,
+                                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate depuis,
+                                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate avant) {
+        LocalDate fin = avant != null ? avant : LocalDate.now().plusDays(1);
+        LocalDate debut = depuis != null ? depuis : fin.minusWeeks(12);
+        return ResponseEntity.ok(ventesService.lire(VentesService.Periode.SEMAINE, produit, producteur, debut, fin));
+    }
+
+    /**
+     * Recalcule les agrégats depuis les commandes, pour une reprise d'historique.
+     * Sans date, toutes les semaines où il y a des commandes sont recalculées.
+     *
+     * @return le nombre de semaines recalculées
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/ventes/reconstruction")
+    public ResponseEntity<?> reconstruire(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate depuis,
+                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate avant) {
+        if (depuis == null && avant == null) {
+            return ResponseEntity.ok(ventesService.reconstruireTout());
+        }
+        if (depuis == null || avant == null || !depuis.isBefore(avant)) {
+            return ResponseEntity.badRequest().body("depuis et avant doivent etre renseignes ensemble, avec depuis < avant");
+        }
+        return ResponseEntity.ok(ventesService.reconstruire(depuis, avant));
+    }
+}
@@ -36,12 +36,14 @@ public class UserController {
     PasswordEncoder passwordEncoder;
 
     /**
-     * @return tous les users de la BD
+     * @param apres curseur de la page, absent pour la premiere page
+     * @param taille nombre de users par page
+     * @return les users de la BD page par page, curseur suivant dans l'en-tête X-Next-Cursor
      */
     @PreAuthorize("hasRole('ADMIN')")
     @GetMapping("/users")
-    public ResponseEntity<?> getUsers() {
-        return ResponseEntity.ok(userService.findAll());
+    public ResponseEntity<?> getUsers(@RequestParam(required = false) Long apres, @RequestParam(defaultValue = "100") int taille) {
+        return userService.findAll(apres, taille).toResponseEntity();
     }
 
     /**
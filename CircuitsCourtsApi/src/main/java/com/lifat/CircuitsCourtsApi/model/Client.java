@@ -12,7 +12,7 @@ import java.util.Collection;
 
 @Data
 @Entity
-@Table(name = "clients")
+@Table(name = "clients", indexes = @Index(name = "idx_clients_code_postal", columnList = "code_postal"))
 public class Client {
 
     @Id
@@ -22,10 +22,16 @@ import java.util.Date;
 @AllArgsConstructor
 @Entity
 @EntityListeners(AuditingEntityListener.class)
-@Table(name = "commandes")
+@Table(name = "commandes", indexes = {
+        @Index(name = "idx_commandes_client_date", columnList = "id_client, date_commande, id"),
+        @Index(name = "idx_commandes_date_id", columnList = "date_commande, id")
+})
 public class Commande {
+    //ids reserves par blocs de 50 dans id_generateurs, contrairement a IDENTITY hibernate peut alors grouper les INSERT
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "commandes_gen")
+    @TableGenerator(name = "commandes_gen", table = "id_generateurs", pkColumnName = "nom", valueColumnName = "valeur",
+            pkColumnValue = "commandes", allocationSize = 50)
     private Long id;
 
     @Column(name = "id_client")
@@ -11,14 +11,19 @@ import lombok.NoArgsConstructor;
 @Data
 @NoArgsConstructor
 @Entity
-@Table(name = "commande_details")
+@Table(name = "commande_details", indexes = {
+        @Index(name = "idx_commande_details_commande", columnList = "id_commande"),
+        @Index(name = "idx_commande_details_produit", columnList = "id_produit")
+})
 /**
  * Le détail d'une correspond un produit de la commande et sa quantité, il peut y avoir plusieurs CommandeDetail par Commande.
  */
 public class CommandeDetail {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "commande_details_gen")
+    @TableGenerator(name = "commande_details_gen", table = "id_generateurs", pkColumnName = "nom", valueColumnName = "valeur",
+            pkColumnValue = "commande_details", allocationSize = 50)
     private Long id;
 
     @Column(name = "id_commande")
@@ -0,0 +1,62 @@
+package com.lifat.CircuitsCourtsApi.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.util.Date;
+
+/**
+ * Une CommandeInfo deposee dans la file d'attente asynchrone (POST /api/commande/intake).
+ * La commandeInfo est gardee telle qu'elle a ete recue, en json, jusqu'a ce qu'un worker la verifie et l'enregistre.
+ * Le ticket est communique au client pour qu'il puisse suivre le traitement.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "commandes_intake", indexes = {
+        @Index(name = "idx_commandes_intake_ticket", columnList = "ticket", unique = true),
+        @Index(name = "idx_commandes_intake_statut", columnList = "statut, id")
+})
+public class CommandeIntake {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "ticket", length = 36)
+    @NotNull
+    private String ticket;
+
+    @Column(name = "payload", columnDefinition = "MEDIUMTEXT")
+    @NotNull
+    private String payload;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "statut", length = 20)
+    @NotNull
+    private EStatutIntake statut;
+
+    @Column(name = "motif", length = 2000)
+    private String motif;
+
+    @Column(name = "id_commande")
+    private Long idCommande;
+
+    @Column(name = "date_reception")
+    private Date dateReception;
+
+    @Column(name = "date_prise")
+    private Date datePrise;
+
+    @Column(name = "date_traitement")
+    private Date dateTraitement;
+
+    public CommandeIntake(String ticket, String payload) {
+        this.ticket = ticket;
+        this.payload = payload;
+        this.statut = EStatutIntake.EN_ATTENTE;
+        this.dateReception = new Date();
+    }
+}
@@ -10,7 +10,10 @@ import lombok.NoArgsConstructor;
 
 @Data
 @Entity
-@Table(name = "commande_producteur")
+@Table(name = "commande_producteur", indexes = {
+        @Index(name = "idx_commande_producteur_producteur", columnList = "id_producteur, id_commande_details"),
+        @Index(name = "idx_commande_producteur_detail", columnList = "id_commande_details")
+})
 @NoArgsConstructor
 /**
  * L'objet CommandeProducteur est la partie de la commande destinée à un producteur.
@@ -21,7 +24,9 @@ import lombok.NoArgsConstructor;
 public class CommandeProducteur {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "commande_producteur_gen")
+    @TableGenerator(name = "commande_producteur_gen", table = "id_generateurs", pkColumnName = "nom", valueColumnName = "valeur",
+            pkColumnValue = "commande_producteur", allocationSize = 50)
     private Long id;
 
     @Column(name = "id_commande_details")
@@ -0,0 +1,11 @@
+package com.lifat.CircuitsCourtsApi.model;
+
+/**
+ * Etat d'une commande deposee dans la file d'attente asynchrone.
+ */
+public enum EStatutIntake {
+    EN_ATTENTE,
+    EN_COURS,
+    ACCEPTEE,
+    REJETEE,
+}
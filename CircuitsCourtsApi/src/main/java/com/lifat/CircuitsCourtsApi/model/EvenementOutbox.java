@@ -0,0 +1,63 @@
+package com.lifat.CircuitsCourtsApi.model;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.util.Date;
+
+/**
+ * Un changement sur une commande ou sur un stock, écrit dans la même transaction que le changement lui-même.
+ *
+ * L'id donne l'ordre d'écriture. La séquence est attribuée par le relais au moment de la publication :
+ * elle est continue et croissante, c'est elle que les consommateurs utilisent comme offset.
+ * Tant que la séquence est nulle, l'événement n'est pas encore publié.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "outbox_evenements", indexes = {
+        @Index(name = "idx_outbox_evenements_sequence", columnList = "sequence", unique = true)
+})
+public class EvenementOutbox {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "sequence")
+    private Long sequence;
+
+    @Column(name = "type", length = 50)
+    @NotNull
+    private String type;
+
+    //COMMANDE ou STOCK
+    @Column(name = "agregat", length = 20)
+    @NotNull
+    private String agregat;
+
+    //id de la commande, ou CleStock du couple producteur/produit
+    @Column(name = "id_agregat")
+    private Long idAgregat;
+
+    @JsonRawValue
+    @Column(name = "payload", columnDefinition = "MEDIUMTEXT")
+    private String payload;
+
+    @Column(name = "date_creation")
+    private Date dateCreation;
+
+    @Column(name = "date_publication")
+    private Date datePublication;
+
+    public EvenementOutbox(String type, String agregat, Long idAgregat, String payload) {
+        this.type = type;
+        this.agregat = agregat;
+        this.idAgregat = idAgregat;
+        this.payload = payload;
+        this.dateCreation = new Date();
+    }
+}
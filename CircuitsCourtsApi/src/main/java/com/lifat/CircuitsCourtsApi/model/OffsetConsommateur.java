@@ -0,0 +1,29 @@
+package com.lifat.CircuitsCourtsApi.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * La dernière séquence d'événement traitée par un consommateur nommé, pour qu'il reprenne là où il s'est arrêté.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "offsets_consommateurs")
+public class OffsetConsommateur {
+
+    @Id
+    @Column(name = "consommateur", length = 100)
+    private String consommateur;
+
+    @Column(name = "sequence")
+    private Long sequence;
+
+    @Column(name = "date_maj")
+    private Date dateMaj;
+}
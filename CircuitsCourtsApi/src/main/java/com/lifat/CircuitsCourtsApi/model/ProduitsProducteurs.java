@@ -5,7 +5,7 @@ import javax.persistence.*;
 
 @Data
 @Entity
-@Table(name = "produits_producteurs")
+@Table(name = "produits_producteurs", indexes = @Index(name = "idx_produits_producteurs_producteur", columnList = "id_producteur"))
 public class ProduitsProducteurs {
     @EmbeddedId
     private ProduitProducteurId id;
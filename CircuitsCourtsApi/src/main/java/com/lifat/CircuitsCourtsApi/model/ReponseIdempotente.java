@@ -0,0 +1,49 @@
+package com.lifat.CircuitsCourtsApi.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.util.Date;
+
+/**
+ * La réponse envoyée à une requête portant un en-tête Idempotency-Key.
+ * Une requête rejouée avec la même clé reçoit cette réponse sans être exécutée de nouveau, jusqu'à la date d'expiration.
+ * Tant que la première requête n'est pas terminée la ligne existe avec termine = false, ce qui réserve la clé.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "reponses_idempotentes", indexes = @Index(name = "idx_reponses_idempotentes_expiration", columnList = "date_expiration"))
+public class ReponseIdempotente {
+
+    //operation + ':' + Idempotency-Key
+    @Id
+    @Column(name = "cle", length = 300)
+    private String cle;
+
+    //sha-256 du corps de la requete, une meme cle ne peut pas servir pour deux requetes differentes
+    @Column(name = "empreinte", length = 64)
+    @NotNull
+    private String empreinte;
+
+    @Column(name = "termine")
+    private boolean termine;
+
+    @Column(name = "code_http")
+    private Integer codeHttp;
+
+    @Column(name = "corps", columnDefinition = "MEDIUMTEXT")
+    private String corps;
+
+    //true si le corps est du json, false si c'est un simple message texte
+    @Column(name = "json")
+    private boolean json;
+
+    @Column(name = "date_creation")
+    private Date dateCreation;
+
+    @Column(name = "date_expiration")
+    private Date dateExpiration;
+}
@@ -0,0 +1,47 @@
+package com.lifat.CircuitsCourtsApi.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Une ligne d'une réservation de panier : une quantité d'un produit retirée du stock d'un producteur
+ * jusqu'à l'enregistrement de la commande ou jusqu'à l'expiration de la réservation.
+ * Toutes les lignes d'une réservation ont le même idReservation et la même date d'expiration.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "reservations_panier", indexes = {
+        @Index(name = "idx_reservations_panier_reservation", columnList = "id_reservation"),
+        @Index(name = "idx_reservations_panier_expiration", columnList = "date_expiration"),
+        @Index(name = "idx_reservations_panier_couple", columnList = "id_producteur, id_produit")
+})
+public class ReservationPanier {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "id_reservation", length = 36, nullable = false)
+    private String idReservation;
+
+    @Column(name = "id_producteur", nullable = false)
+    private Long idProducteur;
+
+    @Column(name = "id_produit", nullable = false)
+    private Long idProduit;
+
+    @Column(name = "quantite", nullable = false)
+    private Float quantite;
+
+    @Column(name = "date_creation")
+    private Date dateCreation;
+
+    @Column(name = "date_expiration", nullable = false)
+    private Date dateExpiration;
+}
@@ -0,0 +1,31 @@
+package com.lifat.CircuitsCourtsApi.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Stock total d'un produit chez un producteur : la quantité disponible plus les quantités attribuées aux commandes
+ * (archivées comprises) et aux réservations de panier. Il ne change que quand le stock est fixé à la main ;
+ * le stock disponible attendu est donc quantiteTotale moins les quantités attribuées.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "stock_reference", indexes = @Index(name = "idx_stock_reference_producteur", columnList = "id_producteur"))
+public class StockReference {
+
+    @EmbeddedId
+    private ProduitProducteurId id;
+
+    //en double : c'est une somme de quantites, qui depasse vite la precision d'un float
+    @Column(name = "quantite_totale", nullable = false)
+    private Double quantiteTotale;
+
+    @Column(name = "date_reference")
+    private Date dateReference;
+}
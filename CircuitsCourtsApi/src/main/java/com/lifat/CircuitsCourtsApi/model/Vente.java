@@ -0,0 +1,33 @@
+package com.lifat.CircuitsCourtsApi.model;
+
+import lombok.Data;
+
+import javax.persistence.Column;
+import javax.persistence.Id;
+import javax.persistence.MappedSuperclass;
+import java.time.LocalDate;
+
+/**
+ * Quantité d'un produit vendue par un producteur sur une période, somme des quantités des commandesProducteur
+ * des commandes passées pendant la période.
+ */
+@Data
+@MappedSuperclass
+public abstract class Vente {
+
+    //premier jour de la periode (UTC, comme les dates des commandes en bd)
+    @Id
+    @Column(name = "debut")
+    private LocalDate debut;
+
+    @Id
+    @Column(name = "id_produit")
+    private Long idProduit;
+
+    @Id
+    @Column(name = "id_producteur")
+    private Long idProducteur;
+
+    @Column(name = "quantite", nullable = false)
+    private Double quantite;
+}
@@ -0,0 +1,25 @@
+package com.lifat.CircuitsCourtsApi.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * Clé des tables de ventes agrégées : début de la période, produit, producteur.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VenteId implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private LocalDate debut;
+
+    private Long idProduit;
+
+    private Long idProducteur;
+}
@@ -0,0 +1,20 @@
+package com.lifat.CircuitsCourtsApi.model;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import javax.persistence.*;
+
+/**
+ * Ventes par jour, par produit et par producteur.
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@Entity
+@IdClass(VenteId.class)
+@Table(name = "ventes_jour", indexes = {
+        @Index(name = "idx_ventes_jour_produit", columnList = "id_produit, id_producteur, debut"),
+        @Index(name = "idx_ventes_jour_producteur", columnList = "id_producteur, debut")
+})
+public class VenteJour extends Vente {
+}
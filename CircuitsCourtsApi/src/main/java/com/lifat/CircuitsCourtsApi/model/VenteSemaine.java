@@ -0,0 +1,20 @@
+package com.lifat.CircuitsCourtsApi.model;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import javax.persistence.*;
+
+/**
+ * Ventes par semaine (du lundi au dimanche), par produit et par producteur. Le début est le lundi de la semaine.
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@Entity
+@IdClass(VenteId.class)
+@Table(name = "ventes_semaine", indexes = {
+        @Index(name = "idx_ventes_semaine_produit", columnList = "id_produit, id_producteur, debut"),
+        @Index(name = "idx_ventes_semaine_producteur", columnList = "id_producteur, debut")
+})
+public class VenteSemaine extends Vente {
+}
@@ -0,0 +1,27 @@
+package com.lifat.CircuitsCourtsApi.payload.request;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CartHoldRequest {
+
+    private List<Ligne> lignes;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Ligne {
+
+        private Long idProducteur;
+
+        private Long idProduit;
+
+        private Float quantite;
+    }
+}
@@ -0,0 +1,20 @@
+package com.lifat.CircuitsCourtsApi.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class CacheDistancesResponse {
+
+    private int taille;
+    private int capacite;
+    private long succes;
+    private long absences;
+    private long evictions;
+    private long invalidations;
+    //succes / (succes + absences), 0 avant la premiere lecture
+    private double tauxSucces;
+}
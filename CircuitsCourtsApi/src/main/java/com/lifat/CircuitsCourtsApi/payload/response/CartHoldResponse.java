@@ -0,0 +1,19 @@
+package com.lifat.CircuitsCourtsApi.payload.response;
+
+import com.lifat.CircuitsCourtsApi.payload.request.CartHoldRequest;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+import java.util.List;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class CartHoldResponse {
+
+    private String idReservation;
+    private Date dateExpiration;
+    private List<CartHoldRequest.Ligne> lignes;
+}
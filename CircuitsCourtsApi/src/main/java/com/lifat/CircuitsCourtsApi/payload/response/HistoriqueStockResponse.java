@@ -0,0 +1,33 @@
+package com.lifat.CircuitsCourtsApi.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class HistoriqueStockResponse {
+
+    private Long idProducteur;
+    private Long idProduit;
+    private Float stockJournal;
+    private List<Entree> entrees;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Entree {
+
+        private long sequence;
+
+        private Date date;
+
+        private String type;
+
+        private float quantite;
+    }
+}
@@ -0,0 +1,31 @@
+package com.lifat.CircuitsCourtsApi.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImportStockResponse {
+
+    private long lignesLues;
+    private long lignesAppliquees;
+    private long produitsAjoutes;
+    private List<Erreur> erreurs = new ArrayList<>();
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Erreur {
+
+        private long ligne;
+
+        private String reference;
+
+        private String message;
+    }
+}
@@ -0,0 +1,26 @@
+package com.lifat.CircuitsCourtsApi.payload.response;
+
+import com.lifat.CircuitsCourtsApi.model.CommandeIntake;
+import com.lifat.CircuitsCourtsApi.model.EStatutIntake;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class IntakeResponse {
+
+    private String ticket;
+    private EStatutIntake statut;
+    private String motif;
+    private Long idCommande;
+    private Date dateReception;
+    private Date dateTraitement;
+
+    public IntakeResponse(CommandeIntake intake) {
+        this(intake.getTicket(), intake.getStatut(), intake.getMotif(), intake.getIdCommande(), intake.getDateReception(), intake.getDateTraitement());
+    }
+}
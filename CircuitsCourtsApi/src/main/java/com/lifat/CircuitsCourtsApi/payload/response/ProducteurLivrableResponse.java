@@ -0,0 +1,22 @@
+package com.lifat.CircuitsCourtsApi.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class ProducteurLivrableResponse {
+
+    private Long id;
+    private String nom;
+    private String adresse;
+    private Double latitude;
+    private Double longitude;
+    private Float rayonLivraison;
+    //distance en km entre le producteur et le client
+    private Double distance;
+    //stock du produit demande, null sans filtre produit
+    private Float quantite;
+}
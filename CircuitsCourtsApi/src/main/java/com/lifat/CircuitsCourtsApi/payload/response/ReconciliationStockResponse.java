@@ -0,0 +1,35 @@
+package com.lifat.CircuitsCourtsApi.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReconciliationStockResponse {
+
+    private long couplesVerifies;
+    private long couplesInitialises;
+    private long nombreDivergences;
+    private long couplesRepares;
+    private long dureeMs;
+    private List<Divergence> divergences = new ArrayList<>();
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Divergence {
+
+        private Long idProducteur;
+
+        private Long idProduit;
+
+        private Float stock;
+
+        private Double attendu;
+    }
+}
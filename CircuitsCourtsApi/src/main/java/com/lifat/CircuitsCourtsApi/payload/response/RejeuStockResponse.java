@@ -0,0 +1,19 @@
+package com.lifat.CircuitsCourtsApi.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RejeuStockResponse {
+
+    private Date jusqua;
+    private long couplesReconstruits;
+    private long differences;
+    private long couplesAbsentsDuJournal;
+    private long couplesEcrits;
+}
@@ -0,0 +1,22 @@
+package com.lifat.CircuitsCourtsApi.payload.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class RoutageResponse {
+
+    private String fichierOsm;
+    //faux tant que le reseau n'est pas charge : les distances sont alors a vol d'oiseau
+    private boolean disponible;
+    private boolean chargementEnCours;
+    private int noeuds;
+    private int arcs;
+    private int raccourcis;
+    private long dureeChargementMs;
+    //message du dernier chargement en echec, null sinon
+    private String erreur;
+}
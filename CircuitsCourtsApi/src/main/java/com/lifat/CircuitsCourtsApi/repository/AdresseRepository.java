@@ -4,8 +4,16 @@ import com.lifat.CircuitsCourtsApi.model.Adresse;
 import com.lifat.CircuitsCourtsApi.model.Client;
 import org.springframework.data.repository.CrudRepository;
 
+import java.util.Collection;
+import java.util.List;
+
 public interface AdresseRepository extends CrudRepository<Adresse, Long> {
 
     Iterable<Adresse> getAdressesByClient(Client client);
 
+    /**
+     * les adresses de plusieurs clients en une requete.
+     */
+    List<Adresse> findByClientIdIn(Collection<Long> idClients);
+
 }
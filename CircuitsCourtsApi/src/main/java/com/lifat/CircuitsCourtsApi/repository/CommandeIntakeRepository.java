@@ -0,0 +1,68 @@
+package com.lifat.CircuitsCourtsApi.repository;
+
+import com.lifat.CircuitsCourtsApi.model.CommandeIntake;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.transaction.Transactional;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface CommandeIntakeRepository extends CrudRepository<CommandeIntake, Long> {
+
+    Optional<CommandeIntake> findByTicket(String ticket);
+
+    /**
+     * les plus anciennes commandes en attente, verrouillees pour la transaction en cours.
+     * Les lignes deja verrouillees par une autre instance de l'api sont sautees.
+     */
+    @Query(value = "SELECT id FROM commandes_intake WHERE statut = 'EN_ATTENTE' ORDER BY id LIMIT :limite FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Long> findIdsEnAttente(@Param("limite") int limite);
+
+    @Modifying
+    @Query(value = "UPDATE commandes_intake SET statut = 'EN_COURS', date_prise = :datePrise WHERE id IN (:ids)", nativeQuery = true)
+    int marquerEnCours(@Param("ids") Collection<Long> ids, @Param("datePrise") Date datePrise);
+
+    /**
+     * enregistre le verdict ACCEPTEE dans la transaction de la commande, si la commande est toujours la prise datePrise
+     * du worker : 0 si elle a ete remise en attente et reprise entre temps, la commande doit alors etre annulee.
+     */
+    @Modifying
+    @Query(value = "UPDATE commandes_intake SET statut = 'ACCEPTEE', id_commande = :idCommande, date_traitement = :dateTraitement " +
+            "WHERE id = :id AND statut = 'EN_COURS' AND date_prise = :datePrise", nativeQuery = true)
+    int accepter(@Param("id") Long id, @Param("datePrise") Date datePrise, @Param("idCommande") Long idCommande,
+                 @Param("dateTraitement") Date dateTraitement);
+
+    /**
+     * enregistre le verdict REJETEE, aux memes conditions qu'accepter.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE commandes_intake SET statut = 'REJETEE', motif = :motif, date_traitement = :dateTraitement " +
+            "WHERE id = :id AND statut = 'EN_COURS' AND date_prise = :datePrise", nativeQuery = true)
+    int rejeter(@Param("id") Long id, @Param("datePrise") Date datePrise, @Param("motif") String motif,
+                @Param("dateTraitement") Date dateTraitement);
+
+    /**
+     * remet en attente une commande que le pool de workers, plein, a refusee.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE commandes_intake SET statut = 'EN_ATTENTE' WHERE id = :id AND statut = 'EN_COURS'", nativeQuery = true)
+    int remettreEnAttente(@Param("id") Long id);
+
+    /**
+     * remet en attente les commandes prises par un worker avant la date limite et toujours pas traitees,
+     * cas d'un arret de l'api pendant leur traitement.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE commandes_intake SET statut = 'EN_ATTENTE' WHERE statut = 'EN_COURS' AND date_prise < :limite", nativeQuery = true)
+    int remettreEnAttente(@Param("limite") Date limite);
+}
@@ -0,0 +1,33 @@
+package com.lifat.CircuitsCourtsApi.repository;
+
+import com.lifat.CircuitsCourtsApi.model.EvenementOutbox;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.transaction.Transactional;
+import java.util.Date;
+import java.util.List;
+
+@Repository
+public interface EvenementOutboxRepository extends CrudRepository<EvenementOutbox, Long> {
+
+    /**
+     * les plus anciens événements pas encore publiés, verrouillés pour la transaction du relais.
+     */
+    @Query(value = "SELECT * FROM outbox_evenements WHERE sequence IS NULL ORDER BY id LIMIT :limite FOR UPDATE", nativeQuery = true)
+    List<EvenementOutbox> findNonPublies(@Param("limite") int limite);
+
+    @Query(value = "SELECT COALESCE(MAX(sequence), 0) FROM outbox_evenements", nativeQuery = true)
+    long findDerniereSequence();
+
+    @Query(value = "SELECT * FROM outbox_evenements WHERE sequence > :apres ORDER BY sequence LIMIT :limite", nativeQuery = true)
+    List<EvenementOutbox> findPubliesApres(@Param("apres") long apres, @Param("limite") int limite);
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM outbox_evenements WHERE sequence IS NOT NULL AND date_publication < :limite", nativeQuery = true)
+    int supprimerPubliesAvant(@Param("limite") Date limite);
+}
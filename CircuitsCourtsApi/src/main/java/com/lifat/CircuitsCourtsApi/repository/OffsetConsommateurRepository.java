@@ -0,0 +1,9 @@
+package com.lifat.CircuitsCourtsApi.repository;
+
+import com.lifat.CircuitsCourtsApi.model.OffsetConsommateur;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface OffsetConsommateurRepository extends CrudRepository<OffsetConsommateur, String> {
+}
@@ -1,6 +1,5 @@
 package com.lifat.CircuitsCourtsApi.repository;
 
-
 import com.lifat.CircuitsCourtsApi.model.Producteur;
 
 import org.springframework.data.jpa.repository.Modifying;
@@ -15,12 +14,77 @@ import javax.transaction.Transactional;
 import java.beans.Transient;
 import java.util.Collection;
 import java.util.Optional;
+import java.util.List;
 
 @Repository
 public interface ProducteurRepository extends CrudRepository<Producteur, Long> {
     @Query(value = "SELECT * FROM producteurs p INNER JOIN produits_producteurs pp ON p.id_producteur = pp.id_producteur WHERE id_produit= :idProduit", nativeQuery = true)
     Collection<Producteur> findAllByProduit(@Param("idProduit")Long idProduit);
 
+    /**
+     * Les producteurs d'un produit avec leur stock, en une requete.
+     * Une seule ligne sans producteur (idProducteur null) si personne ne produit le produit, aucune ligne si le produit n'existe pas.
+     */
+    @Query(value = "SELECT pr.id AS idProduit, pr.libelle AS libelleProduit, p.id_producteur AS idProducteur, p.libelle AS nom," +
+            " p.description AS description, p.tags AS tags, p.adresse_postale AS adresse, p.mail AS mail," +
+            " p.rayon_livraison AS rayonLivraison, p.latitude AS latitude, p.longitude AS longitude, pp.quantite AS quantite" +
+            " FROM produits pr LEFT JOIN produits_producteurs pp ON pp.id_produit = pr.id" +
+            " LEFT JOIN producteurs p ON p.id_producteur = pp.id_producteur WHERE pr.id = :idProduit ORDER BY p.id_producteur", nativeQuery = true)
+    List<DisponibiliteProducteur> findDisponibilites(@Param("idProduit") Long idProduit);
+
+    /**
+     * projection de findDisponibilites.
+     */
+    interface DisponibiliteProducteur {
+        Long getIdProduit();
+
+        String getLibelleProduit();
+
+        Long getIdProducteur();
+
+        String getNom();
+
+        String getDescription();
+
+        String getTags();
+
+        String getAdresse();
+
+        String getMail();
+
+        Float getRayonLivraison();
+
+        Double getLatitude();
+
+        Double getLongitude();
+
+        Float getQuantite();
+    }
+
+    /**
+     * la position et le rayon de livraison de tous les producteurs, pour l'index des livraisons.
+     */
+    @Query(value = "SELECT p.id_producteur AS id, p.libelle AS nom, p.adresse_postale AS adresse, p.latitude AS latitude," +
+            " p.longitude AS longitude, p.rayon_livraison AS rayonLivraison FROM producteurs p", nativeQuery = true)
+    List<PositionProducteur> findPositions();
+
+    /**
+     * projection de findPositions.
+     */
+    interface PositionProducteur {
+        Long getId();
+
+        String getNom();
+
+        String getAdresse();
+
+        Double getLatitude();
+
+        Double getLongitude();
+
+        Float getRayonLivraison();
+    }
+
     /**
      * modifie la quantite d'un produit d'un producteur
      * @param idProd
@@ -32,6 +96,27 @@ public interface ProducteurRepository extends CrudRepository<Producteur, Long> {
     @Query(value = "UPDATE produits_producteurs SET quantite = quantite - :qte WHERE id_producteur = :idProd AND id_produit = :idProduit", nativeQuery = true)
     void updateQteProduit(@Param("idProd")Long idProd, @Param("idProduit")Long idProduit, @Param("qte")Float qte);
 
+    /**
+     * retire la quantite du stock seulement si le producteur en possede assez.
+     * Le test et la modification se font dans la meme requete, sans lecture prealable du stock.
+     * @param idProd
+     * @param idProduit
+     * @param qte
+     * @return 1 si le stock a ete reserve, 0 si le stock est insuffisant ou si le producteur ne possede pas le produit
+     */
+    @Modifying
+    @Query(value = "UPDATE produits_producteurs SET quantite = quantite - :qte WHERE id_producteur = :idProd AND id_produit = :idProduit AND quantite >= :qte", nativeQuery = true)
+    int reserverQteProduit(@Param("idProd")Long idProd, @Param("idProduit")Long idProduit, @Param("qte")Float qte);
+
+    /**
+     * fixe la quantite d'un produit d'un producteur
+     * @return le nombre de lignes modifiees, 0 si le producteur ne possede pas le produit
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE produits_producteurs SET quantite = :qte WHERE id_producteur = :idProd AND id_produit = :idProduit", nativeQuery = true)
+    int definirQteProduit(@Param("idProd")Long idProd, @Param("idProduit")Long idProduit, @Param("qte")Float qte);
+
     @Query(value = "SELECT quantite FROM produits_producteurs WHERE id_producteur = :idProd AND id_produit = :idProduit", nativeQuery = true)
     Optional<Float> getQteProduit(@Param("idProd")Long idProd, @Param("idProduit")Long idProduit);
 
@@ -2,9 +2,35 @@ package com.lifat.CircuitsCourtsApi.repository;
 
 import com.lifat.CircuitsCourtsApi.model.ProduitProducteurId;
 import com.lifat.CircuitsCourtsApi.model.ProduitsProducteurs;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+
 @Repository
 public interface ProduitProducteurRepository extends CrudRepository<ProduitsProducteurs, ProduitProducteurId> {
+
+    /**
+     * recupere en une seule requete le stock de tous les couples (producteur, produit) demandés,
+     * sans charger les entites Producteur et Produit associees.
+     * @param idProducteurs ne doit pas etre vide
+     * @param idProduits ne doit pas etre vide
+     * @return une ligne par couple existant dans produits_producteurs
+     */
+    @Query(value = "SELECT id_producteur AS idProducteur, id_produit AS idProduit, quantite FROM produits_producteurs" +
+            " WHERE id_producteur IN (:idProducteurs) AND id_produit IN (:idProduits)", nativeQuery = true)
+    Collection<StockProduitProducteur> findStocks(@Param("idProducteurs") Collection<Long> idProducteurs, @Param("idProduits") Collection<Long> idProduits);
+
+    /**
+     * projection d'une ligne de produits_producteurs.
+     */
+    interface StockProduitProducteur {
+        Long getIdProducteur();
+
+        Long getIdProduit();
+
+        Float getQuantite();
+    }
 }
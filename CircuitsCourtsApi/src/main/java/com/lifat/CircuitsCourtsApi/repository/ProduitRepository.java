@@ -9,6 +9,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 
 import java.util.Collection;
 import java.util.Optional;
+import java.util.List;
 
 @Repository
 public interface ProduitRepository extends CrudRepository<Produit, Long> {
@@ -19,4 +20,15 @@ public interface ProduitRepository extends CrudRepository<Produit, Long> {
     @Query(value = "SELECT * FROM produits p INNER JOIN commande_details cd ON p.id=cd.id_produit WHERE cd.id_commande = :idCommande", nativeQuery = true)
     Iterable<Produit> findProductsByOrder(Long idCommande);
 
+    @Query(value = "SELECT id, reference FROM produits WHERE reference IS NOT NULL", nativeQuery = true)
+    List<ReferenceProduit> findReferences();
+
+    /**
+     * projection de findReferences.
+     */
+    interface ReferenceProduit {
+        Long getId();
+
+        String getReference();
+    }
 }
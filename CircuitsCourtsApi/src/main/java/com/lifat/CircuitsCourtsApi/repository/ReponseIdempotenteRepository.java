@@ -0,0 +1,50 @@
+package com.lifat.CircuitsCourtsApi.repository;
+
+import com.lifat.CircuitsCourtsApi.model.ReponseIdempotente;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.transaction.Transactional;
+import java.util.Date;
+
+@Repository
+public interface ReponseIdempotenteRepository extends CrudRepository<ReponseIdempotente, String> {
+
+    /**
+     * réserve la clé pour la requête en cours.
+     * @return 1 si la clé a été réservée, 0 si elle existait déjà
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT IGNORE INTO reponses_idempotentes (cle, empreinte, termine, json, date_creation, date_expiration) " +
+            "VALUES (:cle, :empreinte, false, false, :dateCreation, :dateExpiration)", nativeQuery = true)
+    int reserver(@Param("cle") String cle, @Param("empreinte") String empreinte,
+                 @Param("dateCreation") Date dateCreation, @Param("dateExpiration") Date dateExpiration);
+
+    /**
+     * reprend pour la requête en cours une clé expirée, ou réservée par une requête abandonnée (sans réponse depuis
+     * limiteAbandon). La condition est vérifiée par l'UPDATE lui-même : de deux requêtes qui reprennent la même clé, la
+     * seconde trouve la clé de nouveau réservée et ne modifie rien.
+     * @return 1 si la clé a été reprise, 0 sinon
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE reponses_idempotentes SET empreinte = :empreinte, termine = false, code_http = NULL, corps = NULL, json = false, " +
+            "date_creation = :dateCreation, date_expiration = :dateExpiration " +
+            "WHERE cle = :cle AND (date_expiration < :dateCreation OR (termine = false AND date_creation < :limiteAbandon))", nativeQuery = true)
+    int reprendre(@Param("cle") String cle, @Param("empreinte") String empreinte, @Param("dateCreation") Date dateCreation,
+                  @Param("dateExpiration") Date dateExpiration, @Param("limiteAbandon") Date limiteAbandon);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE reponses_idempotentes SET termine = true, code_http = :codeHttp, corps = :corps, json = :json WHERE cle = :cle", nativeQuery = true)
+    int terminer(@Param("cle") String cle, @Param("codeHttp") int codeHttp, @Param("corps") String corps, @Param("json") boolean json);
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM reponses_idempotentes WHERE date_expiration < :maintenant", nativeQuery = true)
+    int supprimerExpirees(@Param("maintenant") Date maintenant);
+}
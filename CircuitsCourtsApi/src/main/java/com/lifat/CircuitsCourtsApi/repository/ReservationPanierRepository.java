@@ -0,0 +1,46 @@
+package com.lifat.CircuitsCourtsApi.repository;
+
+import com.lifat.CircuitsCourtsApi.model.ReservationPanier;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+@Repository
+public interface ReservationPanierRepository extends CrudRepository<ReservationPanier, Long> {
+
+    List<ReservationPanier> findByIdReservation(String idReservation);
+
+    /**
+     * lit et verrouille les lignes des réservations jusqu'à la fin de la transaction en cours.
+     */
+    @Query(value = "SELECT * FROM reservations_panier WHERE id_reservation IN (:idReservations) FOR UPDATE", nativeQuery = true)
+    List<ReservationPanier> verrouiller(@Param("idReservations") Collection<String> idReservations);
+
+    @Modifying
+    @Query(value = "DELETE FROM reservations_panier WHERE id_reservation IN (:idReservations)", nativeQuery = true)
+    int supprimer(@Param("idReservations") Collection<String> idReservations);
+
+    /**
+     * @return chaque réservation et sa date d'expiration
+     */
+    @Query(value = "SELECT id_reservation AS idReservation, MIN(date_expiration) AS dateExpiration FROM reservations_panier GROUP BY id_reservation", nativeQuery = true)
+    List<EcheanceReservation> findEcheances();
+
+    @Query(value = "SELECT DISTINCT id_reservation FROM reservations_panier WHERE date_expiration < :avant", nativeQuery = true)
+    List<String> findExpirees(@Param("avant") Date avant);
+
+    /**
+     * projection de findEcheances.
+     */
+    interface EcheanceReservation {
+        String getIdReservation();
+
+        Date getDateExpiration();
+    }
+}
@@ -3,25 +3,51 @@ package com.lifat.CircuitsCourtsApi.service;
 import com.lifat.CircuitsCourtsApi.model.Adresse;
 import com.lifat.CircuitsCourtsApi.model.Client;
 import com.lifat.CircuitsCourtsApi.repository.AdresseRepository;
+import com.lifat.CircuitsCourtsApi.service.calculTournee.CacheDistances;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.*;
+
 @Service
 public class AdresseService {
 
     @Autowired
     private AdresseRepository adresseRepository;
 
+    @Autowired
+    private CacheDistances cacheDistances;
+
     public Iterable<Adresse> getAdressesByClient(Client client) {
         return adresseRepository.getAdressesByClient(client);
     }
 
+    /**
+     * Les adresses de plusieurs clients en une requete.
+     *
+     * @return id du client -> ses adresses, les clients sans adresse sont absents
+     */
+    public Map<Long, List<Adresse>> getAdressesByClients(Collection<Long> idClients) {
+        Map<Long, List<Adresse>> adresses = new HashMap<>();
+        if (idClients.isEmpty()) {
+            return adresses;
+        }
+        for (Adresse adresse : adresseRepository.findByClientIdIn(idClients)) {
+            adresses.computeIfAbsent(adresse.getClient().getId(), id -> new ArrayList<>()).add(adresse);
+        }
+        return adresses;
+    }
+
     public Adresse save(Adresse adresse) {
-        return adresseRepository.save(adresse);
+        Adresse saved = adresseRepository.save(adresse);
+        invaliderClient(saved);
+        return saved;
     }
 
     public void deleteById(Long id) {
+        Optional<Adresse> adresse = adresseRepository.findById(id);
         adresseRepository.deleteById(id);
+        adresse.ifPresent(this::invaliderClient);
     }
 
     public Adresse findById(Long id) {
@@ -32,4 +58,11 @@ public class AdresseService {
         return adresseRepository.findAll();
     }
 
+    //les distances du client sont recalculees apres un changement de ses adresses
+    private void invaliderClient(Adresse adresse) {
+        if (adresse.getClient() != null) {
+            cacheDistances.invaliderClient(adresse.getClient().getId());
+        }
+    }
+
 }
@@ -3,6 +3,10 @@ package com.lifat.CircuitsCourtsApi.service;
 import com.lifat.CircuitsCourtsApi.model.Client;
 import com.lifat.CircuitsCourtsApi.model.Commande;
 import com.lifat.CircuitsCourtsApi.repository.ClientRepository;
+import com.lifat.CircuitsCourtsApi.service.calculTournee.CacheDistances;
+import com.lifat.CircuitsCourtsApi.service.pagination.PageCurseur;
+import com.lifat.CircuitsCourtsApi.service.pagination.Pagination;
+import com.lifat.CircuitsCourtsApi.service.pagination.RequetePage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -17,12 +21,28 @@ public class ClientService {
     @Autowired
     CommandeService commandeService;
 
-    public Iterable<Client> getClients() {
-        return clientRepository.findAll();
+    @Autowired
+    private Pagination pagination;
+
+    @Autowired
+    private CacheDistances cacheDistances;
+
+    /**
+     * Les clients page par page, par id croissant.
+     *
+     * @param apres curseur, null pour la premiere page
+     * @param codePostal si non null, seuls les clients de ce code postal sont renvoyés
+     * @param taille nombre de clients par page
+     */
+    public PageCurseur<Client> getClients(Long apres, Integer codePostal, int taille) {
+        RequetePage requete = new RequetePage("SELECT * FROM clients c", "c.id")
+                .filtre("c.code_postal = ?", codePostal);
+        return pagination.lire(requete, Client.class, apres, taille, Client::getId);
     }
 
     public Client saveClient(Client client) {
         Client savedClient = clientRepository.save(client);
+        cacheDistances.invaliderClient(savedClient.getId());
         return savedClient;
     }
 
@@ -32,6 +52,7 @@ public class ClientService {
 
     public void deleteClient(final Long id) {
         clientRepository.deleteById(id);
+        cacheDistances.invaliderClient(id);
     }
 
     public Iterable<Commande> getClientCommandes(Long id) {
@@ -4,6 +4,9 @@ import com.lifat.CircuitsCourtsApi.model.CommandeDetail;
 import com.lifat.CircuitsCourtsApi.model.CommandeProducteur;
 import com.lifat.CircuitsCourtsApi.repository.CommandeDetailRepository;
 import com.lifat.CircuitsCourtsApi.repository.CommandeProducteurRepository;
+import com.lifat.CircuitsCourtsApi.service.pagination.PageCurseur;
+import com.lifat.CircuitsCourtsApi.service.pagination.Pagination;
+import com.lifat.CircuitsCourtsApi.service.pagination.RequetePage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -16,8 +19,20 @@ public class CommandeDetailService {
     @Autowired
     private CommandeDetailRepository commandeDetailRepository;
 
-    public Iterable<CommandeDetail> getCommandeDetails() {
-        return commandeDetailRepository.findAll();
+    @Autowired
+    private Pagination pagination;
+
+    /**
+     * Les commandesDetails page par page, par id croissant. Les filtres null sont ignorés.
+     *
+     * @param apres curseur, null pour la premiere page
+     * @param taille nombre de commandesDetails par page
+     */
+    public PageCurseur<CommandeDetail> getCommandeDetails(Long apres, Long idCommande, Long idProduit, int taille) {
+        RequetePage requete = new RequetePage("SELECT * FROM commande_details cd", "cd.id")
+                .filtre("cd.id_commande = ?", idCommande)
+                .filtre("cd.id_produit = ?", idProduit);
+        return pagination.lire(requete, CommandeDetail.class, apres, taille, CommandeDetail::getId);
     }
 
     public CommandeDetail saveCommandeDetail(CommandeDetail commandeDetail) {
@@ -58,7 +73,7 @@ public class CommandeDetailService {
      * @param commandeDetail
      */
     public void deletCommandeDetail(CommandeDetail commandeDetail){
-        Collection<CommandeProducteur> cp = (Collection<CommandeProducteur>) commandeProducteurRepository.findByidCommandeDetails(commandeDetail.getIdCommande());
+        Iterable<CommandeProducteur> cp = commandeProducteurRepository.findCommandeProdByCommandeDetail(commandeDetail.getId());
         commandeDetailRepository.delete(commandeDetail);
         commandeProducteurRepository.deleteAll(cp);
     }
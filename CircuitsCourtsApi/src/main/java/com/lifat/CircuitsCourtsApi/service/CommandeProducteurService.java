@@ -6,6 +6,9 @@ import com.lifat.CircuitsCourtsApi.model.CommandeProducteur;
 import com.lifat.CircuitsCourtsApi.repository.CommandeDetailRepository;
 import com.lifat.CircuitsCourtsApi.repository.CommandeProducteurRepository;
 import com.lifat.CircuitsCourtsApi.repository.CommandeRepository;
+import com.lifat.CircuitsCourtsApi.service.pagination.PageCurseur;
+import com.lifat.CircuitsCourtsApi.service.pagination.Pagination;
+import com.lifat.CircuitsCourtsApi.service.pagination.RequetePage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -23,8 +26,20 @@ public class CommandeProducteurService {
     @Autowired
     private CommandeRepository commandeRepository;
 
-    public Iterable<CommandeProducteur> getCommandeProducteurs() {
-        return commandeProducteurRepository.findAll();
+    @Autowired
+    private Pagination pagination;
+
+    /**
+     * Les commandesProducteur page par page, par id croissant. Les filtres null sont ignorés.
+     *
+     * @param apres curseur, null pour la premiere page
+     * @param taille nombre de commandesProducteur par page
+     */
+    public PageCurseur<CommandeProducteur> getCommandeProducteurs(Long apres, Long idProducteur, Long idCommandeDetails, int taille) {
+        RequetePage requete = new RequetePage("SELECT * FROM commande_producteur cp", "cp.id")
+                .filtre("cp.id_producteur = ?", idProducteur)
+                .filtre("cp.id_commande_details = ?", idCommandeDetails);
+        return pagination.lire(requete, CommandeProducteur.class, apres, taille, CommandeProducteur::getId);
     }
 
     public CommandeProducteur saveCommandeProducteur(CommandeProducteur commandeProducteur) {
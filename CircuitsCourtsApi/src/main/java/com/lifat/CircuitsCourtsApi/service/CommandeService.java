@@ -7,11 +7,25 @@ import com.github.fge.jsonpatch.JsonPatch;
 import com.github.fge.jsonpatch.JsonPatchException;
 import com.lifat.CircuitsCourtsApi.model.*;
 import com.lifat.CircuitsCourtsApi.repository.*;
-import com.lifat.CircuitsCourtsApi.service.calculTournee.GeoPortailApiService;
+import com.lifat.CircuitsCourtsApi.service.calculTournee.CacheDistances;
+import com.lifat.CircuitsCourtsApi.service.commande.CommandeInfoReader;
+import com.lifat.CircuitsCourtsApi.service.commande.OrderUpdateEngine;
+import com.lifat.CircuitsCourtsApi.service.commande.OrderWriter;
+import com.lifat.CircuitsCourtsApi.service.evenement.OutboxService;
+import com.lifat.CircuitsCourtsApi.service.reservation.ReservationPanierService;
+import com.lifat.CircuitsCourtsApi.service.stock.CleStock;
+import com.lifat.CircuitsCourtsApi.service.stock.StockService;
+import com.lifat.CircuitsCourtsApi.service.validation.CommandeValidationService;
+import com.lifat.CircuitsCourtsApi.service.ventes.VentesService;
+import com.lifat.CircuitsCourtsApi.service.pagination.PageCurseur;
+import com.lifat.CircuitsCourtsApi.service.pagination.Pagination;
+import com.lifat.CircuitsCourtsApi.service.pagination.RequetePage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 @Service
 public class CommandeService {
@@ -31,8 +45,83 @@ public class CommandeService {
     @Autowired
     private CommandeDetailService commandeDetailService;
 
-    public Iterable<Commande> getCommandes() {
-        return commandeRepository.findAll();
+    @Autowired
+    private CommandeValidationService commandeValidationService;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private OrderWriter orderWriter;
+
+    @Autowired
+    private CommandeInfoReader commandeInfoReader;
+
+    @Autowired
+    private OrderUpdateEngine orderUpdateEngine;
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Autowired
+    private VentesService ventesService;
+
+    @Autowired
+    private Pagination pagination;
+
+    @Autowired
+    private ReservationPanierService reservationPanierService;
+
+    /**
+     * Les commandes page par page, par id croissant. Les filtres null sont ignorés.
+     *
+     * @param apres curseur : seules les commandes d'id supérieur sont renvoyées, null pour la premiere page
+     * @param depuis date de commande minimale incluse
+     * @param avant date de commande maximale exclue
+     * @param taille nombre de commandes par page
+     */
+    public PageCurseur<Commande> getCommandes(Long apres, Long idClient, Long idProducteur, Long idProduit, Date depuis, Date avant, int taille) {
+        RequetePage requete = new RequetePage("SELECT * FROM commandes c", "c.id")
+                .filtre("c.id_client = ?", idClient)
+                .filtre("c.date_commande >= ?", depuis)
+                .filtre("c.date_commande < ?", avant)
+                .filtre("EXISTS (SELECT 1 FROM commande_details cd WHERE cd.id_commande = c.id AND cd.id_produit = ?)", idProduit)
+                .filtre("EXISTS (SELECT 1 FROM commande_details cd INNER JOIN commande_producteur cp ON cp.id_commande_details = cd.id" +
+                        " WHERE cd.id_commande = c.id AND cp.id_producteur = ?)", idProducteur);
+        return pagination.lire(requete, Commande.class, apres, taille, Commande::getId);
+    }
+
+    /**
+     * Les commandes passées entre deux dates, page par page, par date puis id croissants.
+     * Le curseur d'une commande est sa date (en millisecondes) et son id séparés par '_'.
+     *
+     * @param depuis date de commande minimale incluse
+     * @param avant date de commande maximale exclue, demain si null
+     * @param idClient seules les commandes de ce client si non null
+     * @param apres curseur de la derniere commande de la page precedente, null pour la premiere page
+     * @param taille nombre de commandes par page
+     * @throws Exception si le curseur n'est pas valide
+     */
+    public PageCurseur<Commande> getCommandesParPeriode(Date depuis, Date avant, Long idClient, String apres, int taille) throws Exception {
+        Date fin = avant != null ? avant : new Date(System.currentTimeMillis() + 86400000L);
+        Date apresDate = depuis;
+        long apresId = 0;
+        if (apres != null) {
+            String[] curseur = apres.split("_");
+            try {
+                apresDate = new Date(Long.parseLong(curseur[0]));
+                apresId = Long.parseLong(curseur[1]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new Exception("curseur invalide : " + apres);
+            }
+        }
+        //index (id_client, date_commande, id) avec un client, (date_commande, id) sinon
+        RequetePage requete = new RequetePage("SELECT * FROM commandes c", "c.date_commande", "c.id")
+                .filtre("c.date_commande >= ?", depuis)
+                .filtre("c.date_commande < ?", fin)
+                .filtre("c.id_client = ?", idClient);
+        return pagination.lire(requete, Commande.class, apresDate, apresId, taille,
+                commande -> commande.getDateCommande().getTime() + "_" + commande.getId());
     }
 
     public Commande saveCommande(Commande commande) {
@@ -88,37 +177,76 @@ public class CommandeService {
      * @return treu si et seulement si  aucunes verificatipns de la commandeInfo n'ont levees aucunes une exception
      */
     public boolean verifCommandeInfo(CommandeInfo commandeInfo) throws Exception {
+        //toutes les verifications se font en memoire sur un contexte charge en quelques requetes, le stock n'est pas modifie ici
+        commandeValidationService.verifier(commandeInfo, true);
+        return true;
+    }
 
-        //verification de l'existence du client
-        Commande newCommande = commandeInfo.getCommande();
-        if (doesClientExist(newCommande.getIdClient())) {
-            //verification de l'existence des produits
-
-            HashMap<CommandeDetail, ArrayList<CommandeProducteur>> hashVerif = getCommandesProducteurByCommandeDetail(commandeInfo);
-            for (Map.Entry mapEntry : hashVerif.entrySet()) {
-                CommandeDetail cd = (CommandeDetail) mapEntry.getKey();
-                doesCommandeDetailExist(cd.getId());
-                doesProduitExist(cd.getIdProduit());
-                cd.setIdCommande(newCommande.getId());
-
-                //verifications pour les commandes prod associées à cette commande detail.
-                //verification de l'existence de chaque producteurs affectés à la commande et si leurs stock >= quantite commandeProd
-                ArrayList<CommandeProducteur> commandesProd = (ArrayList<CommandeProducteur>) mapEntry.getValue();
-                for (CommandeProducteur cp : commandesProd) {
-                    //System.out.println(cp.toString());
-                    doesCommandeProdExist(cp.getId());
-                    doesProducteurExist(cp.getIdProducteur());
-                    Optional<Producteur> producteur = producteurRepository.findById(cp.getIdProducteur());
-                    Optional<Client> client = clientRepository.findById(commandeInfo.getCommande().getIdClient());
-                    if(doesProducteurCanDelivery(producteur.get(), client.get())){
-                        if (doesPorducteurHaveEnough(cp.getIdProducteur(), cd.getIdProduit(), cp.getQuantite())) {
-                            producteurRepository.updateQteProduit(cp.getIdProducteur(), cd.getIdProduit(), cp.getQuantite());
-                        }
-                    }
-                }
-            }
+    /**
+     * verifie puis enregistre une nouvelle commandeInfo.
+     * La reservation du stock et l'enregistrement de la commande se font dans une seule transaction :
+     * si le stock d'une seule ligne ne suffit plus, aucune ligne n'est reservee et rien n'est enregistre.
+     *
+     * @param commandeInfo la commandeInfo a verifier et enregistrer
+     * @return la commandeInfo enregistree, avec les ids attribues par la bd
+     * @throws Exception si une verification echoue ou si le stock ne suffit plus au moment de la reservation
+     */
+    public CommandeInfo placerCommande(CommandeInfo commandeInfo) throws Exception {
+        return placerCommande(commandeInfo, null);
+    }
+
+    /**
+     * verifie puis enregistre une nouvelle commandeInfo a partir d'une reservation de panier.
+     * La reservation est consommee dans la transaction de la commande : seul l'ecart entre la commande et la reservation
+     * est reserve ou rendu.
+     *
+     * @param commandeInfo la commandeInfo a verifier et enregistrer
+     * @param idReservation id de la reservation de panier, null pour reserver tout le stock de la commande
+     * @return la commandeInfo enregistree, avec les ids attribues par la bd
+     * @throws Exception si la reservation n'existe pas, si une verification echoue ou si le stock ne suffit plus
+     */
+    public CommandeInfo placerCommande(CommandeInfo commandeInfo, String idReservation) throws Exception {
+        return placerCommande(commandeInfo, idReservation, savedCommandeInfo -> {
+        });
+    }
+
+    /**
+     * verifie puis enregistre une nouvelle commandeInfo, et execute dansLaTransaction dans la transaction de la commande,
+     * apres son enregistrement : ce qu'il ecrit est valide avec la commande ou annule avec elle. Une exception levee par
+     * dansLaTransaction annule la commande.
+     *
+     * @param commandeInfo la commandeInfo a verifier et enregistrer
+     * @param idReservation id de la reservation de panier, null pour reserver tout le stock de la commande
+     * @param dansLaTransaction recoit la commandeInfo enregistree
+     * @return la commandeInfo enregistree, avec les ids attribues par la bd
+     * @throws Exception si la reservation n'existe pas, si une verification echoue ou si le stock ne suffit plus
+     */
+    public CommandeInfo placerCommande(CommandeInfo commandeInfo, String idReservation, Consumer<CommandeInfo> dansLaTransaction) throws Exception {
+        //l'id de la commande est facultatif, les ids definitifs sont attribues par l'OrderWriter
+        if (commandeInfo.getCommande().getId() != null) {
+            commandeExist(commandeInfo.getCommande().getId());
         }
-        return true;
+        if (idReservation == null) {
+            verifCommandeInfo(commandeInfo);
+        } else {
+            //le stock deja reserve par le panier compte comme disponible
+            commandeValidationService.verifier(commandeInfo, true, reservationPanierService.quantitesReservees(idReservation));
+        }
+        return stockService.executerAvecReessai(status -> {
+            if (idReservation == null) {
+                stockService.reserver(commandeInfo);
+            } else {
+                TreeMap<Long, Float> ecarts = StockService.quantitesParCouple(commandeInfo);
+                reservationPanierService.consommer(idReservation).forEach((cle, quantite) -> ecarts.merge(cle, -quantite, Float::sum));
+                ecarts.values().removeIf(ecart -> ecart == 0f);
+                stockService.appliquerEcarts(ecarts);
+            }
+            CommandeInfo savedCommandeInfo = orderWriter.ecrire(commandeInfo);
+            ventesService.appliquer(savedCommandeInfo.getCommande().getDateCommande(), StockService.quantitesParCouple(savedCommandeInfo));
+            outboxService.publier(OutboxService.COMMANDE_CREEE, OutboxService.COMMANDE, savedCommandeInfo.getCommande().getId(), savedCommandeInfo);
+            dansLaTransaction.accept(savedCommandeInfo);
+            return savedCommandeInfo;
+        });
     }
 
     /**
@@ -211,7 +339,7 @@ public class CommandeService {
     }
 
     @Autowired
-    private GeoPortailApiService geoPortailApiService;
+    private CacheDistances cacheDistances;
 
     /**
      * verifie la distantce entre un producteur et son client
@@ -221,7 +349,7 @@ public class CommandeService {
      * @throws Exception si rayon_livraison inferieur a distance
      */
     public boolean doesProducteurCanDelivery(Producteur producteur, Client client) throws Exception {
-        double meter =geoPortailApiService.verifDistanceBetweenProducteurAndClient(producteur.getLatitude(), producteur.getLongitude(), client.getLatitude(), client.getLongitude());
+        double meter = cacheDistances.producteurClient(producteur.getId_Producteur(), producteur.getLatitude(), producteur.getLongitude(), client.getId(), client.getLatitude(), client.getLongitude());
         if(meter > producteur.getRayon_Livraison()){
             throw new Exception("Le client se situe trop loin du producteur : "+ producteur.getLibelle()+","+ producteur.getId_Producteur()+", rayon de livraison "+ producteur.getRayon_Livraison()+" km."+ "\ndistance avec le client :"+client.getAdresse()+"\n" + meter + " km.");
         } else return true;
@@ -284,72 +412,16 @@ public class CommandeService {
 
 
     /**
-     * Verification et modification entre la commandeInfo de base et l'update
-     * puis appel de la methode verifCommandeInfo() pour reverifier les données dans la nouvelle commandeInfo
-     * @param updateCommandeInfo l'update de la commandeInfo
-     * @return la CommandeInfo mis a jour l'originale sinon
-     * @throws Exception
+     * Met a jour une commandeInfo par difference avec la version enregistree :
+     * seules les lignes ajoutees, modifiees ou supprimees sont ecrites et seul l'ecart de stock est reserve ou rendu.
+     * @param updateCommandeInfo la nouvelle version de la commandeInfo
+     * @return la CommandeInfo mise a jour
+     * @throws Exception si la commande n'existe pas ou si une verification echoue
      */
-    public CommandeInfo verifCommandeInfoUpdate(CommandeInfo updateCommandeInfo) throws Exception {
-        //on recupere la commandeInfo originale avec l'id de la commande l'updateCommandeInfo car l'id d'une commande ne change pas.
-        CommandeInfo originalCommandeInfo = getCommandeInfo(updateCommandeInfo.getCommande().getId());
-
-        if(isValidNewCommandeInfo(updateCommandeInfo)){
-            //suppression des commandes details en trop
-            for (CommandeDetail cd : originalCommandeInfo.getCommandesDetails()) {
-                if(updateCommandeInfo.getCommandesDetails().contains(cd)){
-                } else {
-                    commandeDetailRepository.delete(cd);
-                }
-            }
-
-            for (CommandeProducteur cp: originalCommandeInfo.getCommandesProducteur()) {
-                if(updateCommandeInfo.getCommandesProducteur().contains(cp)){
-                }else {
-                    Optional<CommandeDetail> temp =  commandeDetailRepository.findById(cp.getIdCommandeDetails());
-                    System.out.println("========================"+temp.get().getIdProduit() + " " + cp.getIdProducteur() +" "+ cp.getQuantite());
-                    commandeProducteurRepository.reatributStockToProducteur(cp.getIdProducteur(), temp.get().getIdProduit() ,cp.getQuantite());
-                    commandeProducteurRepository.delete(cp);
-                }
-            }
-
-        }
-        return originalCommandeInfo;
-    }
-
-    public boolean isValidNewCommandeInfo(CommandeInfo commandeInfo) throws Exception {
-
-        //verification de l'existence du client
-        Commande newCommande = commandeInfo.getCommande();
-        if (doesClientExist(newCommande.getIdClient())) {
-            //verification de l'existence des produits
-
-            HashMap<CommandeDetail, ArrayList<CommandeProducteur>> hashVerif = getCommandesProducteurByCommandeDetail(commandeInfo);
-            for (Map.Entry mapEntry : hashVerif.entrySet()) {
-                CommandeDetail cd = (CommandeDetail) mapEntry.getKey();
-                doesProduitExist(cd.getIdProduit());
-                cd.setIdCommande(newCommande.getId());
-
-                //verifications pour les commandes prod associées à cette commande detail.
-                //verification de l'existence de chaque producteurs affectés à la commande et si leurs stock >= quantite commandeProd
-                ArrayList<CommandeProducteur> commandesProd = (ArrayList<CommandeProducteur>) mapEntry.getValue();
-                for (CommandeProducteur cp : commandesProd) {
-                    doesProducteurExist(cp.getIdProducteur());
-                    Optional<Producteur> producteur = producteurRepository.findById(cp.getIdProducteur());
-                    Optional<Client> client = clientRepository.findById(commandeInfo.getCommande().getIdClient());
-                    if(doesProducteurCanDelivery(producteur.get(), client.get())){
-                        if (doesPorducteurHaveEnough(cp.getIdProducteur(), cd.getIdProduit(), cp.getQuantite())) {
-                            producteurRepository.updateQteProduit(cp.getIdProducteur(), cd.getIdProduit(), cp.getQuantite());
-                        }
-                    }
-                }
-            }
-        }
-        return true;
+    public CommandeInfo mettreAJourCommande(CommandeInfo updateCommandeInfo) throws Exception {
+        return orderUpdateEngine.mettreAJour(updateCommandeInfo);
     }
 
-
-
     /**
      * Supprime toute la commadeInfo
      *
@@ -357,25 +429,36 @@ public class CommandeService {
      * @throws Exception si non
      */
     public void deletCommandeInfo(Long idCommande) throws Exception {
+        //liberation du stock et suppression dans la meme transaction, la commande est verrouillee pendant la suppression
+        Boolean supprimee = stockService.executerAvecReessai(status -> {
+            Optional<CommandeInfo> existing = commandeInfoReader.verrouillerEtLire(idCommande);
+            if (existing.isEmpty()) {
+                return false;
+            }
+            CommandeInfo commandeInfoToDelete = existing.get();
+            Map<Long, Long> produitParCommandeDetail = produitParCommandeDetail(commandeInfoToDelete);
+
+            //on reatribut le stock au producteur puis on supprime la commande producteur
+            for (CommandeProducteur cp : commandeInfoToDelete.getCommandesProducteur()) {
+                //si une commande producteur est dans la base de donnée alors elle est forcement liee a une commande detail.
+                //on a besoin de la commande detail en question pour recuperer le produit
+                stockService.liberer(cp.getIdProducteur(), produitParCommandeDetail.get(cp.getIdCommandeDetails()), cp.getQuantite());
+            }
 
-        CommandeInfo commandeInfoToDelete = getCommandeInfo(idCommande);
-
-        //on reatribut le stock au producteur puis on supprime la commande producteur
-        for (CommandeProducteur cp : commandeInfoToDelete.getCommandesProducteur()) {
-            //si une commande producteur est dans la base de donnée alors elle est forcement liee a une commande detail.
-            //on a besoin de la commande detail en question pour recuperer le produit
-            Optional<CommandeDetail> cd = commandeDetailRepository.findById(cp.getIdCommandeDetails());
-            System.out.println("========================"+cd.get().getIdProduit());
-            commandeProducteurRepository.reatributStockToProducteur(cp.getIdProducteur(),cd.get().getIdProduit() ,cp.getQuantite());
-
-        }
-
-        //on supprime les commandes details
-        for (CommandeDetail cd : commandeInfoToDelete.getCommandesDetails()) {
-            commandeDetailService.deletCommandeDetail(cd);
+            //on supprime les commandes details
+            for (CommandeDetail cd : commandeInfoToDelete.getCommandesDetails()) {
+                commandeDetailService.deletCommandeDetail(cd);
+            }
+            //on supprime la commande
+            commandeRepository.deleteById(idCommande);
+            ventesService.appliquer(commandeInfoToDelete.getCommande().getDateCommande(),
+                    CleStock.oppose(StockService.quantitesParCouple(commandeInfoToDelete)));
+            outboxService.publier(OutboxService.COMMANDE_SUPPRIMEE, OutboxService.COMMANDE, idCommande, commandeInfoToDelete);
+            return true;
+        });
+        if (!supprimee) {
+            throw new Exception("La commande n°" + idCommande + " n'existe pas.");
         }
-        //on supprime la commande
-        commandeRepository.delete(commandeInfoToDelete.getCommande());
     }
 
     /**
@@ -386,17 +469,17 @@ public class CommandeService {
      * @return la commande de la commandeInfo
      * @throws Exception
      */
+    @Transactional
     public Commande deleteCommandeInfoFOrUpdate(CommandeInfo commandeInfo) throws Exception {
        CommandeInfo toDelet = getCommandeInfo(commandeInfo.getCommande().getId());
        Commande toSave = toDelet.getCommande();
+       Map<Long, Long> produitParCommandeDetail = produitParCommandeDetail(toDelet);
 
         //on reatribut le stock au producteur puis on supprime la commande producteur
         for (CommandeProducteur cp : toDelet.getCommandesProducteur()) {
             //si une commande producteur est dans la base de donnée alors elle est forcement liee a une commande detail.
             //on a besoin de la commande detail en question pour recuperer le produit
-            Optional<CommandeDetail> cd = commandeDetailRepository.findById(cp.getIdCommandeDetails());
-            System.out.println("========================"+cd.get().getIdProduit());
-            commandeProducteurRepository.reatributStockToProducteur(cp.getIdProducteur(),cd.get().getIdProduit() ,cp.getQuantite());
+            stockService.liberer(cp.getIdProducteur(), produitParCommandeDetail.get(cp.getIdCommandeDetails()), cp.getQuantite());
             commandeProducteurRepository.delete(cp);
         }
 
@@ -410,31 +493,28 @@ public class CommandeService {
     }
 
     /**
-     * retrouve la commande info dans sa totalité à partir de l'id d'une commande
+     * retrouve la commande info dans sa totalité à partir de l'id d'une commande, en une seule requete
      *
      * @param idCommande de la commande
      * @return la commande info
      */
     public CommandeInfo getCommandeInfo(Long idCommande) throws Exception {
-        //la commande info a reconstituer
-        CommandeInfo savedCommandeInfo = new CommandeInfo();
-        if (commandeRepository.findById(idCommande).isPresent()) {
-            Optional<Commande> temp = commandeRepository.findById(idCommande);
-            savedCommandeInfo.setCommande(temp.get());
-
-            //on recupere toutes les commandes details associées à cette commande
-            savedCommandeInfo.setCommandesDetails((Collection<CommandeDetail>) commandeDetailRepository.findAllByIdCommande(idCommande));
+        Optional<CommandeInfo> commandeInfo = commandeInfoReader.lire(idCommande);
+        if (commandeInfo.isPresent()) {
+            return commandeInfo.get();
+        } else throw new Exception("La commande n°" + idCommande + " n'existe pas.");
+    }
 
-            ArrayList<CommandeProducteur> commandeProducteurs = new ArrayList<>();
-            //on parcour toutes les commandesDetails pour retrouver toutes les commandesProducteur associees.
-            for (CommandeDetail cd : savedCommandeInfo.getCommandesDetails()) {
-                Collection<CommandeProducteur> commandesProd = (Collection<CommandeProducteur>) commandeProducteurRepository.findCommandeProdByCommandeDetail(cd.getId());
-                commandeProducteurs.addAll(commandesProd);
-            }
-            savedCommandeInfo.setCommandesProducteur(commandeProducteurs);
-            return savedCommandeInfo;
+    /**
+     * @param commandeInfo
+     * @return l'id du produit de chaque commandeDetail de la commandeInfo, par id de commandeDetail
+     */
+    private static Map<Long, Long> produitParCommandeDetail(CommandeInfo commandeInfo) {
+        Map<Long, Long> produitParCommandeDetail = new HashMap<>();
+        for (CommandeDetail cd : commandeInfo.getCommandesDetails()) {
+            produitParCommandeDetail.put(cd.getId(), cd.getIdProduit());
         }
-         else throw new Exception("La commande n°" + idCommande + " n'existe pas.");
+        return produitParCommandeDetail;
     }
 
     /**
@@ -2,6 +2,12 @@ package com.lifat.CircuitsCourtsApi.service;
 
 import com.lifat.CircuitsCourtsApi.model.Producteur;
 import com.lifat.CircuitsCourtsApi.repository.ProducteurRepository;
+import com.lifat.CircuitsCourtsApi.service.calculTournee.CacheDistances;
+import com.lifat.CircuitsCourtsApi.service.disponibilite.DisponibiliteService;
+import com.lifat.CircuitsCourtsApi.service.livraison.IndexLivraison;
+import com.lifat.CircuitsCourtsApi.service.pagination.PageCurseur;
+import com.lifat.CircuitsCourtsApi.service.pagination.Pagination;
+import com.lifat.CircuitsCourtsApi.service.pagination.RequetePage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -13,8 +19,29 @@ public class ProducteurServices {
     @Autowired
     private ProducteurRepository producteurRepository;
 
-    public Iterable<Producteur> getAllProducteurs(){
-        return producteurRepository.findAll();
+    @Autowired
+    private Pagination pagination;
+
+    @Autowired
+    private DisponibiliteService disponibiliteService;
+
+    @Autowired
+    private IndexLivraison indexLivraison;
+
+    @Autowired
+    private CacheDistances cacheDistances;
+
+    /**
+     * Les producteurs page par page, par id croissant.
+     *
+     * @param apres curseur, null pour la premiere page
+     * @param idProduit si non null, seuls les producteurs qui possèdent ce produit sont renvoyés
+     * @param taille nombre de producteurs par page
+     */
+    public PageCurseur<Producteur> getAllProducteurs(Long apres, Long idProduit, int taille) {
+        RequetePage requete = new RequetePage("SELECT * FROM producteurs p", "p.id_producteur")
+                .filtre("EXISTS (SELECT 1 FROM produits_producteurs pp WHERE pp.id_producteur = p.id_producteur AND pp.id_produit = ?)", idProduit);
+        return pagination.lire(requete, Producteur.class, apres, taille, Producteur::getId_Producteur);
     }
 
     public Optional<Producteur> getProducteurById(Long id){
@@ -23,21 +50,24 @@ public class ProducteurServices {
 
     public Producteur saveProducteur(Producteur producteur){
         Producteur  savedProducteur = producteurRepository.save(producteur);
+        //la fiche du producteur est copiee dans les disponibilites de tous ses produits
+        disponibiliteService.invaliderTout();
+        indexLivraison.mettreAJour(savedProducteur);
+        cacheDistances.invaliderProducteur(savedProducteur.getId_Producteur());
         return savedProducteur;
     }
 
     public void deletProducteurById(Long id){
         producteurRepository.deleteById(id);
+        disponibiliteService.invaliderTout();
+        indexLivraison.retirer(id);
+        cacheDistances.invaliderProducteur(id);
     }
 
     public Collection<Producteur> getAllProducteurdByProduits(Long idProduit){
         return producteurRepository.findAllByProduit(idProduit);
     }
 
-    public void updateQteProduit(Long idProd, Long idProduit, Float qte){
-        producteurRepository.updateQteProduit(idProd, idProduit, qte);
-    }
-
     public Iterable<Producteur> getProducteursByCommande(Long idCommande){
         return producteurRepository.getProducteurByOrder(idCommande);
     }
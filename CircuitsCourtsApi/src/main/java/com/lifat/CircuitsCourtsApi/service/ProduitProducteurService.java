@@ -3,10 +3,17 @@ package com.lifat.CircuitsCourtsApi.service;
 import com.lifat.CircuitsCourtsApi.model.ProduitProducteurId;
 import com.lifat.CircuitsCourtsApi.model.ProduitsProducteurs;
 import com.lifat.CircuitsCourtsApi.repository.ProduitProducteurRepository;
+import com.lifat.CircuitsCourtsApi.service.disponibilite.DisponibiliteService;
+import com.lifat.CircuitsCourtsApi.service.stock.CleStock;
+import com.lifat.CircuitsCourtsApi.service.stock.StockService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 
 @Service
 public class ProduitProducteurService {
@@ -14,12 +21,26 @@ public class ProduitProducteurService {
     @Autowired
     private ProduitProducteurRepository produitProducteurRepository;
 
+    @Autowired
+    private DisponibiliteService disponibiliteService;
+
+    @Autowired
+    private StockService stockService;
+
     public Optional<ProduitsProducteurs> getById(ProduitProducteurId id){
         return produitProducteurRepository.findById(id);
     }
 
+    @Transactional
     public ProduitsProducteurs save(ProduitsProducteurs produitsProducteurs){
-        return produitProducteurRepository.save(produitsProducteurs);
+        long cle = CleStock.de(produitsProducteurs.getId().getIdProducteur(), produitsProducteurs.getId().getIdProduit());
+        Map<Long, Float> anciennes = stockService.verrouillerStocks(Collections.singleton(cle));
+        ProduitsProducteurs saved = produitProducteurRepository.save(produitsProducteurs);
+        disponibiliteService.invalider(saved.getId().getIdProduit());
+        if (saved.getQuantite() != null) {
+            stockService.enregistrerReferences(new TreeMap<>(Map.of(cle, saved.getQuantite())), anciennes);
+        }
+        return saved;
     }
 
 }
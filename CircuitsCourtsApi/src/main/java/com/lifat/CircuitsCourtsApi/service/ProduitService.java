@@ -8,6 +8,10 @@ import com.github.fge.jsonpatch.JsonPatchException;
 import com.lifat.CircuitsCourtsApi.model.Commande;
 import com.lifat.CircuitsCourtsApi.model.Produit;
 import com.lifat.CircuitsCourtsApi.repository.ProduitRepository;
+import com.lifat.CircuitsCourtsApi.service.disponibilite.DisponibiliteService;
+import com.lifat.CircuitsCourtsApi.service.pagination.PageCurseur;
+import com.lifat.CircuitsCourtsApi.service.pagination.Pagination;
+import com.lifat.CircuitsCourtsApi.service.pagination.RequetePage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -20,12 +24,29 @@ public class ProduitService {
     @Autowired
     private ProduitRepository produitRepository;
 
-    public Iterable<Produit> getProduits() {
-        return produitRepository.findAll();
+    @Autowired
+    private Pagination pagination;
+
+    @Autowired
+    private DisponibiliteService disponibiliteService;
+
+    /**
+     * Les produits page par page, par id croissant.
+     *
+     * @param apres curseur, null pour la premiere page
+     * @param idProducteur si non null, seuls les produits de ce producteur sont renvoyés
+     * @param taille nombre de produits par page
+     */
+    public PageCurseur<Produit> getProduits(Long apres, Long idProducteur, int taille) {
+        RequetePage requete = new RequetePage("SELECT * FROM produits p", "p.id")
+                .filtre("EXISTS (SELECT 1 FROM produits_producteurs pp WHERE pp.id_produit = p.id AND pp.id_producteur = ?)", idProducteur);
+        return pagination.lire(requete, Produit.class, apres, taille, Produit::getId);
     }
 
     public Produit saveProduit(Produit produit) {
-        return produitRepository.save(produit);
+        Produit savedProduit = produitRepository.save(produit);
+        disponibiliteService.invalider(savedProduit.getId());
+        return savedProduit;
     }
 
     public Optional<Produit> getProduit(final Long id) {
@@ -34,6 +55,7 @@ public class ProduitService {
 
     public void deleteProduit(final Long id) {
         produitRepository.deleteById(id);
+        disponibiliteService.invalider(id);
     }
 
     public Collection<Produit> getProduitsByProducteur(Long idProducteur){
@@ -58,6 +80,7 @@ public class ProduitService {
 
     public void save(Produit updatedProduit) {
         produitRepository.save(updatedProduit);
+        disponibiliteService.invalider(updatedProduit.getId());
     }
 
     public Iterable<Produit> getProductsByOrder(Long id) {
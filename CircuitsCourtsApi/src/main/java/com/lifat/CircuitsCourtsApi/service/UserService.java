@@ -6,6 +6,9 @@ import com.lifat.CircuitsCourtsApi.payload.response.UserResponse;
 import com.lifat.CircuitsCourtsApi.repository.RoleRepository;
 import com.lifat.CircuitsCourtsApi.repository.UserRepository;
 import com.lifat.CircuitsCourtsApi.model.User;
+import com.lifat.CircuitsCourtsApi.service.pagination.PageCurseur;
+import com.lifat.CircuitsCourtsApi.service.pagination.Pagination;
+import com.lifat.CircuitsCourtsApi.service.pagination.RequetePage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -21,12 +24,21 @@ public class UserService {
     @Autowired
     private RoleRepository roleRepository;
 
+    @Autowired
+    private Pagination pagination;
+
     public User save(User user) {
         return userRepository.save(user);
     }
 
-    public Iterable<User> findAll() {
-        return userRepository.findAll();
+    /**
+     * Les users page par page, par id croissant.
+     *
+     * @param apres curseur, null pour la premiere page
+     * @param taille nombre de users par page
+     */
+    public PageCurseur<User> findAll(Long apres, int taille) {
+        return pagination.lire(new RequetePage("SELECT * FROM users u", "u.id"), User.class, apres, taille, User::getId);
     }
 
     public void deleteById(Long id) {
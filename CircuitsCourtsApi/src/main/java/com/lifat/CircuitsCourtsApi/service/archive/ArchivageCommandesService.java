@@ -0,0 +1,134 @@
+package com.lifat.CircuitsCourtsApi.service.archive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Archivage des commandes des mois clos.
+ *
+ * Les commandes passées avant les moisConserves derniers mois, avec leurs commandesDetails et commandesProducteur,
+ * sont déplacées dans commandes_archive, commande_details_archive et commande_producteur_archive, des copies des tables
+ * en ROW_FORMAT=COMPRESSED. Les tables des commandes ne gardent que la saison en cours : index et sauvegardes restent petits.
+ * Le déplacement se fait par lots de commandes, chaque lot dans sa transaction, les commandes du lot étant verrouillées
+ * comme pour une mise à jour.
+ *
+ * Les ventes agrégées (ventes_jour, ventes_semaine) ne changent pas, leur reconstruction lit aussi les tables d'archive.
+ */
+@Service
+public class ArchivageCommandesService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchivageCommandesService.class);
+
+    public static final String COMMANDES_ARCHIVE = "commandes_archive";
+    public static final String COMMANDE_DETAILS_ARCHIVE = "commande_details_archive";
+    public static final String COMMANDE_PRODUCTEUR_ARCHIVE = "commande_producteur_archive";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    //nombre de mois complets gardes en plus du mois en cours, 0 pour ne jamais archiver
+    @Value("${com.lifat.circuitscourtsapi.archivage.moisConserves: 12}")
+    private int moisConserves;
+
+    @Value("${com.lifat.circuitscourtsapi.archivage.tailleLot: 500}")
+    private int tailleLot;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    private void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Crée les tables d'archive si besoin, une fois les tables des commandes créées par hibernate.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void creerTablesArchive() {
+        creerTableArchive("commandes", COMMANDES_ARCHIVE);
+        creerTableArchive("commande_details", COMMANDE_DETAILS_ARCHIVE);
+        creerTableArchive("commande_producteur", COMMANDE_PRODUCTEUR_ARCHIVE);
+    }
+
+    private void creerTableArchive(String table, String archive) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + archive + " LIKE " + table);
+        String format = jdbcTemplate.queryForObject("SELECT ROW_FORMAT FROM information_schema.tables WHERE table_schema = DATABASE() AND table_name = ?",
+                String.class, archive);
+        if (!"Compressed".equalsIgnoreCase(format)) {
+            jdbcTemplate.execute("ALTER TABLE " + archive + " ROW_FORMAT=COMPRESSED KEY_BLOCK_SIZE=8");
+        }
+    }
+
+    /**
+     * Archive les commandes des mois clos.
+     * Lancé chaque nuit sur l'un des threads des tâches planifiées (spring.task.scheduling.pool.size) : pendant un long
+     * archivage les autres tâches, comme le relais des événements, continuent sur les autres threads.
+     *
+     * @return le nombre de commandes archivées
+     */
+    @Scheduled(cron = "${com.lifat.circuitscourtsapi.archivage.cron: 0 30 3 * * *}")
+    public int archiver() {
+        if (moisConserves <= 0) {
+            return 0;
+        }
+        LocalDate limite = LocalDate.now(ZoneOffset.UTC).withDayOfMonth(1).minusMonths(moisConserves);
+        int archivees = 0;
+        while (true) {
+            List<Long> idCommandes = jdbcTemplate.queryForList("SELECT id FROM commandes WHERE date_commande < ? ORDER BY date_commande, id LIMIT ?",
+                    Long.class, limite, tailleLot);
+            if (idCommandes.isEmpty()) {
+                break;
+            }
+            transactionTemplate.executeWithoutResult(status -> archiverLot(idCommandes));
+            archivees += idCommandes.size();
+        }
+        if (archivees > 0) {
+            logger.info(archivees + " commande(s) passee(s) avant le " + limite + " archivee(s)");
+        }
+        return archivees;
+    }
+
+    private void archiverLot(List<Long> idCommandes) {
+        MapSqlParameterSource ids = new MapSqlParameterSource("ids", idCommandes);
+        //une commande modifiee ou supprimee en meme temps est archivee dans son etat final
+        namedParameterJdbcTemplate.queryForList("SELECT id FROM commandes WHERE id IN (:ids) FOR UPDATE", ids, Long.class);
+
+        namedParameterJdbcTemplate.update("INSERT INTO " + COMMANDES_ARCHIVE + " (id, id_client, date_commande, id_tournee) " +
+                "SELECT id, id_client, date_commande, id_tournee FROM commandes WHERE id IN (:ids)", ids);
+        namedParameterJdbcTemplate.update("INSERT INTO " + COMMANDE_DETAILS_ARCHIVE + " (id, id_commande, id_produit, quantite) " +
+                "SELECT id, id_commande, id_produit, quantite FROM commande_details WHERE id_commande IN (:ids)", ids);
+        namedParameterJdbcTemplate.update("INSERT INTO " + COMMANDE_PRODUCTEUR_ARCHIVE + " (id, id_commande_details, id_producteur, quantite) " +
+                "SELECT cp.id, cp.id_commande_details, cp.id_producteur, cp.quantite FROM commande_producteur cp " +
+                "INNER JOIN commande_details cd ON cd.id = cp.id_commande_details WHERE cd.id_commande IN (:ids)", ids);
+
+        namedParameterJdbcTemplate.update("DELETE cp FROM commande_producteur cp INNER JOIN commande_details cd ON cd.id = cp.id_commande_details " +
+                "WHERE cd.id_commande IN (:ids)", ids);
+        namedParameterJdbcTemplate.update("DELETE FROM commande_details WHERE id_commande IN (:ids)", ids);
+        namedParameterJdbcTemplate.update("DELETE FROM commandes WHERE id IN (:ids)", ids);
+    }
+}
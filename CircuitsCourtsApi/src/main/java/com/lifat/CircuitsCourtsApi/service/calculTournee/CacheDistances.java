@@ -0,0 +1,301 @@
+package com.lifat.CircuitsCourtsApi.service.calculTournee;
+
+import com.lifat.CircuitsCourtsApi.payload.response.CacheDistancesResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+
+/**
+ * Cache des distances producteur-client et client-client, pour ne pas refaire le calcul à chaque validation de commande
+ * et à chaque calcul de tournée.
+ *
+ * La clé est un long : le type de couple sur 2 bits, le type de distance (MatricesDistances.Type) sur 2 bits, puis les
+ * deux ids sur 30 bits chacun (le plus petit id d'abord pour un couple de clients, la distance étant symétrique).
+ * Les couples dont un id ne tient pas sur 30 bits ne sont pas gardés.
+ * Le cache garde au plus capacite distances et évince la moins récemment lue.
+ *
+ * La modification d'un producteur, d'un client ou d'une adresse retire ses distances (ProducteurServices, ClientService,
+ * AdresseService). Chaque distance garde aussi une empreinte des coordonnées utilisées : une coordonnée modifiée
+ * directement en bd donne une empreinte différente, la distance est alors recalculée.
+ *
+ * producteurClient et clientClient mesurent avec le fournisseur du rayon de livraison (ChoixDistances), remplirMatrice
+ * à vol d'oiseau. Comme le type de distance est dans la clé, une distance à vol d'oiseau et une distance par la route
+ * du même couple sont gardées côte à côte ; la version du fournisseur entre dans l'empreinte, une distance d'un ancien
+ * réseau routier n'est donc pas relue.
+ */
+@Service
+public class CacheDistances {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheDistances.class);
+
+    private static final long PRODUCTEUR_CLIENT = 1L << 62;
+
+    private static final long CLIENT_CLIENT = 2L << 62;
+
+    private static final int DECALAGE_TYPE_DISTANCE = 60;
+
+    //les cles valides ont toujours un type de couple non nul
+    private static final long AUCUNE_CLE = 0;
+
+    private static final int BITS_ID = 30;
+
+    private static final long ID_MAX = (1L << BITS_ID) - 1;
+
+    private static final long MASQUE_ID = ID_MAX;
+
+    @Autowired
+    private GeoPortailApiService geoPortailApiService;
+
+    @Autowired
+    private ChoixDistances choixDistances;
+
+    @Value("${com.lifat.circuitscourtsapi.distances.cache.capacite: 100000}")
+    private int capacite;
+
+    private LruDistances lru;
+
+    private final Object verrou = new Object();
+
+    private final LongAdder succes = new LongAdder();
+
+    private final LongAdder absences = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        lru = capacite > 0 ? new LruDistances(capacite) : null;
+    }
+
+    /**
+     * @return la distance en km entre le producteur et le client
+     */
+    public double producteurClient(long idProducteur, double latitudeProducteur, double longitudeProducteur,
+                                   long idClient, double latitudeClient, double longitudeClient) {
+        FournisseurDistances fournisseur = choixDistances.rayonLivraison();
+        if (!cachable(idProducteur, idClient)) {
+            return fournisseur.distance(latitudeProducteur, longitudeProducteur, latitudeClient, longitudeClient);
+        }
+        long cle = cle(PRODUCTEUR_CLIENT, fournisseur.type(), idProducteur, idClient);
+        int empreinte = empreinte(latitudeProducteur, longitudeProducteur, latitudeClient, longitudeClient) ^ empreinte(fournisseur);
+        double distance = lire(cle, empreinte);
+        if (Double.isNaN(distance)) {
+            distance = fournisseur.distance(latitudeProducteur, longitudeProducteur, latitudeClient, longitudeClient);
+            ecrire(cle, empreinte, distance);
+        }
+        return distance;
+    }
+
+    /**
+     * @return la distance en km entre les deux clients
+     */
+    public double clientClient(long idClient1, double latitude1, double longitude1, long idClient2, double latitude2, double longitude2) {
+        if (idClient1 == idClient2) {
+            return 0;
+        }
+        FournisseurDistances fournisseur = choixDistances.rayonLivraison();
+        if (!cachable(idClient1, idClient2)) {
+            return fournisseur.distance(latitude1, longitude1, latitude2, longitude2);
+        }
+        boolean ordonnes = idClient1 < idClient2;
+        long cle = ordonnes ? cle(CLIENT_CLIENT, fournisseur.type(), idClient1, idClient2) : cle(CLIENT_CLIENT, fournisseur.type(), idClient2, idClient1);
+        int empreinte = (ordonnes ? empreinte(latitude1, longitude1, latitude2, longitude2) : empreinte(latitude2, longitude2, latitude1, longitude1))
+                ^ empreinte(fournisseur);
+        double distance = lire(cle, empreinte);
+        if (Double.isNaN(distance)) {
+            //un ordre fixe, la distance par la route n'etant pas forcement symetrique
+            distance = ordonnes ? fournisseur.distance(latitude1, longitude1, latitude2, longitude2) : fournisseur.distance(latitude2, longitude2, latitude1, longitude1);
+            ecrire(cle, empreinte, distance);
+        }
+        return distance;
+    }
+
+    /**
+     * Matrice des distances à vol d'oiseau d'une tournée : le point 0 est le producteur, le point k le client idClients[k - 1].
+     * Les distances absentes du cache sont calculées par lots (GeoPortailApiService.Points) puis ajoutées au cache.
+     *
+     * @param latitudes  du producteur puis des clients, en degrés
+     * @param longitudes du producteur puis des clients, en degrés
+     * @param matrice    de taille au moins n * n, n = idClients.length + 1, remplie par lignes
+     */
+    public void remplirMatrice(long idProducteur, long[] idClients, double[] latitudes, double[] longitudes, double[] matrice) {
+        int n = idClients.length + 1;
+        GeoPortailApiService.Points points = null;
+        for (int i = 0; i < n; i++) {
+            matrice[i * n + i] = 0;
+            for (int j = i + 1; j < n; j++) {
+                long cle = cle(idProducteur, idClients, i, j);
+                int empreinte = cle == AUCUNE_CLE ? 0 : empreinte(i, j, idClients, latitudes, longitudes);
+                double distance = cle == AUCUNE_CLE ? Double.NaN : lire(cle, empreinte);
+                if (Double.isNaN(distance)) {
+                    if (points == null) {
+                        points = geoPortailApiService.preparer(latitudes, longitudes);
+                    }
+                    distance = i > 0 && idClients[i - 1] == idClients[j - 1] ? 0 : geoPortailApiService.distance(points, i, points, j);
+                    if (cle != AUCUNE_CLE) {
+                        ecrire(cle, empreinte, distance);
+                    }
+                }
+                matrice[i * n + j] = distance;
+                matrice[j * n + i] = distance;
+            }
+        }
+    }
+
+    /**
+     * Retire les distances d'un producteur, après la modification ou la suppression de sa fiche.
+     */
+    public void invaliderProducteur(Long idProducteur) {
+        if (idProducteur == null || idProducteur < 0 || idProducteur > ID_MAX) {
+            return;
+        }
+        long id = idProducteur;
+        retirerSi(cle -> (cle & CLIENT_CLIENT) == 0 && (cle >>> BITS_ID & MASQUE_ID) == id);
+    }
+
+    /**
+     * Retire les distances d'un client, après la modification ou la suppression de sa fiche ou d'une de ses adresses.
+     */
+    public void invaliderClient(Long idClient) {
+        if (idClient == null || idClient < 0 || idClient > ID_MAX) {
+            return;
+        }
+        long id = idClient;
+        retirerSi(cle -> (cle & MASQUE_ID) == id || ((cle & CLIENT_CLIENT) != 0 && (cle >>> BITS_ID & MASQUE_ID) == id));
+    }
+
+    public void vider() {
+        if (lru == null) {
+            return;
+        }
+        synchronized (verrou) {
+            invalidations.add(lru.taille());
+            lru.vider();
+        }
+    }
+
+    public CacheDistancesResponse statistiques() {
+        long nombreSucces = succes.sum();
+        long nombreAbsences = absences.sum();
+        int taille;
+        long evictions;
+        if (lru == null) {
+            taille = 0;
+            evictions = 0;
+        } else {
+            synchronized (verrou) {
+                taille = lru.taille();
+                evictions = lru.evictions();
+            }
+        }
+        long lectures = nombreSucces + nombreAbsences;
+        return new CacheDistancesResponse(taille, Math.max(capacite, 0), nombreSucces, nombreAbsences, evictions, invalidations.sum(),
+                lectures == 0 ? 0 : (double) nombreSucces / lectures);
+    }
+
+    @Scheduled(fixedDelayString = "${com.lifat.circuitscourtsapi.distances.cache.intervalleStatistiquesMs: 3600000}",
+            initialDelayString = "${com.lifat.circuitscourtsapi.distances.cache.intervalleStatistiquesMs: 3600000}")
+    public void journaliserStatistiques() {
+        CacheDistancesResponse statistiques = statistiques();
+        logger.info("cache des distances : " + statistiques.getTaille() + "/" + statistiques.getCapacite() + " distance(s), taux de succes "
+                + Math.round(statistiques.getTauxSucces() * 1000) / 10.0 + " % (" + statistiques.getSucces() + " succes, "
+                + statistiques.getAbsences() + " absence(s)), " + statistiques.getEvictions() + " eviction(s), "
+                + statistiques.getInvalidations() + " invalidation(s)");
+    }
+
+    private double lire(long cle, int empreinte) {
+        double distance = Double.NaN;
+        if (lru != null) {
+            synchronized (verrou) {
+                distance = lru.lire(cle, empreinte);
+            }
+        }
+        if (Double.isNaN(distance)) {
+            absences.increment();
+        } else {
+            succes.increment();
+        }
+        return distance;
+    }
+
+    private void ecrire(long cle, int empreinte, double distance) {
+        if (lru == null) {
+            return;
+        }
+        synchronized (verrou) {
+            lru.ecrire(cle, empreinte, distance);
+        }
+    }
+
+    private void retirerSi(LongPredicate filtre) {
+        if (lru == null) {
+            return;
+        }
+        synchronized (verrou) {
+            invalidations.add(lru.retirerSi(filtre));
+        }
+    }
+
+    /**
+     * @return la clé du couple de points (i, j) de remplirMatrice, i < j, AUCUNE_CLE si le couple n'est pas gardé
+     */
+    private static long cle(long idProducteur, long[] idClients, int i, int j) {
+        long idClient = idClients[j - 1];
+        if (i == 0) {
+            return cachable(idProducteur, idClient) ? cle(PRODUCTEUR_CLIENT, MatricesDistances.Type.HAVERSINE, idProducteur, idClient) : AUCUNE_CLE;
+        }
+        long autre = idClients[i - 1];
+        if (autre == idClient || !cachable(autre, idClient)) {
+            return AUCUNE_CLE;
+        }
+        return cle(CLIENT_CLIENT, MatricesDistances.Type.HAVERSINE, Math.min(autre, idClient), Math.max(autre, idClient));
+    }
+
+    /**
+     * @param typeCouple PRODUCTEUR_CLIENT ou CLIENT_CLIENT
+     */
+    private static long cle(long typeCouple, MatricesDistances.Type typeDistance, long id1, long id2) {
+        return typeCouple | (long) typeDistance.ordinal() << DECALAGE_TYPE_DISTANCE | id1 << BITS_ID | id2;
+    }
+
+    private static int empreinte(int i, int j, long[] idClients, double[] latitudes, double[] longitudes) {
+        //meme ordre que la cle : le producteur, ou le plus petit id de client, d'abord
+        if (i > 0 && idClients[i - 1] > idClients[j - 1]) {
+            return empreinte(latitudes[j], longitudes[j], latitudes[i], longitudes[i]);
+        }
+        return empreinte(latitudes[i], longitudes[i], latitudes[j], longitudes[j]);
+    }
+
+    private static int empreinte(double latitude1, double longitude1, double latitude2, double longitude2) {
+        long h = Double.doubleToLongBits(latitude1);
+        h = h * 31 + Double.doubleToLongBits(longitude1);
+        h = h * 31 + Double.doubleToLongBits(latitude2);
+        h = h * 31 + Double.doubleToLongBits(longitude2);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) (h ^ h >>> 32);
+    }
+
+    /**
+     * @return 0 pour haversine, les empreintes des distances à vol d'oiseau ne changent donc pas avec la version
+     */
+    private static int empreinte(FournisseurDistances fournisseur) {
+        long h = (long) fournisseur.type().ordinal() << 56 ^ fournisseur.version();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) (h ^ h >>> 32);
+    }
+
+    private static boolean cachable(long id1, long id2) {
+        return id1 >= 0 && id1 <= ID_MAX && id2 >= 0 && id2 <= ID_MAX;
+    }
+}
@@ -0,0 +1,58 @@
+package com.lifat.CircuitsCourtsApi.service.calculTournee;
+
+import com.lifat.CircuitsCourtsApi.service.routage.DistancesRoutieres;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Le FournisseurDistances du calcul des tournées et celui de la vérification du rayon de livraison, choisis par la
+ * configuration : haversine (à vol d'oiseau, par défaut) ou route. La route n'est donnée que quand le réseau routier
+ * est chargé, haversine sinon.
+ */
+@Service
+public class ChoixDistances {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChoixDistances.class);
+
+    private static final String HAVERSINE = "haversine";
+
+    private static final String ROUTE = "route";
+
+    @Value("${com.lifat.circuitscourtsapi.distances.tournees: haversine}")
+    private String tournees;
+
+    @Value("${com.lifat.circuitscourtsapi.distances.rayonLivraison: haversine}")
+    private String rayonLivraison;
+
+    @Autowired
+    private GeoPortailApiService geoPortailApiService;
+
+    @Autowired
+    private DistancesRoutieres distancesRoutieres;
+
+    @PostConstruct
+    private void init() {
+        for (String choix : new String[]{tournees, rayonLivraison}) {
+            if (!HAVERSINE.equalsIgnoreCase(choix) && !ROUTE.equalsIgnoreCase(choix)) {
+                logger.warn("fournisseur de distances inconnu : " + choix + ", distances a vol d'oiseau");
+            }
+        }
+    }
+
+    public FournisseurDistances tournees() {
+        return choisir(tournees);
+    }
+
+    public FournisseurDistances rayonLivraison() {
+        return choisir(rayonLivraison);
+    }
+
+    private FournisseurDistances choisir(String choix) {
+        return ROUTE.equalsIgnoreCase(choix) && distancesRoutieres.isDisponible() ? distancesRoutieres : geoPortailApiService;
+    }
+}
@@ -0,0 +1,34 @@
+package com.lifat.CircuitsCourtsApi.service.calculTournee;
+
+/**
+ * Une façon de mesurer la distance entre deux points gps : à vol d'oiseau (GeoPortailApiService) ou par la route
+ * (DistancesRoutieres). ChoixDistances donne celui utilisé par le calcul des tournées et celui du rayon de livraison.
+ *
+ * calculer, hérité de MatricesDistances.CalculDistances, écrit les distances en km, ce qui permet de garder les
+ * matrices d'un fournisseur sur disque sous son type.
+ */
+public interface FournisseurDistances extends MatricesDistances.CalculDistances {
+
+    /**
+     * @return le type des distances, sous lequel leurs matrices sont gardées
+     */
+    MatricesDistances.Type type();
+
+    /**
+     * @return un numéro qui change quand les distances du fournisseur changent (nouveau réseau routier par exemple)
+     */
+    default long version() {
+        return 0;
+    }
+
+    /**
+     * @return la distance en km entre les deux points
+     */
+    double distance(double latitude1, double longitude1, double latitude2, double longitude2);
+
+    /**
+     * Écrit dans resultats[o * nombreDestinations + d] le temps de trajet en secondes de l'origine o à la destination d.
+     */
+    void calculerTemps(double[] latitudesOrigines, double[] longitudesOrigines,
+                       double[] latitudesDestinations, double[] longitudesDestinations, double[] resultats);
+}
@@ -1,58 +1,223 @@
 package com.lifat.CircuitsCourtsApi.service.calculTournee;
 
-import com.lifat.CircuitsCourtsApi.model.*;
-import com.lifat.CircuitsCourtsApi.repository.ClientRepository;
-import com.lifat.CircuitsCourtsApi.repository.CommandeProducteurRepository;
-import com.lifat.CircuitsCourtsApi.repository.CommandeRepository;
-import com.lifat.CircuitsCourtsApi.repository.ProducteurRepository;
-
-import com.lifat.CircuitsCourtsApi.service.calculTournee.Data;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import com.google.ortools.constraintsolver.Assignment;
-import com.google.ortools.constraintsolver.FirstSolutionStrategy;
-import com.google.ortools.constraintsolver.RoutingIndexManager;
-import com.google.ortools.constraintsolver.RoutingModel;
-import com.google.ortools.constraintsolver.RoutingSearchParameters;
-import com.google.ortools.constraintsolver.main;
+/**
+ * Distances à vol d'oiseau (haversine) entre points gps.
+ *
+ * Pour les calculs en série (matrice de distances, ligne d'un point vers beaucoup d'autres), les coordonnées sont
+ * préparées une fois dans un objet Points : radians et cosinus des latitudes sont calculés une fois par point et non
+ * une fois par couple, et les distances sont écrites dans un tableau fourni par l'appelant, sans allocation.
+ *
+ * C'est le FournisseurDistances par défaut, et celui des couples que le réseau routier ne sait pas relier.
+ */
+@Service
+public class GeoPortailApiService implements FournisseurDistances {
 
-import java.awt.*;
-import java.util.*;
+    // Rayon de la Terre en kilomètres
+    public static final double RAYON_TERRE_KM = 6371.07103;
+
+    /**
+     * Domaine de l'approximation equirectangulaire : les deux points à moins de LATITUDE_MAX_APPROCHEE degrés de l'équateur
+     * et à moins de DISTANCE_MAX_APPROCHEE km l'un de l'autre. Dans ce domaine l'erreur relative par rapport à haversine
+     * est inférieure à 0,2 % (mesurée : 0,19 % au pire à 70° et 500 km, 0,02 % à 250 km et 45°).
+     */
+    public static final double LATITUDE_MAX_APPROCHEE = 70;
+
+    public static final double DISTANCE_MAX_APPROCHEE = 500;
+
+    //marge des decisions prises sur la distance approchee, plus du double de l'erreur du domaine
+    public static final double ERREUR_RELATIVE_APPROCHEE = 0.005;
+
+    private static final double COS_LATITUDE_MAX_APPROCHEE = Math.cos(Math.toRadians(LATITUDE_MAX_APPROCHEE));
+
+    //vitesse des temps de trajet a vol d'oiseau, initialisee aussi hors de spring
+    @Value("${com.lifat.circuitscourtsapi.distances.vitesseMoyenneKmH: 50}")
+    private double vitesseMoyenneKmH = 50;
 
-@Service
-public class GeoPortailApiService {
     /**
-     * Calcule une distance en metre entre 2 points gps
+     * Des points gps préparés pour les calculs en série, en tableaux parallèles.
+     */
+    public static final class Points {
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final double[] cosLatitudes;
+
+        private Points(int taille) {
+            latitudes = new double[taille];
+            longitudes = new double[taille];
+            cosLatitudes = new double[taille];
+        }
+
+        public int taille() {
+            return latitudes.length;
+        }
+    }
+
+    /**
+     * Calcule une distance en km entre 2 points gps
      *
      * @param latitude1
      * @param longitude1
      * @param latitude2
      * @param longitude2
-     * @return la distance en m
+     * @return la distance en km
      */
     public double verifDistanceBetweenProducteurAndClient(double latitude1, double longitude1, double latitude2, double longitude2) {
-        System.out.println(latitude1 + " " + latitude2 + " " + longitude1 + " " + longitude2);
         latitude1 = Math.toRadians(latitude1);
         latitude2 = Math.toRadians(latitude2);
-        longitude1 = Math.toRadians(longitude1);
-        longitude2 = Math.toRadians(longitude2);
-        System.out.println(latitude1 + " " + latitude2 + " " + longitude1 + " " + longitude2);
-
-        double earthRadius = 6371.07103; // Rayon de la Terre en kilomètres
-        double diffLat = latitude2 - latitude1;
-        double diffLon = longitude2 - longitude1;
-        double a = Math.pow(Math.sin(diffLat / 2), 2)
-                + Math.cos(latitude1) * Math.cos(latitude2) * Math.pow(Math.sin(diffLon / 2), 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        double distance = earthRadius * c;
-        System.out.println("distance en km : " + distance);
-        return distance;
+        return haversine(latitude1, Math.toRadians(longitude1), Math.cos(latitude1), latitude2, Math.toRadians(longitude2), Math.cos(latitude2));
+    }
 
+    @Override
+    public MatricesDistances.Type type() {
+        return MatricesDistances.Type.HAVERSINE;
     }
 
+    @Override
+    public double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        return verifDistanceBetweenProducteurAndClient(latitude1, longitude1, latitude2, longitude2);
+    }
 
-}
+    @Override
+    public void calculer(double[] latitudesOrigines, double[] longitudesOrigines,
+                         double[] latitudesDestinations, double[] longitudesDestinations, double[] resultats) {
+        Points origines = preparer(latitudesOrigines, longitudesOrigines);
+        Points destinations = latitudesDestinations == latitudesOrigines && longitudesDestinations == longitudesOrigines
+                ? origines : preparer(latitudesDestinations, longitudesDestinations);
+        if (origines == destinations) {
+            remplirMatrice(origines, resultats);
+            return;
+        }
+        for (int o = 0; o < origines.taille(); o++) {
+            remplirLigne(origines, o, destinations, resultats, o * destinations.taille());
+        }
+    }
 
+    /**
+     * Temps de trajet à vol d'oiseau, à vitesseMoyenneKmH.
+     */
+    @Override
+    public void calculerTemps(double[] latitudesOrigines, double[] longitudesOrigines,
+                              double[] latitudesDestinations, double[] longitudesDestinations, double[] resultats) {
+        calculer(latitudesOrigines, longitudesOrigines, latitudesDestinations, longitudesDestinations, resultats);
+        int n = latitudesOrigines.length * latitudesDestinations.length;
+        for (int i = 0; i < n; i++) {
+            resultats[i] = resultats[i] * 3600 / vitesseMoyenneKmH;
+        }
+    }
 
+    /**
+     * @param latitudes  en degrés
+     * @param longitudes en degrés, de même taille que latitudes
+     * @return les points préparés, dans le même ordre
+     */
+    public Points preparer(double[] latitudes, double[] longitudes) {
+        if (latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("autant de latitudes que de longitudes sont attendues");
+        }
+        Points points = new Points(latitudes.length);
+        for (int i = 0; i < latitudes.length; i++) {
+            points.latitudes[i] = Math.toRadians(latitudes[i]);
+            points.longitudes[i] = Math.toRadians(longitudes[i]);
+            points.cosLatitudes[i] = Math.cos(points.latitudes[i]);
+        }
+        return points;
+    }
 
+    /**
+     * @return la distance en km entre origines[i] et destinations[j]
+     */
+    public double distance(Points origines, int i, Points destinations, int j) {
+        return haversine(origines.latitudes[i], origines.longitudes[i], origines.cosLatitudes[i],
+                destinations.latitudes[j], destinations.longitudes[j], destinations.cosLatitudes[j]);
+    }
+
+    /**
+     * Écrit dans ligne[decalage + j] la distance en km de origines[i] à destinations[j], pour toutes les destinations.
+     */
+    public void remplirLigne(Points origines, int i, Points destinations, double[] ligne, int decalage) {
+        double latitude = origines.latitudes[i];
+        double longitude = origines.longitudes[i];
+        double cosLatitude = origines.cosLatitudes[i];
+        for (int j = 0; j < destinations.taille(); j++) {
+            ligne[decalage + j] = haversine(latitude, longitude, cosLatitude,
+                    destinations.latitudes[j], destinations.longitudes[j], destinations.cosLatitudes[j]);
+        }
+    }
+
+    /**
+     * Écrit dans matrice[i * n + j] la distance en km entre les points i et j, n étant le nombre de points.
+     * La matrice est symétrique, chaque couple n'est calculé qu'une fois.
+     *
+     * @param matrice de taille au moins n * n
+     */
+    public void remplirMatrice(Points points, double[] matrice) {
+        int n = points.taille();
+        for (int i = 0; i < n; i++) {
+            matrice[i * n + i] = 0;
+            double latitude = points.latitudes[i];
+            double longitude = points.longitudes[i];
+            double cosLatitude = points.cosLatitudes[i];
+            for (int j = i + 1; j < n; j++) {
+                double distance = haversine(latitude, longitude, cosLatitude,
+                        points.latitudes[j], points.longitudes[j], points.cosLatitudes[j]);
+                matrice[i * n + j] = distance;
+                matrice[j * n + i] = distance;
+            }
+        }
+    }
+
+    /**
+     * Distance equirectangulaire en km entre origines[i] et destinations[j] : une racine et un cosinus, sans fonction
+     * trigonométrique inverse. Voir LATITUDE_MAX_APPROCHEE pour son erreur.
+     */
+    public double distanceApprochee(Points origines, int i, Points destinations, int j) {
+        double ecartLongitude = Math.abs(destinations.longitudes[j] - origines.longitudes[i]);
+        if (ecartLongitude > Math.PI) {
+            ecartLongitude = 2 * Math.PI - ecartLongitude;
+        }
+        double x = ecartLongitude * Math.cos((origines.latitudes[i] + destinations.latitudes[j]) / 2);
+        double y = destinations.latitudes[j] - origines.latitudes[i];
+        return RAYON_TERRE_KM * Math.sqrt(x * x + y * y);
+    }
+
+    /**
+     * Vrai si destinations[j] est à au plus rayonKm de origines[i], au sens de haversine.
+     *
+     * L'écart de latitude seul donne un minorant exact de la distance. Ensuite, dans le domaine de l'approximation
+     * equirectangulaire, les couples nettement en deçà ou au delà du rayon (marge ERREUR_RELATIVE_APPROCHEE) sont tranchés
+     * sans haversine ; les autres, et tous ceux hors du domaine, sont calculés exactement.
+     */
+    public boolean dansRayon(Points origines, int i, Points destinations, int j, double rayonKm) {
+        if (RAYON_TERRE_KM * Math.abs(destinations.latitudes[j] - origines.latitudes[i]) > rayonKm) {
+            return false;
+        }
+        if (origines.cosLatitudes[i] >= COS_LATITUDE_MAX_APPROCHEE && destinations.cosLatitudes[j] >= COS_LATITUDE_MAX_APPROCHEE) {
+            double approchee = distanceApprochee(origines, i, destinations, j);
+            if (approchee <= DISTANCE_MAX_APPROCHEE) {
+                if (approchee <= rayonKm * (1 - ERREUR_RELATIVE_APPROCHEE)) {
+                    return true;
+                }
+                if (approchee > rayonKm * (1 + ERREUR_RELATIVE_APPROCHEE)) {
+                    return false;
+                }
+            }
+        }
+        return haversine(origines.latitudes[i], origines.longitudes[i], origines.cosLatitudes[i],
+                destinations.latitudes[j], destinations.longitudes[j], destinations.cosLatitudes[j]) <= rayonKm;
+    }
+
+    /**
+     * @return la distance en km, coordonnées en radians
+     */
+    private static double haversine(double latitude1, double longitude1, double cosLatitude1,
+                                     double latitude2, double longitude2, double cosLatitude2) {
+        double sinDemiLatitude = Math.sin((latitude2 - latitude1) / 2);
+        double sinDemiLongitude = Math.sin((longitude2 - longitude1) / 2);
+        double a = sinDemiLatitude * sinDemiLatitude + cosLatitude1 * cosLatitude2 * sinDemiLongitude * sinDemiLongitude;
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return RAYON_TERRE_KM * c;
+    }
+}
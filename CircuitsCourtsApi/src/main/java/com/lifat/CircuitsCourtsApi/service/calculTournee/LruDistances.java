@@ -0,0 +1,214 @@
+package com.lifat.CircuitsCourtsApi.service.calculTournee;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Cache LRU long -> distance de capacité fixe, sans objet par entrée ni autoboxing.
+ *
+ * Les entrées sont rangées dans des tableaux parallèles et chaînées de la plus récemment lue (tete) à la plus ancienne
+ * (queue), qui est évincée quand le cache est plein. Une table à adressage ouvert (sondage linéaire, suppression par
+ * recul des entrées suivantes) donne l'entrée d'une clé.
+ * Chaque entrée garde une empreinte des coordonnées qui ont servi au calcul : une lecture avec une autre empreinte
+ * retire l'entrée et compte comme une absence.
+ * N'est pas thread-safe : l'appelant doit tenir le verrou qui protège le cache.
+ */
+final class LruDistances {
+
+    private static final int AUCUNE = -1;
+
+    private final long[] cles;
+
+    private final double[] distances;
+
+    private final int[] empreintes;
+
+    private final int[] precedentes;
+
+    private final int[] suivantes;
+
+    //position dans la table -> entree, AUCUNE si la case est libre
+    private final int[] table;
+
+    private int tete = AUCUNE;
+
+    private int queue = AUCUNE;
+
+    //entrees libres, chainees par suivantes
+    private int libre;
+
+    private int taille;
+
+    private long evictions;
+
+    LruDistances(int capacite) {
+        cles = new long[capacite];
+        distances = new double[capacite];
+        empreintes = new int[capacite];
+        precedentes = new int[capacite];
+        suivantes = new int[capacite];
+        table = new int[Integer.highestOneBit(Math.max(16, capacite * 2) - 1) << 1];
+        vider();
+    }
+
+    /**
+     * @return la distance, NaN si la clé est absente ou a été calculée avec d'autres coordonnées
+     */
+    double lire(long cle, int empreinte) {
+        int position = trouver(cle);
+        if (table[position] == AUCUNE) {
+            return Double.NaN;
+        }
+        int entree = table[position];
+        if (empreintes[entree] != empreinte) {
+            retirer(position);
+            return Double.NaN;
+        }
+        detacher(entree);
+        attacherEnTete(entree);
+        return distances[entree];
+    }
+
+    void ecrire(long cle, int empreinte, double distance) {
+        int position = trouver(cle);
+        int entree = table[position];
+        if (entree != AUCUNE) {
+            detacher(entree);
+        } else {
+            if (libre == AUCUNE) {
+                retirer(trouver(cles[queue]));
+                evictions++;
+                //le recul des entrees a pu deplacer la case libre de la cle
+                position = trouver(cle);
+            }
+            entree = libre;
+            libre = suivantes[entree];
+            cles[entree] = cle;
+            table[position] = entree;
+            taille++;
+        }
+        empreintes[entree] = empreinte;
+        distances[entree] = distance;
+        attacherEnTete(entree);
+    }
+
+    /**
+     * Retire toutes les entrées dont la clé vérifie le filtre, en parcourant tout le cache.
+     *
+     * @return le nombre d'entrées retirées
+     */
+    int retirerSi(LongPredicate filtre) {
+        int retirees = 0;
+        int entree = tete;
+        while (entree != AUCUNE) {
+            int suivante = suivantes[entree];
+            if (filtre.test(cles[entree])) {
+                retirer(trouver(cles[entree]));
+                retirees++;
+            }
+            entree = suivante;
+        }
+        return retirees;
+    }
+
+    void vider() {
+        Arrays.fill(table, AUCUNE);
+        for (int i = 0; i < cles.length; i++) {
+            suivantes[i] = i + 1 < cles.length ? i + 1 : AUCUNE;
+        }
+        libre = cles.length > 0 ? 0 : AUCUNE;
+        tete = AUCUNE;
+        queue = AUCUNE;
+        taille = 0;
+    }
+
+    int taille() {
+        return taille;
+    }
+
+    int capacite() {
+        return cles.length;
+    }
+
+    long evictions() {
+        return evictions;
+    }
+
+    /**
+     * @return la position de la clé dans la table, ou la case libre où l'ajouter
+     */
+    private int trouver(long cle) {
+        int masque = table.length - 1;
+        int position = positionIdeale(cle);
+        while (table[position] != AUCUNE && cles[table[position]] != cle) {
+            position = (position + 1) & masque;
+        }
+        return position;
+    }
+
+    private int positionIdeale(long cle) {
+        //finaliseur de MurmurHash3, les cles sont des ids regroupes
+        cle ^= cle >>> 33;
+        cle *= 0xff51afd7ed558ccdL;
+        cle ^= cle >>> 33;
+        cle *= 0xc4ceb9fe1a85ec53L;
+        cle ^= cle >>> 33;
+        return (int) cle & (table.length - 1);
+    }
+
+    /**
+     * Retire l'entrée de la case position et recule les entrées suivantes du même groupe de cases occupées.
+     */
+    private void retirer(int position) {
+        int entree = table[position];
+        detacher(entree);
+        suivantes[entree] = libre;
+        libre = entree;
+        taille--;
+
+        int masque = table.length - 1;
+        int vide = position;
+        int suivante = position;
+        while (true) {
+            suivante = (suivante + 1) & masque;
+            if (table[suivante] == AUCUNE) {
+                break;
+            }
+            int ideale = positionIdeale(cles[table[suivante]]);
+            //l'entree peut reculer dans la case vide si sa position ideale n'est pas entre la case vide (exclue) et elle
+            boolean entreLesDeux = vide <= suivante ? (vide < ideale && ideale <= suivante) : (vide < ideale || ideale <= suivante);
+            if (!entreLesDeux) {
+                table[vide] = table[suivante];
+                vide = suivante;
+            }
+        }
+        table[vide] = AUCUNE;
+    }
+
+    private void detacher(int entree) {
+        int precedente = precedentes[entree];
+        int suivante = suivantes[entree];
+        if (precedente != AUCUNE) {
+            suivantes[precedente] = suivante;
+        } else {
+            tete = suivante;
+        }
+        if (suivante != AUCUNE) {
+            precedentes[suivante] = precedente;
+        } else {
+            queue = precedente;
+        }
+    }
+
+    private void attacherEnTete(int entree) {
+        precedentes[entree] = AUCUNE;
+        suivantes[entree] = tete;
+        if (tete != AUCUNE) {
+            precedentes[tete] = entree;
+        }
+        tete = entree;
+        if (queue == AUCUNE) {
+            queue = entree;
+        }
+    }
+}
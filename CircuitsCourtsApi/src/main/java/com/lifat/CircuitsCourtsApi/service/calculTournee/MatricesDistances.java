@@ -0,0 +1,565 @@
+package com.lifat.CircuitsCourtsApi.service.calculTournee;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Matrices de distances des tournées gardées sur disque, pour ne pas recalculer les N² distances à chaque calcul de tournée.
+ *
+ * Une matrice par dépôt (le premier point de la tournée) et par type de distance, en deux fichiers :
+ * - type-depot.points : les points de la matrice dans leur ordre d'ajout (id du point, latitude, longitude) ;
+ * - type-depot.matrice : les distances en float, par coquilles. La coquille k est ajoutée avec le point k : la ligne k
+ *   (distances de k vers les points 0..k) puis la colonne k (distances des points 0..k-1 vers k), elle commence donc au
+ *   float k². Ajouter des points n'ajoute que leurs coquilles à la fin du fichier, sans réécrire les autres.
+ * Le fichier des distances est lu par FileChannel.map, sans copie. Les distances d'une coquille sont écrites avant son point :
+ * après un arrêt brutal, les coquilles sans point, ou les points sans coquille complète, sont ignorés à la réouverture.
+ * Les deux fichiers portent la même génération dans leur en-tête ; une matrice réécrite change de génération, deux
+ * fichiers de générations différentes (arrêt pendant la réécriture) sont remis à zéro.
+ *
+ * Un point dont les coordonnées ont changé est ajouté comme un nouveau point, sa coquille précédente n'est plus lue.
+ * Quand la matrice a plus de pointsMax points, ou plus du double des points demandés, elle est réécrite avec les seuls
+ * points demandés, en reprenant les distances déjà connues.
+ */
+@Service
+public class MatricesDistances {
+
+    private static final Logger logger = LoggerFactory.getLogger(MatricesDistances.class);
+
+    public enum Type {
+        HAVERSINE, ROUTE
+    }
+
+    /**
+     * Calcul des distances absentes de la matrice, par blocs.
+     */
+    public interface CalculDistances {
+        /**
+         * Écrit dans resultats[o * nombreDestinations + d] la distance en km de l'origine o à la destination d.
+         */
+        void calculer(double[] latitudesOrigines, double[] longitudesOrigines,
+                      double[] latitudesDestinations, double[] longitudesDestinations, double[] resultats);
+    }
+
+    //type du point sur les 2 bits de poids fort de son id, comme dans CacheDistances
+    public static final long PRODUCTEUR = 1L << 62;
+
+    public static final long CLIENT = 2L << 62;
+
+    private static final int MAGIC_POINTS = 0x4d545850;
+
+    private static final int MAGIC_MATRICE = 0x4d545846;
+
+    private static final int VERSION = 1;
+
+    private static final int EN_TETE = 16;
+
+    private static final int TAILLE_POINT = 24;
+
+    private static final long AUCUNE_GENERATION = Long.MIN_VALUE;
+
+    @Value("${com.lifat.circuitscourtsapi.distances.matrices.actif: false}")
+    private boolean actif;
+
+    @Value("${com.lifat.circuitscourtsapi.distances.matrices.repertoire: matrices-distances}")
+    private String repertoire;
+
+    @Value("${com.lifat.circuitscourtsapi.distances.matrices.pointsMax: 4000}")
+    private int pointsMax;
+
+    @Value("${com.lifat.circuitscourtsapi.distances.matrices.matricesOuvertes: 32}")
+    private int matricesOuvertes;
+
+    private Path dossier;
+
+    //matrices ouvertes, la moins recemment utilisee est fermee au dela de matricesOuvertes
+    private Map<String, Matrice> matrices;
+
+    /**
+     * Une matrice ouverte.
+     */
+    private static final class Matrice {
+        final Path cheminPoints;
+        final Path cheminMatrice;
+        FileChannel canalPoints;
+        FileChannel canalMatrice;
+        MappedByteBuffer carte;
+        int taille;
+        long[] points = new long[16];
+        double[] latitudes = new double[16];
+        double[] longitudes = new double[16];
+        //id du point -> sa derniere coquille
+        final Map<Long, Integer> positions = new HashMap<>();
+
+        Matrice(Path cheminPoints, Path cheminMatrice) {
+            this.cheminPoints = cheminPoints;
+            this.cheminMatrice = cheminMatrice;
+        }
+
+        /**
+         * @return la coquille du point, -1 s'il est absent ou si ses coordonnées ont changé
+         */
+        int position(long point, double latitude, double longitude) {
+            Integer position = positions.get(point);
+            if (position == null || latitudes[position] != latitude || longitudes[position] != longitude) {
+                return -1;
+            }
+            return position;
+        }
+
+        float lire(int i, int j) {
+            return carte.getFloat((int) (EN_TETE + 4 * indice(i, j)));
+        }
+
+        void ajouterPoint(long point, double latitude, double longitude) {
+            if (taille == points.length) {
+                points = Arrays.copyOf(points, taille * 2);
+                latitudes = Arrays.copyOf(latitudes, taille * 2);
+                longitudes = Arrays.copyOf(longitudes, taille * 2);
+            }
+            points[taille] = point;
+            latitudes[taille] = latitude;
+            longitudes[taille] = longitude;
+            positions.put(point, taille);
+            taille++;
+        }
+
+        void fermer() throws IOException {
+            carte = null;
+            canalPoints.close();
+            canalMatrice.close();
+        }
+    }
+
+    @PostConstruct
+    private void init() throws IOException {
+        if (!actif) {
+            return;
+        }
+        dossier = Paths.get(repertoire);
+        Files.createDirectories(dossier);
+        matrices = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @PreDestroy
+    private void fermer() {
+        if (!actif) {
+            return;
+        }
+        synchronized (this) {
+            for (Matrice matrice : matrices.values()) {
+                try {
+                    matrice.fermer();
+                } catch (IOException e) {
+                    logger.error("fermeture d'une matrice de distances", e);
+                }
+            }
+            matrices.clear();
+        }
+    }
+
+    public boolean isActif() {
+        return actif;
+    }
+
+    /**
+     * Supprime les matrices d'un type de distance, quand ses distances ont changé (nouveau réseau routier par exemple).
+     */
+    public void supprimer(Type type) {
+        if (!actif) {
+            return;
+        }
+        String prefixe = type.name().toLowerCase() + "-";
+        synchronized (this) {
+            for (String cle : new ArrayList<>(matrices.keySet())) {
+                if (cle.startsWith(prefixe)) {
+                    fermerEtOublier(cle);
+                }
+            }
+            try (DirectoryStream<Path> fichiers = Files.newDirectoryStream(dossier, prefixe + "*.{points,matrice}")) {
+                for (Path fichier : fichiers) {
+                    Files.deleteIfExists(fichier);
+                }
+            } catch (IOException e) {
+                logger.error("suppression des matrices de distances " + type, e);
+            }
+        }
+    }
+
+    /**
+     * Position de la distance (i, j) dans le fichier, en floats : coquille max(i, j).
+     */
+    static long indice(int i, int j) {
+        if (i >= j) {
+            return (long) i * i + j;
+        }
+        return (long) j * j + j + 1 + i;
+    }
+
+    /**
+     * La matrice des distances entre les points, le premier étant le dépôt. Les distances déjà gardées pour ce dépôt sont
+     * relues, les autres sont calculées par calcul puis ajoutées aux fichiers.
+     *
+     * @param points     ids des points (PRODUCTEUR | id ou CLIENT | id), un même point peut apparaitre plusieurs fois
+     * @param latitudes  en degrés
+     * @param longitudes en degrés
+     * @return les distances en km, n * n par lignes
+     */
+    public double[] matrice(Type type, long[] points, double[] latitudes, double[] longitudes, CalculDistances calcul) {
+        int n = points.length;
+        double[] resultat = new double[n * n];
+        if (!actif || n == 0) {
+            calcul.calculer(latitudes, longitudes, latitudes, longitudes, resultat);
+            return resultat;
+        }
+        String cle = type.name().toLowerCase() + "-" + Long.toHexString(points[0]);
+        synchronized (this) {
+            try {
+                Matrice matrice = ouvrir(cle);
+                int[] positions = completer(cle, matrice, points, latitudes, longitudes, calcul);
+                matrice = matrices.get(cle);
+                for (int i = 0; i < n; i++) {
+                    for (int j = 0; j < n; j++) {
+                        resultat[i * n + j] = i == j ? 0 : matrice.lire(positions[i], positions[j]);
+                    }
+                }
+                return resultat;
+            } catch (IOException e) {
+                logger.error("matrice de distances " + cle + " illisible, distances recalculees", e);
+                fermerEtOublier(cle);
+            }
+        }
+        calcul.calculer(latitudes, longitudes, latitudes, longitudes, resultat);
+        return resultat;
+    }
+
+    /**
+     * Ajoute à la matrice les points qu'elle n'a pas, ou la réécrit si elle est trop grande.
+     *
+     * @return la coquille de chaque point demandé
+     */
+    private int[] completer(String cle, Matrice matrice, long[] points, double[] latitudes, double[] longitudes,
+                            CalculDistances calcul) throws IOException {
+        //points demandes absents de la matrice, sans doublon
+        Map<Long, Integer> nouveaux = new LinkedHashMap<>();
+        int connus = 0;
+        for (int i = 0; i < points.length; i++) {
+            if (matrice.position(points[i], latitudes[i], longitudes[i]) < 0) {
+                nouveaux.putIfAbsent(points[i], i);
+            } else {
+                connus++;
+            }
+        }
+        if (!nouveaux.isEmpty() && (matrice.taille + nouveaux.size() > pointsMax || matrice.taille > 2 * points.length)) {
+            matrice = reecrire(cle, matrice, points, latitudes, longitudes, calcul);
+            nouveaux.clear();
+        } else if (!nouveaux.isEmpty()) {
+            ajouter(matrice, nouveaux, latitudes, longitudes, calcul);
+            logger.debug("matrice de distances " + cle + " : " + connus + " point(s) relu(s), " + nouveaux.size() + " ajoute(s)");
+        }
+        int[] positions = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            positions[i] = matrice.position(points[i], latitudes[i], longitudes[i]);
+        }
+        return positions;
+    }
+
+    /**
+     * Ajoute les coquilles des nouveaux points à la fin de la matrice.
+     *
+     * @param nouveaux id du point -> son indice dans les tableaux de coordonnées
+     */
+    private void ajouter(Matrice matrice, Map<Long, Integer> nouveaux, double[] latitudes, double[] longitudes,
+                         CalculDistances calcul) throws IOException {
+        int avant = matrice.taille;
+        int b = nouveaux.size();
+        int total = avant + b;
+        double[] latitudesToutes = Arrays.copyOf(matrice.latitudes, total);
+        double[] longitudesToutes = Arrays.copyOf(matrice.longitudes, total);
+        double[] latitudesNouveaux = new double[b];
+        double[] longitudesNouveaux = new double[b];
+        long[] idNouveaux = new long[b];
+        int k = 0;
+        for (Map.Entry<Long, Integer> nouveau : nouveaux.entrySet()) {
+            idNouveaux[k] = nouveau.getKey();
+            latitudesNouveaux[k] = latitudes[nouveau.getValue()];
+            longitudesNouveaux[k] = longitudes[nouveau.getValue()];
+            latitudesToutes[avant + k] = latitudesNouveaux[k];
+            longitudesToutes[avant + k] = longitudesNouveaux[k];
+            k++;
+        }
+        //lignes des nouveaux points vers tous les points, colonnes de tous les points vers les nouveaux
+        double[] lignes = new double[b * total];
+        double[] colonnes = new double[total * b];
+        calcul.calculer(latitudesNouveaux, longitudesNouveaux, latitudesToutes, longitudesToutes, lignes);
+        calcul.calculer(latitudesToutes, longitudesToutes, latitudesNouveaux, longitudesNouveaux, colonnes);
+
+        ByteBuffer coquilles = ByteBuffer.allocate(4 * (total * total - avant * avant)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int p = 0; p < b; p++) {
+            int coquille = avant + p;
+            for (int j = 0; j <= coquille; j++) {
+                coquilles.putFloat(j == coquille ? 0 : (float) lignes[p * total + j]);
+            }
+            for (int i = 0; i < coquille; i++) {
+                coquilles.putFloat((float) colonnes[i * b + p]);
+            }
+        }
+        coquilles.flip();
+        ecrireFin(matrice.canalMatrice, coquilles);
+        matrice.canalMatrice.force(false);
+
+        ByteBuffer enregistrements = ByteBuffer.allocate(TAILLE_POINT * b).order(ByteOrder.LITTLE_ENDIAN);
+        for (int p = 0; p < b; p++) {
+            enregistrements.putLong(idNouveaux[p]).putDouble(latitudesNouveaux[p]).putDouble(longitudesNouveaux[p]);
+        }
+        enregistrements.flip();
+        ecrireFin(matrice.canalPoints, enregistrements);
+        matrice.canalPoints.force(false);
+
+        for (int p = 0; p < b; p++) {
+            matrice.ajouterPoint(idNouveaux[p], latitudesNouveaux[p], longitudesNouveaux[p]);
+        }
+        cartographier(matrice);
+    }
+
+    /**
+     * Remplace la matrice par une matrice des seuls points demandés, les distances connues étant recopiées.
+     */
+    private Matrice reecrire(String cle, Matrice ancienne, long[] points, double[] latitudes, double[] longitudes,
+                             CalculDistances calcul) throws IOException {
+        //points distincts dans l'ordre de la demande, avec leur coquille dans l'ancienne matrice
+        Map<Long, Integer> distincts = new LinkedHashMap<>();
+        for (int i = 0; i < points.length; i++) {
+            distincts.putIfAbsent(points[i], i);
+        }
+        int n = distincts.size();
+        long[] ids = new long[n];
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        int[] anciennes = new int[n];
+        int k = 0;
+        for (Map.Entry<Long, Integer> point : distincts.entrySet()) {
+            int i = point.getValue();
+            ids[k] = point.getKey();
+            lats[k] = latitudes[i];
+            lons[k] = longitudes[i];
+            anciennes[k] = ancienne.position(ids[k], lats[k], lons[k]);
+            k++;
+        }
+        double[] distances = new double[n * n];
+        calculerManquantes(ancienne, anciennes, lats, lons, distances, calcul);
+
+        Path temporairePoints = ancienne.cheminPoints.resolveSibling(ancienne.cheminPoints.getFileName() + ".tmp");
+        Path temporaireMatrice = ancienne.cheminMatrice.resolveSibling(ancienne.cheminMatrice.getFileName() + ".tmp");
+        long generation = ThreadLocalRandom.current().nextLong();
+        ByteBuffer coquilles = ByteBuffer.allocate(EN_TETE + 4 * n * n).order(ByteOrder.LITTLE_ENDIAN);
+        coquilles.putInt(MAGIC_MATRICE).putInt(VERSION).putLong(generation);
+        for (int coquille = 0; coquille < n; coquille++) {
+            for (int j = 0; j <= coquille; j++) {
+                coquilles.putFloat((float) distances[coquille * n + j]);
+            }
+            for (int i = 0; i < coquille; i++) {
+                coquilles.putFloat((float) distances[i * n + coquille]);
+            }
+        }
+        ByteBuffer enregistrements = ByteBuffer.allocate(EN_TETE + TAILLE_POINT * n).order(ByteOrder.LITTLE_ENDIAN);
+        enregistrements.putInt(MAGIC_POINTS).putInt(VERSION).putLong(generation);
+        for (int p = 0; p < n; p++) {
+            enregistrements.putLong(ids[p]).putDouble(lats[p]).putDouble(lons[p]);
+        }
+        ecrireFichier(temporaireMatrice, coquilles.flip());
+        ecrireFichier(temporairePoints, enregistrements.flip());
+
+        fermerEtOublier(cle);
+        Files.move(temporaireMatrice, ancienne.cheminMatrice, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temporairePoints, ancienne.cheminPoints, StandardCopyOption.REPLACE_EXISTING);
+        logger.info("matrice de distances " + cle + " reecrite : " + ancienne.taille + " -> " + n + " point(s)");
+        return ouvrir(cle);
+    }
+
+    /**
+     * Remplit la matrice des points demandés : distances relues dans l'ancienne matrice, les autres calculées par blocs
+     * pour les points absents.
+     */
+    private static void calculerManquantes(Matrice ancienne, int[] anciennes, double[] lats, double[] lons, double[] distances,
+                                           CalculDistances calcul) {
+        int n = anciennes.length;
+        int absents = 0;
+        for (int position : anciennes) {
+            if (position < 0) {
+                absents++;
+            }
+        }
+        if (absents > 0) {
+            double[] latitudesAbsents = new double[absents];
+            double[] longitudesAbsents = new double[absents];
+            int[] indices = new int[absents];
+            int a = 0;
+            for (int p = 0; p < n; p++) {
+                if (anciennes[p] < 0) {
+                    indices[a] = p;
+                    latitudesAbsents[a] = lats[p];
+                    longitudesAbsents[a] = lons[p];
+                    a++;
+                }
+            }
+            double[] lignes = new double[absents * n];
+            double[] colonnes = new double[n * absents];
+            calcul.calculer(latitudesAbsents, longitudesAbsents, lats, lons, lignes);
+            calcul.calculer(lats, lons, latitudesAbsents, longitudesAbsents, colonnes);
+            for (a = 0; a < absents; a++) {
+                System.arraycopy(lignes, a * n, distances, indices[a] * n, n);
+                for (int i = 0; i < n; i++) {
+                    distances[i * n + indices[a]] = colonnes[i * absents + a];
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i == j) {
+                    distances[i * n + j] = 0;
+                } else if (anciennes[i] >= 0 && anciennes[j] >= 0) {
+                    distances[i * n + j] = ancienne.lire(anciennes[i], anciennes[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ouvre la matrice, en ignorant la fin incomplète laissée par un arrêt brutal.
+     */
+    private Matrice ouvrir(String cle) throws IOException {
+        Matrice matrice = matrices.get(cle);
+        if (matrice != null) {
+            return matrice;
+        }
+        matrice = new Matrice(dossier.resolve(cle + ".points"), dossier.resolve(cle + ".matrice"));
+        matrice.canalPoints = FileChannel.open(matrice.cheminPoints, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        matrice.canalMatrice = FileChannel.open(matrice.cheminMatrice, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long generationPoints = lireGeneration(matrice.canalPoints, MAGIC_POINTS);
+            long generationMatrice = lireGeneration(matrice.canalMatrice, MAGIC_MATRICE);
+            if (generationPoints == AUCUNE_GENERATION || generationPoints != generationMatrice) {
+                if (matrice.canalPoints.size() > 0 || matrice.canalMatrice.size() > 0) {
+                    logger.warn("matrice de distances " + cle + " incoherente, remise a zero");
+                }
+                long generation = ThreadLocalRandom.current().nextLong();
+                initialiser(matrice.canalPoints, MAGIC_POINTS, generation);
+                initialiser(matrice.canalMatrice, MAGIC_MATRICE, generation);
+            }
+
+            long pointsEcrits = (matrice.canalPoints.size() - EN_TETE) / TAILLE_POINT;
+            long coquillesEcrites = (long) Math.floor(Math.sqrt((matrice.canalMatrice.size() - EN_TETE) / 4.0));
+            int taille = (int) Math.min(pointsEcrits, coquillesEcrites);
+            matrice.canalPoints.truncate(EN_TETE + (long) TAILLE_POINT * taille);
+            matrice.canalMatrice.truncate(EN_TETE + 4L * taille * taille);
+
+            ByteBuffer enregistrements = ByteBuffer.allocate(TAILLE_POINT * taille).order(ByteOrder.LITTLE_ENDIAN);
+            lireTout(matrice.canalPoints, enregistrements, EN_TETE);
+            enregistrements.flip();
+            for (int p = 0; p < taille; p++) {
+                matrice.ajouterPoint(enregistrements.getLong(), enregistrements.getDouble(), enregistrements.getDouble());
+            }
+            cartographier(matrice);
+        } catch (IOException e) {
+            matrice.fermer();
+            throw e;
+        }
+        matrices.put(cle, matrice);
+        while (matrices.size() > Math.max(1, matricesOuvertes)) {
+            String plusAncienne = matrices.keySet().iterator().next();
+            fermerEtOublier(plusAncienne);
+        }
+        return matrice;
+    }
+
+    private void fermerEtOublier(String cle) {
+        Matrice matrice = matrices.remove(cle);
+        if (matrice != null) {
+            try {
+                matrice.fermer();
+            } catch (IOException e) {
+                logger.error("fermeture de la matrice de distances " + cle, e);
+            }
+        }
+    }
+
+    /**
+     * @return la génération du fichier, AUCUNE_GENERATION s'il est vide ou n'est pas un fichier de matrice
+     */
+    private static long lireGeneration(FileChannel canal, int magic) throws IOException {
+        if (canal.size() < EN_TETE) {
+            return AUCUNE_GENERATION;
+        }
+        ByteBuffer enTete = ByteBuffer.allocate(EN_TETE).order(ByteOrder.LITTLE_ENDIAN);
+        lireTout(canal, enTete, 0);
+        enTete.flip();
+        if (enTete.getInt() != magic || enTete.getInt() != VERSION) {
+            return AUCUNE_GENERATION;
+        }
+        long generation = enTete.getLong();
+        return generation == AUCUNE_GENERATION ? generation + 1 : generation;
+    }
+
+    private static void initialiser(FileChannel canal, int magic, long generation) throws IOException {
+        ByteBuffer enTete = ByteBuffer.allocate(EN_TETE).order(ByteOrder.LITTLE_ENDIAN);
+        enTete.putInt(magic).putInt(VERSION).putLong(generation).flip();
+        canal.truncate(0);
+        while (enTete.hasRemaining()) {
+            canal.write(enTete, enTete.position());
+        }
+        canal.force(false);
+    }
+
+    private static void cartographier(Matrice matrice) throws IOException {
+        matrice.carte = matrice.canalMatrice.map(FileChannel.MapMode.READ_ONLY, 0, matrice.canalMatrice.size());
+        matrice.carte.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void ecrireFin(FileChannel canal, ByteBuffer donnees) throws IOException {
+        long position = canal.size();
+        while (donnees.hasRemaining()) {
+            position += canal.write(donnees, position);
+        }
+    }
+
+    private static void ecrireFichier(Path chemin, ByteBuffer donnees) throws IOException {
+        try (FileChannel canal = FileChannel.open(chemin, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (donnees.hasRemaining()) {
+                canal.write(donnees);
+            }
+            canal.force(false);
+        }
+    }
+
+    private static void lireTout(FileChannel canal, ByteBuffer destination, long position) throws IOException {
+        while (destination.hasRemaining()) {
+            int lus = canal.read(destination, position);
+            if (lus < 0) {
+                throw new IOException("fichier de matrice de distances tronque");
+            }
+            position += lus;
+        }
+    }
+}
@@ -13,8 +13,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
 
-import java.awt.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.logging.Logger;
@@ -122,7 +122,13 @@ public class VrpGlobalSpan {
     private ProducteurRepository producteurRepository;
 
     @Autowired
-    private GeoPortailApiService geoPortailApiService;
+    private CacheDistances cacheDistances;
+
+    @Autowired
+    private MatricesDistances matricesDistances;
+
+    @Autowired
+    private ChoixDistances choixDistances;
 
     /**
      * initailise la matrice de distance via une liste de commandeProducteur
@@ -132,51 +138,56 @@ public class VrpGlobalSpan {
      * @return une matrice de distances exploitable par la bibilotheque google OR-tools (matrice carrée)
      */
     private double[][] initializeDistanceMatrix(ArrayList<CommandeProducteur> commandesProducteurs) {
-        int matrixSize = commandesProducteurs.size();
         //recupere la commandeDetail chaque CommandeProducteur
-        //une ArrayList<Point> pour recuperer toutes les points possibles de la tournee !! le producteur DOIT être le permier de la list.
-        //on crée un point à partir des coordonées gps du producteur et on le met en 1er dans la liste.
-        ArrayList<Point> points = new ArrayList<>();
+        //les coordonnees gps de tous les points possibles de la tournee !! le producteur DOIT être le permier.
+        //(en double : un java.awt.Point arrondissait les coordonnees a l'entier)
+        int matrixSize = commandesProducteurs.size() + 1;
+        double[] latitudes = new double[matrixSize];
+        double[] longitudes = new double[matrixSize];
+        long[] idClients = new long[matrixSize - 1];
 
         Long idProd = commandesProducteurs.get(0).getIdProducteur();
-        System.out.println(" ID PRODUCTEUR : " + idProd);
         Optional<Producteur> producteur = producteurRepository.findById(idProd);
-        System.out.println(" PRIDUCTEUR : "+ producteur);
-        Point pointProd = new Point();
-        pointProd.setLocation(producteur.get().getLatitude(), producteur.get().getLongitude());
-        points.add(pointProd);
+        latitudes[0] = producteur.get().getLatitude();
+        longitudes[0] = producteur.get().getLongitude();
         //on recupere le client pour toutes les commandes prod en passant par la commandeProd --> commandeDetail --> commande --> client.
-        // puis on crée un point composé des coordonées gps du client.
+        // puis on ajoute les coordonées gps du client.
+        int point = 1;
         for (CommandeProducteur cp : commandesProducteurs) {
-            System.out.println(cp.toString());
             CommandeDetail cd = commandeProducteurRepository.findCommandeDetailByCommandeProd(cp.getIdCommandeDetails());
-            System.out.println(cd.toString());
             //pas besoin de faire verification produceur.isEmpty() car ce sont des prod d'une commande deja verifiée.
-            Optional<Producteur> temp = producteurRepository.findById(cp.getIdProducteur());
             Optional<Commande> commande = commandeRepository.findById(cd.getIdCommande());
             Optional<Client> client = clientRepository.findById(commande.get().getIdClient());
-            System.out.println(client);
-            Point p = new Point();
-            p.setLocation(client.get().getLatitude(), client.get().getLongitude());
-            points.add(p);
+            idClients[point - 1] = client.get().getId();
+            latitudes[point] = client.get().getLatitude();
+            longitudes[point] = client.get().getLongitude();
+            point++;
         }
 
-        // sachant que le 1er element de l'arrayList est Point représentant les coordonées gps du producteur
-        double[][] result = new double[matrixSize][matrixSize];
-        for (int i = 0; i < matrixSize; i++) {
-            System.out.println("_");
-            for (int j = 0; j < matrixSize; j++) {
-                //le cas ou on calcule la distance du depot au depot
-                // metre 0 manuelement pour signifier que la distance est nulle
-                if (i == j) {
-                    result[i][j] = 0;
-                    System.out.println(result[i][j] + " |");
-                }
-                //calcule distance entre 2 points
-                //latitude 1, longitude 1, latitude 2, longitude 2
-                result[i][j] = geoPortailApiService.verifDistanceBetweenProducteurAndClient(points.get(i).x, points.get(i).y, points.get(j).x, points.get(j).y);
-                System.out.println(result[i][j] + " |");
+        // le 1er point est le producteur (depot), un point par client ensuite
+        // la diagonale (distance du depot au depot) est a 0
+        // distances a vol d'oiseau ou par la route selon la configuration (ChoixDistances)
+        // les distances deja calculees pour une tournee precedente du producteur sont relues de sa matrice sur disque,
+        // ou a defaut, a vol d'oiseau, reprises du cache
+        FournisseurDistances fournisseur = choixDistances.tournees();
+        double[] distances;
+        if (matricesDistances.isActif()) {
+            long[] points = new long[matrixSize];
+            points[0] = MatricesDistances.PRODUCTEUR | idProd;
+            for (int i = 1; i < matrixSize; i++) {
+                points[i] = MatricesDistances.CLIENT | idClients[i - 1];
             }
+            distances = matricesDistances.matrice(fournisseur.type(), points, latitudes, longitudes, fournisseur);
+        } else if (fournisseur.type() == MatricesDistances.Type.ROUTE) {
+            distances = new double[matrixSize * matrixSize];
+            fournisseur.calculer(latitudes, longitudes, latitudes, longitudes, distances);
+        } else {
+            distances = new double[matrixSize * matrixSize];
+            cacheDistances.remplirMatrice(idProd, idClients, latitudes, longitudes, distances);
+        }
+        double[][] result = new double[matrixSize][];
+        for (int i = 0; i < matrixSize; i++) {
+            result[i] = Arrays.copyOfRange(distances, i * matrixSize, (i + 1) * matrixSize);
         }
         return result;
     }
@@ -0,0 +1,188 @@
+package com.lifat.CircuitsCourtsApi.service.commande;
+
+import com.lifat.CircuitsCourtsApi.model.Commande;
+import com.lifat.CircuitsCourtsApi.model.CommandeDetail;
+import com.lifat.CircuitsCourtsApi.model.CommandeInfo;
+import com.lifat.CircuitsCourtsApi.model.CommandeProducteur;
+import com.lifat.CircuitsCourtsApi.model.Tournee;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Lit des CommandeInfo (commande, tournée, commandesDetails et commandesProducteur) en une seule requête.
+ *
+ * Chaque ligne du résultat est un couple (commandeDetail, commandeProducteur) d'une commande : la commande est lue sur
+ * sa première ligne, chaque commandeDetail sur la première ligne où il apparait.
+ * Les objets renvoyés ne sont pas gérés par hibernate.
+ */
+@Service
+public class CommandeInfoReader {
+
+    private static final String SELECT_COMMANDE_INFO =
+            "SELECT c.id, c.id_client, c.date_commande, c.id_tournee, t.etat AS tournee_etat, t.id_producteur AS tournee_id_producteur, " +
+            "cd.id AS cd_id, cd.id_produit AS cd_id_produit, cd.quantite AS cd_quantite, " +
+            "cp.id AS cp_id, cp.id_producteur AS cp_id_producteur, cp.quantite AS cp_quantite " +
+            "FROM commandes c " +
+            "LEFT JOIN tournee t ON t.id = c.id_tournee ";
+
+    private static final String SQL_COMMANDE_INFO = SELECT_COMMANDE_INFO +
+            "LEFT JOIN commande_details cd ON cd.id_commande = c.id " +
+            "LEFT JOIN commande_producteur cp ON cp.id_commande_details = cd.id " +
+            "WHERE c.id = ? " +
+            "ORDER BY cd.id, cp.id";
+
+    //seules les commandesDetails que le producteur satisfait, avec ses commandesProducteur
+    private static final String SQL_COMMANDES_INFO_PRODUCTEUR = SELECT_COMMANDE_INFO +
+            "INNER JOIN commande_details cd ON cd.id_commande = c.id " +
+            "INNER JOIN commande_producteur cp ON cp.id_commande_details = cd.id AND cp.id_producteur = :idProducteur " +
+            "WHERE c.id IN (:idCommandes) " +
+            "ORDER BY c.id, cd.id, cp.id";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    /**
+     * @param idCommande id de la commande
+     * @return la commandeInfo, vide si la commande n'existe pas
+     */
+    public Optional<CommandeInfo> lire(Long idCommande) {
+        CommandeInfoHandler handler = new CommandeInfoHandler();
+        jdbcTemplate.query(SQL_COMMANDE_INFO, handler, idCommande);
+        return handler.getCommandesInfo().stream().findFirst();
+    }
+
+    /**
+     * Verrouille la ligne de la commande jusqu'à la fin de la transaction en cours, puis la lit :
+     * deux modifications concurrentes d'une même commande s'appliquent l'une après l'autre.
+     * @param idCommande id de la commande
+     * @return la commandeInfo, vide si la commande n'existe pas
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Optional<CommandeInfo> verrouillerEtLire(Long idCommande) {
+        jdbcTemplate.queryForList("SELECT id FROM commandes WHERE id = ? FOR UPDATE", Long.class, idCommande);
+        return lire(idCommande);
+    }
+
+    /**
+     * Lit la partie des commandes destinée à un producteur : ses commandesDetails et ses commandesProducteur.
+     * @param idCommandes ids de commandes dans lesquelles le producteur a au moins une commandeProducteur
+     * @param idProducteur id du producteur
+     * @return les commandeInfo, dans l'ordre croissant des ids de commande
+     */
+    public List<CommandeInfo> lirePourProducteur(Collection<Long> idCommandes, Long idProducteur) {
+        CommandeInfoHandler handler = new CommandeInfoHandler();
+        if (!idCommandes.isEmpty()) {
+            MapSqlParameterSource parametres = new MapSqlParameterSource()
+                    .addValue("idCommandes", idCommandes)
+                    .addValue("idProducteur", idProducteur);
+            namedParameterJdbcTemplate.query(SQL_COMMANDES_INFO_PRODUCTEUR, parametres, handler);
+        }
+        return handler.getCommandesInfo();
+    }
+
+    /**
+     * Reconstitue les commandeInfo au fil des lignes, sans passer par des objets intermédiaires.
+     * Les lignes d'une même commande doivent se suivre.
+     */
+    private static final class CommandeInfoHandler implements RowCallbackHandler {
+
+        private final List<CommandeInfo> commandesInfo = new ArrayList<>();
+
+        private CommandeInfo commandeInfo;
+
+        private Map<Long, CommandeDetail> details;
+
+        private List<CommandeProducteur> commandesProducteur;
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            long idCommande = rs.getLong("id");
+            if (commandeInfo == null || !commandeInfo.getCommande().getId().equals(idCommande)) {
+                terminerCommande();
+                commandeInfo = new CommandeInfo();
+                commandeInfo.setCommande(lireCommande(rs));
+                details = new LinkedHashMap<>();
+                commandesProducteur = new ArrayList<>();
+            }
+            Long idCommandeDetail = getLong(rs, "cd_id");
+            if (idCommandeDetail == null) {
+                return;
+            }
+            if (!details.containsKey(idCommandeDetail)) {
+                CommandeDetail cd = new CommandeDetail();
+                cd.setId(idCommandeDetail);
+                cd.setIdCommande(idCommande);
+                cd.setIdProduit(getLong(rs, "cd_id_produit"));
+                cd.setQuantite(getFloat(rs, "cd_quantite"));
+                details.put(idCommandeDetail, cd);
+            }
+            Long idCommandeProducteur = getLong(rs, "cp_id");
+            if (idCommandeProducteur != null) {
+                CommandeProducteur cp = new CommandeProducteur();
+                cp.setId(idCommandeProducteur);
+                cp.setIdCommandeDetails(idCommandeDetail);
+                cp.setIdProducteur(getLong(rs, "cp_id_producteur"));
+                cp.setQuantite(getFloat(rs, "cp_quantite"));
+                commandesProducteur.add(cp);
+            }
+        }
+
+        private void terminerCommande() {
+            if (commandeInfo != null) {
+                commandeInfo.setCommandesDetails(new ArrayList<>(details.values()));
+                commandeInfo.setCommandesProducteur(commandesProducteur);
+                commandesInfo.add(commandeInfo);
+            }
+        }
+
+        private static Commande lireCommande(ResultSet rs) throws SQLException {
+            Commande commande = new Commande();
+            commande.setId(rs.getLong("id"));
+            commande.setIdClient(getLong(rs, "id_client"));
+            commande.setDateCommande(rs.getTimestamp("date_commande"));
+            Long idTournee = getLong(rs, "id_tournee");
+            if (idTournee != null) {
+                Tournee tournee = new Tournee();
+                tournee.setId(idTournee);
+                tournee.setEtat(rs.getString("tournee_etat"));
+                tournee.setId_producteur(getLong(rs, "tournee_id_producteur"));
+                commande.setTournee(tournee);
+            }
+            return commande;
+        }
+
+        List<CommandeInfo> getCommandesInfo() {
+            terminerCommande();
+            commandeInfo = null;
+            return commandesInfo;
+        }
+    }
+
+    private static Long getLong(ResultSet rs, String colonne) throws SQLException {
+        long valeur = rs.getLong(colonne);
+        return rs.wasNull() ? null : valeur;
+    }
+
+    private static Float getFloat(ResultSet rs, String colonne) throws SQLException {
+        float valeur = rs.getFloat(colonne);
+        return rs.wasNull() ? null : valeur;
+    }
+}
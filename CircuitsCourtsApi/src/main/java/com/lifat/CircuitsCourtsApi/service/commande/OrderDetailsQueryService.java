@@ -0,0 +1,117 @@
+package com.lifat.CircuitsCourtsApi.service.commande;
+
+import com.lifat.CircuitsCourtsApi.payload.response.OrderDetailsResponse;
+import com.lifat.CircuitsCourtsApi.payload.response.OrderProductDetailsResponse;
+import com.lifat.CircuitsCourtsApi.payload.response.OrderProductProducerResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Construit l'OrderDetailsResponse d'une commande (écran de détail d'une commande) en une seule requête :
+ * la commande, ses commandesDetails avec leur produit, et les commandesProducteur avec les champs du producteur.
+ * L'arbre OrderDetailsResponse / OrderProductDetailsResponse / OrderProductProducerResponse est assemblé en mémoire.
+ */
+@Service
+public class OrderDetailsQueryService {
+
+    private static final String SQL_ORDER_DETAILS =
+            "SELECT c.id, c.id_client, c.date_commande, " +
+            "cd.id AS cd_id, cd.id_produit AS cd_id_produit, cd.quantite AS cd_quantite, " +
+            "p.id AS p_id, p.libelle AS p_libelle, p.tva, p.reference, p.origine_production, p.origine_transformation, " +
+            "p.agriculture, p.type_produit, p.conditionnement, p.dluo, p.prix, " +
+            "cp.quantite AS cp_quantite, " +
+            "pr.id_producteur AS pr_id, pr.description AS pr_description, pr.tags AS pr_tags, pr.libelle AS pr_libelle, " +
+            "pr.adresse_postale AS pr_adresse, pr.mail AS pr_mail, pr.rayon_livraison AS pr_rayon_livraison " +
+            "FROM commandes c " +
+            "LEFT JOIN commande_details cd ON cd.id_commande = c.id " +
+            "LEFT JOIN produits p ON p.id = cd.id_produit " +
+            "LEFT JOIN commande_producteur cp ON cp.id_commande_details = cd.id " +
+            "LEFT JOIN producteurs pr ON pr.id_producteur = cp.id_producteur " +
+            "WHERE c.id = ? " +
+            "ORDER BY cd.id, cp.id";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * @param idCommande id de la commande
+     * @return le détail de la commande
+     * @throws Exception si la commande n'existe pas ou si un de ses produits n'existe plus
+     */
+    public OrderDetailsResponse getOrderDetails(Long idCommande) throws Exception {
+        OrderDetailsHandler handler = new OrderDetailsHandler();
+        jdbcTemplate.query(SQL_ORDER_DETAILS, handler, idCommande);
+        if (handler.orderDetails == null) {
+            throw new Exception("la commande n°" + idCommande + " n'existe pas");
+        }
+        if (handler.idProduitManquant != null) {
+            throw new Exception("le produit n°" + handler.idProduitManquant + " n'existe pas");
+        }
+        return handler.orderDetails;
+    }
+
+    /**
+     * Une ligne du résultat par commandeProducteur (ou par commandeDetail sans commandeProducteur).
+     * Les commandesProducteur dont le producteur n'existe plus sont ignorées.
+     */
+    private static final class OrderDetailsHandler implements RowCallbackHandler {
+
+        private OrderDetailsResponse orderDetails;
+
+        private Long idProduitManquant;
+
+        private final List<OrderProductDetailsResponse> produits = new ArrayList<>();
+
+        //producteurs de chaque commandeDetail deja rencontre
+        private final Map<Long, List<OrderProductProducerResponse>> producteursParCommandeDetail = new HashMap<>();
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            if (orderDetails == null) {
+                orderDetails = new OrderDetailsResponse(rs.getLong("id"), getLong(rs, "id_client"), rs.getTimestamp("date_commande"), produits);
+            }
+            Long idCommandeDetail = getLong(rs, "cd_id");
+            if (idCommandeDetail == null || idProduitManquant != null) {
+                return;
+            }
+            List<OrderProductProducerResponse> producteurs = producteursParCommandeDetail.get(idCommandeDetail);
+            if (producteurs == null) {
+                if (getLong(rs, "p_id") == null) {
+                    idProduitManquant = getLong(rs, "cd_id_produit");
+                    return;
+                }
+                producteurs = new ArrayList<>();
+                produits.add(new OrderProductDetailsResponse(rs.getLong("p_id"), rs.getString("p_libelle"), rs.getString("tva"),
+                        rs.getString("reference"), rs.getString("origine_production"), rs.getString("origine_transformation"),
+                        rs.getString("agriculture"), rs.getString("type_produit"), rs.getString("conditionnement"), rs.getString("dluo"),
+                        getFloat(rs, "prix"), rs.getFloat("cd_quantite"), producteurs));
+                producteursParCommandeDetail.put(idCommandeDetail, producteurs);
+            }
+            Long idProducteur = getLong(rs, "pr_id");
+            if (idProducteur != null) {
+                producteurs.add(new OrderProductProducerResponse(idProducteur,
+                        rs.getString("pr_description"), rs.getString("pr_tags"), rs.getString("pr_libelle"), rs.getString("pr_adresse"),
+                        rs.getString("pr_mail"), getFloat(rs, "pr_rayon_livraison"), getFloat(rs, "cp_quantite")));
+            }
+        }
+    }
+
+    private static Long getLong(ResultSet rs, String colonne) throws SQLException {
+        long valeur = rs.getLong(colonne);
+        return rs.wasNull() ? null : valeur;
+    }
+
+    private static Float getFloat(ResultSet rs, String colonne) throws SQLException {
+        float valeur = rs.getFloat(colonne);
+        return rs.wasNull() ? null : valeur;
+    }
+}
@@ -0,0 +1,223 @@
+package com.lifat.CircuitsCourtsApi.service.commande;
+
+import com.lifat.CircuitsCourtsApi.model.CommandeDetail;
+import com.lifat.CircuitsCourtsApi.model.CommandeInfo;
+import com.lifat.CircuitsCourtsApi.model.CommandeProducteur;
+import com.lifat.CircuitsCourtsApi.repository.CommandeDetailRepository;
+import com.lifat.CircuitsCourtsApi.repository.CommandeProducteurRepository;
+import com.lifat.CircuitsCourtsApi.service.evenement.OutboxService;
+import com.lifat.CircuitsCourtsApi.service.stock.StockService;
+import com.lifat.CircuitsCourtsApi.service.validation.CommandeValidationService;
+import com.lifat.CircuitsCourtsApi.service.ventes.VentesService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Mise à jour d'une commande par différence avec la version enregistrée.
+ *
+ * Les deux versions sont indexées par id de ligne : les commandesDetails et commandesProducteur ajoutées, supprimées
+ * et modifiées sont trouvées en un seul passage sur chaque version.
+ * Seul l'écart de quantité par couple (producteur, produit) est réservé ou rendu, et seules les lignes qui changent sont écrites.
+ *
+ * Comme pour une nouvelle commande, les ids des lignes ajoutées ne servent qu'à relier les commandesProducteur
+ * à leur commandeDetail : ils sont remplacés par des ids de id_generateurs.
+ */
+@Service
+public class OrderUpdateEngine {
+
+    @Autowired
+    private CommandeInfoReader commandeInfoReader;
+
+    @Autowired
+    private CommandeValidationService commandeValidationService;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Autowired
+    private VentesService ventesService;
+
+    @Autowired
+    private CommandeDetailRepository commandeDetailRepository;
+
+    @Autowired
+    private CommandeProducteurRepository commandeProducteurRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    /**
+     * Les lignes d'une mise à jour, classées par rapport à la version enregistrée.
+     */
+    static final class Difference {
+        final List<CommandeDetail> detailsAjoutes = new ArrayList<>();
+        final List<CommandeDetail> detailsModifies = new ArrayList<>();
+        final List<Long> detailsSupprimes = new ArrayList<>();
+        final List<CommandeProducteur> commandesProducteurAjoutees = new ArrayList<>();
+        final List<CommandeProducteur> commandesProducteurModifiees = new ArrayList<>();
+        final List<Long> commandesProducteurSupprimees = new ArrayList<>();
+    }
+
+    /**
+     * Vérifie puis enregistre la mise à jour d'une commande.
+     *
+     * @param miseAJour la nouvelle version complète de la commande
+     * @return la commandeInfo enregistrée, avec les ids attribués aux lignes ajoutées
+     * @throws Exception si la commande n'existe pas ou si une vérification échoue
+     */
+    public CommandeInfo mettreAJour(CommandeInfo miseAJour) throws Exception {
+        Long idCommande = miseAJour.getCommande().getId();
+        CommandeInfo original = lire(idCommande);
+        retirerLignesOrphelines(miseAJour);
+        commandeValidationService.verifier(miseAJour, false, StockService.quantitesParCouple(original));
+
+        return stockService.executerAvecReessai(status -> {
+            CommandeInfo enregistree = commandeInfoReader.verrouillerEtLire(idCommande)
+                    .orElseThrow(() -> new IllegalStateException("La commande n°" + idCommande + " n'existe pas."));
+            TreeMap<Long, Float> ecarts = StockService.ecartsParCouple(enregistree, miseAJour);
+            stockService.appliquerEcarts(ecarts);
+            ventesService.appliquer(enregistree.getCommande().getDateCommande(), ecarts);
+            ecrire(enregistree, miseAJour, comparer(enregistree, miseAJour));
+            outboxService.publier(OutboxService.COMMANDE_MODIFIEE, OutboxService.COMMANDE, idCommande, miseAJour);
+            return miseAJour;
+        });
+    }
+
+    private CommandeInfo lire(Long idCommande) throws Exception {
+        Optional<CommandeInfo> commandeInfo = commandeInfoReader.lire(idCommande);
+        if (commandeInfo.isEmpty()) {
+            throw new Exception("La commande n°" + idCommande + " n'existe pas.");
+        }
+        return commandeInfo.get();
+    }
+
+    /**
+     * Une commandeProducteur dont la commandeDetail n'est pas dans la mise à jour ne satisfait plus rien : elle est ignorée,
+     * et supprimée si elle était enregistrée.
+     */
+    private static void retirerLignesOrphelines(CommandeInfo miseAJour) {
+        Set<Long> idDetails = new HashSet<>();
+        for (CommandeDetail cd : miseAJour.getCommandesDetails()) {
+            idDetails.add(cd.getId());
+        }
+        List<CommandeProducteur> commandesProducteur = new ArrayList<>();
+        for (CommandeProducteur cp : miseAJour.getCommandesProducteur()) {
+            if (idDetails.contains(cp.getIdCommandeDetails())) {
+                commandesProducteur.add(cp);
+            }
+        }
+        miseAJour.setCommandesProducteur(commandesProducteur);
+    }
+
+    /**
+     * Classe les lignes de la mise à jour en un passage sur chaque version.
+     */
+    static Difference comparer(CommandeInfo original, CommandeInfo miseAJour) {
+        Difference difference = new Difference();
+
+        Map<Long, CommandeDetail> detailsOriginaux = new HashMap<>();
+        for (CommandeDetail cd : original.getCommandesDetails()) {
+            detailsOriginaux.put(cd.getId(), cd);
+        }
+        for (CommandeDetail cd : miseAJour.getCommandesDetails()) {
+            CommandeDetail avant = cd.getId() == null ? null : detailsOriginaux.remove(cd.getId());
+            if (avant == null) {
+                difference.detailsAjoutes.add(cd);
+            } else if (!Objects.equals(avant.getIdProduit(), cd.getIdProduit()) || !Objects.equals(avant.getQuantite(), cd.getQuantite())) {
+                difference.detailsModifies.add(cd);
+            }
+        }
+        difference.detailsSupprimes.addAll(detailsOriginaux.keySet());
+
+        Map<Long, CommandeProducteur> commandesProducteurOriginales = new HashMap<>();
+        for (CommandeProducteur cp : original.getCommandesProducteur()) {
+            commandesProducteurOriginales.put(cp.getId(), cp);
+        }
+        for (CommandeProducteur cp : miseAJour.getCommandesProducteur()) {
+            CommandeProducteur avant = cp.getId() == null ? null : commandesProducteurOriginales.remove(cp.getId());
+            if (avant == null) {
+                difference.commandesProducteurAjoutees.add(cp);
+            } else if (!Objects.equals(avant.getIdCommandeDetails(), cp.getIdCommandeDetails())
+                    || !Objects.equals(avant.getIdProducteur(), cp.getIdProducteur())
+                    || !Objects.equals(avant.getQuantite(), cp.getQuantite())) {
+                difference.commandesProducteurModifiees.add(cp);
+            }
+        }
+        difference.commandesProducteurSupprimees.addAll(commandesProducteurOriginales.keySet());
+        return difference;
+    }
+
+    /**
+     * Écrit uniquement les lignes qui changent : DELETE et UPDATE par lots, INSERT par saveAll (lots hibernate).
+     */
+    private void ecrire(CommandeInfo original, CommandeInfo miseAJour, Difference difference) {
+        Long idCommande = original.getCommande().getId();
+        if (!Objects.equals(original.getCommande().getIdClient(), miseAJour.getCommande().getIdClient())) {
+            jdbcTemplate.update("UPDATE commandes SET id_client = ? WHERE id = ?", miseAJour.getCommande().getIdClient(), idCommande);
+        }
+        //la date de commande et la tournee ne sont pas modifiables par une mise a jour
+        miseAJour.getCommande().setDateCommande(original.getCommande().getDateCommande());
+        miseAJour.getCommande().setTournee(original.getCommande().getTournee());
+
+        if (!difference.commandesProducteurSupprimees.isEmpty()) {
+            namedParameterJdbcTemplate.update("DELETE FROM commande_producteur WHERE id IN (:ids)",
+                    new MapSqlParameterSource("ids", difference.commandesProducteurSupprimees));
+        }
+        if (!difference.detailsSupprimes.isEmpty()) {
+            namedParameterJdbcTemplate.update("DELETE FROM commande_details WHERE id IN (:ids)",
+                    new MapSqlParameterSource("ids", difference.detailsSupprimes));
+        }
+
+        //ancien id -> nouvel id des commandesDetails ajoutees
+        Map<Long, Long> nouveauxIds = new HashMap<>();
+        List<Long> anciensIds = new ArrayList<>(difference.detailsAjoutes.size());
+        for (CommandeDetail cd : difference.detailsAjoutes) {
+            anciensIds.add(cd.getId());
+            cd.setId(null);
+            cd.setIdCommande(idCommande);
+        }
+        commandeDetailRepository.saveAll(difference.detailsAjoutes);
+        for (int i = 0; i < anciensIds.size(); i++) {
+            if (anciensIds.get(i) != null) {
+                nouveauxIds.put(anciensIds.get(i), difference.detailsAjoutes.get(i).getId());
+            }
+        }
+        for (CommandeProducteur cp : miseAJour.getCommandesProducteur()) {
+            Long nouvelId = nouveauxIds.get(cp.getIdCommandeDetails());
+            if (nouvelId != null) {
+                cp.setIdCommandeDetails(nouvelId);
+            }
+        }
+
+        if (!difference.detailsModifies.isEmpty()) {
+            List<Object[]> lignes = new ArrayList<>(difference.detailsModifies.size());
+            for (CommandeDetail cd : difference.detailsModifies) {
+                lignes.add(new Object[]{cd.getIdProduit(), cd.getQuantite(), cd.getId()});
+            }
+            jdbcTemplate.batchUpdate("UPDATE commande_details SET id_produit = ?, quantite = ? WHERE id = ?", lignes);
+        }
+        if (!difference.commandesProducteurModifiees.isEmpty()) {
+            List<Object[]> lignes = new ArrayList<>(difference.commandesProducteurModifiees.size());
+            for (CommandeProducteur cp : difference.commandesProducteurModifiees) {
+                lignes.add(new Object[]{cp.getIdCommandeDetails(), cp.getIdProducteur(), cp.getQuantite(), cp.getId()});
+            }
+            jdbcTemplate.batchUpdate("UPDATE commande_producteur SET id_commande_details = ?, id_producteur = ?, quantite = ? WHERE id = ?", lignes);
+        }
+
+        for (CommandeProducteur cp : difference.commandesProducteurAjoutees) {
+            cp.setId(null);
+        }
+        commandeProducteurRepository.saveAll(difference.commandesProducteurAjoutees);
+    }
+}
@@ -0,0 +1,76 @@
+package com.lifat.CircuitsCourtsApi.service.commande;
+
+import com.lifat.CircuitsCourtsApi.model.Commande;
+import com.lifat.CircuitsCourtsApi.model.CommandeDetail;
+import com.lifat.CircuitsCourtsApi.model.CommandeInfo;
+import com.lifat.CircuitsCourtsApi.model.CommandeProducteur;
+import com.lifat.CircuitsCourtsApi.repository.CommandeDetailRepository;
+import com.lifat.CircuitsCourtsApi.repository.CommandeProducteurRepository;
+import com.lifat.CircuitsCourtsApi.repository.CommandeRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Enregistre une nouvelle CommandeInfo en un nombre constant d'allers-retours avec la bd.
+ *
+ * Les ids de la CommandeInfo reçue ne servent qu'à relier ses objets entre eux (commandeDetail -> commande,
+ * commandeProducteur -> commandeDetail) : ils sont remplacés par des ids pris dans id_generateurs.
+ * Les entités étant toutes nouvelles, saveAll fait des persist sans SELECT préalable et hibernate envoie les INSERT
+ * par lots (hibernate.jdbc.batch_size) au moment du flush.
+ */
+@Service
+public class OrderWriter {
+
+    @Autowired
+    private CommandeRepository commandeRepository;
+
+    @Autowired
+    private CommandeDetailRepository commandeDetailRepository;
+
+    @Autowired
+    private CommandeProducteurRepository commandeProducteurRepository;
+
+    /**
+     * @param commandeInfo une commandeInfo deja verifiee
+     * @return la commandeInfo avec les ids enregistres dans la bd
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public CommandeInfo ecrire(CommandeInfo commandeInfo) {
+        Commande commande = commandeInfo.getCommande();
+        commande.setId(null);
+        commandeRepository.save(commande);
+
+        //ancien id de chaque commandeDetail -> commandeDetail, pour rattacher les commandesProducteur une fois les nouveaux ids connus
+        Map<Long, CommandeDetail> detailParAncienId = new HashMap<>();
+        List<CommandeDetail> details = new ArrayList<>(commandeInfo.getCommandesDetails());
+        for (CommandeDetail cd : details) {
+            if (cd.getId() != null) {
+                detailParAncienId.put(cd.getId(), cd);
+            }
+            cd.setId(null);
+            cd.setIdCommande(commande.getId());
+        }
+        commandeDetailRepository.saveAll(details);
+
+        List<CommandeProducteur> commandesProducteur = new ArrayList<>(commandeInfo.getCommandesProducteur());
+        for (CommandeProducteur cp : commandesProducteur) {
+            CommandeDetail cd = detailParAncienId.get(cp.getIdCommandeDetails());
+            if (cd != null) {
+                cp.setIdCommandeDetails(cd.getId());
+            }
+            cp.setId(null);
+        }
+        commandeProducteurRepository.saveAll(commandesProducteur);
+
+        commandeInfo.setCommandesDetails(details);
+        commandeInfo.setCommandesProducteur(commandesProducteur);
+        return commandeInfo;
+    }
+}
@@ -0,0 +1,51 @@
+package com.lifat.CircuitsCourtsApi.service.commande;
+
+import com.lifat.CircuitsCourtsApi.model.CommandeInfo;
+import com.lifat.CircuitsCourtsApi.service.pagination.PageCurseur;
+import com.lifat.CircuitsCourtsApi.service.pagination.Pagination;
+import com.lifat.CircuitsCourtsApi.service.pagination.RequetePage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+
+/**
+ * Les commandes à satisfaire par un producteur, page par page.
+ *
+ * La pagination se fait par curseur (keyset) sur l'id de la commande : une page commence après le dernier id de la page
+ * précédente, le coût d'une page ne dépend donc pas du nombre de commandes déjà parcourues.
+ * Une page coûte deux requêtes : les ids des commandes (sans doublons, une commande apparait une fois même si le producteur
+ * y a plusieurs commandesProducteur), puis leurs commandesDetails et commandesProducteur pour ce producteur.
+ * Les ids sont lus depuis les commandesProducteur du producteur, par l'index (id_producteur, id_commande_details) :
+ * la requête ne parcourt que les lignes du producteur, et pas toutes les commandes avec un EXISTS par commande.
+ * La table commandes n'est jointe que pour filtrer sur la date.
+ */
+@Service
+public class ProducerOrderQueueService {
+
+    @Autowired
+    private CommandeInfoReader commandeInfoReader;
+
+    @Autowired
+    private Pagination pagination;
+
+    /**
+     * @param idProducteur id du producteur
+     * @param apres curseur : seules les commandes d'id supérieur sont renvoyées, null pour la premiere page
+     * @param depuis date de commande minimale incluse, peut etre null
+     * @param avant date de commande maximale exclue, peut etre null
+     * @param taille nombre de commandes par page, borné par com.lifat.circuitscourtsapi.pagination.tailleMaxPage
+     * @return les commandes du producteur par id croissant
+     */
+    public PageCurseur<CommandeInfo> getCommandes(Long idProducteur, Long apres, Date depuis, Date avant, int taille) {
+        String select = "SELECT DISTINCT cd.id_commande FROM commande_producteur cp" +
+                " INNER JOIN commande_details cd ON cd.id = cp.id_commande_details" +
+                (depuis != null || avant != null ? " INNER JOIN commandes c ON c.id = cd.id_commande" : "");
+        RequetePage requete = new RequetePage(select, "cd.id_commande")
+                .filtre("cp.id_producteur = ?", idProducteur)
+                .filtre("c.date_commande >= ?", depuis)
+                .filtre("c.date_commande < ?", avant);
+        PageCurseur<Long> idCommandes = pagination.lireIds(requete, apres, taille);
+        return idCommandes.avec(commandeInfoReader.lirePourProducteur(idCommandes.getElements(), idProducteur));
+    }
+}
@@ -0,0 +1,270 @@
+package com.lifat.CircuitsCourtsApi.service.disponibilite;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.lifat.CircuitsCourtsApi.payload.response.ProducteursProduitResponse;
+import com.lifat.CircuitsCourtsApi.repository.ProducteurRepository;
+import com.lifat.CircuitsCourtsApi.service.stock.CleStock;
+import com.lifat.CircuitsCourtsApi.service.stock.StockLedger;
+import com.lifat.CircuitsCourtsApi.service.stock.Transactions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Modèle de lecture de GET /api/producteurs/produit/{idProduit} : pour chaque produit, ses producteurs avec leur stock,
+ * leurs coordonnées et leur rayon de livraison, chargés en une requête puis gardés dans un cache borné.
+ *
+ * Le stock des entrées en cache est corrigé sur place après le commit de chaque mouvement de stock (StockService) ;
+ * une modification d'un produit, d'un producteur ou de la liste des produits d'un producteur retire les entrées concernées.
+ * Quand le registre de stock est actif le stock n'est pas gardé ici, il est lu dans le registre à chaque requête.
+ *
+ * Un chargement commencé avant une correction du même produit n'est pas mis en cache : il a pu lire le stock d'avant ou
+ * d'après le commit. Les corrections sont datées par produit, celles des autres produits n'empêchent pas de garder
+ * un chargement. Pour la même raison, une entrée chargée entre le début du commit d'un mouvement et sa correction est
+ * retirée au lieu d'être corrigée : l'écart y est peut-être déjà compté.
+ * Les entrées expirent après dureeVieMs, pour les écritures faites directement en bd en dehors de l'api.
+ */
+@Service
+public class DisponibiliteService {
+
+    @Autowired
+    private ProducteurRepository producteurRepository;
+
+    @Autowired
+    private StockLedger stockLedger;
+
+    @Value("${com.lifat.circuitscourtsapi.disponibilites.tailleCache: 5000}")
+    private int tailleCache;
+
+    @Value("${com.lifat.circuitscourtsapi.disponibilites.dureeVieMs: 600000}")
+    private long dureeVieMs;
+
+    /**
+     * Les producteurs d'un produit. Les fiches ne changent pas, seul le stock est corrigé.
+     */
+    private static final class Disponibilite {
+        final List<ProducteursProduitResponse> producteurs;
+        final Map<Long, Float> quantites = new ConcurrentHashMap<>();
+        //valeur de l'horloge au debut du chargement
+        final long generation;
+
+        Disponibilite(List<ProducteursProduitResponse> producteurs, long generation) {
+            this.producteurs = producteurs;
+            this.generation = generation;
+        }
+    }
+
+    private Cache<Long, Disponibilite> cache;
+
+    //incrementee sous le verrou a chaque correction ou retrait
+    private long horloge;
+
+    //valeur de l'horloge a la derniere correction ou au dernier retrait de chaque produit, un chargement n'est garde que si
+    //son produit n'a pas change depuis son debut ; une entree par produit modifie
+    private final Map<Long, Long> generations = new ConcurrentHashMap<>();
+
+    //valeur de l'horloge au dernier retrait de tout le cache
+    private long generationTout;
+
+    private final Object verrou = new Object();
+
+    @PostConstruct
+    private void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(tailleCache)
+                .expireAfterWrite(dureeVieMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @param idProduit le produit
+     * @return les producteurs du produit avec leur stock, null si le produit n'existe pas
+     */
+    public List<ProducteursProduitResponse> getDisponibilites(Long idProduit) {
+        Disponibilite disponibilite = cache.getIfPresent(idProduit);
+        if (disponibilite == null) {
+            disponibilite = charger(idProduit);
+            if (disponibilite == null) {
+                return null;
+            }
+        }
+        List<ProducteursProduitResponse> reponses = new ArrayList<>(disponibilite.producteurs.size());
+        for (ProducteursProduitResponse producteur : disponibilite.producteurs) {
+            ProducteursProduitResponse reponse = copier(producteur);
+            if (stockLedger.isActif()) {
+                reponse.setQuantite(stockLedger.stock(CleStock.de(producteur.getId(), idProduit)));
+            } else {
+                reponse.setQuantite(disponibilite.quantites.get(producteur.getId()));
+            }
+            reponses.add(reponse);
+        }
+        return reponses;
+    }
+
+    /**
+     * Corrige le stock des entrées en cache après le commit de la transaction en cours.
+     * Les produits sont aussi marqués juste avant le commit : seules les entrées chargées avant sont corrigées, celles
+     * chargées depuis ont pu lire le stock après le commit et sont retirées. Sans transaction, l'écart est déjà en bd et les
+     * entrées sont retirées tout de suite.
+     *
+     * @param ecarts quantité ajoutée au stock par CleStock, négative pour une réservation
+     */
+    public void appliquer(SortedMap<Long, Float> ecarts) {
+        if (stockLedger.isActif() || ecarts.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            synchronized (verrou) {
+                ecarts.keySet().forEach(cle -> {
+                    marquer(CleStock.produit(cle));
+                    cache.invalidate(CleStock.produit(cle));
+                });
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private long generationCommit;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                synchronized (verrou) {
+                    generationCommit = ++horloge;
+                    ecarts.keySet().forEach(cle -> generations.put(CleStock.produit(cle), generationCommit));
+                }
+            }
+
+            @Override
+            public void afterCommit() {
+                synchronized (verrou) {
+                    ecarts.forEach((cle, ecart) -> {
+                        Long idProduit = CleStock.produit(cle);
+                        marquer(idProduit);
+                        Disponibilite disponibilite = cache.getIfPresent(idProduit);
+                        if (disponibilite == null) {
+                            return;
+                        }
+                        if (disponibilite.generation < generationCommit) {
+                            disponibilite.quantites.computeIfPresent(CleStock.producteur(cle), (idProducteur, quantite) -> quantite + ecart);
+                        } else {
+                            cache.invalidate(idProduit);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Fixe le stock d'un couple dans le cache après le commit de la transaction en cours.
+     */
+    public void definir(long cle, Float quantite) {
+        if (stockLedger.isActif()) {
+            return;
+        }
+        Transactions.apresCommit(() -> {
+            synchronized (verrou) {
+                marquer(CleStock.produit(cle));
+                Disponibilite disponibilite = cache.getIfPresent(CleStock.produit(cle));
+                if (disponibilite != null) {
+                    disponibilite.quantites.computeIfPresent(CleStock.producteur(cle), (idProducteur, ancienne) -> quantite);
+                }
+            }
+        });
+    }
+
+    /**
+     * Retire un produit du cache, après une modification du produit ou de ses producteurs.
+     */
+    public void invalider(Long idProduit) {
+        Transactions.apresCommit(() -> {
+            synchronized (verrou) {
+                marquer(idProduit);
+                cache.invalidate(idProduit);
+            }
+        });
+    }
+
+    /**
+     * Vide le cache, après la modification ou la suppression d'un producteur qui peut apparaitre dans n'importe quelle entrée.
+     */
+    public void invaliderTout() {
+        Transactions.apresCommit(() -> {
+            synchronized (verrou) {
+                generationTout = ++horloge;
+                cache.invalidateAll();
+            }
+        });
+    }
+
+    private Disponibilite charger(Long idProduit) {
+        long generationDebut;
+        synchronized (verrou) {
+            generationDebut = horloge;
+        }
+        List<ProducteurRepository.DisponibiliteProducteur> lignes = producteurRepository.findDisponibilites(idProduit);
+        if (lignes.isEmpty()) {
+            return null;
+        }
+        List<ProducteursProduitResponse> producteurs = new ArrayList<>(lignes.size());
+        Disponibilite disponibilite = new Disponibilite(producteurs, generationDebut);
+        for (ProducteurRepository.DisponibiliteProducteur ligne : lignes) {
+            if (ligne.getIdProducteur() == null) {
+                continue;
+            }
+            ProducteursProduitResponse producteur = new ProducteursProduitResponse();
+            producteur.setId(ligne.getIdProducteur());
+            producteur.setNom(ligne.getNom());
+            producteur.setDescription(ligne.getDescription());
+            producteur.setTags(ligne.getTags());
+            producteur.setAdresse(ligne.getAdresse());
+            producteur.setMail(ligne.getMail());
+            producteur.setRayonLivraison(ligne.getRayonLivraison());
+            producteur.setLatitude(ligne.getLatitude());
+            producteur.setLongitude(ligne.getLongitude());
+            producteur.setIdProduit(ligne.getIdProduit());
+            producteur.setLibelle(ligne.getLibelleProduit());
+            producteurs.add(producteur);
+            //une quantite null n'est pas corrigee, comme en bd ou quantite + ecart reste null
+            if (ligne.getQuantite() != null) {
+                disponibilite.quantites.put(ligne.getIdProducteur(), ligne.getQuantite());
+            }
+        }
+        synchronized (verrou) {
+            if (generations.getOrDefault(idProduit, 0L) <= generationDebut && generationTout <= generationDebut) {
+                cache.put(idProduit, disponibilite);
+            }
+        }
+        return disponibilite;
+    }
+
+    /**
+     * Date une correction ou un retrait du produit, à appeler sous le verrou.
+     */
+    private void marquer(Long idProduit) {
+        generations.put(idProduit, ++horloge);
+    }
+
+    private static ProducteursProduitResponse copier(ProducteursProduitResponse producteur) {
+        ProducteursProduitResponse copie = new ProducteursProduitResponse();
+        copie.setId(producteur.getId());
+        copie.setNom(producteur.getNom());
+        copie.setDescription(producteur.getDescription());
+        copie.setTags(producteur.getTags());
+        copie.setAdresse(producteur.getAdresse());
+        copie.setMail(producteur.getMail());
+        copie.setRayonLivraison(producteur.getRayonLivraison());
+        copie.setLatitude(producteur.getLatitude());
+        copie.setLongitude(producteur.getLongitude());
+        copie.setIdProduit(producteur.getIdProduit());
+        copie.setLibelle(producteur.getLibelle());
+        return copie;
+    }
+}
@@ -0,0 +1,18 @@
+package com.lifat.CircuitsCourtsApi.service.evenement;
+
+import com.lifat.CircuitsCourtsApi.model.EvenementOutbox;
+
+/**
+ * Un consommateur des événements dans l'api elle-même.
+ * Tout bean qui implémente cette interface reçoit les événements publiés, dans l'ordre des séquences, à partir de son offset.
+ * Si recevoir() lève une exception l'offset n'avance pas : l'événement sera présenté de nouveau au prochain passage du relais.
+ */
+public interface AbonneEvenements {
+
+    /**
+     * @return le nom sous lequel l'offset de l'abonné est enregistré, il ne doit pas changer d'une version à l'autre
+     */
+    String getNom();
+
+    void recevoir(EvenementOutbox evenement) throws Exception;
+}
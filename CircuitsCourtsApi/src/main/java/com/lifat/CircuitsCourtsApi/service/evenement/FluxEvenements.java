@@ -0,0 +1,219 @@
+package com.lifat.CircuitsCourtsApi.service.evenement;
+
+import com.lifat.CircuitsCourtsApi.model.EvenementOutbox;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Les connexions SSE ouvertes sur GET /api/evenements/flux.
+ *
+ * Chaque connexion reçoit les événements après une séquence de départ : d'abord ceux déjà publiés, lus en bd,
+ * puis ceux que le relais lui transmet au fil de l'eau. L'id de chaque événement SSE est sa séquence, un client qui
+ * se reconnecte avec l'en-tête Last-Event-ID reprend donc juste après le dernier événement reçu.
+ * Une connexion ouverte avec un nom de consommateur reprend à son offset enregistré, qui avance au fil des envois.
+ *
+ * Les envois sont faits par le pool fluxEvenementsExecutor, une tâche à la fois par connexion : ni la requête qui ouvre
+ * la connexion ni le relais n'attendent un client. Chaque connexion garde au plus lotsEnAttente lots à envoyer, au-delà
+ * les lots sont oubliés et la connexion est rattrapée depuis la bd.
+ */
+@Service
+public class FluxEvenements {
+
+    private static final Logger logger = LoggerFactory.getLogger(FluxEvenements.class);
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Autowired
+    @Qualifier("fluxEvenementsExecutor")
+    private ThreadPoolTaskExecutor executor;
+
+    @Value("${com.lifat.circuitscourtsapi.evenements.sse.timeoutMs: 1800000}")
+    private long timeoutMs;
+
+    @Value("${com.lifat.circuitscourtsapi.evenements.tailleLot: 500}")
+    private int tailleLot;
+
+    @Value("${com.lifat.circuitscourtsapi.evenements.sse.lotsEnAttente: 16}")
+    private int lotsEnAttente;
+
+    private final List<Connexion> connexions = new CopyOnWriteArrayList<>();
+
+    private static final class Connexion {
+        final SseEmitter emitter;
+        final String consommateur;
+        final BlockingQueue<List<EvenementOutbox>> aEnvoyer;
+        //vrai quand une tache d'envoi est en attente ou en cours pour la connexion
+        final AtomicBoolean planifiee = new AtomicBoolean();
+        //vrai quand des evenements ont pu etre oublies : la connexion doit etre rattrapee depuis la bd
+        volatile boolean enRetard;
+        volatile boolean fermee;
+        //lue et ecrite seulement par la tache d'envoi
+        long derniereSequence;
+
+        Connexion(SseEmitter emitter, String consommateur, long derniereSequence, int lotsEnAttente) {
+            this.emitter = emitter;
+            this.consommateur = consommateur;
+            this.derniereSequence = derniereSequence;
+            this.aEnvoyer = new ArrayBlockingQueue<>(lotsEnAttente);
+        }
+    }
+
+    /**
+     * Les événements déjà publiés sont envoyés ensuite, par le pool d'envoi.
+     *
+     * @param consommateur nom du consommateur dont l'offset est suivi, peut etre null
+     * @param depuis séquence de départ (Last-Event-ID), prioritaire sur l'offset du consommateur ; si les deux sont absents
+     *               seuls les nouveaux événements sont envoyés
+     */
+    public SseEmitter ouvrir(String consommateur, Long depuis) {
+        long depart;
+        if (depuis != null) {
+            depart = depuis;
+        } else if (consommateur != null) {
+            depart = outboxService.getOffset(consommateur);
+        } else {
+            depart = outboxService.getDerniereSequence();
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Connexion connexion = new Connexion(emitter, consommateur, depart, lotsEnAttente);
+        emitter.onCompletion(() -> fermer(connexion));
+        emitter.onTimeout(() -> fermer(connexion));
+        emitter.onError(e -> fermer(connexion));
+        connexions.add(connexion);
+        connexion.enRetard = true;
+        planifier(connexion);
+        return emitter;
+    }
+
+    /**
+     * Transmet un lot d'événements qui vient d'être publié, à séquences consécutives, à toutes les connexions.
+     * Ne fait que le déposer dans la file de chaque connexion.
+     */
+    void diffuser(List<EvenementOutbox> lot) {
+        if (lot.isEmpty()) {
+            return;
+        }
+        for (Connexion connexion : connexions) {
+            if (!connexion.aEnvoyer.offer(lot)) {
+                connexion.enRetard = true;
+            }
+            planifier(connexion);
+        }
+    }
+
+    private void fermer(Connexion connexion) {
+        connexion.fermee = true;
+        connexions.remove(connexion);
+        connexion.aEnvoyer.clear();
+    }
+
+    /**
+     * Lance la tache d'envoi de la connexion si elle n'est pas déjà lancée.
+     */
+    private void planifier(Connexion connexion) {
+        if (connexion.fermee || !connexion.planifiee.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> vider(connexion));
+        } catch (TaskRejectedException e) {
+            //pool sature : la connexion sera rattrapee depuis la bd au prochain lot
+            connexion.aEnvoyer.clear();
+            connexion.enRetard = true;
+            connexion.planifiee.set(false);
+        }
+    }
+
+    /**
+     * Envoie ce qui attend pour la connexion : le rattrapage depuis la bd s'il le faut, puis les lots de sa file.
+     */
+    private void vider(Connexion connexion) {
+        try {
+            while (!connexion.fermee) {
+                if (connexion.enRetard) {
+                    connexion.enRetard = false;
+                    if (!rattraper(connexion)) {
+                        return;
+                    }
+                    continue;
+                }
+                List<EvenementOutbox> lot = connexion.aEnvoyer.poll();
+                if (lot == null) {
+                    break;
+                }
+                if (connexion.derniereSequence < lot.get(0).getSequence() - 1 && !rattraper(connexion)) {
+                    return;
+                }
+                if (!envoyer(connexion, lot)) {
+                    return;
+                }
+            }
+        } finally {
+            connexion.planifiee.set(false);
+        }
+        //un lot depose entre le dernier poll et la fin de la tache n'a pas relance de tache
+        if (!connexion.aEnvoyer.isEmpty() || connexion.enRetard) {
+            planifier(connexion);
+        }
+    }
+
+    /**
+     * Envoie les événements publiés après la dernière séquence de la connexion, lot par lot, jusqu'au dernier.
+     *
+     * @return false si la connexion est fermée
+     */
+    private boolean rattraper(Connexion connexion) {
+        List<EvenementOutbox> lot;
+        do {
+            lot = outboxService.lire(connexion.derniereSequence, tailleLot);
+            if (!envoyer(connexion, lot)) {
+                return false;
+            }
+        } while (lot.size() == tailleLot);
+        return true;
+    }
+
+    /**
+     * @return false si la connexion est fermée
+     */
+    private boolean envoyer(Connexion connexion, List<EvenementOutbox> lot) {
+        long avant = connexion.derniereSequence;
+        try {
+            for (EvenementOutbox evenement : lot) {
+                if (evenement.getSequence() <= connexion.derniereSequence) {
+                    continue;
+                }
+                connexion.emitter.send(SseEmitter.event()
+                        .id(String.valueOf(evenement.getSequence()))
+                        .name(evenement.getType())
+                        .data(evenement, MediaType.APPLICATION_JSON));
+                connexion.derniereSequence = evenement.getSequence();
+            }
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            logger.info("connexion sse fermee" + (connexion.consommateur == null ? "" : " : " + connexion.consommateur));
+            fermer(connexion);
+            return false;
+        } finally {
+            if (connexion.consommateur != null && connexion.derniereSequence > avant) {
+                outboxService.enregistrerOffset(connexion.consommateur, connexion.derniereSequence);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.lifat.CircuitsCourtsApi.service.evenement;
+
+import com.lifat.CircuitsCourtsApi.model.EvenementOutbox;
+import com.lifat.CircuitsCourtsApi.repository.EvenementOutboxRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+
+/**
+ * Publie les événements de l'outbox.
+ *
+ * À chaque passage, les événements pas encore publiés reçoivent une séquence, dans l'ordre de leur id, sous le verrou
+ * de la ligne 'outbox_evenements' de id_generateurs : deux instances de l'api ne peuvent pas publier en même temps,
+ * les séquences restent donc continues. Après le commit, les événements sont transmis aux abonnés internes puis
+ * aux connexions SSE.
+ */
+@Service
+public class OutboxRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private static final String COMPTEUR = "outbox_evenements";
+
+    @Autowired
+    private EvenementOutboxRepository evenementOutboxRepository;
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Autowired
+    private FluxEvenements fluxEvenements;
+
+    @Autowired(required = false)
+    private List<AbonneEvenements> abonnes = Collections.emptyList();
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${com.lifat.circuitscourtsapi.evenements.tailleLot: 500}")
+    private int tailleLot;
+
+    @Value("${com.lifat.circuitscourtsapi.evenements.retentionJours: 7}")
+    private int retentionJours;
+
+    private TransactionTemplate transactionTemplate;
+
+    //offset de chaque abonne interne, relu en bd au demarrage
+    private final Map<String, Long> offsets = new HashMap<>();
+
+    @PostConstruct
+    private void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        jdbcTemplate.update("INSERT IGNORE INTO id_generateurs (nom, valeur) VALUES (?, ?)", COMPTEUR, evenementOutboxRepository.findDerniereSequence());
+        for (AbonneEvenements abonne : abonnes) {
+            offsets.put(abonne.getNom(), outboxService.getOffset(abonne.getNom()));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${com.lifat.circuitscourtsapi.evenements.intervalleMs: 200}")
+    public void relayer() {
+        List<EvenementOutbox> publies = transactionTemplate.execute(status -> {
+            long sequence = jdbcTemplate.queryForObject("SELECT valeur FROM id_generateurs WHERE nom = ? FOR UPDATE", Long.class, COMPTEUR);
+            List<EvenementOutbox> aPublier = evenementOutboxRepository.findNonPublies(tailleLot);
+            if (aPublier.isEmpty()) {
+                return aPublier;
+            }
+            Date maintenant = new Date();
+            for (EvenementOutbox evenement : aPublier) {
+                evenement.setSequence(++sequence);
+                evenement.setDatePublication(maintenant);
+            }
+            evenementOutboxRepository.saveAll(aPublier);
+            jdbcTemplate.update("UPDATE id_generateurs SET valeur = ? WHERE nom = ?", sequence, COMPTEUR);
+            return aPublier;
+        });
+        if (publies == null || publies.isEmpty()) {
+            return;
+        }
+        for (AbonneEvenements abonne : abonnes) {
+            distribuer(abonne, publies);
+        }
+        fluxEvenements.diffuser(publies);
+    }
+
+    /**
+     * Transmet les événements à l'abonné à partir de son offset, le lot qui vient d'être publié suffit s'il est à jour.
+     */
+    private void distribuer(AbonneEvenements abonne, List<EvenementOutbox> publies) {
+        long offset = offsets.getOrDefault(abonne.getNom(), 0L);
+        long avant = offset;
+        List<EvenementOutbox> lot = offset >= publies.get(0).getSequence() - 1 ? publies : outboxService.lire(offset, tailleLot);
+        try {
+            while (!lot.isEmpty()) {
+                for (EvenementOutbox evenement : lot) {
+                    if (evenement.getSequence() > offset) {
+                        abonne.recevoir(evenement);
+                        offset = evenement.getSequence();
+                    }
+                }
+                lot = lot == publies || lot.size() < tailleLot ? Collections.emptyList() : outboxService.lire(offset, tailleLot);
+            }
+        } catch (Exception e) {
+            logger.error("l'abonne " + abonne.getNom() + " n'a pas pu traiter l'evenement n°" + (offset + 1) + ", nouvel essai au prochain passage", e);
+        }
+        if (offset > avant) {
+            offsets.put(abonne.getNom(), offset);
+            outboxService.enregistrerOffset(abonne.getNom(), offset);
+        }
+    }
+
+    /**
+     * Supprime les événements publiés depuis plus de retentionJours.
+     */
+    @Scheduled(fixedDelayString = "${com.lifat.circuitscourtsapi.evenements.intervallePurgeMs: 3600000}")
+    public void purger() {
+        Date limite = new Date(System.currentTimeMillis() - retentionJours * 86400000L);
+        int supprimes = evenementOutboxRepository.supprimerPubliesAvant(limite);
+        if (supprimes > 0) {
+            logger.info(supprimes + " evenement(s) publie(s) supprime(s) de l'outbox");
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.lifat.CircuitsCourtsApi.service.evenement;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lifat.CircuitsCourtsApi.model.EvenementOutbox;
+import com.lifat.CircuitsCourtsApi.model.OffsetConsommateur;
+import com.lifat.CircuitsCourtsApi.repository.EvenementOutboxRepository;
+import com.lifat.CircuitsCourtsApi.repository.OffsetConsommateurRepository;
+import com.lifat.CircuitsCourtsApi.service.stock.CleStock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Écriture des événements dans l'outbox et lecture des événements publiés.
+ *
+ * publier() doit être appelé dans la transaction qui fait le changement : l'événement n'existe que si le changement est validé.
+ * Le relais (OutboxRelay) attribue ensuite les séquences et distribue les événements.
+ */
+@Service
+public class OutboxService {
+
+    public static final String COMMANDE = "COMMANDE";
+    public static final String STOCK = "STOCK";
+
+    public static final String COMMANDE_CREEE = "COMMANDE_CREEE";
+    public static final String COMMANDE_MODIFIEE = "COMMANDE_MODIFIEE";
+    public static final String COMMANDE_SUPPRIMEE = "COMMANDE_SUPPRIMEE";
+    public static final String STOCK_RESERVE = "STOCK_RESERVE";
+    public static final String STOCK_LIBERE = "STOCK_LIBERE";
+    public static final String STOCK_DEFINI = "STOCK_DEFINI";
+
+    @Autowired
+    private EvenementOutboxRepository evenementOutboxRepository;
+
+    @Autowired
+    private OffsetConsommateurRepository offsetConsommateurRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * @param payload l'objet décrit par l'événement, écrit en json
+     * @throws org.springframework.transaction.IllegalTransactionStateException hors d'une transaction : l'événement serait
+     * validé seul, même si le changement qu'il décrit est annulé
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void publier(String type, String agregat, Long idAgregat, Object payload) {
+        try {
+            evenementOutboxRepository.save(new EvenementOutbox(type, agregat, idAgregat, objectMapper.writeValueAsString(payload)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("evenement " + type + " impossible a ecrire en json", e);
+        }
+    }
+
+    /**
+     * Événement de mouvement de stock d'un couple (producteur, produit).
+     * @param quantite la quantité réservée, libérée ou le nouveau stock selon le type
+     */
+    public void publierStock(String type, long cleStock, Float quantite) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("idProducteur", CleStock.producteur(cleStock));
+        payload.put("idProduit", CleStock.produit(cleStock));
+        payload.put("quantite", quantite);
+        publier(type, STOCK, cleStock, payload);
+    }
+
+    /**
+     * @return les événements publiés de séquence supérieure à apres, dans l'ordre
+     */
+    public List<EvenementOutbox> lire(long apres, int limite) {
+        return evenementOutboxRepository.findPubliesApres(apres, limite);
+    }
+
+    public long getDerniereSequence() {
+        return evenementOutboxRepository.findDerniereSequence();
+    }
+
+    /**
+     * @return l'offset du consommateur, 0 s'il n'a encore rien consommé
+     */
+    public long getOffset(String consommateur) {
+        return offsetConsommateurRepository.findById(consommateur).map(OffsetConsommateur::getSequence).orElse(0L);
+    }
+
+    public void enregistrerOffset(String consommateur, long sequence) {
+        offsetConsommateurRepository.save(new OffsetConsommateur(consommateur, sequence, new Date()));
+    }
+}
@@ -0,0 +1,316 @@
+package com.lifat.CircuitsCourtsApi.service.export;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Export des commandes, commandesDetails et commandesProducteur en NDJSON ou en CSV.
+ *
+ * Les lignes sont lues par un curseur jdbc en avant seulement : avec une taille de lot Integer.MIN_VALUE le driver mysql
+ * transmet les lignes une par une au lieu de charger tout le résultat, et chaque ligne est écrite dans la réponse dès
+ * qu'elle est lue. La mémoire utilisée ne dépend donc pas du nombre de lignes exportées.
+ * La connexion reste occupée pendant tout l'export, le driver allonge lui même net_write_timeout
+ * (netTimeoutForStreamingResults) pour les clients lents.
+ */
+@Service
+public class ExportCommandesService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportCommandesService.class);
+
+    //lecture ligne par ligne par le driver mysql
+    private static final int TAILLE_LOT_CURSEUR = Integer.MIN_VALUE;
+
+    /**
+     * Les tables exportables, par id croissant. Les alias des colonnes sont les noms des champs dans l'export.
+     * Les lignes sont filtrées sur la date de leur commande.
+     */
+    public enum Donnees {
+        COMMANDES("commandes", "SELECT c.id AS id, c.id_client AS idClient, c.date_commande AS dateCommande, c.id_tournee AS idTournee " +
+                "FROM commandes c", "c.id"),
+        DETAILS("commandes_details", "SELECT cd.id AS id, cd.id_commande AS idCommande, cd.id_produit AS idProduit, cd.quantite AS quantite " +
+                "FROM commande_details cd INNER JOIN commandes c ON c.id = cd.id_commande", "cd.id"),
+        COMMANDES_PRODUCTEUR("commandes_producteur", "SELECT cp.id AS id, cp.id_commande_details AS idCommandeDetails, cd.id_commande AS idCommande, " +
+                "cp.id_producteur AS idProducteur, cp.quantite AS quantite " +
+                "FROM commande_producteur cp INNER JOIN commande_details cd ON cd.id = cp.id_commande_details " +
+                "INNER JOIN commandes c ON c.id = cd.id_commande", "cp.id");
+
+        private final String nom;
+        private final String select;
+        private final String ordre;
+
+        Donnees(String nom, String select, String ordre) {
+            this.nom = nom;
+            this.select = select;
+            this.ordre = ordre;
+        }
+
+        public String getNom() {
+            return nom;
+        }
+    }
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * @param donnees la table à exporter
+     * @param format NDJSON ou CSV
+     * @param depuis date de commande minimale incluse, peut etre null
+     * @param avant date de commande maximale exclue, peut etre null
+     * @return le corps de la réponse, la requête est exécutée quand il est écrit
+     */
+    public StreamingResponseBody exporter(Donnees donnees, Format format, Date depuis, Date avant) {
+        StringBuilder sql = new StringBuilder(donnees.select);
+        List<Object> parametres = new ArrayList<>();
+        String where = " WHERE ";
+        if (depuis != null) {
+            sql.append(where).append("c.date_commande >= ?");
+            parametres.add(new Timestamp(depuis.getTime()));
+            where = " AND ";
+        }
+        if (avant != null) {
+            sql.append(where).append("c.date_commande < ?");
+            parametres.add(new Timestamp(avant.getTime()));
+        }
+        sql.append(" ORDER BY ").append(donnees.ordre);
+
+        PreparedStatementCreator curseur = connexion -> {
+            PreparedStatement ps = connexion.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(TAILLE_LOT_CURSEUR);
+            for (int i = 0; i < parametres.size(); i++) {
+                ps.setObject(i + 1, parametres.get(i));
+            }
+            return ps;
+        };
+
+        return sortie -> {
+            long debut = System.currentTimeMillis();
+            EcrivainLignes ecrivain = format == Format.NDJSON ? new EcrivainNdjson(sortie) : new EcrivainCsv(sortie);
+            Long lignes;
+            try {
+                lignes = jdbcTemplate.query(curseur, ecrivain);
+            } catch (UncheckedIOException e) {
+                //le client a fermé la connexion
+                throw e.getCause();
+            }
+            logger.info("export " + donnees.nom + " : " + lignes + " ligne(s) en " + (System.currentTimeMillis() - debut) + " ms");
+        };
+    }
+
+    /**
+     * Écrit chaque ligne du résultat dès qu'elle est lue. La première ligne est envoyée immédiatement, les suivantes
+     * par blocs de la taille du tampon.
+     */
+    private abstract static class EcrivainLignes implements ResultSetExtractor<Long> {
+
+        String[] colonnes;
+        int[] types;
+
+        /**
+         * @return le nombre de lignes écrites
+         */
+        @Override
+        public Long extractData(ResultSet rs) throws SQLException {
+            ResultSetMetaData metaData = rs.getMetaData();
+            colonnes = new String[metaData.getColumnCount()];
+            types = new int[colonnes.length];
+            for (int i = 0; i < colonnes.length; i++) {
+                colonnes[i] = metaData.getColumnLabel(i + 1);
+                types[i] = metaData.getColumnType(i + 1);
+            }
+            long lignes = 0;
+            try {
+                debut();
+                while (rs.next()) {
+                    ligne(rs);
+                    if (++lignes == 1) {
+                        vider();
+                    }
+                }
+                terminer(lignes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return lignes;
+        }
+
+        abstract void debut() throws IOException;
+
+        abstract void ligne(ResultSet rs) throws IOException, SQLException;
+
+        abstract void vider() throws IOException;
+
+        abstract void terminer(long lignes) throws IOException;
+    }
+
+    private class EcrivainNdjson extends EcrivainLignes {
+
+        private final JsonGenerator generateur;
+
+        EcrivainNdjson(OutputStream sortie) throws IOException {
+            generateur = objectMapper.getFactory().createGenerator(sortie, JsonEncoding.UTF8);
+            //un objet par ligne
+            generateur.setRootValueSeparator(new SerializedString("\n"));
+        }
+
+        @Override
+        void debut() {
+        }
+
+        @Override
+        void ligne(ResultSet rs) throws IOException, SQLException {
+            generateur.writeStartObject();
+            for (int i = 0; i < colonnes.length; i++) {
+                generateur.writeFieldName(colonnes[i]);
+                switch (types[i]) {
+                    case Types.BIGINT:
+                    case Types.INTEGER:
+                        long entier = rs.getLong(i + 1);
+                        if (rs.wasNull()) {
+                            generateur.writeNull();
+                        } else {
+                            generateur.writeNumber(entier);
+                        }
+                        break;
+                    case Types.REAL:
+                    case Types.FLOAT:
+                    case Types.DOUBLE:
+                        float reel = rs.getFloat(i + 1);
+                        if (rs.wasNull()) {
+                            generateur.writeNull();
+                        } else {
+                            generateur.writeNumber(reel);
+                        }
+                        break;
+                    case Types.DATE:
+                    case Types.TIMESTAMP:
+                        Timestamp date = rs.getTimestamp(i + 1);
+                        if (date == null) {
+                            generateur.writeNull();
+                        } else {
+                            generateur.writeString(date.toInstant().toString());
+                        }
+                        break;
+                    default:
+                        generateur.writeString(rs.getString(i + 1));
+                }
+            }
+            generateur.writeEndObject();
+        }
+
+        @Override
+        void vider() throws IOException {
+            generateur.flush();
+        }
+
+        @Override
+        void terminer(long lignes) throws IOException {
+            //le separateur n'est ecrit qu'entre deux objets
+            if (lignes > 0) {
+                generateur.writeRaw('\n');
+            }
+            generateur.flush();
+        }
+    }
+
+    private static class EcrivainCsv extends EcrivainLignes {
+
+        private final Writer writer;
+
+        EcrivainCsv(OutputStream sortie) {
+            writer = new BufferedWriter(new OutputStreamWriter(sortie, StandardCharsets.UTF_8), 8192);
+        }
+
+        @Override
+        void debut() throws IOException {
+            for (int i = 0; i < colonnes.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(colonnes[i]);
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        void ligne(ResultSet rs) throws IOException, SQLException {
+            for (int i = 0; i < colonnes.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                String valeur;
+                if (types[i] == Types.DATE || types[i] == Types.TIMESTAMP) {
+                    Timestamp date = rs.getTimestamp(i + 1);
+                    valeur = date == null ? null : date.toInstant().toString();
+                } else {
+                    valeur = rs.getString(i + 1);
+                }
+                if (valeur != null) {
+                    ecrireChamp(valeur);
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        private void ecrireChamp(String valeur) throws IOException {
+            if (valeur.indexOf(',') < 0 && valeur.indexOf('"') < 0 && valeur.indexOf('\n') < 0 && valeur.indexOf('\r') < 0) {
+                writer.write(valeur);
+                return;
+            }
+            writer.write('"');
+            writer.write(valeur.replace("\"", "\"\""));
+            writer.write('"');
+        }
+
+        @Override
+        void vider() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        void terminer(long lignes) throws IOException {
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.lifat.CircuitsCourtsApi.service.idempotence;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.lifat.CircuitsCourtsApi.model.ReponseIdempotente;
+import com.lifat.CircuitsCourtsApi.repository.ReponseIdempotenteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gestion de l'en-tête Idempotency-Key des requêtes qui modifient les commandes.
+ *
+ * La première requête portant une clé réserve la clé en bd (INSERT IGNORE), s'exécute, puis sa réponse est enregistrée.
+ * Une clé expirée ou abandonnée est reprise par un UPDATE conditionnel, qu'une seule requête peut réussir.
+ * Une requête rejouée avec la même clé reçoit la réponse enregistrée, en-tête Idempotent-Replayed, sans nouvelle vérification
+ * ni mouvement de stock. Les réponses terminées sont aussi gardées dans un cache en mémoire borné pour éviter la lecture en bd.
+ * Les réponses expirent après dureeVieMs, elles sont alors supprimées de la bd par purger().
+ *
+ * Les réponses 5xx et les exceptions ne sont pas enregistrées : la clé est libérée et la requête peut être rejouée.
+ */
+@Service
+public class IdempotenceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotenceService.class);
+
+    public static final String EN_TETE = "Idempotency-Key";
+
+    public static final String EN_TETE_REJOUEE = "Idempotent-Replayed";
+
+    /**
+     * Le traitement normal de la requête.
+     */
+    @FunctionalInterface
+    public interface Action {
+        ResponseEntity<?> executer() throws Exception;
+    }
+
+    @Autowired
+    private ReponseIdempotenteRepository reponseIdempotenteRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${com.lifat.circuitscourtsapi.idempotence.tailleCache: 10000}")
+    private int tailleCache;
+
+    @Value("${com.lifat.circuitscourtsapi.idempotence.dureeVieMs: 86400000}")
+    private long dureeVieMs;
+
+    //une cle reservee depuis plus longtemps sans reponse est consideree comme abandonnee (arret de l'api pendant la requete)
+    @Value("${com.lifat.circuitscourtsapi.idempotence.delaiAbandonMs: 300000}")
+    private long delaiAbandonMs;
+
+    private Cache<String, ReponseIdempotente> cache;
+
+    @PostConstruct
+    private void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(tailleCache)
+                .expireAfterWrite(dureeVieMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Exécute l'action une seule fois par clé.
+     *
+     * @param cleIdempotence la valeur de l'en-tête Idempotency-Key, l'action est exécutée normalement si elle est absente
+     * @param operation l'opération appelée, la même clé peut servir pour des opérations différentes
+     * @param requete le corps ou les paramètres de la requête, pour vérifier qu'une clé n'est pas réutilisée pour une autre requête
+     * @param action le traitement de la requête
+     * @return la réponse de l'action, ou la réponse enregistrée si la clé a déjà servi
+     */
+    public ResponseEntity<?> executer(String cleIdempotence, String operation, Object requete, Action action) throws Exception {
+        if (cleIdempotence == null || cleIdempotence.isBlank()) {
+            return action.executer();
+        }
+        String cle = operation + ":" + cleIdempotence;
+        String empreinte = empreinte(requete);
+
+        ReponseIdempotente enCache = cache.getIfPresent(cle);
+        if (enCache != null) {
+            return rejouer(enCache, empreinte);
+        }
+
+        Date maintenant = new Date();
+        if (reponseIdempotenteRepository.reserver(cle, empreinte, maintenant, new Date(maintenant.getTime() + dureeVieMs)) == 0) {
+            Optional<ReponseIdempotente> existante = reponseIdempotenteRepository.findById(cle);
+            if (existante.isPresent() && !estPerimee(existante.get(), maintenant)) {
+                if (existante.get().isTermine()) {
+                    cache.put(cle, existante.get());
+                }
+                return rejouer(existante.get(), empreinte);
+            }
+            //reponse expiree pas encore purgee ou requete abandonnee : la cle est reprise si personne ne l'a reprise entre temps,
+            //reservee de nouveau si elle vient d'etre purgee
+            Date expiration = new Date(maintenant.getTime() + dureeVieMs);
+            if (reponseIdempotenteRepository.reprendre(cle, empreinte, maintenant, expiration, new Date(maintenant.getTime() - delaiAbandonMs)) == 0
+                    && reponseIdempotenteRepository.reserver(cle, empreinte, maintenant, expiration) == 0) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body("une requete avec la cle " + cleIdempotence + " est deja en cours");
+            }
+        }
+
+        ResponseEntity<?> reponse;
+        try {
+            reponse = action.executer();
+        } catch (Exception | Error e) {
+            reponseIdempotenteRepository.deleteById(cle);
+            throw e;
+        }
+        if (reponse.getStatusCode().is5xxServerError()) {
+            reponseIdempotenteRepository.deleteById(cle);
+            return reponse;
+        }
+        enregistrer(cle, empreinte, reponse);
+        return reponse;
+    }
+
+    private void enregistrer(String cle, String empreinte, ResponseEntity<?> reponse) throws JsonProcessingException {
+        Object corps = reponse.getBody();
+        boolean json = corps != null && !(corps instanceof String);
+        String corpsEnregistre = corps == null ? null : json ? objectMapper.writeValueAsString(corps) : (String) corps;
+        reponseIdempotenteRepository.terminer(cle, reponse.getStatusCodeValue(), corpsEnregistre, json);
+
+        ReponseIdempotente terminee = new ReponseIdempotente();
+        terminee.setCle(cle);
+        terminee.setEmpreinte(empreinte);
+        terminee.setTermine(true);
+        terminee.setCodeHttp(reponse.getStatusCodeValue());
+        terminee.setCorps(corpsEnregistre);
+        terminee.setJson(json);
+        cache.put(cle, terminee);
+    }
+
+    private ResponseEntity<?> rejouer(ReponseIdempotente reponse, String empreinte) {
+        if (!reponse.getEmpreinte().equals(empreinte)) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body("la cle d'idempotence a deja servi pour une autre requete");
+        }
+        if (!reponse.isTermine()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("une requete avec la meme cle d'idempotence est deja en cours");
+        }
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(reponse.getCodeHttp()).header(EN_TETE_REJOUEE, "true");
+        if (reponse.getCorps() == null) {
+            return builder.build();
+        }
+        return builder.contentType(reponse.isJson() ? MediaType.APPLICATION_JSON : MediaType.TEXT_PLAIN).body(reponse.getCorps());
+    }
+
+    private boolean estPerimee(ReponseIdempotente reponse, Date maintenant) {
+        if (reponse.getDateExpiration().before(maintenant)) {
+            return true;
+        }
+        return !reponse.isTermine() && reponse.getDateCreation().getTime() + delaiAbandonMs < maintenant.getTime();
+    }
+
+    private String empreinte(Object requete) throws JsonProcessingException {
+        return Hashing.sha256().hashString(objectMapper.writeValueAsString(requete), StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Supprime de la bd les réponses expirées, le cache les oublie tout seul.
+     */
+    @Scheduled(fixedDelayString = "${com.lifat.circuitscourtsapi.idempotence.intervallePurgeMs: 3600000}")
+    public void purger() {
+        int supprimees = reponseIdempotenteRepository.supprimerExpirees(new Date());
+        if (supprimees > 0) {
+            logger.info(supprimees + " reponse(s) idempotente(s) expiree(s) supprimee(s)");
+        }
+    }
+}
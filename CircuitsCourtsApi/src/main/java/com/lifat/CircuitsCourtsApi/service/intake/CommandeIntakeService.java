@@ -0,0 +1,170 @@
+package com.lifat.CircuitsCourtsApi.service.intake;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lifat.CircuitsCourtsApi.model.CommandeInfo;
+import com.lifat.CircuitsCourtsApi.model.CommandeIntake;
+import com.lifat.CircuitsCourtsApi.model.EStatutIntake;
+import com.lifat.CircuitsCourtsApi.repository.CommandeIntakeRepository;
+import com.lifat.CircuitsCourtsApi.service.CommandeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * File d'attente asynchrone des commandes.
+ *
+ * Le dépôt d'une commande se limite à un INSERT de la commandeInfo reçue : la requête http répond tout de suite avec un ticket.
+ * La file est ensuite vidée par lots : chaque lot est réservé en bd (statut EN_COURS) puis chaque commande est traitée
+ * par le pool de workers borné, avec la même vérification et le même enregistrement que POST /api/commande/save.
+ * Le résultat (acceptée ou rejetée avec le motif) est conservé pour GET /api/commande/intake/{ticket}.
+ *
+ * Le verdict ACCEPTEE est écrit dans la transaction de la commande : après un arrêt brutal, une commande restée EN_COURS
+ * n'a pas été enregistrée, et la reprendre ne la place pas deux fois. Le verdict n'est écrit que si la commande est
+ * toujours la prise du worker (même date_prise) ; sinon la commande est annulée, une autre prise la traite.
+ */
+@Service
+public class CommandeIntakeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommandeIntakeService.class);
+
+    @Autowired
+    private CommandeIntakeRepository commandeIntakeRepository;
+
+    @Autowired
+    private CommandeService commandeService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Qualifier("commandeIntakeExecutor")
+    private ThreadPoolTaskExecutor executor;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${com.lifat.circuitscourtsapi.intake.tailleLot: 50}")
+    private int tailleLot;
+
+    @Value("${com.lifat.circuitscourtsapi.intake.delaiRepriseMs: 600000}")
+    private long delaiRepriseMs;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    private void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Les commandes restées EN_COURS trop longtemps (api arrêtée pendant leur traitement) sont remises dans la file.
+     */
+    @Scheduled(fixedDelayString = "${com.lifat.circuitscourtsapi.intake.intervalleRepriseMs: 60000}")
+    public void reprendre() {
+        Date limite = new Date(System.currentTimeMillis() - delaiRepriseMs);
+        int reprises = commandeIntakeRepository.remettreEnAttente(limite);
+        if (reprises > 0) {
+            logger.info(reprises + " commande(s) de la file d'attente remise(s) en attente");
+        }
+    }
+
+    /**
+     * Dépose une commandeInfo dans la file d'attente.
+     * @param commandeInfo la commandeInfo reçue, elle n'est pas vérifiée ici
+     * @return la commande déposée, avec son ticket
+     * @throws JsonProcessingException si la commandeInfo ne peut pas être sérialisée
+     */
+    public CommandeIntake deposer(CommandeInfo commandeInfo) throws JsonProcessingException {
+        String payload = objectMapper.writeValueAsString(commandeInfo);
+        return commandeIntakeRepository.save(new CommandeIntake(UUID.randomUUID().toString(), payload));
+    }
+
+    public Optional<CommandeIntake> getByTicket(String ticket) {
+        return commandeIntakeRepository.findByTicket(ticket);
+    }
+
+    /**
+     * Réserve un lot de commandes en attente, pas plus que ce que le pool de workers peut accepter,
+     * et les confie aux workers.
+     */
+    @Scheduled(fixedDelayString = "${com.lifat.circuitscourtsapi.intake.intervalleMs: 500}")
+    public void vider() {
+        int placesLibres = executor.getMaxPoolSize() - executor.getActiveCount()
+                + executor.getThreadPoolExecutor().getQueue().remainingCapacity();
+        int limite = Math.min(tailleLot, placesLibres);
+        if (limite <= 0) {
+            return;
+        }
+        List<Long> lot = transactionTemplate.execute(status -> {
+            List<Long> ids = commandeIntakeRepository.findIdsEnAttente(limite);
+            if (!ids.isEmpty()) {
+                commandeIntakeRepository.marquerEnCours(ids, new Date());
+            }
+            return ids;
+        });
+        for (Long id : lot == null ? Collections.<Long>emptyList() : lot) {
+            try {
+                executor.execute(() -> traiter(id));
+            } catch (TaskRejectedException e) {
+                //le pool s'est rempli depuis le calcul des places libres, la commande sera reprise au prochain passage
+                commandeIntakeRepository.remettreEnAttente(id);
+            }
+        }
+    }
+
+    /**
+     * Vérifie et enregistre une commande de la file, puis enregistre le verdict.
+     */
+    private void traiter(Long id) {
+        Optional<CommandeIntake> existing = commandeIntakeRepository.findById(id);
+        if (existing.isEmpty()) {
+            return;
+        }
+        CommandeIntake intake = existing.get();
+        if (intake.getStatut() != EStatutIntake.EN_COURS) {
+            return;
+        }
+        Date datePrise = intake.getDatePrise();
+        try {
+            CommandeInfo commandeInfo = objectMapper.readValue(intake.getPayload(), CommandeInfo.class);
+            commandeService.placerCommande(commandeInfo, null, savedCommandeInfo -> {
+                if (commandeIntakeRepository.accepter(id, datePrise, savedCommandeInfo.getCommande().getId(), new Date()) == 0) {
+                    throw new PrisePerimeeException(id);
+                }
+            });
+        } catch (PrisePerimeeException e) {
+            logger.info(e.getMessage());
+        } catch (Exception e) {
+            String motif = String.valueOf(e.getMessage());
+            commandeIntakeRepository.rejeter(id, datePrise, motif.length() > 2000 ? motif.substring(0, 2000) : motif, new Date());
+        }
+    }
+
+    /**
+     * La commande a été remise en attente et reprise pendant son traitement : la commande placée est annulée.
+     */
+    private static final class PrisePerimeeException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        PrisePerimeeException(Long id) {
+            super("commande n°" + id + " de la file d'attente reprise pendant son traitement, enregistrement annule");
+        }
+    }
+}
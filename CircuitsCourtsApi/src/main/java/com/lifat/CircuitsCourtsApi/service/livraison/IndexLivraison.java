@@ -0,0 +1,477 @@
+package com.lifat.CircuitsCourtsApi.service.livraison;
+
+import com.lifat.CircuitsCourtsApi.model.Client;
+import com.lifat.CircuitsCourtsApi.model.Producteur;
+import com.lifat.CircuitsCourtsApi.payload.response.ProducteurLivrableResponse;
+import com.lifat.CircuitsCourtsApi.payload.response.ProducteursProduitResponse;
+import com.lifat.CircuitsCourtsApi.repository.ProducteurRepository;
+import com.lifat.CircuitsCourtsApi.service.calculTournee.CacheDistances;
+import com.lifat.CircuitsCourtsApi.service.calculTournee.GeoPortailApiService;
+import com.lifat.CircuitsCourtsApi.service.disponibilite.DisponibiliteService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index spatial des producteurs, pour savoir quels producteurs peuvent livrer un client sans calculer la distance
+ * avec chacun d'eux.
+ *
+ * La surface est découpée en une grille de cellules de tailleCelluleDegres de côté. Chaque producteur est rangé dans la
+ * cellule de sa position, et dans toutes les cellules touchées par son disque de livraison : les producteurs qui peuvent
+ * livrer un point sont parmi ceux de la cellule du point, il ne reste qu'à vérifier leur distance. Un disque qui touche plus
+ * de cellulesMaxParProducteur cellules n'est pas découpé, le producteur est vérifié à chaque requête.
+ * Les plus proches voisins sont cherchés par anneaux de cellules autour du point, puis dans toutes les cellules à moins
+ * de la distance du k-ième trouvé.
+ *
+ * L'index est chargé au démarrage et tenu à jour par ProducteurServices ; il est rechargé toutes les rechargementMs
+ * pour les modifications faites directement en bd.
+ */
+@Service
+public class IndexLivraison {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexLivraison.class);
+
+    @Autowired
+    private ProducteurRepository producteurRepository;
+
+    @Autowired
+    private GeoPortailApiService geoPortailApiService;
+
+    @Autowired
+    private DisponibiliteService disponibiliteService;
+
+    @Autowired
+    private CacheDistances cacheDistances;
+
+    @Value("${com.lifat.circuitscourtsapi.livraison.tailleCelluleDegres: 0.25}")
+    private double tailleCellule;
+
+    @Value("${com.lifat.circuitscourtsapi.livraison.cellulesMaxParProducteur: 4096}")
+    private int cellulesMax;
+
+    /**
+     * Un producteur de l'index. Une entrée n'est jamais modifiée, elle est remplacée.
+     */
+    private static final class Entree {
+        final long id;
+        final String nom;
+        final String adresse;
+        final Double latitude;
+        final Double longitude;
+        final Float rayonLivraison;
+
+        Entree(long id, String nom, String adresse, Double latitude, Double longitude, Float rayonLivraison) {
+            this.id = id;
+            this.nom = nom;
+            this.adresse = adresse;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.rayonLivraison = rayonLivraison;
+        }
+
+        boolean positionne() {
+            return latitude != null && longitude != null;
+        }
+
+        boolean livre() {
+            return positionne() && rayonLivraison != null && rayonLivraison >= 0;
+        }
+    }
+
+    /**
+     * Un producteur trouvé, avec sa distance au point cherché.
+     */
+    private static final class Trouve {
+        final Entree entree;
+        final double distance;
+
+        Trouve(Entree entree, double distance) {
+            this.entree = entree;
+            this.distance = distance;
+        }
+    }
+
+    private int lignes;
+
+    private int colonnes;
+
+    private Map<Long, Entree> entrees = new HashMap<>();
+
+    //producteurs par cellule de leur position
+    private Map<Long, List<Entree>> positions = new HashMap<>();
+
+    //producteurs par cellule touchee par leur disque de livraison
+    private Map<Long, List<Entree>> couvertures = new HashMap<>();
+
+    //producteurs dont le disque touche trop de cellules
+    private List<Entree> sansCouverture = new ArrayList<>();
+
+    //modifications recues pendant un rechargement, rejouees sur l'index recharge (null pour un producteur supprime)
+    private Map<Long, Entree> modificationsPendantRechargement;
+
+    private final ReentrantReadWriteLock verrou = new ReentrantReadWriteLock();
+
+    @PostConstruct
+    private void init() {
+        lignes = (int) Math.ceil(180 / tailleCellule);
+        colonnes = (int) Math.ceil(360 / tailleCellule);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void chargerAuDemarrage() {
+        recharger();
+    }
+
+    /**
+     * Reconstruit l'index depuis la bd, sans bloquer les requêtes pendant la lecture.
+     */
+    @Scheduled(fixedDelayString = "${com.lifat.circuitscourtsapi.livraison.rechargementMs: 3600000}",
+            initialDelayString = "${com.lifat.circuitscourtsapi.livraison.rechargementMs: 3600000}")
+    public void recharger() {
+        verrou.writeLock().lock();
+        try {
+            modificationsPendantRechargement = new HashMap<>();
+        } finally {
+            verrou.writeLock().unlock();
+        }
+
+        //lecture hors verrou, les requetes continuent sur l'ancien index
+        Map<Long, Entree> nouvellesEntrees = new HashMap<>();
+        try {
+            for (ProducteurRepository.PositionProducteur position : producteurRepository.findPositions()) {
+                nouvellesEntrees.put(position.getId(), new Entree(position.getId(), position.getNom(), position.getAdresse(),
+                        position.getLatitude(), position.getLongitude(), position.getRayonLivraison()));
+            }
+        } catch (RuntimeException e) {
+            verrou.writeLock().lock();
+            modificationsPendantRechargement = null;
+            verrou.writeLock().unlock();
+            throw e;
+        }
+
+        verrou.writeLock().lock();
+        try {
+            entrees = new HashMap<>();
+            positions = new HashMap<>();
+            couvertures = new HashMap<>();
+            sansCouverture = new ArrayList<>();
+            nouvellesEntrees.values().forEach(this::ajouter);
+            modificationsPendantRechargement.forEach(this::remplacer);
+        } finally {
+            modificationsPendantRechargement = null;
+            verrou.writeLock().unlock();
+        }
+        logger.debug("index des livraisons recharge : " + nouvellesEntrees.size() + " producteur(s)");
+    }
+
+    /**
+     * Ajoute ou remplace un producteur, après son enregistrement.
+     */
+    public void mettreAJour(Producteur producteur) {
+        Entree entree = new Entree(producteur.getId_Producteur(), producteur.getLibelle(), producteur.getAdresse(),
+                producteur.getLatitude(), producteur.getLongitude(), producteur.getRayon_Livraison());
+        modifier(entree.id, entree);
+    }
+
+    /**
+     * Retire un producteur, après sa suppression.
+     */
+    public void retirer(Long idProducteur) {
+        modifier(idProducteur, null);
+    }
+
+    /**
+     * Les producteurs qui peuvent livrer le client, du plus proche au plus éloigné.
+     *
+     * @param idProduit si non null, seuls les producteurs qui ont ce produit en stock sont renvoyés, avec leur quantité
+     * @param limite si non null, nombre maximum de producteurs renvoyés
+     * @throws Exception si le produit n'existe pas
+     */
+    public List<ProducteurLivrableResponse> getLivrables(Client client, Long idProduit, Integer limite) throws Exception {
+        Map<Long, Float> quantites = quantitesEnStock(idProduit);
+        List<Trouve> trouves = new ArrayList<>();
+        verrou.readLock().lock();
+        try {
+            List<Entree> candidats = couvertures.getOrDefault(cellule(client.getLatitude(), client.getLongitude()), Collections.emptyList());
+            verifierLivraison(candidats, client, quantites, trouves);
+            verifierLivraison(sansCouverture, client, quantites, trouves);
+        } finally {
+            verrou.readLock().unlock();
+        }
+        trouves.sort(Comparator.comparingDouble(trouve -> trouve.distance));
+        if (limite != null && trouves.size() > limite) {
+            trouves = trouves.subList(0, Math.max(limite, 0));
+        }
+        return reponses(trouves, quantites);
+    }
+
+    /**
+     * Les k producteurs les plus proches du client, qu'ils le livrent ou non, du plus proche au plus éloigné.
+     *
+     * @param idProduit si non null, seuls les producteurs qui ont ce produit en stock sont cherchés
+     * @throws Exception si le produit n'existe pas
+     */
+    public List<ProducteurLivrableResponse> getPlusProches(Client client, Long idProduit, int k) throws Exception {
+        Map<Long, Float> quantites = quantitesEnStock(idProduit);
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        double latitude = client.getLatitude();
+        double longitude = client.getLongitude();
+        List<Trouve> trouves = new ArrayList<>();
+        verrou.readLock().lock();
+        try {
+            //anneaux de cellules autour du client jusqu'a trouver k producteurs, sans regarder plus de cellules qu'il n'y en a d'occupees
+            Set<Long> vus = new HashSet<>();
+            int ligneCentre = ligne(latitude);
+            int colonneCentre = colonne(longitude);
+            int cellulesVues = 0;
+            for (int anneau = 0; vus.size() < k && cellulesVues <= positions.size(); anneau++) {
+                for (int di = -anneau; di <= anneau; di++) {
+                    int i = ligneCentre + di;
+                    if (i < 0 || i >= lignes) {
+                        continue;
+                    }
+                    //les lignes du milieu de l'anneau n'ont que deux cellules
+                    int pas = Math.abs(di) == anneau ? 1 : 2 * anneau;
+                    for (int dj = -anneau; dj <= anneau; dj += pas) {
+                        cellulesVues++;
+                        for (Entree entree : positions.getOrDefault(cle(i, Math.floorMod(colonneCentre + dj, colonnes)), Collections.emptyList())) {
+                            if (quantites == null || quantites.containsKey(entree.id)) {
+                                vus.add(entree.id);
+                            }
+                        }
+                    }
+                }
+            }
+            //distance du k-ieme trouve : tous les producteurs plus proches sont dans les cellules du disque de ce rayon
+            double rayon = Double.POSITIVE_INFINITY;
+            if (vus.size() >= k) {
+                double[] distances = new double[vus.size()];
+                int n = 0;
+                for (Long id : vus) {
+                    Entree entree = entrees.get(id);
+                    distances[n++] = distance(entree, latitude, longitude);
+                }
+                Arrays.sort(distances);
+                rayon = distances[k - 1];
+            }
+            long[] cellules = Double.isInfinite(rayon) ? null : cellules(latitude, longitude, rayon, positions.size());
+            if (cellules == null) {
+                for (List<Entree> cellule : positions.values()) {
+                    chercherProches(cellule, latitude, longitude, rayon, quantites, trouves);
+                }
+            } else {
+                for (long cellule : cellules) {
+                    chercherProches(positions.getOrDefault(cellule, Collections.emptyList()), latitude, longitude, rayon, quantites, trouves);
+                }
+            }
+        } finally {
+            verrou.readLock().unlock();
+        }
+        trouves.sort(Comparator.comparingDouble(trouve -> trouve.distance));
+        return reponses(trouves.size() > k ? trouves.subList(0, k) : trouves, quantites);
+    }
+
+    private void verifierLivraison(List<Entree> candidats, Client client, Map<Long, Float> quantites, List<Trouve> trouves) {
+        for (Entree entree : candidats) {
+            if (quantites != null && !quantites.containsKey(entree.id)) {
+                continue;
+            }
+            //distance gardee pour la validation de la commande qui suit souvent cette recherche
+            double distance = cacheDistances.producteurClient(entree.id, entree.latitude, entree.longitude,
+                    client.getId(), client.getLatitude(), client.getLongitude());
+            //meme test que la validation des commandes
+            if (distance <= entree.rayonLivraison) {
+                trouves.add(new Trouve(entree, distance));
+            }
+        }
+    }
+
+    private void chercherProches(List<Entree> cellule, double latitude, double longitude, double rayon, Map<Long, Float> quantites, List<Trouve> trouves) {
+        for (Entree entree : cellule) {
+            if (quantites != null && !quantites.containsKey(entree.id)) {
+                continue;
+            }
+            double distance = distance(entree, latitude, longitude);
+            if (distance <= rayon) {
+                trouves.add(new Trouve(entree, distance));
+            }
+        }
+    }
+
+    /**
+     * @return le stock par producteur des producteurs qui ont le produit en stock, null si idProduit est null
+     * @throws Exception si le produit n'existe pas
+     */
+    private Map<Long, Float> quantitesEnStock(Long idProduit) throws Exception {
+        if (idProduit == null) {
+            return null;
+        }
+        List<ProducteursProduitResponse> disponibilites = disponibiliteService.getDisponibilites(idProduit);
+        if (disponibilites == null) {
+            throw new Exception("le produit n°" + idProduit + " n'existe pas.");
+        }
+        Map<Long, Float> quantites = new HashMap<>();
+        for (ProducteursProduitResponse disponibilite : disponibilites) {
+            if (disponibilite.getQuantite() != null && disponibilite.getQuantite() > 0) {
+                quantites.put(disponibilite.getId(), disponibilite.getQuantite());
+            }
+        }
+        return quantites;
+    }
+
+    private static List<ProducteurLivrableResponse> reponses(List<Trouve> trouves, Map<Long, Float> quantites) {
+        List<ProducteurLivrableResponse> reponses = new ArrayList<>(trouves.size());
+        for (Trouve trouve : trouves) {
+            Entree entree = trouve.entree;
+            reponses.add(new ProducteurLivrableResponse(entree.id, entree.nom, entree.adresse, entree.latitude, entree.longitude,
+                    entree.rayonLivraison, trouve.distance, quantites == null ? null : quantites.get(entree.id)));
+        }
+        return reponses;
+    }
+
+    private double distance(Entree entree, double latitude, double longitude) {
+        return geoPortailApiService.verifDistanceBetweenProducteurAndClient(entree.latitude, entree.longitude, latitude, longitude);
+    }
+
+    private void modifier(Long idProducteur, Entree entree) {
+        verrou.writeLock().lock();
+        try {
+            remplacer(idProducteur, entree);
+            if (modificationsPendantRechargement != null) {
+                modificationsPendantRechargement.put(idProducteur, entree);
+            }
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    /**
+     * À appeler sous le verrou en écriture.
+     */
+    private void remplacer(Long idProducteur, Entree entree) {
+        Entree ancienne = entrees.remove(idProducteur);
+        if (ancienne != null) {
+            retirerDesCellules(ancienne);
+        }
+        if (entree != null) {
+            ajouter(entree);
+        }
+    }
+
+    private void ajouter(Entree entree) {
+        entrees.put(entree.id, entree);
+        if (!entree.positionne()) {
+            return;
+        }
+        positions.computeIfAbsent(cellule(entree.latitude, entree.longitude), cellule -> new ArrayList<>()).add(entree);
+        if (!entree.livre()) {
+            return;
+        }
+        long[] cellules = cellules(entree.latitude, entree.longitude, entree.rayonLivraison, cellulesMax);
+        if (cellules == null) {
+            sansCouverture.add(entree);
+            return;
+        }
+        for (long cellule : cellules) {
+            couvertures.computeIfAbsent(cellule, c -> new ArrayList<>()).add(entree);
+        }
+    }
+
+    private void retirerDesCellules(Entree entree) {
+        if (!entree.positionne()) {
+            return;
+        }
+        retirerDe(positions, cellule(entree.latitude, entree.longitude), entree);
+        if (!entree.livre()) {
+            return;
+        }
+        long[] cellules = cellules(entree.latitude, entree.longitude, entree.rayonLivraison, cellulesMax);
+        if (cellules == null) {
+            sansCouverture.remove(entree);
+            return;
+        }
+        for (long cellule : cellules) {
+            retirerDe(couvertures, cellule, entree);
+        }
+    }
+
+    private static void retirerDe(Map<Long, List<Entree>> index, long cellule, Entree entree) {
+        List<Entree> liste = index.get(cellule);
+        if (liste != null) {
+            liste.remove(entree);
+            if (liste.isEmpty()) {
+                index.remove(cellule);
+            }
+        }
+    }
+
+    /**
+     * Les cellules touchées par le disque de rayonKm autour du point.
+     *
+     * @param max nombre maximum de cellules
+     * @return les cellules, null s'il y en a plus que max
+     */
+    private long[] cellules(double latitude, double longitude, double rayonKm, int max) {
+        //rayon angulaire, avec une marge pour les arrondis de la distance calculee
+        double rayon = (rayonKm * (1 + 1e-9) + 1e-6) / GeoPortailApiService.RAYON_TERRE_KM;
+        double latitudeMin = latitude - Math.toDegrees(rayon);
+        double latitudeMax = latitude + Math.toDegrees(rayon);
+        int ligneMin = ligne(Math.max(latitudeMin, -90));
+        int ligneMax = ligne(Math.min(latitudeMax, 90));
+
+        int colonneMin;
+        int nombreColonnes;
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        if (latitudeMin <= -90 || latitudeMax >= 90 || Math.sin(rayon) >= cosLatitude) {
+            //le disque contient un pole : toutes les longitudes
+            colonneMin = 0;
+            nombreColonnes = colonnes;
+        } else {
+            //ecart de longitude maximal d'un point du disque
+            double ecartLongitude = Math.toDegrees(Math.asin(Math.sin(rayon) / cosLatitude));
+            colonneMin = (int) Math.floor((longitude - ecartLongitude + 180) / tailleCellule);
+            int colonneMax = (int) Math.floor((longitude + ecartLongitude + 180) / tailleCellule);
+            nombreColonnes = Math.min(colonneMax - colonneMin + 1, colonnes);
+        }
+
+        long nombre = (long) (ligneMax - ligneMin + 1) * nombreColonnes;
+        if (nombre > max) {
+            return null;
+        }
+        long[] cellules = new long[(int) nombre];
+        int n = 0;
+        for (int i = ligneMin; i <= ligneMax; i++) {
+            for (int j = 0; j < nombreColonnes; j++) {
+                cellules[n++] = cle(i, Math.floorMod(colonneMin + j, colonnes));
+            }
+        }
+        return cellules;
+    }
+
+    private long cellule(double latitude, double longitude) {
+        return cle(ligne(latitude), colonne(longitude));
+    }
+
+    private int ligne(double latitude) {
+        return Math.max(0, Math.min(lignes - 1, (int) Math.floor((latitude + 90) / tailleCellule)));
+    }
+
+    private int colonne(double longitude) {
+        return Math.floorMod((int) Math.floor((longitude + 180) / tailleCellule), colonnes);
+    }
+
+    private long cle(int ligne, int colonne) {
+        return (long) ligne * colonnes + colonne;
+    }
+}
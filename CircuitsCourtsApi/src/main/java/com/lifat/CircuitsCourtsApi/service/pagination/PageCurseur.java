@@ -0,0 +1,68 @@
+package com.lifat.CircuitsCourtsApi.service.pagination;
+
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Une page d'une liste parcourue par curseur (keyset), et le curseur de la page suivante.
+ *
+ * Le curseur est la clé de tri du dernier élément de la page, son id le plus souvent : la page suivante commence après lui,
+ * son coût ne dépend donc pas du nombre d'éléments déjà parcourus. Il est renvoyé au client dans l'en-tête X-Next-Cursor.
+ */
+public class PageCurseur<T> {
+
+    public static final String EN_TETE_CURSEUR = "X-Next-Cursor";
+
+    private final List<T> elements;
+
+    private final String curseurSuivant;
+
+    private PageCurseur(List<T> elements, String curseurSuivant) {
+        this.elements = elements;
+        this.curseurSuivant = curseurSuivant;
+    }
+
+    /**
+     * @param lus les éléments lus par id croissant, au plus limite + 1 : l'élément de trop indique qu'une page suivante existe
+     * @param limite taille de la page
+     * @param curseur le curseur d'un élément, son id pour une liste triée par id
+     */
+    public static <T> PageCurseur<T> de(List<T> lus, int limite, Function<T, ?> curseur) {
+        if (lus.size() <= limite) {
+            return new PageCurseur<>(lus, null);
+        }
+        List<T> elements = lus.subList(0, limite);
+        return new PageCurseur<>(elements, curseur.apply(elements.get(limite - 1)).toString());
+    }
+
+    /**
+     * @return une page d'autres éléments avec le même curseur suivant, par exemple les objets complets d'une page d'ids
+     */
+    public <R> PageCurseur<R> avec(List<R> autres) {
+        return new PageCurseur<>(autres, curseurSuivant);
+    }
+
+    public List<T> getElements() {
+        return elements;
+    }
+
+    /**
+     * @return le curseur du dernier élément de la page, null s'il n'y a pas de page suivante
+     */
+    public String getCurseurSuivant() {
+        return curseurSuivant;
+    }
+
+    /**
+     * @return les éléments de la page, avec l'en-tête X-Next-Cursor s'il y a une page suivante
+     */
+    public ResponseEntity<List<T>> toResponseEntity() {
+        ResponseEntity.BodyBuilder reponse = ResponseEntity.ok();
+        if (curseurSuivant != null) {
+            reponse.header(EN_TETE_CURSEUR, curseurSuivant);
+        }
+        return reponse.body(elements);
+    }
+}
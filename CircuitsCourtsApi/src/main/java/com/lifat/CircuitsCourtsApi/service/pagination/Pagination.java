@@ -0,0 +1,96 @@
+package com.lifat.CircuitsCourtsApi.service.pagination;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Lecture et bornes communes des listes paginées par curseur.
+ *
+ * Une page est lue avec un élément de plus que sa taille : l'élément de trop indique qu'une page suivante existe.
+ * Une page n'a jamais plus de tailleMaxPage éléments, pour qu'aucune liste ne soit lue en entier en mémoire.
+ */
+@Component
+public class Pagination {
+
+    @Value("${com.lifat.circuitscourtsapi.pagination.tailleMaxPage: 500}")
+    private int tailleMaxPage;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * @param taille taille de page demandée
+     * @return la taille de page bornée entre 1 et tailleMaxPage
+     */
+    public int limite(int taille) {
+        return Math.max(1, Math.min(taille, tailleMaxPage));
+    }
+
+    /**
+     * Lit une page d'entités par id croissant.
+     *
+     * @param requete la requête native qui sélectionne les colonnes de l'entité
+     * @param apres curseur, null pour la premiere page
+     * @param taille taille de page demandée, bornée par tailleMaxPage
+     * @param curseur le curseur d'un élément, son id
+     */
+    public <T> PageCurseur<T> lire(RequetePage requete, Class<T> type, Long apres, int taille, Function<T, ?> curseur) {
+        return lire(requete, type, null, apres == null ? 0L : apres, taille, curseur);
+    }
+
+    /**
+     * Lit une page d'entités par colonne de tri puis id croissants, pour une RequetePage avec colonne de tri.
+     *
+     * @param apresTri valeur de la colonne de tri du dernier élément de la page précédente, le minimum voulu pour la
+     * première page
+     * @param apresId id du dernier élément de la page précédente, 0 pour la première page
+     * @param curseur le curseur d'un élément, qui doit contenir sa valeur de tri et son id
+     */
+    @SuppressWarnings("unchecked")
+    public <T> PageCurseur<T> lire(RequetePage requete, Class<T> type, Object apresTri, long apresId, int taille, Function<T, ?> curseur) {
+        int limite = limite(taille);
+        int lignes = limite + 1;
+        //parametres numerotes : ?1, ?2...
+        String sql = requete.sql();
+        StringBuilder numerotee = new StringBuilder(sql.length() + 8);
+        int numero = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            numerotee.append(c);
+            if (c == '?') {
+                numerotee.append(++numero);
+            }
+        }
+        Query query = entityManager.createNativeQuery(numerotee.toString(), type);
+        List<Object> parametres = requete.parametres(apresTri, apresId, lignes);
+        for (int i = 0; i < parametres.size(); i++) {
+            query.setParameter(i + 1, parametres.get(i));
+        }
+        List<T> lus = query.getResultList();
+        return PageCurseur.de(lus, limite, curseur);
+    }
+
+    /**
+     * Lit une page d'ids, pour une requête qui ne sélectionne que la colonne de l'id.
+     *
+     * @param apres curseur, null pour la premiere page
+     * @param taille taille de page demandée
+     */
+    public PageCurseur<Long> lireIds(RequetePage requete, Long apres, int taille) {
+        int limite = limite(taille);
+        List<Long> ids = jdbcTemplate.queryForList(requete.sql(), Long.class,
+                requete.parametres(apres == null ? 0L : apres, limite + 1).toArray());
+        return PageCurseur.de(ids, limite, id -> id);
+    }
+}
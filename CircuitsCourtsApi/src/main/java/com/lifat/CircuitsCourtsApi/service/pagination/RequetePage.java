@@ -0,0 +1,93 @@
+package com.lifat.CircuitsCourtsApi.service.pagination;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * La requête sql d'une liste parcourue par curseur sur l'id, ou sur une colonne de tri puis l'id, lue par Pagination.
+ *
+ * Seuls les filtres présents entrent dans la clause WHERE : une condition "(:x IS NULL OR col = :x)" ne peut pas
+ * utiliser d'index, mysql parcourt alors la clé primaire jusqu'à remplir la page.
+ * Le curseur (tri, id) est comparé en conditions développées, "tri > ? OR (tri = ? AND id > ?)", que mysql lit en plages
+ * d'un index (tri, id) ; il ne sait pas le faire pour la comparaison de lignes "(tri, id) > (?, ?)".
+ */
+public class RequetePage {
+
+    private final String select;
+
+    private final String colonneTri;
+
+    private final String colonneId;
+
+    private final StringBuilder conditions = new StringBuilder();
+
+    private final List<Object> parametres = new ArrayList<>();
+
+    /**
+     * @param select la requête sans clause WHERE, par exemple "SELECT * FROM commandes c"
+     * @param colonneId la colonne de l'id, curseur et clé de tri, par exemple "c.id"
+     */
+    public RequetePage(String select, String colonneId) {
+        this(select, null, colonneId);
+    }
+
+    /**
+     * @param select la requête sans clause WHERE
+     * @param colonneTri la première clé de tri, par exemple "c.date_commande", l'id départage les égalités
+     * @param colonneId la colonne de l'id
+     */
+    public RequetePage(String select, String colonneTri, String colonneId) {
+        this.select = select;
+        this.colonneTri = colonneTri;
+        this.colonneId = colonneId;
+    }
+
+    /**
+     * Ajoute la condition si la valeur du filtre n'est pas null.
+     *
+     * @param condition condition sql avec un seul paramètre ?, par exemple "c.id_client = ?"
+     */
+    public RequetePage filtre(String condition, Object valeur) {
+        if (valeur != null) {
+            conditions.append(" AND ").append(condition);
+            parametres.add(valeur);
+        }
+        return this;
+    }
+
+    /**
+     * @return la requête, avec des paramètres ? dans l'ordre de parametres()
+     */
+    String sql() {
+        if (colonneTri == null) {
+            return select + " WHERE " + colonneId + " > ?" + conditions + " ORDER BY " + colonneId + " LIMIT ?";
+        }
+        return select + " WHERE (" + colonneTri + " > ? OR (" + colonneTri + " = ? AND " + colonneId + " > ?))" + conditions +
+                " ORDER BY " + colonneTri + ", " + colonneId + " LIMIT ?";
+    }
+
+    /**
+     * @param limite nombre de lignes à lire
+     * @return les valeurs des paramètres de sql()
+     */
+    List<Object> parametres(long apres, int limite) {
+        return parametres(null, apres, limite);
+    }
+
+    /**
+     * @param apresTri valeur de la colonne de tri du dernier élément lu, ignorée sans colonne de tri
+     * @param limite nombre de lignes à lire
+     * @return les valeurs des paramètres de sql()
+     */
+    List<Object> parametres(Object apresTri, long apres, int limite) {
+        List<Object> valeurs = new ArrayList<>();
+        if (colonneTri != null) {
+            valeurs.add(apresTri);
+            valeurs.add(apresTri);
+        }
+        valeurs.add(apres);
+        valeurs.addAll(parametres);
+        valeurs.add(limite);
+        return valeurs;
+    }
+}
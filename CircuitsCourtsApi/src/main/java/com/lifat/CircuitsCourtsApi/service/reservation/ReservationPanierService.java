@@ -0,0 +1,246 @@
+package com.lifat.CircuitsCourtsApi.service.reservation;
+
+import com.lifat.CircuitsCourtsApi.model.ReservationPanier;
+import com.lifat.CircuitsCourtsApi.payload.request.CartHoldRequest;
+import com.lifat.CircuitsCourtsApi.payload.response.CartHoldResponse;
+import com.lifat.CircuitsCourtsApi.repository.ReservationPanierRepository;
+import com.lifat.CircuitsCourtsApi.service.stock.CleStock;
+import com.lifat.CircuitsCourtsApi.service.stock.StockService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+
+/**
+ * Réservations de panier : des quantités de produits_producteurs retirées du stock pendant dureeMs, le temps que le client
+ * termine sa commande.
+ *
+ * Le stock est réservé à la création, comme pour une commande. Une commande enregistrée avec l'en-tête Reservation-Panier
+ * consomme la réservation : seul l'écart entre la commande et la réservation est réservé ou rendu.
+ * Les échéances sont suivies dans une roue temporelle, sans relire la table : les réservations qui expirent pendant le même
+ * tick sont rendues ensemble, en une transaction et un lot d'UPDATE.
+ *
+ * La roue ne connait que les réservations créées par cette instance de l'api et celles trouvées en bd au démarrage ;
+ * balayer() rend de temps en temps les réservations expirées qu'elle ne connait pas (instance arrêtée entre temps).
+ */
+@Service
+public class ReservationPanierService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReservationPanierService.class);
+
+    public static final String EN_TETE = "Reservation-Panier";
+
+    @Autowired
+    private ReservationPanierRepository reservationPanierRepository;
+
+    @Autowired
+    private StockService stockService;
+
+    @Value("${com.lifat.circuitscourtsapi.reservations.dureeMs: 900000}")
+    private long dureeMs;
+
+    @Value("${com.lifat.circuitscourtsapi.reservations.dureeTickMs: 1000}")
+    private long dureeTickMs;
+
+    @Value("${com.lifat.circuitscourtsapi.reservations.nombreCases: 1024}")
+    private int nombreCases;
+
+    private RoueTemporelle<String> roue;
+
+    @PostConstruct
+    private void init() {
+        roue = new RoueTemporelle<>("reservations-panier", dureeTickMs, nombreCases, this::expirer);
+    }
+
+    @PreDestroy
+    private void arreter() {
+        roue.arreter();
+    }
+
+    /**
+     * Replanifie les réservations enregistrées avant le démarrage.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void chargerEcheances() {
+        List<ReservationPanierRepository.EcheanceReservation> echeances = reservationPanierRepository.findEcheances();
+        for (ReservationPanierRepository.EcheanceReservation echeance : echeances) {
+            roue.planifier(echeance.getIdReservation(), echeance.getDateExpiration().getTime());
+        }
+        if (!echeances.isEmpty()) {
+            logger.info(echeances.size() + " reservation(s) de panier replanifiee(s)");
+        }
+    }
+
+    /**
+     * Réserve les quantités demandées, tout ou rien.
+     *
+     * @param request les lignes du panier, les lignes d'un même couple (producteur, produit) sont additionnées
+     * @return la réservation, avec son id et sa date d'expiration
+     * @throws Exception si une ligne est incomplète
+     * @throws com.lifat.CircuitsCourtsApi.service.stock.StockInsuffisantException si le stock d'une ligne ne suffit pas,
+     * rien n'est alors réservé
+     */
+    public CartHoldResponse reserver(CartHoldRequest request) throws Exception {
+        TreeMap<Long, Float> quantites = quantitesParCouple(request);
+        String idReservation = UUID.randomUUID().toString();
+        Date maintenant = new Date();
+        Date dateExpiration = new Date(maintenant.getTime() + dureeMs);
+
+        stockService.executerAvecReessai(status -> {
+            stockService.appliquerEcarts(quantites);
+            List<ReservationPanier> lignes = new ArrayList<>(quantites.size());
+            quantites.forEach((cle, quantite) -> lignes.add(new ReservationPanier(null, idReservation,
+                    CleStock.producteur(cle), CleStock.produit(cle), quantite, maintenant, dateExpiration)));
+            reservationPanierRepository.saveAll(lignes);
+            return null;
+        });
+        roue.planifier(idReservation, dateExpiration.getTime());
+        return new CartHoldResponse(idReservation, dateExpiration, lignes(quantites));
+    }
+
+    /**
+     * @return la réservation, avec les quantités réservées par couple
+     * @throws Exception si la réservation n'existe pas, ou plus
+     */
+    public CartHoldResponse getReservation(String idReservation) throws Exception {
+        List<ReservationPanier> lignes = reservationPanierRepository.findByIdReservation(idReservation);
+        if (lignes.isEmpty()) {
+            throw new Exception("la reservation " + idReservation + " n'existe pas ou a expire");
+        }
+        return new CartHoldResponse(idReservation, lignes.get(0).getDateExpiration(), lignes(additionner(lignes)));
+    }
+
+    /**
+     * Lecture sans verrou des quantités réservées, pour vérifier une commande avant sa transaction.
+     *
+     * @return la quantité réservée par CleStock
+     * @throws Exception si la réservation n'existe pas, ou plus
+     */
+    public TreeMap<Long, Float> quantitesReservees(String idReservation) throws Exception {
+        List<ReservationPanier> lignes = reservationPanierRepository.findByIdReservation(idReservation);
+        if (lignes.isEmpty()) {
+            throw new Exception("la reservation " + idReservation + " n'existe pas ou a expire");
+        }
+        return additionner(lignes);
+    }
+
+    /**
+     * Supprime la réservation dans la transaction en cours, sans rendre le stock : il passe à la commande.
+     * Une réservation expirée mais pas encore rendue est encore consommée.
+     *
+     * @return la quantité réservée par CleStock, vide si la réservation a été rendue entre temps
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public TreeMap<Long, Float> consommer(String idReservation) {
+        List<ReservationPanier> lignes = reservationPanierRepository.verrouiller(Collections.singletonList(idReservation));
+        if (lignes.isEmpty()) {
+            return new TreeMap<>();
+        }
+        reservationPanierRepository.supprimer(Collections.singletonList(idReservation));
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                roue.annuler(idReservation);
+            }
+        });
+        return additionner(lignes);
+    }
+
+    /**
+     * Annule une réservation et rend son stock aux producteurs.
+     *
+     * @throws Exception si la réservation n'existe pas, ou plus
+     */
+    public void liberer(String idReservation) throws Exception {
+        boolean liberee = stockService.executerAvecReessai(status -> rendre(Collections.singletonList(idReservation)) > 0);
+        if (!liberee) {
+            throw new Exception("la reservation " + idReservation + " n'existe pas ou a expire");
+        }
+        roue.annuler(idReservation);
+    }
+
+    /**
+     * Appelée par la roue avec les réservations arrivées à échéance pendant un tick, et par balayer() avec les réservations
+     * expirées en bd.
+     * La date d'expiration n'est pas revérifiée : date_expiration est arrondie à la seconde par MySQL et peut dépasser de
+     * quelques centaines de ms l'échéance de la roue, la réservation attendrait alors le balayage suivant.
+     */
+    private void expirer(List<String> idReservations) {
+        int rendues = stockService.executerAvecReessai(status -> rendre(idReservations));
+        if (rendues > 0) {
+            logger.info(rendues + " reservation(s) de panier expiree(s), stock rendu");
+        }
+    }
+
+    /**
+     * Filet de sécurité pour les réservations expirées que la roue ne connait pas.
+     */
+    @Scheduled(fixedDelayString = "${com.lifat.circuitscourtsapi.reservations.intervalleBalayageMs: 600000}")
+    public void balayer() {
+        List<String> expirees = reservationPanierRepository.findExpirees(new Date(System.currentTimeMillis() - dureeTickMs));
+        if (!expirees.isEmpty()) {
+            expirer(expirees);
+        }
+    }
+
+    /**
+     * Rend en un lot le stock des réservations, puis les supprime.
+     *
+     * @return le nombre de réservations rendues, celles déjà consommées ou rendues ne sont plus en bd
+     */
+    private int rendre(List<String> idReservations) {
+        List<ReservationPanier> lignes = reservationPanierRepository.verrouiller(idReservations);
+        Set<String> rendues = new HashSet<>();
+        TreeMap<Long, Float> quantites = new TreeMap<>();
+        for (ReservationPanier ligne : lignes) {
+            rendues.add(ligne.getIdReservation());
+            quantites.merge(CleStock.de(ligne.getIdProducteur(), ligne.getIdProduit()), ligne.getQuantite(), Float::sum);
+        }
+        if (rendues.isEmpty()) {
+            return 0;
+        }
+        stockService.libererTout(quantites);
+        reservationPanierRepository.supprimer(rendues);
+        return rendues.size();
+    }
+
+    private static TreeMap<Long, Float> quantitesParCouple(CartHoldRequest request) throws Exception {
+        if (request.getLignes() == null || request.getLignes().isEmpty()) {
+            throw new Exception("la reservation ne contient aucune ligne");
+        }
+        TreeMap<Long, Float> quantites = new TreeMap<>();
+        for (CartHoldRequest.Ligne ligne : request.getLignes()) {
+            if (ligne.getIdProducteur() == null || ligne.getIdProduit() == null || ligne.getQuantite() == null || ligne.getQuantite() <= 0) {
+                throw new Exception("une ligne de la reservation doit avoir un producteur, un produit et une quantite positive");
+            }
+            quantites.merge(CleStock.de(ligne.getIdProducteur(), ligne.getIdProduit()), ligne.getQuantite(), Float::sum);
+        }
+        return quantites;
+    }
+
+    private static TreeMap<Long, Float> additionner(List<ReservationPanier> lignes) {
+        TreeMap<Long, Float> quantites = new TreeMap<>();
+        for (ReservationPanier ligne : lignes) {
+            quantites.merge(CleStock.de(ligne.getIdProducteur(), ligne.getIdProduit()), ligne.getQuantite(), Float::sum);
+        }
+        return quantites;
+    }
+
+    private static List<CartHoldRequest.Ligne> lignes(SortedMap<Long, Float> quantites) {
+        List<CartHoldRequest.Ligne> lignes = new ArrayList<>(quantites.size());
+        quantites.forEach((cle, quantite) -> lignes.add(new CartHoldRequest.Ligne(CleStock.producteur(cle), CleStock.produit(cle), quantite)));
+        return lignes;
+    }
+}
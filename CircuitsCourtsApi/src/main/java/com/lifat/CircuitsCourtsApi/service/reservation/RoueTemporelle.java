@@ -0,0 +1,174 @@
+package com.lifat.CircuitsCourtsApi.service.reservation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Roue temporelle hachée : les échéances sont rangées dans des cases selon leur numéro de tick modulo le nombre de cases,
+ * avec le nombre de tours de roue restant avant l'échéance.
+ *
+ * Un seul thread fait tourner la roue : à chaque tick il ne parcourt que la case courante, le coût d'un tick ne dépend donc
+ * pas du nombre d'échéances planifiées, et planifier ou annuler une échéance coûte O(1).
+ * Les éléments arrivés à échéance pendant un tick sont transmis ensemble, en un seul appel, à l'action d'expiration.
+ * La précision est d'un tick : une échéance est traitée au plus un tick après sa date.
+ *
+ * @param <T> l'élément planifié, qui sert aussi de clé pour annuler ou replanifier son échéance
+ */
+public class RoueTemporelle<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoueTemporelle.class);
+
+    private static final class Echeance<T> {
+        final T element;
+        final long echeanceMs;
+        long tours;
+        volatile boolean annulee;
+
+        Echeance(T element, long echeanceMs) {
+            this.element = element;
+            this.echeanceMs = echeanceMs;
+        }
+    }
+
+    private final long dureeTickMs;
+
+    private final int masque;
+
+    private final List<Set<Echeance<T>>> cases;
+
+    private final Consumer<List<T>> expiration;
+
+    //les echeances planifiees par les autres threads, rangees dans les cases par le thread de la roue
+    private final Queue<Echeance<T>> ajouts = new ConcurrentLinkedQueue<>();
+
+    private final Map<T, Echeance<T>> echeances = new ConcurrentHashMap<>();
+
+    private final Thread thread;
+
+    private final long debutMs;
+
+    private long tick;
+
+    private volatile boolean arretee;
+
+    /**
+     * @param nom nom du thread de la roue
+     * @param dureeTickMs durée d'un tick
+     * @param nombreCases nombre de cases, arrondi à la puissance de 2 supérieure
+     * @param expiration reçoit les éléments arrivés à échéance pendant un tick ; appelée par le thread de la roue
+     */
+    public RoueTemporelle(String nom, long dureeTickMs, int nombreCases, Consumer<List<T>> expiration) {
+        int taille = Integer.highestOneBit(Math.max(2, nombreCases) - 1) << 1;
+        this.dureeTickMs = dureeTickMs;
+        this.masque = taille - 1;
+        this.cases = new ArrayList<>(taille);
+        for (int i = 0; i < taille; i++) {
+            cases.add(new HashSet<>());
+        }
+        this.expiration = expiration;
+        this.debutMs = System.currentTimeMillis();
+        this.thread = new Thread(this::tourner, nom);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Planifie l'échéance d'un élément, en remplaçant son échéance précédente s'il en avait une.
+     *
+     * @param echeanceMs date de l'échéance en millisecondes, une date passée est traitée au prochain tick
+     */
+    public void planifier(T element, long echeanceMs) {
+        Echeance<T> echeance = new Echeance<>(element, echeanceMs);
+        Echeance<T> precedente = echeances.put(element, echeance);
+        if (precedente != null) {
+            precedente.annulee = true;
+        }
+        ajouts.add(echeance);
+    }
+
+    /**
+     * Retire l'échéance d'un élément, sans effet s'il n'en a pas.
+     */
+    public void annuler(T element) {
+        Echeance<T> echeance = echeances.remove(element);
+        if (echeance != null) {
+            echeance.annulee = true;
+        }
+    }
+
+    /**
+     * @return le nombre d'échéances planifiées
+     */
+    public int taille() {
+        return echeances.size();
+    }
+
+    public void arreter() {
+        arretee = true;
+        thread.interrupt();
+    }
+
+    private void tourner() {
+        while (!arretee) {
+            long prochainTickMs = debutMs + (tick + 1) * dureeTickMs;
+            long attente = prochainTickMs - System.currentTimeMillis();
+            if (attente > 0) {
+                try {
+                    Thread.sleep(attente);
+                } catch (InterruptedException e) {
+                    if (arretee) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            rangerAjouts();
+            List<T> expires = expirer(cases.get((int) (tick & masque)));
+            tick++;
+            if (!expires.isEmpty()) {
+                try {
+                    expiration.accept(expires);
+                } catch (Exception e) {
+                    logger.error("l'expiration de " + expires.size() + " element(s) a echoue", e);
+                }
+            }
+        }
+    }
+
+    private void rangerAjouts() {
+        Echeance<T> echeance;
+        while ((echeance = ajouts.poll()) != null) {
+            if (echeance.annulee) {
+                continue;
+            }
+            //tick de l'echeance, au plus tot le tick courant
+            long tickEcheance = Math.max(tick, (echeance.echeanceMs - debutMs + dureeTickMs - 1) / dureeTickMs - 1);
+            echeance.tours = (tickEcheance - tick) / cases.size();
+            cases.get((int) (tickEcheance & masque)).add(echeance);
+        }
+    }
+
+    private List<T> expirer(Set<Echeance<T>> caseCourante) {
+        List<T> expires = new ArrayList<>();
+        Iterator<Echeance<T>> iterateur = caseCourante.iterator();
+        while (iterateur.hasNext()) {
+            Echeance<T> echeance = iterateur.next();
+            if (echeance.annulee) {
+                iterateur.remove();
+            } else if (echeance.tours <= 0) {
+                iterateur.remove();
+                if (echeances.remove(echeance.element, echeance)) {
+                    expires.add(echeance.element);
+                }
+            } else {
+                echeance.tours--;
+            }
+        }
+        return expires;
+    }
+}
@@ -0,0 +1,269 @@
+package com.lifat.CircuitsCourtsApi.service.routage;
+
+import com.lifat.CircuitsCourtsApi.payload.response.RoutageResponse;
+import com.lifat.CircuitsCourtsApi.service.calculTournee.FournisseurDistances;
+import com.lifat.CircuitsCourtsApi.service.calculTournee.GeoPortailApiService;
+import com.lifat.CircuitsCourtsApi.service.calculTournee.MatricesDistances;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Distances et temps de trajet par la route, calculés sur un extrait OSM local (fichierOsm, au format .osm ou .osm.gz),
+ * sans appel à un service extérieur.
+ *
+ * Au démarrage, et à chaque rechargement, le réseau est chargé dans un thread à part : la hiérarchie de contraction
+ * gardée dans fichierHierarchie est relue si elle a été construite avec ce fichier OSM et ces paramètres, sinon elle est
+ * reconstruite puis enregistrée, et les matrices de distances routières gardées sur disque sont supprimées. Tant que le
+ * réseau n'est pas chargé, les distances sont à vol d'oiseau (GeoPortailApiService).
+ *
+ * Un point est accroché au noeud du réseau le plus proche, à moins de accrocheMaxMetres ; le trajet jusqu'au noeud est
+ * compté à vol d'oiseau, à vitesseAccrocheKmH. Les couples dont un point n'est pas accroché, ou que le réseau ne relie
+ * pas (sens uniques au bord de l'extrait), ont leur distance à vol d'oiseau. Une distance par la route n'est jamais
+ * inférieure à la distance à vol d'oiseau.
+ */
+@Service
+public class DistancesRoutieres implements FournisseurDistances {
+
+    private static final Logger logger = LoggerFactory.getLogger(DistancesRoutieres.class);
+
+    @Value("${com.lifat.circuitscourtsapi.routage.fichierOsm: }")
+    private String fichierOsm;
+
+    //vide : fichierOsm suivi de .ch
+    @Value("${com.lifat.circuitscourtsapi.routage.fichierHierarchie: }")
+    private String fichierHierarchie;
+
+    @Value("${com.lifat.circuitscourtsapi.routage.longueurMaxTronconMetres: 300}")
+    private double longueurMaxTroncon;
+
+    @Value("${com.lifat.circuitscourtsapi.routage.accrocheMaxMetres: 2000}")
+    private double accrocheMaxMetres;
+
+    @Value("${com.lifat.circuitscourtsapi.routage.vitesseAccrocheKmH: 20}")
+    private double vitesseAccrocheKmH;
+
+    @Autowired
+    private GeoPortailApiService geoPortailApiService;
+
+    @Autowired
+    private MatricesDistances matricesDistances;
+
+    private volatile HierarchieContraction hierarchie;
+
+    private volatile boolean chargementEnCours;
+
+    private volatile long dureeChargementMs;
+
+    private volatile String erreur;
+
+    @PostConstruct
+    private void init() {
+        if (fichierOsm.isBlank()) {
+            logger.info("pas de fichier OSM configure, distances a vol d'oiseau");
+            return;
+        }
+        recharger();
+    }
+
+    /**
+     * Lance le chargement du réseau routier dans un thread à part.
+     *
+     * @return faux si aucun fichier OSM n'est configuré ou si un chargement est déjà en cours
+     */
+    public synchronized boolean recharger() {
+        if (fichierOsm.isBlank() || chargementEnCours) {
+            return false;
+        }
+        chargementEnCours = true;
+        Thread thread = new Thread(this::charger, "chargement-reseau-routier");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void charger() {
+        long debut = System.currentTimeMillis();
+        try {
+            Path osm = Paths.get(fichierOsm);
+            Path cheminHierarchie = Paths.get(fichierHierarchie.isBlank() ? fichierOsm + ".ch" : fichierHierarchie);
+            long signature = signature(osm);
+            HierarchieContraction chargee = HierarchieContraction.charger(cheminHierarchie, signature);
+            boolean construite = chargee == null;
+            if (construite) {
+                logger.info("construction du reseau routier de " + osm);
+                ReseauRoutier reseau = new LecteurOsm(osm, longueurMaxTroncon).lire();
+                logger.info("reseau routier lu : " + reseau.nombreNoeuds + " noeud(s), " + reseau.nombreArcs + " arc(s), contraction...");
+                chargee = HierarchieContraction.construire(reseau, signature);
+                try {
+                    chargee.enregistrer(cheminHierarchie);
+                } catch (IOException e) {
+                    logger.error("enregistrement de la hierarchie de contraction dans " + cheminHierarchie, e);
+                }
+            }
+            hierarchie = chargee;
+            if (construite) {
+                //apres le changement de reseau : les matrices en cours de calcul avec l'ancien sont supprimees aussi
+                matricesDistances.supprimer(MatricesDistances.Type.ROUTE);
+            }
+            erreur = null;
+            dureeChargementMs = System.currentTimeMillis() - debut;
+            logger.info("reseau routier charge en " + dureeChargementMs + " ms : " + chargee.nombreNoeuds + " noeud(s), "
+                    + chargee.nombreArcs() + " arc(s) dont " + chargee.nombreRaccourcis + " raccourci(s)");
+        } catch (IOException | RuntimeException e) {
+            logger.error("chargement du reseau routier " + fichierOsm, e);
+            erreur = e.getMessage();
+        } finally {
+            chargementEnCours = false;
+        }
+    }
+
+    /**
+     * Identifie le fichier OSM, la version du format de la hiérarchie et les paramètres qui changent les distances :
+     * une autre signature reconstruit la hiérarchie, et supprime les matrices calculées avec l'ancienne.
+     */
+    private long signature(Path osm) throws IOException {
+        long signature = Files.size(osm);
+        signature = signature * 31 + Files.getLastModifiedTime(osm).toMillis();
+        signature = signature * 31 + HierarchieContraction.VERSION;
+        signature = signature * 31 + Double.doubleToLongBits(longueurMaxTroncon);
+        signature = signature * 31 + Double.doubleToLongBits(accrocheMaxMetres);
+        signature = signature * 31 + Double.doubleToLongBits(vitesseAccrocheKmH);
+        return signature;
+    }
+
+    public boolean isDisponible() {
+        return hierarchie != null;
+    }
+
+    public RoutageResponse statut() {
+        HierarchieContraction courante = hierarchie;
+        return new RoutageResponse(fichierOsm, courante != null, chargementEnCours,
+                courante == null ? 0 : courante.nombreNoeuds, courante == null ? 0 : courante.nombreArcs(),
+                courante == null ? 0 : courante.nombreRaccourcis, dureeChargementMs, erreur);
+    }
+
+    @Override
+    public MatricesDistances.Type type() {
+        return MatricesDistances.Type.ROUTE;
+    }
+
+    /**
+     * Change avec le réseau routier chargé.
+     */
+    @Override
+    public long version() {
+        HierarchieContraction courante = hierarchie;
+        return courante == null ? 0 : courante.signature;
+    }
+
+    @Override
+    public double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double[] resultat = new double[1];
+        calculer(new double[]{latitude1}, new double[]{longitude1}, new double[]{latitude2}, new double[]{longitude2}, resultat);
+        return resultat[0];
+    }
+
+    @Override
+    public void calculer(double[] latitudesOrigines, double[] longitudesOrigines,
+                         double[] latitudesDestinations, double[] longitudesDestinations, double[] resultats) {
+        remplir(latitudesOrigines, longitudesOrigines, latitudesDestinations, longitudesDestinations, resultats, false);
+    }
+
+    @Override
+    public void calculerTemps(double[] latitudesOrigines, double[] longitudesOrigines,
+                              double[] latitudesDestinations, double[] longitudesDestinations, double[] resultats) {
+        remplir(latitudesOrigines, longitudesOrigines, latitudesDestinations, longitudesDestinations, resultats, true);
+    }
+
+    private void remplir(double[] latitudesOrigines, double[] longitudesOrigines, double[] latitudesDestinations,
+                         double[] longitudesDestinations, double[] resultats, boolean enTemps) {
+        HierarchieContraction courante = hierarchie;
+        if (courante == null) {
+            if (enTemps) {
+                geoPortailApiService.calculerTemps(latitudesOrigines, longitudesOrigines, latitudesDestinations, longitudesDestinations, resultats);
+            } else {
+                geoPortailApiService.calculer(latitudesOrigines, longitudesOrigines, latitudesDestinations, longitudesDestinations, resultats);
+            }
+            return;
+        }
+        Accroches origines = accrocher(courante, latitudesOrigines, longitudesOrigines);
+        Accroches destinations = latitudesDestinations == latitudesOrigines && longitudesDestinations == longitudesOrigines
+                ? origines : accrocher(courante, latitudesDestinations, longitudesDestinations);
+        int colonnes = destinations.accroches.length;
+        int[] temps = new int[origines.accroches.length * colonnes];
+        int[] longueurs = new int[temps.length];
+        courante.calculer(origines.accroches, destinations.accroches, temps, longueurs);
+
+        int nombreDestinations = latitudesDestinations.length;
+        for (int o = 0; o < latitudesOrigines.length; o++) {
+            for (int d = 0; d < nombreDestinations; d++) {
+                int resultat = o * nombreDestinations + d;
+                double latitude1 = latitudesOrigines[o];
+                double longitude1 = longitudesOrigines[o];
+                double latitude2 = latitudesDestinations[d];
+                double longitude2 = longitudesDestinations[d];
+                if (latitude1 == latitude2 && longitude1 == longitude2) {
+                    resultats[resultat] = 0;
+                    continue;
+                }
+                int ligne = origines.positions[o];
+                int colonne = destinations.positions[d];
+                int calcule = ligne == -1 || colonne == -1 ? -1 : ligne * colonnes + colonne;
+                if (calcule == -1 || temps[calcule] == HierarchieContraction.INACCESSIBLE
+                        || origines.accroches[ligne] == destinations.accroches[colonne]) {
+                    //pas de trajet par la route, ou deux points voisins accroches au meme noeud
+                    double volOiseau = geoPortailApiService.verifDistanceBetweenProducteurAndClient(latitude1, longitude1, latitude2, longitude2);
+                    resultats[resultat] = enTemps ? volOiseau * 3600 / vitesseAccrocheKmH : volOiseau;
+                    continue;
+                }
+                double accroche = origines.metres[o] + destinations.metres[d];
+                resultats[resultat] = enTemps
+                        ? temps[calcule] / 10.0 + accroche * 3.6 / vitesseAccrocheKmH
+                        : (longueurs[calcule] + accroche) / 1000;
+            }
+        }
+    }
+
+    /**
+     * Les noeuds d'accroche de points : accroches[positions[i]] pour le point i, positions[i] = -1 s'il n'est pas accroché.
+     */
+    private static final class Accroches {
+        final int[] positions;
+        final double[] metres;
+        int[] accroches;
+
+        Accroches(int taille) {
+            positions = new int[taille];
+            metres = new double[taille];
+        }
+    }
+
+    private Accroches accrocher(HierarchieContraction courante, double[] latitudes, double[] longitudes) {
+        Accroches accroches = new Accroches(latitudes.length);
+        int[] noeuds = new int[latitudes.length];
+        int nombre = 0;
+        double[] distance = new double[1];
+        for (int i = 0; i < latitudes.length; i++) {
+            int noeud = courante.accrocher(latitudes[i], longitudes[i], accrocheMaxMetres, distance);
+            if (noeud == -1) {
+                accroches.positions[i] = -1;
+            } else {
+                accroches.positions[i] = nombre;
+                accroches.metres[i] = distance[0];
+                noeuds[nombre++] = noeud;
+            }
+        }
+        accroches.accroches = Arrays.copyOf(noeuds, nombre);
+        return accroches;
+    }
+}
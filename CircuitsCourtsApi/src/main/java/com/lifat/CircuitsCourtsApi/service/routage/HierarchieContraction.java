@@ -0,0 +1,770 @@
+package com.lifat.CircuitsCourtsApi.service.routage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hiérarchie de contraction du réseau routier, sur le temps de trajet, et calcul des matrices de temps et de longueurs
+ * par l'algorithme des seaux (many-to-many).
+ *
+ * Construction : les noeuds sont contractés un par un, le moins important d'abord (priorité = raccourcis ajoutés - arcs
+ * retirés + voisins déjà contractés + niveau, recalculée quand le noeud sort de la file). Contracter v ajoute un
+ * raccourci u -> w pour chaque chemin u -> v -> w sans chemin témoin aussi court qui évite v ; la recherche de témoin
+ * est limitée à LIMITE_TEMOINS noeuds, un raccourci de trop ne fausse pas les temps. Le rang d'un noeud est son ordre de
+ * contraction.
+ * Le graphe final est rangé en deux tableaux d'adjacence compacts : les arcs montants (vers un rang plus haut) par
+ * origine, et les arcs descendants par cible, parcourus à l'envers.
+ *
+ * Matrice : une recherche montante en arrière depuis chaque cible dépose (cible, temps) dans le seau de chaque noeud
+ * atteint ; une recherche montante depuis chaque origine lit les seaux des noeuds qu'elle atteint. Le plus court temps
+ * de o à c passe par le noeud le plus haut de son chemin, atteint par les deux recherches.
+ * La longueur donnée est celle du chemin le plus rapide, pas le plus court chemin en mètres.
+ *
+ * Une fois construite, la hiérarchie n'est plus modifiée : les calculs peuvent être faits en parallèle, chacun avec un
+ * Espace de travail pris dans un réservoir.
+ */
+final class HierarchieContraction {
+
+    static final int INACCESSIBLE = Integer.MAX_VALUE;
+
+    private static final int LIMITE_TEMOINS = 500;
+
+    //les priorites peuvent etre negatives, le tas ne range que des poids positifs
+    private static final int DECALAGE_PRIORITE = 1 << 24;
+
+    private static final int MAGIC = 0x48434352;
+
+    //version du format du fichier, elle entre aussi dans la signature de DistancesRoutieres
+    static final int VERSION = 1;
+
+    //taille d'une maille de la grille d'accroche, en degres * 1e7 (0,01 degre)
+    private static final int MAILLE = 100_000;
+
+    private static final int MAILLES_LONGITUDE = 2 * 18_000 + 1;
+
+    final int nombreNoeuds;
+
+    final int[] latitudes;
+
+    final int[] longitudes;
+
+    private final int[] debutsMontants;
+
+    private final int[] ciblesMontantes;
+
+    private final int[] tempsMontants;
+
+    private final int[] longueursMontantes;
+
+    private final int[] debutsDescendants;
+
+    private final int[] originesDescendantes;
+
+    private final int[] tempsDescendants;
+
+    private final int[] longueursDescendantes;
+
+    //grille d'accroche : les noeuds de la plus grande composante, tries par maille
+    private final int[] maillesTriees;
+
+    private final int[] noeudsTries;
+
+    final int nombreRaccourcis;
+
+    final long signature;
+
+    private final ConcurrentLinkedQueue<Espace> espaces = new ConcurrentLinkedQueue<>();
+
+    private HierarchieContraction(int[] latitudes, int[] longitudes, int[] debutsMontants, int[] ciblesMontantes,
+                                  int[] tempsMontants, int[] longueursMontantes, int[] debutsDescendants,
+                                  int[] originesDescendantes, int[] tempsDescendants, int[] longueursDescendantes,
+                                  int[] maillesTriees, int[] noeudsTries, int nombreRaccourcis, long signature) {
+        this.nombreNoeuds = latitudes.length;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.debutsMontants = debutsMontants;
+        this.ciblesMontantes = ciblesMontantes;
+        this.tempsMontants = tempsMontants;
+        this.longueursMontantes = longueursMontantes;
+        this.debutsDescendants = debutsDescendants;
+        this.originesDescendantes = originesDescendantes;
+        this.tempsDescendants = tempsDescendants;
+        this.longueursDescendantes = longueursDescendantes;
+        this.maillesTriees = maillesTriees;
+        this.noeudsTries = noeudsTries;
+        this.nombreRaccourcis = nombreRaccourcis;
+        this.signature = signature;
+    }
+
+    int nombreArcs() {
+        return ciblesMontantes.length + originesDescendantes.length;
+    }
+
+    /**
+     * État d'un calcul de matrice, gardé entre deux calculs pour ne pas réallouer des tableaux de la taille du graphe.
+     * Entre deux calculs, temps vaut INACCESSIBLE et seaux -1 partout.
+     */
+    private static final class Espace {
+        final int[] temps;
+        final int[] longueurs;
+        final int[] seaux;
+        int[] atteints = new int[256];
+        int nombreAtteints;
+        final TasLong tas = new TasLong();
+        //entrees des seaux, chainees par suivantes
+        int[] colonnes = new int[256];
+        int[] tempsEntrees = new int[256];
+        int[] longueursEntrees = new int[256];
+        int[] suivantes = new int[256];
+        int nombreEntrees;
+
+        Espace(int nombreNoeuds) {
+            temps = new int[nombreNoeuds];
+            longueurs = new int[nombreNoeuds];
+            seaux = new int[nombreNoeuds];
+            Arrays.fill(temps, INACCESSIBLE);
+            Arrays.fill(seaux, -1);
+        }
+
+        void atteindre(int noeud) {
+            if (nombreAtteints == atteints.length) {
+                atteints = Arrays.copyOf(atteints, nombreAtteints * 2);
+            }
+            atteints[nombreAtteints++] = noeud;
+        }
+
+        void deposer(int noeud, int colonne, int tempsEntree, int longueur) {
+            if (nombreEntrees == colonnes.length) {
+                int taille = nombreEntrees * 2;
+                colonnes = Arrays.copyOf(colonnes, taille);
+                tempsEntrees = Arrays.copyOf(tempsEntrees, taille);
+                longueursEntrees = Arrays.copyOf(longueursEntrees, taille);
+                suivantes = Arrays.copyOf(suivantes, taille);
+            }
+            colonnes[nombreEntrees] = colonne;
+            tempsEntrees[nombreEntrees] = tempsEntree;
+            longueursEntrees[nombreEntrees] = longueur;
+            suivantes[nombreEntrees] = seaux[noeud];
+            seaux[noeud] = nombreEntrees++;
+        }
+
+        /**
+         * Remet à INACCESSIBLE les temps des noeuds atteints par la dernière recherche.
+         */
+        void oublierRecherche() {
+            for (int i = 0; i < nombreAtteints; i++) {
+                temps[atteints[i]] = INACCESSIBLE;
+            }
+            nombreAtteints = 0;
+            tas.vider();
+        }
+    }
+
+    /**
+     * Temps en dixièmes de seconde et longueurs en mètres des chemins les plus rapides de chaque origine à chaque cible,
+     * INACCESSIBLE dans temps quand la cible ne peut pas être atteinte.
+     *
+     * @param temps     de taille au moins origines.length * cibles.length, rempli par lignes
+     * @param longueurs de même taille
+     */
+    void calculer(int[] origines, int[] cibles, int[] temps, int[] longueurs) {
+        int nombreCibles = cibles.length;
+        Arrays.fill(temps, 0, origines.length * nombreCibles, INACCESSIBLE);
+        Espace espace = espaces.poll();
+        if (espace == null) {
+            espace = new Espace(nombreNoeuds);
+        }
+        //les seaux ne sont vides qu'apres le calcul : les noeuds qui en ont un sont atteints par une recherche arriere
+        int[] noeudsAvecSeau = new int[16];
+        int nombreAvecSeau = 0;
+        try {
+            for (int c = 0; c < nombreCibles; c++) {
+                rechercher(espace, cibles[c], debutsDescendants, originesDescendantes, tempsDescendants, longueursDescendantes);
+                for (int i = 0; i < espace.nombreAtteints; i++) {
+                    int noeud = espace.atteints[i];
+                    if (espace.seaux[noeud] == -1) {
+                        if (nombreAvecSeau == noeudsAvecSeau.length) {
+                            noeudsAvecSeau = Arrays.copyOf(noeudsAvecSeau, nombreAvecSeau * 2);
+                        }
+                        noeudsAvecSeau[nombreAvecSeau++] = noeud;
+                    }
+                    espace.deposer(noeud, c, espace.temps[noeud], espace.longueurs[noeud]);
+                }
+                espace.oublierRecherche();
+            }
+            for (int o = 0; o < origines.length; o++) {
+                rechercher(espace, origines[o], debutsMontants, ciblesMontantes, tempsMontants, longueursMontantes);
+                int ligne = o * nombreCibles;
+                for (int i = 0; i < espace.nombreAtteints; i++) {
+                    int noeud = espace.atteints[i];
+                    int tempsNoeud = espace.temps[noeud];
+                    for (int entree = espace.seaux[noeud]; entree != -1; entree = espace.suivantes[entree]) {
+                        int total = tempsNoeud + espace.tempsEntrees[entree];
+                        int case_ = ligne + espace.colonnes[entree];
+                        if (total < temps[case_]) {
+                            temps[case_] = total;
+                            longueurs[case_] = espace.longueurs[noeud] + espace.longueursEntrees[entree];
+                        }
+                    }
+                }
+                espace.oublierRecherche();
+            }
+        } finally {
+            espace.oublierRecherche();
+            for (int i = 0; i < nombreAvecSeau; i++) {
+                espace.seaux[noeudsAvecSeau[i]] = -1;
+            }
+            espace.nombreEntrees = 0;
+            espaces.offer(espace);
+        }
+    }
+
+    /**
+     * Dijkstra complet depuis depart sur les arcs montants (ou descendants parcourus à l'envers) : espace.atteints
+     * donne les noeuds atteints, avec leur temps et leur longueur dans espace.
+     */
+    private static void rechercher(Espace espace, int depart, int[] debuts, int[] voisins, int[] tempsArcs, int[] longueursArcs) {
+        espace.temps[depart] = 0;
+        espace.longueurs[depart] = 0;
+        espace.atteindre(depart);
+        espace.tas.ajouter(TasLong.entree(0, depart));
+        while (!espace.tas.estVide()) {
+            long entree = espace.tas.retirer();
+            int noeud = TasLong.noeud(entree);
+            int tempsNoeud = TasLong.poids(entree);
+            if (tempsNoeud > espace.temps[noeud]) {
+                continue;
+            }
+            for (int a = debuts[noeud]; a < debuts[noeud + 1]; a++) {
+                int voisin = voisins[a];
+                int tempsVoisin = tempsNoeud + tempsArcs[a];
+                if (tempsVoisin < espace.temps[voisin]) {
+                    if (espace.temps[voisin] == INACCESSIBLE) {
+                        espace.atteindre(voisin);
+                    }
+                    espace.temps[voisin] = tempsVoisin;
+                    espace.longueurs[voisin] = espace.longueurs[noeud] + longueursArcs[a];
+                    espace.tas.ajouter(TasLong.entree(tempsVoisin, voisin));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return le noeud de la plus grande composante le plus proche du point, -1 s'il n'y en a pas à moins de maxMetres ;
+     * sa distance en mètres est écrite dans distance[0]
+     */
+    int accrocher(double latitude, double longitude, double maxMetres, double[] distance) {
+        int latitudeE7 = (int) Math.round(latitude * ReseauRoutier.E7);
+        int longitudeE7 = (int) Math.round(longitude * ReseauRoutier.E7);
+        int ligne = Math.floorDiv(latitudeE7, MAILLE);
+        int colonne = Math.floorDiv(longitudeE7, MAILLE);
+        //plus petit cote d'une maille en metres, la largeur diminuant vers les poles
+        double coteMaille = 1111.95 * Math.min(1, Math.cos(Math.toRadians(Math.min(89, Math.abs(latitude) + 1))));
+        int meilleur = -1;
+        double meilleureDistance = maxMetres;
+        for (int anneau = 0; (anneau - 1) * coteMaille <= meilleureDistance; anneau++) {
+            for (int l = ligne - anneau; l <= ligne + anneau; l++) {
+                int pas = l == ligne - anneau || l == ligne + anneau ? 1 : 2 * anneau;
+                for (int c = colonne - anneau; c <= colonne + anneau; c += Math.max(1, pas)) {
+                    int maille = maille(l, c);
+                    int i = Arrays.binarySearch(maillesTriees, maille);
+                    if (i < 0) {
+                        continue;
+                    }
+                    while (i > 0 && maillesTriees[i - 1] == maille) {
+                        i--;
+                    }
+                    for (; i < maillesTriees.length && maillesTriees[i] == maille; i++) {
+                        int noeud = noeudsTries[i];
+                        double metres = ReseauRoutier.metres(latitudeE7, longitudeE7, latitudes[noeud], longitudes[noeud]);
+                        if (metres <= meilleureDistance) {
+                            meilleureDistance = metres;
+                            meilleur = noeud;
+                        }
+                    }
+                }
+            }
+        }
+        distance[0] = meilleureDistance;
+        return meilleur;
+    }
+
+    private static int maille(int ligne, int colonne) {
+        //les lignes et colonnes hors des coordonnees valides ne contiennent aucun noeud
+        if (ligne < -9_000 || ligne > 9_000 || colonne < -18_000 || colonne > 18_000) {
+            return -1;
+        }
+        return (ligne + 9_000) * MAILLES_LONGITUDE + colonne + 18_000;
+    }
+
+    /**
+     * Construit la hiérarchie du réseau.
+     *
+     * @param signature de la source du réseau, gardée avec la hiérarchie sur disque
+     */
+    static HierarchieContraction construire(ReseauRoutier reseau, long signature) {
+        return new Contraction(reseau).contracter(signature);
+    }
+
+    /**
+     * Le graphe pendant la contraction : les arcs restants et les raccourcis, en listes chaînées par noeud.
+     */
+    private static final class Contraction {
+        final ReseauRoutier reseau;
+        final int n;
+        int nombreArcs;
+        int[] origines;
+        int[] cibles;
+        int[] temps;
+        int[] longueurs;
+        int[] suivantsSortants;
+        int[] suivantsEntrants;
+        final int[] premiersSortants;
+        final int[] premiersEntrants;
+        final boolean[] contractes;
+        final int[] voisinsContractes;
+        final int[] niveaux;
+        int nombreRaccourcis;
+        //recherche de temoins
+        final int[] tempsTemoins;
+        int[] atteints = new int[256];
+        int nombreAtteints;
+        final TasLong tas = new TasLong();
+
+        Contraction(ReseauRoutier reseau) {
+            this.reseau = reseau;
+            n = reseau.nombreNoeuds;
+            int capacite = Math.max(16, reseau.nombreArcs * 2);
+            origines = new int[capacite];
+            cibles = new int[capacite];
+            temps = new int[capacite];
+            longueurs = new int[capacite];
+            suivantsSortants = new int[capacite];
+            suivantsEntrants = new int[capacite];
+            premiersSortants = new int[n];
+            premiersEntrants = new int[n];
+            Arrays.fill(premiersSortants, -1);
+            Arrays.fill(premiersEntrants, -1);
+            contractes = new boolean[n];
+            voisinsContractes = new int[n];
+            niveaux = new int[n];
+            tempsTemoins = new int[n];
+            Arrays.fill(tempsTemoins, INACCESSIBLE);
+            for (int a = 0; a < reseau.nombreArcs; a++) {
+                if (reseau.origines[a] != reseau.cibles[a]) {
+                    ajouterArc(reseau.origines[a], reseau.cibles[a], reseau.temps[a], reseau.longueurs[a]);
+                }
+            }
+        }
+
+        /**
+         * Ajoute l'arc, ou raccourcit l'arc origine -> cible déjà présent.
+         *
+         * @return vrai si un nouvel arc a été ajouté
+         */
+        boolean ajouterArc(int origine, int cible, int tempsArc, int longueur) {
+            for (int a = premiersSortants[origine]; a != -1; a = suivantsSortants[a]) {
+                if (cibles[a] == cible) {
+                    if (tempsArc < temps[a]) {
+                        temps[a] = tempsArc;
+                        longueurs[a] = longueur;
+                    }
+                    return false;
+                }
+            }
+            if (nombreArcs == origines.length) {
+                int taille = nombreArcs * 2;
+                origines = Arrays.copyOf(origines, taille);
+                cibles = Arrays.copyOf(cibles, taille);
+                temps = Arrays.copyOf(temps, taille);
+                longueurs = Arrays.copyOf(longueurs, taille);
+                suivantsSortants = Arrays.copyOf(suivantsSortants, taille);
+                suivantsEntrants = Arrays.copyOf(suivantsEntrants, taille);
+            }
+            int a = nombreArcs++;
+            origines[a] = origine;
+            cibles[a] = cible;
+            temps[a] = tempsArc;
+            longueurs[a] = longueur;
+            suivantsSortants[a] = premiersSortants[origine];
+            premiersSortants[origine] = a;
+            suivantsEntrants[a] = premiersEntrants[cible];
+            premiersEntrants[cible] = a;
+            return true;
+        }
+
+        HierarchieContraction contracter(long signature) {
+            int[] rangs = new int[n];
+            //file des priorites, distincte du tas des recherches de temoins
+            TasLong file = new TasLong();
+            for (int v = 0; v < n; v++) {
+                file.ajouter(TasLong.entree(priorite(v), v));
+            }
+            int rang = 0;
+            while (!file.estVide()) {
+                int v = TasLong.noeud(file.retirer());
+                if (contractes[v]) {
+                    continue;
+                }
+                int priorite = priorite(v);
+                if (!file.estVide() && priorite > TasLong.poids(file.tete())) {
+                    file.ajouter(TasLong.entree(priorite, v));
+                    continue;
+                }
+                nombreRaccourcis += raccourcir(v, false);
+                contractes[v] = true;
+                rangs[v] = rang++;
+                //les arcs de v sortent des listes de ses voisins, qui ne parcourent plus que le graphe restant
+                for (int a = premiersSortants[v]; a != -1; a = suivantsSortants[a]) {
+                    int w = cibles[a];
+                    if (!contractes[w]) {
+                        premiersEntrants[w] = retirer(premiersEntrants[w], a, suivantsEntrants);
+                        marquerVoisin(v, w);
+                    }
+                }
+                for (int a = premiersEntrants[v]; a != -1; a = suivantsEntrants[a]) {
+                    int u = origines[a];
+                    if (!contractes[u]) {
+                        premiersSortants[u] = retirer(premiersSortants[u], a, suivantsSortants);
+                        marquerVoisin(v, u);
+                    }
+                }
+            }
+            return ranger(rangs, signature);
+        }
+
+        /**
+         * Retire l'arc de la liste chaînée qui commence à premier.
+         *
+         * @return le nouveau premier arc de la liste
+         */
+        private static int retirer(int premier, int arc, int[] suivants) {
+            if (premier == arc) {
+                return suivants[arc];
+            }
+            for (int a = premier; suivants[a] != -1; a = suivants[a]) {
+                if (suivants[a] == arc) {
+                    suivants[a] = suivants[arc];
+                    break;
+                }
+            }
+            return premier;
+        }
+
+        private void marquerVoisin(int v, int voisin) {
+            voisinsContractes[voisin]++;
+            niveaux[voisin] = Math.max(niveaux[voisin], niveaux[v] + 1);
+        }
+
+        /**
+         * @return la priorité de contraction de v, décalée de DECALAGE_PRIORITE
+         */
+        private int priorite(int v) {
+            int arcs = 0;
+            for (int a = premiersSortants[v]; a != -1; a = suivantsSortants[a]) {
+                if (!contractes[cibles[a]]) {
+                    arcs++;
+                }
+            }
+            for (int a = premiersEntrants[v]; a != -1; a = suivantsEntrants[a]) {
+                if (!contractes[origines[a]]) {
+                    arcs++;
+                }
+            }
+            return DECALAGE_PRIORITE + raccourcir(v, true) - arcs + voisinsContractes[v] + niveaux[v];
+        }
+
+        /**
+         * Ajoute, ou compte seulement si simulation, les raccourcis nécessaires pour contracter v.
+         *
+         * @return le nombre de raccourcis
+         */
+        private int raccourcir(int v, boolean simulation) {
+            int raccourcis = 0;
+            for (int entrant = premiersEntrants[v]; entrant != -1; entrant = suivantsEntrants[entrant]) {
+                int u = origines[entrant];
+                if (contractes[u]) {
+                    continue;
+                }
+                int tempsMax = 0;
+                for (int sortant = premiersSortants[v]; sortant != -1; sortant = suivantsSortants[sortant]) {
+                    int w = cibles[sortant];
+                    if (w != u && !contractes[w]) {
+                        tempsMax = Math.max(tempsMax, temps[entrant] + temps[sortant]);
+                    }
+                }
+                if (tempsMax == 0) {
+                    continue;
+                }
+                chercherTemoins(u, v, tempsMax);
+                for (int sortant = premiersSortants[v]; sortant != -1; sortant = suivantsSortants[sortant]) {
+                    int w = cibles[sortant];
+                    int parV = temps[entrant] + temps[sortant];
+                    if (w != u && !contractes[w] && tempsTemoins[w] > parV) {
+                        raccourcis++;
+                        if (!simulation) {
+                            ajouterArc(u, w, parV, longueurs[entrant] + longueurs[sortant]);
+                        }
+                    }
+                }
+                oublierTemoins();
+            }
+            return raccourcis;
+        }
+
+        /**
+         * Dijkstra depuis u sans passer par v ni par les noeuds contractés, jusqu'à tempsMax ou LIMITE_TEMOINS noeuds.
+         */
+        private void chercherTemoins(int u, int v, int tempsMax) {
+            tempsTemoins[u] = 0;
+            atteindre(u);
+            tas.ajouter(TasLong.entree(0, u));
+            int fixes = 0;
+            while (!tas.estVide() && fixes < LIMITE_TEMOINS) {
+                long entree = tas.retirer();
+                int noeud = TasLong.noeud(entree);
+                int tempsNoeud = TasLong.poids(entree);
+                if (tempsNoeud > tempsTemoins[noeud]) {
+                    continue;
+                }
+                if (tempsNoeud > tempsMax) {
+                    break;
+                }
+                fixes++;
+                for (int a = premiersSortants[noeud]; a != -1; a = suivantsSortants[a]) {
+                    int voisin = cibles[a];
+                    if (voisin == v || contractes[voisin]) {
+                        continue;
+                    }
+                    int tempsVoisin = tempsNoeud + temps[a];
+                    if (tempsVoisin < tempsTemoins[voisin]) {
+                        if (tempsTemoins[voisin] == INACCESSIBLE) {
+                            atteindre(voisin);
+                        }
+                        tempsTemoins[voisin] = tempsVoisin;
+                        tas.ajouter(TasLong.entree(tempsVoisin, voisin));
+                    }
+                }
+            }
+        }
+
+        private void atteindre(int noeud) {
+            if (nombreAtteints == atteints.length) {
+                atteints = Arrays.copyOf(atteints, nombreAtteints * 2);
+            }
+            atteints[nombreAtteints++] = noeud;
+        }
+
+        private void oublierTemoins() {
+            for (int i = 0; i < nombreAtteints; i++) {
+                tempsTemoins[atteints[i]] = INACCESSIBLE;
+            }
+            nombreAtteints = 0;
+            tas.vider();
+        }
+
+        /**
+         * Range les arcs montants par origine et les arcs descendants par cible, et la grille d'accroche.
+         */
+        private HierarchieContraction ranger(int[] rangs, long signature) {
+            int[] debutsMontants = new int[n + 1];
+            int[] debutsDescendants = new int[n + 1];
+            for (int a = 0; a < nombreArcs; a++) {
+                if (rangs[origines[a]] < rangs[cibles[a]]) {
+                    debutsMontants[origines[a] + 1]++;
+                } else {
+                    debutsDescendants[cibles[a] + 1]++;
+                }
+            }
+            for (int v = 0; v < n; v++) {
+                debutsMontants[v + 1] += debutsMontants[v];
+                debutsDescendants[v + 1] += debutsDescendants[v];
+            }
+            int[] ciblesMontantes = new int[debutsMontants[n]];
+            int[] tempsMontants = new int[debutsMontants[n]];
+            int[] longueursMontantes = new int[debutsMontants[n]];
+            int[] originesDescendantes = new int[debutsDescendants[n]];
+            int[] tempsDescendants = new int[debutsDescendants[n]];
+            int[] longueursDescendantes = new int[debutsDescendants[n]];
+            int[] positionsMontantes = Arrays.copyOf(debutsMontants, n);
+            int[] positionsDescendantes = Arrays.copyOf(debutsDescendants, n);
+            for (int a = 0; a < nombreArcs; a++) {
+                if (rangs[origines[a]] < rangs[cibles[a]]) {
+                    int position = positionsMontantes[origines[a]]++;
+                    ciblesMontantes[position] = cibles[a];
+                    tempsMontants[position] = temps[a];
+                    longueursMontantes[position] = longueurs[a];
+                } else {
+                    int position = positionsDescendantes[cibles[a]]++;
+                    originesDescendantes[position] = origines[a];
+                    tempsDescendants[position] = temps[a];
+                    longueursDescendantes[position] = longueurs[a];
+                }
+            }
+            int[] latitudes = Arrays.copyOf(reseau.latitudes, n);
+            int[] longitudes = Arrays.copyOf(reseau.longitudes, n);
+            int[][] grille = grille(reseau, latitudes, longitudes);
+            return new HierarchieContraction(latitudes, longitudes, debutsMontants, ciblesMontantes, tempsMontants,
+                    longueursMontantes, debutsDescendants, originesDescendantes, tempsDescendants, longueursDescendantes,
+                    grille[0], grille[1], nombreRaccourcis, signature);
+        }
+    }
+
+    /**
+     * Grille d'accroche des noeuds de la plus grande composante connexe (arcs pris dans les deux sens) : un point
+     * accroché à un îlot coupé par les bords de l'extrait n'atteindrait presque rien.
+     *
+     * @return les mailles triées et leurs noeuds
+     */
+    private static int[][] grille(ReseauRoutier reseau, int[] latitudes, int[] longitudes) {
+        int n = latitudes.length;
+        int[] parents = new int[n];
+        for (int v = 0; v < n; v++) {
+            parents[v] = v;
+        }
+        for (int a = 0; a < reseau.nombreArcs; a++) {
+            int r1 = racine(parents, reseau.origines[a]);
+            int r2 = racine(parents, reseau.cibles[a]);
+            if (r1 != r2) {
+                parents[Math.max(r1, r2)] = Math.min(r1, r2);
+            }
+        }
+        int[] tailles = new int[n];
+        int plusGrande = -1;
+        for (int v = 0; v < n; v++) {
+            int r = racine(parents, v);
+            tailles[r]++;
+            if (plusGrande == -1 || tailles[r] > tailles[plusGrande]) {
+                plusGrande = r;
+            }
+        }
+        long[] mailles = new long[plusGrande == -1 ? 0 : tailles[plusGrande]];
+        int m = 0;
+        for (int v = 0; v < n; v++) {
+            if (racine(parents, v) == plusGrande) {
+                int maille = maille(Math.floorDiv(latitudes[v], MAILLE), Math.floorDiv(longitudes[v], MAILLE));
+                mailles[m++] = (long) maille << 32 | v;
+            }
+        }
+        Arrays.sort(mailles);
+        int[] maillesTriees = new int[m];
+        int[] noeudsTries = new int[m];
+        for (int i = 0; i < m; i++) {
+            maillesTriees[i] = (int) (mailles[i] >>> 32);
+            noeudsTries[i] = (int) mailles[i];
+        }
+        return new int[][]{maillesTriees, noeudsTries};
+    }
+
+    private static int racine(int[] parents, int v) {
+        while (parents[v] != v) {
+            parents[v] = parents[parents[v]];
+            v = parents[v];
+        }
+        return v;
+    }
+
+    /**
+     * Écrit la hiérarchie dans le fichier (par un fichier temporaire renommé), pour ne pas la reconstruire au démarrage.
+     */
+    void enregistrer(Path fichier) throws IOException {
+        Path temporaire = fichier.resolveSibling(fichier.getFileName() + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporaire, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer enTete = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+            enTete.putInt(MAGIC).putInt(VERSION).putLong(signature).putInt(nombreNoeuds).putInt(nombreRaccourcis).flip();
+            ecrire(canal, enTete);
+            for (int[] tableau : tableaux()) {
+                ecrire(canal, tableau);
+            }
+            canal.force(false);
+        }
+        Files.move(temporaire, fichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return la hiérarchie du fichier, null si le fichier est absent, d'une autre version ou d'une autre signature
+     */
+    static HierarchieContraction charger(Path fichier, long signature) throws IOException {
+        if (!Files.isRegularFile(fichier)) {
+            return null;
+        }
+        try (FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ)) {
+            ByteBuffer enTete = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+            lire(canal, enTete);
+            enTete.flip();
+            if (enTete.getInt() != MAGIC || enTete.getInt() != VERSION || enTete.getLong() != signature) {
+                return null;
+            }
+            enTete.getInt();
+            int nombreRaccourcis = enTete.getInt();
+            int[][] tableaux = new int[12][];
+            for (int i = 0; i < tableaux.length; i++) {
+                tableaux[i] = lireTableau(canal);
+            }
+            return new HierarchieContraction(tableaux[0], tableaux[1], tableaux[2], tableaux[3], tableaux[4], tableaux[5],
+                    tableaux[6], tableaux[7], tableaux[8], tableaux[9], tableaux[10], tableaux[11], nombreRaccourcis, signature);
+        }
+    }
+
+    //dans l'ordre du constructeur
+    private int[][] tableaux() {
+        return new int[][]{latitudes, longitudes, debutsMontants, ciblesMontantes, tempsMontants, longueursMontantes,
+                debutsDescendants, originesDescendantes, tempsDescendants, longueursDescendantes, maillesTriees, noeudsTries};
+    }
+
+    private static void ecrire(FileChannel canal, int[] tableau) throws IOException {
+        ByteBuffer taille = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(tableau.length);
+        taille.flip();
+        ecrire(canal, taille);
+        ByteBuffer bloc = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        IntBuffer entiers = bloc.asIntBuffer();
+        for (int debut = 0; debut < tableau.length; debut += entiers.capacity()) {
+            int longueur = Math.min(entiers.capacity(), tableau.length - debut);
+            entiers.clear();
+            entiers.put(tableau, debut, longueur);
+            bloc.clear().limit(4 * longueur);
+            ecrire(canal, bloc);
+        }
+    }
+
+    private static void ecrire(FileChannel canal, ByteBuffer donnees) throws IOException {
+        while (donnees.hasRemaining()) {
+            canal.write(donnees);
+        }
+    }
+
+    private static int[] lireTableau(FileChannel canal) throws IOException {
+        ByteBuffer taille = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        lire(canal, taille);
+        taille.flip();
+        int[] tableau = new int[taille.getInt()];
+        ByteBuffer bloc = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        for (int debut = 0; debut < tableau.length; ) {
+            int longueur = Math.min(bloc.capacity() / 4, tableau.length - debut);
+            bloc.clear().limit(4 * longueur);
+            lire(canal, bloc);
+            bloc.flip();
+            bloc.asIntBuffer().get(tableau, debut, longueur);
+            debut += longueur;
+        }
+        return tableau;
+    }
+
+    private static void lire(FileChannel canal, ByteBuffer destination) throws IOException {
+        while (destination.hasRemaining()) {
+            if (canal.read(destination) < 0) {
+                throw new IOException("fichier de hierarchie de contraction tronque");
+            }
+        }
+    }
+}
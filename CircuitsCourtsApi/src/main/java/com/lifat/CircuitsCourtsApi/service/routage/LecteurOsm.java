@@ -0,0 +1,292 @@
+package com.lifat.CircuitsCourtsApi.service.routage;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Lit le réseau routier d'un extrait OSM au format xml (.osm, ou .osm.gz), en deux passes sur le fichier :
+ * - les ways carrossables (highway connu de VITESSES, sans accès interdit aux voitures), avec leur sens et leur vitesse ;
+ * - les coordonnées des seuls noeuds de ces ways.
+ *
+ * Seuls les noeuds utiles au calcul deviennent des noeuds du graphe : les extrémités des ways, les carrefours (noeuds
+ * partagés par plusieurs ways) et un noeud tous les longueurMaxTroncon mètres le long d'une way, pour qu'un point puisse
+ * être accroché au réseau près de chez lui. La longueur d'un arc est la somme des distances à vol d'oiseau entre les
+ * noeuds OSM qu'il suit, arrondie au mètre supérieur : elle n'est jamais inférieure à la distance à vol d'oiseau.
+ * Une way coupée par les bords de l'extrait (noeuds absents) est découpée en tronçons.
+ */
+final class LecteurOsm {
+
+    /**
+     * Vitesse en km/h par type de route, sans maxspeed plus bas. Les types absents ne sont pas carrossables.
+     */
+    static final Map<String, Double> VITESSES = new HashMap<>();
+
+    static {
+        VITESSES.put("motorway", 110.0);
+        VITESSES.put("motorway_link", 60.0);
+        VITESSES.put("trunk", 90.0);
+        VITESSES.put("trunk_link", 50.0);
+        VITESSES.put("primary", 75.0);
+        VITESSES.put("primary_link", 45.0);
+        VITESSES.put("secondary", 65.0);
+        VITESSES.put("secondary_link", 40.0);
+        VITESSES.put("tertiary", 55.0);
+        VITESSES.put("tertiary_link", 35.0);
+        VITESSES.put("unclassified", 45.0);
+        VITESSES.put("road", 40.0);
+        VITESSES.put("residential", 30.0);
+        VITESSES.put("living_street", 10.0);
+        VITESSES.put("service", 20.0);
+        //les exploitations sont souvent au bout d'un chemin
+        VITESSES.put("track", 15.0);
+    }
+
+    private final Path fichier;
+
+    private final double longueurMaxTroncon;
+
+    //ways retenues : leurs noeuds bout a bout dans refs, la way w de debuts[w] a debuts[w + 1]
+    private long[] refs = new long[1 << 16];
+
+    private int nombreRefs;
+
+    private int[] debuts = new int[1024];
+
+    private double[] vitesses = new double[1024];
+
+    //1 sens de la way, -1 sens inverse, 0 double sens
+    private byte[] sens = new byte[1024];
+
+    private int nombreWays;
+
+    /**
+     * @param longueurMaxTroncon en mètres
+     */
+    LecteurOsm(Path fichier, double longueurMaxTroncon) {
+        this.fichier = fichier;
+        this.longueurMaxTroncon = longueurMaxTroncon;
+    }
+
+    ReseauRoutier lire() throws IOException {
+        try {
+            lireWays();
+            LongIntMap indices = new LongIntMap(nombreRefs / 2);
+            int[] utilisations = new int[Math.max(16, nombreRefs / 2)];
+            for (int w = 0; w < nombreWays; w++) {
+                for (int r = debuts[w]; r < debuts[w + 1]; r++) {
+                    int indice = indices.ajouterSiAbsente(refs[r], indices.taille());
+                    if (indice == utilisations.length) {
+                        utilisations = Arrays.copyOf(utilisations, indice * 2);
+                    }
+                    //les extremites comptent double : elles sont toujours gardees
+                    utilisations[indice] += r == debuts[w] || r == debuts[w + 1] - 1 ? 2 : 1;
+                }
+            }
+            int[] latitudes = new int[indices.taille()];
+            int[] longitudes = new int[indices.taille()];
+            boolean[] presents = new boolean[indices.taille()];
+            lireNoeuds(indices, latitudes, longitudes, presents);
+            return construire(indices, utilisations, latitudes, longitudes, presents);
+        } catch (XMLStreamException e) {
+            throw new IOException("fichier OSM illisible : " + fichier, e);
+        }
+    }
+
+    private void lireWays() throws IOException, XMLStreamException {
+        long[] noeuds = new long[256];
+        int nombreNoeuds = 0;
+        Map<String, String> tags = new HashMap<>();
+        boolean dansWay = false;
+        try (InputStream flux = ouvrir()) {
+            XMLStreamReader lecteur = fabrique().createXMLStreamReader(flux);
+            while (lecteur.hasNext()) {
+                int evenement = lecteur.next();
+                if (evenement == XMLStreamConstants.START_ELEMENT) {
+                    String nom = lecteur.getLocalName();
+                    if ("way".equals(nom)) {
+                        dansWay = true;
+                        nombreNoeuds = 0;
+                        tags.clear();
+                    } else if (dansWay && "nd".equals(nom)) {
+                        if (nombreNoeuds == noeuds.length) {
+                            noeuds = Arrays.copyOf(noeuds, nombreNoeuds * 2);
+                        }
+                        noeuds[nombreNoeuds++] = Long.parseLong(lecteur.getAttributeValue(null, "ref"));
+                    } else if (dansWay && "tag".equals(nom)) {
+                        tags.put(lecteur.getAttributeValue(null, "k"), lecteur.getAttributeValue(null, "v"));
+                    }
+                } else if (evenement == XMLStreamConstants.END_ELEMENT && "way".equals(lecteur.getLocalName())) {
+                    dansWay = false;
+                    retenir(noeuds, nombreNoeuds, tags);
+                }
+            }
+            lecteur.close();
+        }
+        debuts[nombreWays] = nombreRefs;
+    }
+
+    private void retenir(long[] noeuds, int nombreNoeuds, Map<String, String> tags) {
+        Double vitesse = VITESSES.get(tags.get("highway"));
+        if (vitesse == null || nombreNoeuds < 2 || "yes".equals(tags.get("area")) || !carrossable(tags)) {
+            return;
+        }
+        double maxspeed = maxspeed(tags.get("maxspeed"));
+        if (maxspeed > 0 && maxspeed < vitesse) {
+            vitesse = maxspeed;
+        }
+        if (nombreWays + 1 >= debuts.length) {
+            debuts = Arrays.copyOf(debuts, debuts.length * 2);
+            vitesses = Arrays.copyOf(vitesses, debuts.length);
+            sens = Arrays.copyOf(sens, debuts.length);
+        }
+        if (nombreRefs + nombreNoeuds > refs.length) {
+            refs = Arrays.copyOf(refs, Math.max(refs.length * 2, nombreRefs + nombreNoeuds));
+        }
+        System.arraycopy(noeuds, 0, refs, nombreRefs, nombreNoeuds);
+        debuts[nombreWays] = nombreRefs;
+        vitesses[nombreWays] = vitesse;
+        sens[nombreWays] = sens(tags);
+        nombreRefs += nombreNoeuds;
+        nombreWays++;
+    }
+
+    private static boolean carrossable(Map<String, String> tags) {
+        String acces = tags.get("motorcar");
+        if (acces == null) {
+            acces = tags.get("motor_vehicle");
+        }
+        if (acces == null) {
+            acces = tags.get("access");
+        }
+        return !"no".equals(acces);
+    }
+
+    private static byte sens(Map<String, String> tags) {
+        String oneway = tags.get("oneway");
+        if (oneway == null) {
+            return (byte) ("roundabout".equals(tags.get("junction")) || "motorway".equals(tags.get("highway")) ? 1 : 0);
+        }
+        switch (oneway) {
+            case "yes":
+            case "true":
+            case "1":
+                return 1;
+            case "-1":
+            case "reverse":
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return la vitesse en km/h d'un tag maxspeed ("50", "30 mph", "FR:rural"...), 0 si elle n'est pas lisible
+     */
+    static double maxspeed(String valeur) {
+        if (valeur == null) {
+            return 0;
+        }
+        if (valeur.endsWith(":urban")) {
+            return 50;
+        }
+        if (valeur.endsWith(":rural")) {
+            return 80;
+        }
+        int fin = 0;
+        while (fin < valeur.length() && Character.isDigit(valeur.charAt(fin))) {
+            fin++;
+        }
+        if (fin == 0) {
+            return 0;
+        }
+        double vitesse = Double.parseDouble(valeur.substring(0, fin));
+        return valeur.endsWith("mph") ? vitesse * 1.609344 : vitesse;
+    }
+
+    private void lireNoeuds(LongIntMap indices, int[] latitudes, int[] longitudes, boolean[] presents) throws IOException, XMLStreamException {
+        try (InputStream flux = ouvrir()) {
+            XMLStreamReader lecteur = fabrique().createXMLStreamReader(flux);
+            while (lecteur.hasNext()) {
+                if (lecteur.next() == XMLStreamConstants.START_ELEMENT && "node".equals(lecteur.getLocalName())) {
+                    int indice = indices.get(Long.parseLong(lecteur.getAttributeValue(null, "id")));
+                    if (indice != LongIntMap.ABSENT) {
+                        latitudes[indice] = (int) Math.round(Double.parseDouble(lecteur.getAttributeValue(null, "lat")) * ReseauRoutier.E7);
+                        longitudes[indice] = (int) Math.round(Double.parseDouble(lecteur.getAttributeValue(null, "lon")) * ReseauRoutier.E7);
+                        presents[indice] = true;
+                    }
+                }
+            }
+            lecteur.close();
+        }
+    }
+
+    private ReseauRoutier construire(LongIntMap indices, int[] utilisations, int[] latitudes, int[] longitudes, boolean[] presents) {
+        ReseauRoutier reseau = new ReseauRoutier();
+        //noeud OSM -> noeud du graphe, -1 s'il n'en est pas un (encore)
+        int[] noeudsGraphe = new int[latitudes.length];
+        Arrays.fill(noeudsGraphe, -1);
+        for (int w = 0; w < nombreWays; w++) {
+            int precedent = -1;
+            int precedentOsm = -1;
+            double longueur = 0;
+            for (int r = debuts[w]; r < debuts[w + 1]; r++) {
+                int indice = indices.get(refs[r]);
+                if (!presents[indice]) {
+                    precedent = -1;
+                    precedentOsm = -1;
+                    continue;
+                }
+                if (precedentOsm != -1) {
+                    longueur += ReseauRoutier.metres(latitudes[precedentOsm], longitudes[precedentOsm], latitudes[indice], longitudes[indice]);
+                }
+                precedentOsm = indice;
+                boolean avantCoupure = r + 1 == debuts[w + 1] || !presents[indices.get(refs[r + 1])];
+                if (precedent != -1 && !avantCoupure && utilisations[indice] < 2 && longueur < longueurMaxTroncon) {
+                    continue;
+                }
+                if (noeudsGraphe[indice] == -1) {
+                    noeudsGraphe[indice] = reseau.ajouterNoeud(latitudes[indice], longitudes[indice]);
+                }
+                int noeud = noeudsGraphe[indice];
+                if (precedent != -1 && precedent != noeud) {
+                    int metres = (int) Math.ceil(longueur);
+                    //temps en dixiemes de seconde, jamais nul
+                    int dixiemes = Math.max(1, (int) Math.round(longueur * 36 / vitesses[w]));
+                    if (sens[w] >= 0) {
+                        reseau.ajouterArc(precedent, noeud, dixiemes, metres);
+                    }
+                    if (sens[w] <= 0) {
+                        reseau.ajouterArc(noeud, precedent, dixiemes, metres);
+                    }
+                }
+                precedent = noeud;
+                longueur = 0;
+            }
+        }
+        return reseau;
+    }
+
+    private InputStream ouvrir() throws IOException {
+        InputStream flux = new BufferedInputStream(Files.newInputStream(fichier), 1 << 16);
+        return fichier.getFileName().toString().endsWith(".gz") ? new GZIPInputStream(flux, 1 << 16) : flux;
+    }
+
+    private static XMLInputFactory fabrique() {
+        XMLInputFactory fabrique = XMLInputFactory.newInstance();
+        //fichier local, mais pas de dtd ni d'entites externes
+        fabrique.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        fabrique.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return fabrique;
+    }
+}
@@ -0,0 +1,94 @@
+package com.lifat.CircuitsCourtsApi.service.routage;
+
+import java.util.Arrays;
+
+/**
+ * Table de hachage long -> int à adressage ouvert (sondage linéaire), sans objet par entrée ni autoboxing, pour les
+ * millions d'ids de noeuds OSM d'un extrait. Les entrées ne sont jamais supprimées.
+ * N'est pas thread-safe.
+ */
+final class LongIntMap {
+
+    static final int ABSENT = -1;
+
+    private static final float CHARGE_MAX = 0.6f;
+
+    private long[] cles;
+
+    private int[] valeurs;
+
+    private int taille;
+
+    LongIntMap(int capaciteInitiale) {
+        allouer(Integer.highestOneBit(Math.max(16, (int) (capaciteInitiale / CHARGE_MAX)) - 1) << 1);
+    }
+
+    private void allouer(int capacite) {
+        cles = new long[capacite];
+        valeurs = new int[capacite];
+        Arrays.fill(valeurs, ABSENT);
+    }
+
+    /**
+     * finaliseur de MurmurHash3, les ids OSM sont souvent consécutifs
+     */
+    private static long melanger(long cle) {
+        cle ^= cle >>> 33;
+        cle *= 0xff51afd7ed558ccdL;
+        cle ^= cle >>> 33;
+        cle *= 0xc4ceb9fe1a85ec53L;
+        cle ^= cle >>> 33;
+        return cle;
+    }
+
+    private int indice(long cle) {
+        int masque = cles.length - 1;
+        int i = (int) melanger(cle) & masque;
+        while (valeurs[i] != ABSENT && cles[i] != cle) {
+            i = (i + 1) & masque;
+        }
+        return i;
+    }
+
+    /**
+     * @return la valeur de la clé, ABSENT si la clé est absente
+     */
+    int get(long cle) {
+        return valeurs[indice(cle)];
+    }
+
+    /**
+     * @param valeur positive ou nulle
+     * @return la valeur déjà associée à la clé, ou valeur si la clé était absente et vient d'être ajoutée
+     */
+    int ajouterSiAbsente(long cle, int valeur) {
+        int i = indice(cle);
+        if (valeurs[i] != ABSENT) {
+            return valeurs[i];
+        }
+        cles[i] = cle;
+        valeurs[i] = valeur;
+        taille++;
+        if (taille > cles.length * CHARGE_MAX) {
+            agrandir();
+        }
+        return valeur;
+    }
+
+    int taille() {
+        return taille;
+    }
+
+    private void agrandir() {
+        long[] anciennesCles = cles;
+        int[] anciennesValeurs = valeurs;
+        allouer(cles.length * 2);
+        for (int i = 0; i < anciennesCles.length; i++) {
+            if (anciennesValeurs[i] != ABSENT) {
+                int j = indice(anciennesCles[i]);
+                cles[j] = anciennesCles[i];
+                valeurs[j] = anciennesValeurs[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.lifat.CircuitsCourtsApi.service.routage;
+
+import com.lifat.CircuitsCourtsApi.service.calculTournee.GeoPortailApiService;
+
+import java.util.Arrays;
+
+/**
+ * Le graphe routier lu d'un extrait OSM, avant contraction : des noeuds numérotés de 0 à nombreNoeuds - 1 et des arcs
+ * orientés, en tableaux parallèles. Une route à double sens donne deux arcs.
+ *
+ * Les coordonnées sont en degrés * 1e7 (la précision des fichiers OSM), les longueurs en mètres et les temps de trajet
+ * en dixièmes de seconde.
+ */
+final class ReseauRoutier {
+
+    static final double E7 = 1e7;
+
+    int nombreNoeuds;
+
+    int[] latitudes = new int[1024];
+
+    int[] longitudes = new int[1024];
+
+    int nombreArcs;
+
+    int[] origines = new int[1024];
+
+    int[] cibles = new int[1024];
+
+    int[] temps = new int[1024];
+
+    int[] longueurs = new int[1024];
+
+    /**
+     * @return le numéro du nouveau noeud
+     */
+    int ajouterNoeud(int latitude, int longitude) {
+        if (nombreNoeuds == latitudes.length) {
+            latitudes = Arrays.copyOf(latitudes, nombreNoeuds * 2);
+            longitudes = Arrays.copyOf(longitudes, nombreNoeuds * 2);
+        }
+        latitudes[nombreNoeuds] = latitude;
+        longitudes[nombreNoeuds] = longitude;
+        return nombreNoeuds++;
+    }
+
+    void ajouterArc(int origine, int cible, int tempsArc, int longueur) {
+        if (nombreArcs == origines.length) {
+            origines = Arrays.copyOf(origines, nombreArcs * 2);
+            cibles = Arrays.copyOf(cibles, nombreArcs * 2);
+            temps = Arrays.copyOf(temps, nombreArcs * 2);
+            longueurs = Arrays.copyOf(longueurs, nombreArcs * 2);
+        }
+        origines[nombreArcs] = origine;
+        cibles[nombreArcs] = cible;
+        temps[nombreArcs] = tempsArc;
+        longueurs[nombreArcs] = longueur;
+        nombreArcs++;
+    }
+
+    /**
+     * @return la distance à vol d'oiseau en mètres entre deux points en degrés * 1e7
+     */
+    static double metres(int latitude1, int longitude1, int latitude2, int longitude2) {
+        double phi1 = Math.toRadians(latitude1 / E7);
+        double phi2 = Math.toRadians(latitude2 / E7);
+        double sinDemiLatitude = Math.sin((phi2 - phi1) / 2);
+        double sinDemiLongitude = Math.sin(Math.toRadians((longitude2 - longitude1) / E7) / 2);
+        double a = sinDemiLatitude * sinDemiLatitude + Math.cos(phi1) * Math.cos(phi2) * sinDemiLongitude * sinDemiLongitude;
+        return 2000 * GeoPortailApiService.RAYON_TERRE_KM * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+}
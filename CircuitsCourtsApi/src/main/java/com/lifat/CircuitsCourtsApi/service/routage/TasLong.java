@@ -0,0 +1,78 @@
+package com.lifat.CircuitsCourtsApi.service.routage;
+
+import java.util.Arrays;
+
+/**
+ * Tas binaire de long, le plus petit en tête, sans autoboxing.
+ *
+ * Les recherches de plus court chemin y rangent (poids << 32 | noeud) : le tas est trié par poids, et un noeud dont le
+ * poids baisse est ajouté une nouvelle fois plutôt que déplacé ; l'entrée périmée est ignorée quand elle sort.
+ */
+final class TasLong {
+
+    private long[] valeurs = new long[64];
+
+    private int taille;
+
+    static long entree(int poids, int noeud) {
+        return (long) poids << 32 | noeud;
+    }
+
+    static int poids(long entree) {
+        return (int) (entree >>> 32);
+    }
+
+    static int noeud(long entree) {
+        return (int) entree;
+    }
+
+    void ajouter(long valeur) {
+        if (taille == valeurs.length) {
+            valeurs = Arrays.copyOf(valeurs, taille * 2);
+        }
+        int i = taille++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (valeurs[parent] <= valeur) {
+                break;
+            }
+            valeurs[i] = valeurs[parent];
+            i = parent;
+        }
+        valeurs[i] = valeur;
+    }
+
+    long tete() {
+        return valeurs[0];
+    }
+
+    long retirer() {
+        long tete = valeurs[0];
+        long derniere = valeurs[--taille];
+        int i = 0;
+        while (true) {
+            int enfant = 2 * i + 1;
+            if (enfant >= taille) {
+                break;
+            }
+            if (enfant + 1 < taille && valeurs[enfant + 1] < valeurs[enfant]) {
+                enfant++;
+            }
+            if (derniere <= valeurs[enfant]) {
+                break;
+            }
+            valeurs[i] = valeurs[enfant];
+            i = enfant;
+        }
+        valeurs[i] = derniere;
+        return tete;
+    }
+
+    boolean estVide() {
+        return taille == 0;
+    }
+
+    void vider() {
+        taille = 0;
+    }
+}
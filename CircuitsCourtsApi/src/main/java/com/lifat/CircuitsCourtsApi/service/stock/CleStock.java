@@ -0,0 +1,37 @@
+package com.lifat.CircuitsCourtsApi.service.stock;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Un couple (producteur, produit) de produits_producteurs regroupé dans un seul long :
+ * l'id du producteur sur les 32 bits de poids fort, l'id du produit sur les 32 bits de poids faible.
+ * Permet d'indexer le stock sans créer d'objet clé.
+ */
+public final class CleStock {
+
+    private CleStock() {
+    }
+
+    public static long de(long idProducteur, long idProduit) {
+        return (idProducteur << 32) | (idProduit & 0xFFFFFFFFL);
+    }
+
+    public static long producteur(long cle) {
+        return cle >>> 32;
+    }
+
+    public static long produit(long cle) {
+        return cle & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @param quantites clé de stock -> quantité
+     * @return les quantités opposées, par clé croissante
+     */
+    public static TreeMap<Long, Float> oppose(Map<Long, Float> quantites) {
+        TreeMap<Long, Float> opposees = new TreeMap<>();
+        quantites.forEach((cle, quantite) -> opposees.put(cle, -quantite));
+        return opposees;
+    }
+}
@@ -0,0 +1,210 @@
+package com.lifat.CircuitsCourtsApi.service.stock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lifat.CircuitsCourtsApi.payload.response.ImportStockResponse;
+import com.lifat.CircuitsCourtsApi.repository.ProducteurRepository;
+import com.lifat.CircuitsCourtsApi.repository.ProduitRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Mise à jour en masse du stock d'un producteur à partir d'un fichier de lignes (référence du produit, quantité),
+ * en CSV ou en NDJSON.
+ *
+ * Le fichier est lu au fil de l'eau. Les références sont résolues dans un index en mémoire de toutes les références
+ * produits, lu en une requête au début de l'import. Les lignes valides sont appliquées par lots de tailleLot,
+ * une transaction par lot (StockService.definirTout) : un lot refusé par la bd n'empêche pas les suivants.
+ * Chaque ligne refusée est renvoyée dans le rapport avec son numéro et le motif.
+ * Si une référence apparait plusieurs fois dans le même lot, la dernière quantité l'emporte.
+ */
+@Service
+public class ImportStockService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImportStockService.class);
+
+    //valeur de l'index pour une reference portee par plusieurs produits
+    private static final long REFERENCE_AMBIGUE = -1L;
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private ProduitRepository produitRepository;
+
+    @Autowired
+    private ProducteurRepository producteurRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${com.lifat.circuitscourtsapi.stock.import.tailleLot: 500}")
+    private int tailleLot;
+
+    /**
+     * Une ligne valide en attente d'écriture.
+     */
+    private static final class Ligne {
+        final long numero;
+        final String reference;
+
+        Ligne(long numero, String reference) {
+            this.numero = numero;
+            this.reference = reference;
+        }
+    }
+
+    /**
+     * @param idProducteur le producteur dont le stock est mis à jour
+     * @param format CSV (reference;quantite, ou séparées par une virgule, en-tête facultatif) ou NDJSON
+     *               ({"reference": ..., "quantite": ...} par ligne)
+     * @param entree le fichier
+     * @return le rapport de l'import
+     * @throws Exception si le producteur n'existe pas ou si le fichier ne peut pas être lu
+     */
+    public ImportStockResponse importer(Long idProducteur, Format format, InputStream entree) throws Exception {
+        if (!producteurRepository.existsById(idProducteur)) {
+            throw new Exception("le producteur n°" + idProducteur + " n'existe pas");
+        }
+        Map<String, Long> index = indexerReferences();
+        ImportStockResponse rapport = new ImportStockResponse();
+        TreeMap<Long, Float> lot = new TreeMap<>();
+        Map<Long, Ligne> lignesDuLot = new HashMap<>();
+
+        BufferedReader lecteur = new BufferedReader(new InputStreamReader(entree, StandardCharsets.UTF_8));
+        String texte;
+        long numero = 0;
+        while ((texte = lecteur.readLine()) != null) {
+            numero++;
+            if (texte.isBlank() || (numero == 1 && format == Format.CSV && estEnTete(texte))) {
+                continue;
+            }
+            rapport.setLignesLues(rapport.getLignesLues() + 1);
+            String reference = null;
+            try {
+                String[] champs = format == Format.CSV ? lireCsv(texte) : lireNdjson(texte);
+                reference = champs[0];
+                Long idProduit = index.get(reference);
+                if (idProduit == null) {
+                    throw new IllegalArgumentException("reference inconnue");
+                }
+                if (idProduit == REFERENCE_AMBIGUE) {
+                    throw new IllegalArgumentException("reference portee par plusieurs produits");
+                }
+                float quantite = lireQuantite(champs[1]);
+                long cle = CleStock.de(idProducteur, idProduit);
+                lot.put(cle, quantite);
+                lignesDuLot.put(cle, new Ligne(numero, reference));
+            } catch (IllegalArgumentException e) {
+                rapport.getErreurs().add(new ImportStockResponse.Erreur(numero, reference, e.getMessage()));
+            }
+            if (lot.size() >= tailleLot) {
+                appliquer(lot, lignesDuLot, rapport);
+            }
+        }
+        appliquer(lot, lignesDuLot, rapport);
+        return rapport;
+    }
+
+    private void appliquer(TreeMap<Long, Float> lot, Map<Long, Ligne> lignesDuLot, ImportStockResponse rapport) {
+        if (lot.isEmpty()) {
+            return;
+        }
+        try {
+            Set<Long> crees = stockService.executerAvecReessai(status -> stockService.definirTout(lot));
+            rapport.setLignesAppliquees(rapport.getLignesAppliquees() + lot.size());
+            rapport.setProduitsAjoutes(rapport.getProduitsAjoutes() + crees.size());
+        } catch (RuntimeException e) {
+            logger.warn("import de stock : un lot de " + lot.size() + " ligne(s) n'a pas ete applique", e);
+            for (Ligne ligne : lignesDuLot.values()) {
+                rapport.getErreurs().add(new ImportStockResponse.Erreur(ligne.numero, ligne.reference, "lot non applique : " + e.getMessage()));
+            }
+        }
+        lot.clear();
+        lignesDuLot.clear();
+    }
+
+    /**
+     * @return l'id du produit par référence, REFERENCE_AMBIGUE si plusieurs produits ont la même référence
+     */
+    private Map<String, Long> indexerReferences() {
+        Map<String, Long> index = new HashMap<>();
+        for (ProduitRepository.ReferenceProduit produit : produitRepository.findReferences()) {
+            String reference = produit.getReference().trim();
+            if (!reference.isEmpty()) {
+                index.merge(reference, produit.getId(), (premier, autre) -> premier.equals(autre) ? premier : REFERENCE_AMBIGUE);
+            }
+        }
+        return index;
+    }
+
+    private static boolean estEnTete(String texte) {
+        return texte.toLowerCase().contains("reference");
+    }
+
+    /**
+     * reference;quantite, avec une virgule décimale possible, ou reference,quantite. Les guillemets autour d'un champ sont retirés.
+     */
+    private static String[] lireCsv(String texte) {
+        char separateur = texte.indexOf(';') >= 0 ? ';' : ',';
+        int position = texte.lastIndexOf(separateur);
+        if (position < 0) {
+            throw new IllegalArgumentException("ligne mal formee, attendu : reference" + separateur + "quantite");
+        }
+        String reference = sansGuillemets(texte.substring(0, position).trim());
+        String quantite = sansGuillemets(texte.substring(position + 1).trim());
+        if (separateur == ';') {
+            quantite = quantite.replace(',', '.');
+        }
+        return new String[]{reference, quantite};
+    }
+
+    private String[] lireNdjson(String texte) {
+        JsonNode objet;
+        try {
+            objet = objectMapper.readTree(texte);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("json invalide");
+        }
+        JsonNode reference = objet.get("reference");
+        JsonNode quantite = objet.get("quantite");
+        if (reference == null || reference.isNull() || quantite == null || quantite.isNull()) {
+            throw new IllegalArgumentException("les champs reference et quantite sont obligatoires");
+        }
+        return new String[]{reference.asText().trim(), quantite.asText()};
+    }
+
+    private static float lireQuantite(String texte) {
+        float quantite;
+        try {
+            quantite = Float.parseFloat(texte);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("quantite invalide : " + texte);
+        }
+        if (!Float.isFinite(quantite) || quantite < 0) {
+            throw new IllegalArgumentException("la quantite doit etre positive ou nulle");
+        }
+        return quantite;
+    }
+
+    private static String sansGuillemets(String champ) {
+        if (champ.length() >= 2 && champ.startsWith("\"") && champ.endsWith("\"")) {
+            return champ.substring(1, champ.length() - 1).replace("\"\"", "\"");
+        }
+        return champ;
+    }
+}
@@ -0,0 +1,672 @@
+package com.lifat.CircuitsCourtsApi.service.stock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lifat.CircuitsCourtsApi.model.EvenementOutbox;
+import com.lifat.CircuitsCourtsApi.payload.response.HistoriqueStockResponse;
+import com.lifat.CircuitsCourtsApi.service.evenement.AbonneEvenements;
+import com.lifat.CircuitsCourtsApi.service.evenement.OutboxService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Journal des mouvements de stock : chaque réservation, libération et quantité fixée est lue dans l'outbox, comme
+ * abonné du relais, et ajoutée à la fin d'un fichier binaire projeté en mémoire. Écrire une entrée coûte une copie de
+ * 32 octets sous un verrou ; les pages sont écrites sur le disque par le système, et forcées toutes les forceMs.
+ *
+ * Un événement de l'outbox n'existe que si sa transaction est validée, et chaque entrée garde la séquence de son
+ * événement : au démarrage, les événements qui suivent la dernière entrée lisible sont relus dans l'outbox, un arrêt
+ * brutal après le commit ne perd donc pas de mouvement tant que l'outbox le conserve (evenements.retentionJours),
+ * et un événement présenté deux fois par le relais n'est écrit qu'une fois.
+ *
+ * Le journal est découpé en segments de tailleSegment octets, nommés par la séquence de leur première entrée.
+ * L'état du stock d'après le journal est tenu en mémoire et enregistré régulièrement dans un instantané ;
+ * les segments entièrement couverts par un instantané et plus vieux que retentionJours sont alors supprimés (compaction).
+ * Au premier démarrage, l'état de départ est lu dans produits_producteurs.
+ *
+ * Format d'une entrée : horodatage (long), CleStock (long), séquence de l'événement (long), quantité (float), type (octet),
+ * puis les 24 bits de poids faible du CRC32 des 29 octets précédents, écrits en dernier. Une entrée tient toujours dans
+ * une page (32 divise la taille des pages) ; la première entrée dont le contrôle est faux, une entrée jamais écrite
+ * comme une entrée à moitié écrite par un arrêt brutal, est la fin du segment.
+ *
+ * Les entrées sont dans l'ordre des séquences de l'outbox. Le journal ne doit être activé que sur une instance de l'api :
+ * chaque instance qui l'active tient son propre journal.
+ */
+@Service
+public class JournalStock implements AbonneEvenements {
+
+    private static final Logger logger = LoggerFactory.getLogger(JournalStock.class);
+
+    public static final byte RESERVE = 1;
+    public static final byte LIBERE = 2;
+    public static final byte DEFINI = 3;
+
+    static final int TAILLE_ENTREE = 32;
+
+    //octets couverts par le controle
+    private static final int TAILLE_CONTROLEE = 29;
+
+    private static final String PREFIXE_SEGMENT = "segment-";
+    private static final String EXTENSION_SEGMENT = ".journal";
+    private static final String PREFIXE_INSTANTANE = "instantane-";
+    private static final String EXTENSION_INSTANTANE = ".etat";
+
+    @Value("${com.lifat.circuitscourtsapi.stock.journal.actif: false}")
+    private boolean actif;
+
+    @Value("${com.lifat.circuitscourtsapi.stock.journal.repertoire: journal-stock}")
+    private String repertoire;
+
+    @Value("${com.lifat.circuitscourtsapi.stock.journal.tailleSegment: 67108864}")
+    private int tailleSegment;
+
+    @Value("${com.lifat.circuitscourtsapi.stock.journal.retentionJours: 90}")
+    private int retentionJours;
+
+    @Value("${com.lifat.circuitscourtsapi.evenements.tailleLot: 500}")
+    private int tailleLot;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Un fichier du journal. Seul le dernier segment reçoit des entrées.
+     */
+    private static final class Segment {
+        final long premiereSequence;
+        final Path chemin;
+        final FileChannel canal;
+        final MappedByteBuffer tampon;
+        final int capacite;
+        //nombre d'entrees ecrites, lu par les autres threads sous le verrou
+        int nombre;
+
+        Segment(long premiereSequence, Path chemin, FileChannel canal, MappedByteBuffer tampon, int capacite) {
+            this.premiereSequence = premiereSequence;
+            this.chemin = chemin;
+            this.canal = canal;
+            this.tampon = tampon;
+            this.capacite = capacite;
+        }
+
+        long derniereSequence() {
+            return premiereSequence + nombre - 1;
+        }
+
+        long horodatage(int i) {
+            return tampon.getLong(i * TAILLE_ENTREE);
+        }
+
+        long cle(int i) {
+            return tampon.getLong(i * TAILLE_ENTREE + 8);
+        }
+
+        long sequenceOutbox(int i) {
+            return tampon.getLong(i * TAILLE_ENTREE + 16);
+        }
+
+        float quantite(int i) {
+            return tampon.getFloat(i * TAILLE_ENTREE + 24);
+        }
+
+        byte type(int i) {
+            return tampon.get(i * TAILLE_ENTREE + 28);
+        }
+
+        int controleLu(int i) {
+            int position = i * TAILLE_ENTREE + TAILLE_CONTROLEE;
+            return (tampon.get(position) & 0xFF) << 16 | (tampon.get(position + 1) & 0xFF) << 8 | (tampon.get(position + 2) & 0xFF);
+        }
+
+        int controleCalcule(int i) {
+            CRC32 crc = new CRC32();
+            crc.update(tampon.slice(i * TAILLE_ENTREE, TAILLE_CONTROLEE));
+            return (int) crc.getValue() & 0xFFFFFF;
+        }
+
+        boolean valide(int i) {
+            byte type = type(i);
+            return type >= RESERVE && type <= DEFINI && controleLu(i) == controleCalcule(i);
+        }
+    }
+
+    /**
+     * Un instantané enregistré : l'état du stock après l'entrée de numéro sequence, et après l'événement sequenceOutbox.
+     */
+    private static final class Instantane {
+        final long sequence;
+        final long horodatage;
+        final long sequenceOutbox;
+        final Path chemin;
+
+        Instantane(long sequence, long horodatage, long sequenceOutbox, Path chemin) {
+            this.sequence = sequence;
+            this.horodatage = horodatage;
+            this.sequenceOutbox = sequenceOutbox;
+            this.chemin = chemin;
+        }
+    }
+
+    private final ReentrantLock verrou = new ReentrantLock();
+
+    private Path dossier;
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    private final List<Instantane> instantanes = new ArrayList<>();
+
+    //derniere sequence ecrite
+    private long sequence;
+
+    //sequence de l'outbox du dernier evenement ecrit
+    private long sequenceOutbox;
+
+    //stock d'apres le journal, apres l'entree sequence
+    private LongFloatMap etat = new LongFloatMap(1024);
+
+    public boolean isActif() {
+        return actif;
+    }
+
+    @PostConstruct
+    private void init() throws IOException {
+        if (!actif) {
+            return;
+        }
+        dossier = Paths.get(repertoire);
+        Files.createDirectories(dossier);
+        for (Path chemin : lister(PREFIXE_SEGMENT, EXTENSION_SEGMENT)) {
+            segments.add(ouvrir(chemin, numero(chemin, PREFIXE_SEGMENT, EXTENSION_SEGMENT)));
+        }
+        for (Path chemin : lister(PREFIXE_INSTANTANE, EXTENSION_INSTANTANE)) {
+            try (DataInputStream entree = new DataInputStream(new BufferedInputStream(Files.newInputStream(chemin)))) {
+                instantanes.add(new Instantane(entree.readLong(), entree.readLong(), entree.readLong(), chemin));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.add(creerSegment(1));
+        }
+        Segment dernier = segments.get(segments.size() - 1);
+        sequence = dernier.derniereSequence();
+        //un instantane posterieur a la derniere entree lisible compte des entrees perdues, elles seront rattrapees
+        for (Iterator<Instantane> iterateur = instantanes.iterator(); iterateur.hasNext(); ) {
+            Instantane instantane = iterateur.next();
+            if (instantane.sequence > sequence) {
+                iterateur.remove();
+                Files.deleteIfExists(instantane.chemin);
+            }
+        }
+
+        if (instantanes.isEmpty()) {
+            //premier demarrage : le journal part du stock actuel et des evenements publies apres
+            sequenceOutbox = outboxService.getDerniereSequence();
+            jdbcTemplate.query("SELECT id_producteur, id_produit, quantite FROM produits_producteurs",
+                    rs -> { etat.put(CleStock.de(rs.getLong(1), rs.getLong(2)), rs.getFloat(3)); });
+            enregistrerInstantane(sequence, System.currentTimeMillis(), sequenceOutbox, etat);
+        } else {
+            Instantane instantane = instantanes.get(instantanes.size() - 1);
+            etat = lireInstantane(instantane);
+            sequenceOutbox = instantane.sequenceOutbox;
+            rejouerSegments(etat, instantane.sequence, Long.MAX_VALUE, Long.MAX_VALUE);
+        }
+        if (dernier.nombre > 0) {
+            sequenceOutbox = Math.max(sequenceOutbox, dernier.sequenceOutbox(dernier.nombre - 1));
+        }
+        rattraper();
+        logger.info("journal de stock ouvert : " + segments.size() + " segment(s), derniere entree n°" + sequence
+                + " (evenement n°" + sequenceOutbox + "), " + etat.taille() + " couples");
+    }
+
+    @Override
+    public String getNom() {
+        return "journal-stock";
+    }
+
+    /**
+     * Ajoute le mouvement d'un événement STOCK_* publié, s'il n'est pas déjà dans le journal.
+     */
+    @Override
+    public void recevoir(EvenementOutbox evenement) throws Exception {
+        if (!actif) {
+            return;
+        }
+        verrou.lock();
+        try {
+            ajouter(evenement);
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Ajoute les événements publiés après la dernière entrée du journal : ceux que le relais a transmis mais dont
+     * l'entrée n'a pas atteint le disque avant un arrêt brutal, et ceux publiés pendant l'arrêt.
+     */
+    private void rattraper() throws IOException {
+        long apres = sequenceOutbox;
+        List<EvenementOutbox> lot = outboxService.lire(apres, tailleLot);
+        if (!lot.isEmpty() && lot.get(0).getSequence() > apres + 1) {
+            logger.warn("journal de stock : les evenements n°" + (apres + 1) + " a " + (lot.get(0).getSequence() - 1)
+                    + " ne sont plus dans l'outbox, leurs mouvements manquent au journal");
+        }
+        int ajoutes = 0;
+        while (!lot.isEmpty()) {
+            for (EvenementOutbox evenement : lot) {
+                if (ajouter(evenement)) {
+                    ajoutes++;
+                }
+                apres = evenement.getSequence();
+            }
+            lot = lot.size() < tailleLot ? Collections.emptyList() : outboxService.lire(apres, tailleLot);
+        }
+        if (ajoutes > 0) {
+            logger.info("journal de stock : " + ajoutes + " mouvement(s) rattrape(s) depuis l'outbox");
+        }
+    }
+
+    /**
+     * Écrit l'entrée d'un événement STOCK_*. Appelée sous le verrou, ou à l'initialisation.
+     *
+     * @return faux si l'événement n'est pas un mouvement de stock ou s'il est déjà dans le journal
+     */
+    private boolean ajouter(EvenementOutbox evenement) throws IOException {
+        byte type = type(evenement.getType());
+        if (type == 0 || evenement.getSequence() <= sequenceOutbox) {
+            return false;
+        }
+        JsonNode quantite = objectMapper.readTree(evenement.getPayload()).get("quantite");
+        if (quantite == null || quantite.isNull()) {
+            return false;
+        }
+        ecrire(evenement.getDateCreation().getTime(), type, evenement.getIdAgregat(), evenement.getSequence(), quantite.floatValue());
+        return true;
+    }
+
+    /**
+     * @return la quantité d'un couple d'après le journal, null si le journal ne le connait pas
+     */
+    public Float stock(long cle) {
+        verrou.lock();
+        try {
+            return etat.contient(cle) ? etat.get(cle, 0f) : null;
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Les mouvements d'un couple, du plus ancien au plus récent.
+     * Les segments qui se terminent avant depuis ne sont pas lus.
+     *
+     * @param depuis date minimale des mouvements, null pour tout le journal conservé
+     * @param limite nombre maximum de mouvements
+     */
+    public List<HistoriqueStockResponse.Entree> historique(long cle, Date depuis, int limite) {
+        long debut = depuis == null ? Long.MIN_VALUE : depuis.getTime();
+        List<HistoriqueStockResponse.Entree> entrees = new ArrayList<>();
+        for (Segment segment : segmentsLus()) {
+            int nombre = nombreLu(segment);
+            if (nombre == 0 || segment.horodatage(nombre - 1) < debut) {
+                continue;
+            }
+            for (int i = 0; i < nombre && entrees.size() < limite; i++) {
+                if (segment.cle(i) == cle && segment.horodatage(i) >= debut) {
+                    entrees.add(new HistoriqueStockResponse.Entree(segment.premiereSequence + i, new Date(segment.horodatage(i)),
+                            nomType(segment.type(i)), segment.quantite(i)));
+                }
+            }
+            if (entrees.size() >= limite) {
+                break;
+            }
+        }
+        return entrees;
+    }
+
+    /**
+     * Reconstruit le stock de tous les couples à une date : le dernier instantané antérieur, puis les entrées qui suivent.
+     *
+     * @param jusqua date de l'état voulu, null pour l'état actuel
+     * @return la quantité par CleStock
+     * @throws Exception si le journal conservé ne remonte pas jusqu'à cette date
+     */
+    public Map<Long, Float> reconstruire(Date jusqua) throws Exception {
+        long fin = jusqua == null ? Long.MAX_VALUE : jusqua.getTime();
+        Instantane depart = null;
+        long derniereSequence;
+        verrou.lock();
+        try {
+            for (Instantane instantane : instantanes) {
+                if (instantane.horodatage <= fin) {
+                    depart = instantane;
+                }
+            }
+            derniereSequence = sequence;
+        } finally {
+            verrou.unlock();
+        }
+        if (depart == null) {
+            throw new Exception("le journal de stock ne remonte pas jusqu'au " + jusqua);
+        }
+        LongFloatMap reconstruit = lireInstantane(depart);
+        rejouerSegments(reconstruit, depart.sequence, derniereSequence, fin);
+        Map<Long, Float> quantites = new HashMap<>(reconstruit.taille() * 2);
+        reconstruit.parcourir(quantites::put);
+        return quantites;
+    }
+
+    /**
+     * Enregistre l'état actuel dans un instantané, puis supprime les segments et instantanés devenus inutiles.
+     */
+    @Scheduled(fixedDelayString = "${com.lifat.circuitscourtsapi.stock.journal.instantaneMs: 3600000}",
+            initialDelayString = "${com.lifat.circuitscourtsapi.stock.journal.instantaneMs: 3600000}")
+    public void instantane() {
+        if (!actif) {
+            return;
+        }
+        LongFloatMap copie;
+        long sequenceCopie;
+        long sequenceOutboxCopie;
+        verrou.lock();
+        try {
+            copie = new LongFloatMap(etat.taille());
+            etat.parcourir(copie::put);
+            sequenceCopie = sequence;
+            sequenceOutboxCopie = sequenceOutbox;
+        } finally {
+            verrou.unlock();
+        }
+        try {
+            enregistrerInstantane(sequenceCopie, System.currentTimeMillis(), sequenceOutboxCopie, copie);
+            compacter();
+        } catch (IOException e) {
+            logger.error("instantane du journal de stock impossible", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${com.lifat.circuitscourtsapi.stock.journal.forceMs: 1000}")
+    public void forcer() {
+        if (!actif) {
+            return;
+        }
+        Segment dernier;
+        verrou.lock();
+        try {
+            dernier = segments.get(segments.size() - 1);
+        } finally {
+            verrou.unlock();
+        }
+        dernier.tampon.force();
+    }
+
+    @PreDestroy
+    private void fermer() {
+        if (!actif) {
+            return;
+        }
+        verrou.lock();
+        try {
+            for (Segment segment : segments) {
+                segment.tampon.force();
+                segment.canal.close();
+            }
+        } catch (IOException e) {
+            logger.error("fermeture du journal de stock", e);
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Écrit une entrée à la fin du dernier segment et l'applique à l'état. Appelée sous le verrou.
+     * Si le nouveau segment ne peut pas être créé, l'exception laisse l'événement au relais, qui le présentera de nouveau.
+     */
+    private void ecrire(long horodatage, byte type, long cle, long sequenceEvenement, float quantite) throws IOException {
+        Segment dernier = segments.get(segments.size() - 1);
+        if (dernier.nombre == dernier.capacite) {
+            dernier.tampon.force();
+            dernier = creerSegment(sequence + 1);
+            segments.add(dernier);
+        }
+        int position = dernier.nombre * TAILLE_ENTREE;
+        dernier.tampon.putLong(position, horodatage);
+        dernier.tampon.putLong(position + 8, cle);
+        dernier.tampon.putLong(position + 16, sequenceEvenement);
+        dernier.tampon.putFloat(position + 24, quantite);
+        dernier.tampon.put(position + 28, type);
+        int controle = dernier.controleCalcule(dernier.nombre);
+        dernier.tampon.put(position + TAILLE_CONTROLEE, (byte) (controle >>> 16));
+        dernier.tampon.put(position + TAILLE_CONTROLEE + 1, (byte) (controle >>> 8));
+        dernier.tampon.put(position + TAILLE_CONTROLEE + 2, (byte) controle);
+        dernier.nombre++;
+        sequence++;
+        sequenceOutbox = sequenceEvenement;
+        appliquer(etat, type, cle, quantite);
+    }
+
+    private static void appliquer(LongFloatMap etat, byte type, long cle, float quantite) {
+        switch (type) {
+            case RESERVE:
+                etat.ajouter(cle, -quantite);
+                break;
+            case LIBERE:
+                etat.ajouter(cle, quantite);
+                break;
+            case DEFINI:
+                etat.put(cle, quantite);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Applique à l'état les entrées de séquence comprise entre apres (exclue) et jusqua (incluse), datées au plus tard de fin.
+     */
+    private void rejouerSegments(LongFloatMap etat, long apres, long jusqua, long fin) {
+        for (Segment segment : segmentsLus()) {
+            int nombre = nombreLu(segment);
+            if (nombre == 0 || segment.premiereSequence + nombre - 1 <= apres || segment.premiereSequence > jusqua) {
+                continue;
+            }
+            int debut = (int) Math.max(0, apres + 1 - segment.premiereSequence);
+            int finSegment = (int) Math.min(nombre, jusqua - segment.premiereSequence + 1);
+            for (int i = debut; i < finSegment; i++) {
+                if (segment.horodatage(i) <= fin) {
+                    appliquer(etat, segment.type(i), segment.cle(i), segment.quantite(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Supprime les segments dont toutes les entrées sont dans le dernier instantané et plus vieilles que retentionJours,
+     * puis les instantanés antérieurs au plus vieux segment conservé : les entrées qui les suivent ne sont plus là pour
+     * les rejouer.
+     */
+    private void compacter() throws IOException {
+        long limite = System.currentTimeMillis() - retentionJours * 86400000L;
+        List<Path> aSupprimer = new ArrayList<>();
+        verrou.lock();
+        try {
+            long dernierInstantane = instantanes.get(instantanes.size() - 1).sequence;
+            while (segments.size() > 1) {
+                Segment premier = segments.get(0);
+                if (premier.derniereSequence() > dernierInstantane || premier.horodatage(premier.nombre - 1) >= limite) {
+                    break;
+                }
+                segments.remove(0);
+                premier.canal.close();
+                aSupprimer.add(premier.chemin);
+            }
+            long base = segments.get(0).premiereSequence - 1;
+            while (instantanes.size() > 1 && instantanes.get(0).sequence < base) {
+                aSupprimer.add(instantanes.remove(0).chemin);
+            }
+        } finally {
+            verrou.unlock();
+        }
+        for (Path chemin : aSupprimer) {
+            Files.deleteIfExists(chemin);
+        }
+        if (!aSupprimer.isEmpty()) {
+            logger.info("journal de stock compacte : " + aSupprimer.size() + " fichier(s) supprime(s)");
+        }
+    }
+
+    private void enregistrerInstantane(long sequenceEtat, long horodatage, long sequenceOutboxEtat, LongFloatMap etatACopier) throws IOException {
+        Path chemin = dossier.resolve(PREFIXE_INSTANTANE + String.format("%020d", sequenceEtat) + EXTENSION_INSTANTANE);
+        Path temporaire = dossier.resolve(chemin.getFileName() + ".tmp");
+        try (DataOutputStream sortie = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaire)))) {
+            sortie.writeLong(sequenceEtat);
+            sortie.writeLong(horodatage);
+            sortie.writeLong(sequenceOutboxEtat);
+            sortie.writeInt(etatACopier.taille());
+            IOException[] erreur = {null};
+            etatACopier.parcourir((cle, quantite) -> {
+                try {
+                    sortie.writeLong(cle);
+                    sortie.writeFloat(quantite);
+                } catch (IOException e) {
+                    erreur[0] = e;
+                }
+            });
+            if (erreur[0] != null) {
+                throw erreur[0];
+            }
+        }
+        Files.move(temporaire, chemin, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        verrou.lock();
+        try {
+            instantanes.removeIf(instantane -> instantane.sequence == sequenceEtat);
+            instantanes.add(new Instantane(sequenceEtat, horodatage, sequenceOutboxEtat, chemin));
+            instantanes.sort(Comparator.comparingLong(instantane -> instantane.sequence));
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    private static LongFloatMap lireInstantane(Instantane instantane) throws IOException {
+        try (DataInputStream entree = new DataInputStream(new BufferedInputStream(Files.newInputStream(instantane.chemin)))) {
+            entree.readLong();
+            entree.readLong();
+            entree.readLong();
+            int taille = entree.readInt();
+            LongFloatMap etat = new LongFloatMap(taille);
+            for (int i = 0; i < taille; i++) {
+                etat.put(entree.readLong(), entree.readFloat());
+            }
+            return etat;
+        }
+    }
+
+    private Segment creerSegment(long premiereSequence) throws IOException {
+        return ouvrir(dossier.resolve(PREFIXE_SEGMENT + String.format("%020d", premiereSequence) + EXTENSION_SEGMENT), premiereSequence);
+    }
+
+    /**
+     * Projette un segment en mémoire et compte ses entrées : elles sont lues jusqu'à la première dont le contrôle est faux.
+     * Ce qui suit est effacé : après un arrêt brutal, le système a pu écrire une page sans celle qui la précède,
+     * et ces entrées, relues dans l'outbox, seront écrites de nouveau à leur place.
+     */
+    private Segment ouvrir(Path chemin, long premiereSequence) throws IOException {
+        FileChannel canal = FileChannel.open(chemin, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long tailleFichier = Math.max(canal.size(), tailleSegment);
+        int capacite = (int) (tailleFichier / TAILLE_ENTREE);
+        MappedByteBuffer tampon = canal.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacite * TAILLE_ENTREE);
+        Segment segment = new Segment(premiereSequence, chemin, canal, tampon, capacite);
+        int nombre = 0;
+        while (nombre < capacite && segment.valide(nombre)) {
+            nombre++;
+        }
+        segment.nombre = nombre;
+        for (int position = nombre * TAILLE_ENTREE; position < capacite * TAILLE_ENTREE; position += 8) {
+            if (tampon.getLong(position) != 0) {
+                tampon.putLong(position, 0);
+            }
+        }
+        return segment;
+    }
+
+    private List<Segment> segmentsLus() {
+        verrou.lock();
+        try {
+            return new ArrayList<>(segments);
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    /**
+     * Le nombre d'entrées d'un segment, lu sous le verrou pour voir les entrées déjà écrites.
+     */
+    private int nombreLu(Segment segment) {
+        verrou.lock();
+        try {
+            return segment.nombre;
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    private List<Path> lister(String prefixe, String extension) throws IOException {
+        try (Stream<Path> fichiers = Files.list(dossier)) {
+            return fichiers.filter(chemin -> {
+                String nom = chemin.getFileName().toString();
+                return nom.startsWith(prefixe) && nom.endsWith(extension);
+            }).sorted().toList();
+        }
+    }
+
+    private static long numero(Path chemin, String prefixe, String extension) {
+        String nom = chemin.getFileName().toString();
+        return Long.parseLong(nom.substring(prefixe.length(), nom.length() - extension.length()));
+    }
+
+    private static byte type(String typeEvenement) {
+        switch (typeEvenement) {
+            case OutboxService.STOCK_RESERVE:
+                return RESERVE;
+            case OutboxService.STOCK_LIBERE:
+                return LIBERE;
+            case OutboxService.STOCK_DEFINI:
+                return DEFINI;
+            default:
+                return 0;
+        }
+    }
+
+    private static String nomType(byte type) {
+        switch (type) {
+            case RESERVE:
+                return "RESERVE";
+            case LIBERE:
+                return "LIBERE";
+            case DEFINI:
+                return "DEFINI";
+            default:
+                return "INCONNU";
+        }
+    }
+}
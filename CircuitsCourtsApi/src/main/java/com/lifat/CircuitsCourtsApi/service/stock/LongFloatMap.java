@@ -0,0 +1,138 @@
+package com.lifat.CircuitsCourtsApi.service.stock;
+
+import java.util.Arrays;
+
+/**
+ * Table de hachage long -> float à adressage ouvert (sondage linéaire), sans objet par entrée ni autoboxing.
+ * Les entrées ne sont jamais supprimées une par une, seulement toutes ensemble avec vider().
+ * N'est pas thread-safe : l'appelant doit tenir le verrou qui protège la table.
+ */
+final class LongFloatMap {
+
+    interface Visiteur {
+        void visiter(long cle, float valeur);
+    }
+
+    private static final float CHARGE_MAX = 0.6f;
+
+    private long[] cles;
+
+    private float[] valeurs;
+
+    private boolean[] occupes;
+
+    private int taille;
+
+    LongFloatMap(int capaciteInitiale) {
+        int capacite = Integer.highestOneBit(Math.max(16, (int) (capaciteInitiale / CHARGE_MAX)) - 1) << 1;
+        allouer(capacite);
+    }
+
+    private void allouer(int capacite) {
+        cles = new long[capacite];
+        valeurs = new float[capacite];
+        occupes = new boolean[capacite];
+    }
+
+    /**
+     * mélange les bits de la clé (finaliseur de MurmurHash3) pour que les clés CleStock, très régulières,
+     * se répartissent bien sur la table.
+     */
+    static long melanger(long cle) {
+        cle ^= cle >>> 33;
+        cle *= 0xff51afd7ed558ccdL;
+        cle ^= cle >>> 33;
+        cle *= 0xc4ceb9fe1a85ec53L;
+        cle ^= cle >>> 33;
+        return cle;
+    }
+
+    private int indice(long cle) {
+        int masque = cles.length - 1;
+        int i = (int) melanger(cle) & masque;
+        while (occupes[i] && cles[i] != cle) {
+            i = (i + 1) & masque;
+        }
+        return i;
+    }
+
+    boolean contient(long cle) {
+        return occupes[indice(cle)];
+    }
+
+    /**
+     * @return la valeur associée à la clé, defaut si la clé est absente
+     */
+    float get(long cle, float defaut) {
+        int i = indice(cle);
+        return occupes[i] ? valeurs[i] : defaut;
+    }
+
+    void put(long cle, float valeur) {
+        int i = indice(cle);
+        valeurs[i] = valeur;
+        if (!occupes[i]) {
+            occuper(i, cle);
+        }
+    }
+
+    /**
+     * ajoute delta à la valeur de la clé, une clé absente vaut 0.
+     * @return la nouvelle valeur
+     */
+    float ajouter(long cle, float delta) {
+        int i = indice(cle);
+        if (occupes[i]) {
+            valeurs[i] += delta;
+            return valeurs[i];
+        }
+        valeurs[i] = delta;
+        occuper(i, cle);
+        return delta;
+    }
+
+    private void occuper(int i, long cle) {
+        cles[i] = cle;
+        occupes[i] = true;
+        taille++;
+        if (taille > cles.length * CHARGE_MAX) {
+            agrandir();
+        }
+    }
+
+    private void agrandir() {
+        long[] anciennesCles = cles;
+        float[] anciennesValeurs = valeurs;
+        boolean[] anciensOccupes = occupes;
+        allouer(anciennesCles.length << 1);
+        for (int i = 0; i < anciennesCles.length; i++) {
+            if (anciensOccupes[i]) {
+                int j = indice(anciennesCles[i]);
+                cles[j] = anciennesCles[i];
+                valeurs[j] = anciennesValeurs[i];
+                occupes[j] = true;
+            }
+        }
+    }
+
+    void parcourir(Visiteur visiteur) {
+        for (int i = 0; i < cles.length; i++) {
+            if (occupes[i]) {
+                visiteur.visiter(cles[i], valeurs[i]);
+            }
+        }
+    }
+
+    int taille() {
+        return taille;
+    }
+
+    boolean estVide() {
+        return taille == 0;
+    }
+
+    void vider() {
+        Arrays.fill(occupes, false);
+        taille = 0;
+    }
+}
@@ -0,0 +1,296 @@
+package com.lifat.CircuitsCourtsApi.service.stock;
+
+import com.lifat.CircuitsCourtsApi.payload.response.ReconciliationStockResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.lifat.CircuitsCourtsApi.service.archive.ArchivageCommandesService.COMMANDE_DETAILS_ARCHIVE;
+import static com.lifat.CircuitsCourtsApi.service.archive.ArchivageCommandesService.COMMANDE_PRODUCTEUR_ARCHIVE;
+
+/**
+ * Réconciliation du stock de produits_producteurs.
+ *
+ * Le stock attendu d'un couple est son stock total (stock_reference) moins les quantités attribuées aux commandes,
+ * archivées comprises, et aux réservations de panier. Les producteurs sont répartis en tâches de producteursParTache
+ * dans un ForkJoinPool ; chaque tâche lit ses couples en quelques requêtes groupées, dans une transaction en lecture seule
+ * (lecture cohérente, sans verrou). Un couple sans référence reçoit comme référence son stock actuel plus ses attributions ;
+ * ensuite StockService la décale de l'écart de chaque quantité fixée à la main, seule la réconciliation relit l'historique.
+ *
+ * La réparation se fait par lots de tailleLot couples, une transaction par lot : les lignes de produits_producteurs du lot
+ * sont verrouillées, le stock attendu est recalculé sous ce verrou, puis seuls les couples encore divergents sont corrigés
+ * par StockService.definirTout, sans décaler leur référence. Une divergence due à une commande en cours pendant la lecture
+ * n'est donc pas corrigée.
+ * Avec le registre de stock actif, la bd est en retard sur le registre : le stock est lu dans le registre et la réparation
+ * est refusée.
+ */
+@Service
+public class ReconciliationStockService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReconciliationStockService.class);
+
+    //ecart en dessous duquel le stock est considere juste : le stock est un FLOAT en bd, arrondi a 24 bits de mantisse,
+    //l'ecart admis grandit donc avec la quantite
+    private static final double TOLERANCE = 0.001;
+
+    private static final double TOLERANCE_RELATIVE = 1e-5;
+
+    private static final String SQL_STOCKS = "SELECT id_producteur, id_produit, quantite FROM produits_producteurs" +
+            " WHERE id_producteur IN (:producteurs)";
+
+    private static final String SQL_REFERENCES = "SELECT id_producteur, id_produit, quantite_totale FROM stock_reference" +
+            " WHERE id_producteur IN (:producteurs)";
+
+    private static final String SQL_ATTRIBUTIONS = "SELECT cp.id_producteur, cd.id_produit, SUM(cp.quantite) FROM commande_producteur cp" +
+            " JOIN commande_details cd ON cd.id = cp.id_commande_details WHERE cp.id_producteur IN (:producteurs) GROUP BY cp.id_producteur, cd.id_produit" +
+            " UNION ALL SELECT cp.id_producteur, cd.id_produit, SUM(cp.quantite) FROM " + COMMANDE_PRODUCTEUR_ARCHIVE + " cp" +
+            " JOIN " + COMMANDE_DETAILS_ARCHIVE + " cd ON cd.id = cp.id_commande_details WHERE cp.id_producteur IN (:producteurs) GROUP BY cp.id_producteur, cd.id_produit" +
+            " UNION ALL SELECT id_producteur, id_produit, SUM(quantite) FROM reservations_panier" +
+            " WHERE id_producteur IN (:producteurs) GROUP BY id_producteur, id_produit";
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private StockLedger stockLedger;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${com.lifat.circuitscourtsapi.stock.reconciliation.parallelisme: 0}")
+    private int parallelisme;
+
+    @Value("${com.lifat.circuitscourtsapi.stock.reconciliation.producteursParTache: 50}")
+    private int producteursParTache;
+
+    @Value("${com.lifat.circuitscourtsapi.stock.reconciliation.tailleLot: 500}")
+    private int tailleLot;
+
+    //nombre maximum de divergences detaillees dans le rapport, toutes sont comptees
+    @Value("${com.lifat.circuitscourtsapi.stock.reconciliation.divergencesRapport: 1000}")
+    private int divergencesRapport;
+
+    @Value("${com.lifat.circuitscourtsapi.stock.reconciliation.reparerAuto: false}")
+    private boolean reparerAuto;
+
+    private TransactionTemplate lecture;
+
+    private final AtomicBoolean enCours = new AtomicBoolean();
+
+    /**
+     * Le résultat d'une tâche : les couples vérifiés, les références créées et les divergences trouvées.
+     */
+    private static final class Resultat {
+        long verifies;
+        long initialises;
+        final List<ReconciliationStockResponse.Divergence> divergences = new ArrayList<>();
+
+        Resultat fusionner(Resultat autre) {
+            verifies += autre.verifies;
+            initialises += autre.initialises;
+            divergences.addAll(autre.divergences);
+            return this;
+        }
+    }
+
+    /**
+     * Vérifie une tranche de producteurs, découpée en deux tant qu'elle dépasse producteursParTache.
+     */
+    private final class Tache extends RecursiveTask<Resultat> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Long> producteurs;
+
+        Tache(List<Long> producteurs) {
+            this.producteurs = producteurs;
+        }
+
+        @Override
+        protected Resultat compute() {
+            if (producteurs.size() <= producteursParTache) {
+                return verifier(producteurs);
+            }
+            int milieu = producteurs.size() / 2;
+            Tache gauche = new Tache(producteurs.subList(0, milieu));
+            gauche.fork();
+            Resultat droite = new Tache(producteurs.subList(milieu, producteurs.size())).compute();
+            return gauche.join().fusionner(droite);
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        lecture = new TransactionTemplate(transactionManager);
+        lecture.setReadOnly(true);
+        lecture.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    @Scheduled(cron = "${com.lifat.circuitscourtsapi.stock.reconciliation.cron: 0 0 4 * * *}")
+    public void reconcilierPlanifie() {
+        try {
+            reconcilier(reparerAuto && !stockLedger.isActif());
+        } catch (Exception e) {
+            logger.error("reconciliation du stock impossible", e);
+        }
+    }
+
+    /**
+     * @param reparer true pour corriger les couples divergents
+     * @return le rapport de la réconciliation
+     * @throws Exception si une réconciliation est déjà en cours, ou si la réparation est demandée avec le registre actif
+     */
+    public ReconciliationStockResponse reconcilier(boolean reparer) throws Exception {
+        if (reparer && stockLedger.isActif()) {
+            throw new Exception("la reparation du stock n'est pas possible avec le registre de stock actif");
+        }
+        if (!enCours.compareAndSet(false, true)) {
+            throw new Exception("une reconciliation du stock est deja en cours");
+        }
+        try {
+            long debut = System.currentTimeMillis();
+            List<Long> producteurs = namedParameterJdbcTemplate.getJdbcTemplate()
+                    .queryForList("SELECT DISTINCT id_producteur FROM produits_producteurs ORDER BY id_producteur", Long.class);
+            ForkJoinPool pool = new ForkJoinPool(parallelisme > 0 ? parallelisme : Runtime.getRuntime().availableProcessors());
+            Resultat resultat;
+            try {
+                resultat = pool.invoke(new Tache(producteurs));
+            } finally {
+                pool.shutdown();
+            }
+            long repares = reparer ? reparer(resultat.divergences) : 0;
+
+            List<ReconciliationStockResponse.Divergence> divergences = resultat.divergences;
+            ReconciliationStockResponse rapport = new ReconciliationStockResponse(resultat.verifies, resultat.initialises,
+                    divergences.size(), repares, System.currentTimeMillis() - debut,
+                    new ArrayList<>(divergences.subList(0, Math.min(divergences.size(), divergencesRapport))));
+            logger.info("reconciliation du stock : " + rapport.getCouplesVerifies() + " couple(s) verifie(s), " + rapport.getNombreDivergences()
+                    + " divergence(s), " + repares + " reparation(s), " + rapport.getCouplesInitialises() + " reference(s) creee(s) en "
+                    + rapport.getDureeMs() + " ms");
+            return rapport;
+        } finally {
+            enCours.set(false);
+        }
+    }
+
+    private Resultat verifier(List<Long> producteurs) {
+        MapSqlParameterSource parametres = new MapSqlParameterSource("producteurs", producteurs);
+        Map<Long, Float> stocks = new HashMap<>();
+        Map<Long, Double> references = new HashMap<>();
+        Map<Long, Double> attributions = new HashMap<>();
+        lecture.executeWithoutResult(status -> {
+            namedParameterJdbcTemplate.query(SQL_STOCKS, parametres,
+                    rs -> { stocks.put(CleStock.de(rs.getLong(1), rs.getLong(2)), rs.getFloat(3)); });
+            namedParameterJdbcTemplate.query(SQL_REFERENCES, parametres,
+                    rs -> { references.put(CleStock.de(rs.getLong(1), rs.getLong(2)), rs.getDouble(3)); });
+            namedParameterJdbcTemplate.query(SQL_ATTRIBUTIONS, parametres,
+                    rs -> { attributions.merge(CleStock.de(rs.getLong(1), rs.getLong(2)), rs.getDouble(3), Double::sum); });
+        });
+        if (stockLedger.isActif()) {
+            stocks.putAll(stockService.lireStocks(stocks.keySet()));
+        }
+
+        Resultat resultat = new Resultat();
+        List<Object[]> nouvellesReferences = new ArrayList<>();
+        Date maintenant = new Date();
+        stocks.forEach((cle, stock) -> {
+            resultat.verifies++;
+            double attribue = attributions.getOrDefault(cle, 0d);
+            Double reference = references.get(cle);
+            if (reference == null) {
+                nouvellesReferences.add(new Object[]{CleStock.producteur(cle), CleStock.produit(cle), (stock == null ? 0d : stock) + attribue, maintenant});
+                return;
+            }
+            double attendu = reference - attribue;
+            if (diverge(stock, attendu)) {
+                resultat.divergences.add(new ReconciliationStockResponse.Divergence(CleStock.producteur(cle), CleStock.produit(cle), stock, attendu));
+            }
+        });
+        if (!nouvellesReferences.isEmpty()) {
+            //INSERT IGNORE : une quantite fixee entre temps a deja cree la reference
+            int[] inseres = namedParameterJdbcTemplate.getJdbcTemplate().batchUpdate("INSERT IGNORE INTO stock_reference" +
+                    " (id_producteur, id_produit, quantite_totale, date_reference) VALUES (?, ?, ?, ?)", nouvellesReferences);
+            resultat.initialises = nouvellesReferences.size();
+            logger.debug(inseres.length + " reference(s) de stock creee(s)");
+        }
+        resultat.divergences.sort(Comparator.comparing(ReconciliationStockResponse.Divergence::getIdProducteur)
+                .thenComparing(ReconciliationStockResponse.Divergence::getIdProduit));
+        return resultat;
+    }
+
+    /**
+     * Corrige les divergences par lots, après les avoir revérifiées sous le verrou des lignes de produits_producteurs.
+     *
+     * @return le nombre de couples corrigés
+     */
+    private long reparer(List<ReconciliationStockResponse.Divergence> divergences) {
+        long repares = 0;
+        for (int debut = 0; debut < divergences.size(); debut += tailleLot) {
+            List<Object[]> couples = new ArrayList<>();
+            for (ReconciliationStockResponse.Divergence divergence : divergences.subList(debut, Math.min(debut + tailleLot, divergences.size()))) {
+                couples.add(new Object[]{divergence.getIdProducteur(), divergence.getIdProduit()});
+            }
+            repares += stockService.executerAvecReessai(status -> reparerLot(couples));
+        }
+        return repares;
+    }
+
+    private int reparerLot(List<Object[]> couples) {
+        MapSqlParameterSource parametres = new MapSqlParameterSource("couples", couples);
+        Map<Long, Float> stocks = new HashMap<>();
+        namedParameterJdbcTemplate.query("SELECT id_producteur, id_produit, quantite FROM produits_producteurs" +
+                        " WHERE (id_producteur, id_produit) IN (:couples) ORDER BY id_producteur, id_produit FOR UPDATE", parametres,
+                rs -> { stocks.put(CleStock.de(rs.getLong(1), rs.getLong(2)), rs.getFloat(3)); });
+        Map<Long, Double> references = new HashMap<>();
+        namedParameterJdbcTemplate.query("SELECT id_producteur, id_produit, quantite_totale FROM stock_reference" +
+                        " WHERE (id_producteur, id_produit) IN (:couples)", parametres,
+                rs -> { references.put(CleStock.de(rs.getLong(1), rs.getLong(2)), rs.getDouble(3)); });
+        Map<Long, Double> attributions = new HashMap<>();
+        namedParameterJdbcTemplate.query("SELECT cp.id_producteur, cd.id_produit, SUM(cp.quantite) FROM commande_producteur cp" +
+                        " JOIN commande_details cd ON cd.id = cp.id_commande_details WHERE (cp.id_producteur, cd.id_produit) IN (:couples)" +
+                        " GROUP BY cp.id_producteur, cd.id_produit" +
+                        " UNION ALL SELECT cp.id_producteur, cd.id_produit, SUM(cp.quantite) FROM " + COMMANDE_PRODUCTEUR_ARCHIVE + " cp" +
+                        " JOIN " + COMMANDE_DETAILS_ARCHIVE + " cd ON cd.id = cp.id_commande_details WHERE (cp.id_producteur, cd.id_produit) IN (:couples)" +
+                        " GROUP BY cp.id_producteur, cd.id_produit" +
+                        " UNION ALL SELECT id_producteur, id_produit, SUM(quantite) FROM reservations_panier" +
+                        " WHERE (id_producteur, id_produit) IN (:couples) GROUP BY id_producteur, id_produit", parametres,
+                rs -> { attributions.merge(CleStock.de(rs.getLong(1), rs.getLong(2)), rs.getDouble(3), Double::sum); });
+
+        TreeMap<Long, Float> corrections = new TreeMap<>();
+        stocks.forEach((cle, stock) -> {
+            Double reference = references.get(cle);
+            if (reference == null) {
+                return;
+            }
+            double attendu = reference - attributions.getOrDefault(cle, 0d);
+            if (diverge(stock, attendu)) {
+                corrections.put(cle, (float) attendu);
+            }
+        });
+        stockService.definirTout(corrections, false);
+        return corrections.size();
+    }
+
+    /**
+     * @return vrai si le stock lu s'écarte du stock attendu de plus que l'arrondi d'un FLOAT de cette grandeur
+     */
+    static boolean diverge(Float stock, double attendu) {
+        return stock == null || Math.abs(stock - attendu) > Math.max(TOLERANCE, TOLERANCE_RELATIVE * Math.abs(attendu));
+    }
+}
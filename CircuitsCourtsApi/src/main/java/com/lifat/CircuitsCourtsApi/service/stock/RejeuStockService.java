@@ -0,0 +1,82 @@
+package com.lifat.CircuitsCourtsApi.service.stock;
+
+import com.lifat.CircuitsCourtsApi.payload.response.RejeuStockResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Reconstruction de produits_producteurs à partir du JournalStock.
+ *
+ * Le stock de chaque couple est recalculé à une date depuis le journal, puis comparé au stock actuel ;
+ * seuls les couples différents sont réécrits, par lots de tailleLot et une transaction par lot (StockService.definirTout),
+ * ce qui ajoute à son tour des entrées DEFINI au journal. Les couples que le journal ne connait pas ne sont pas modifiés.
+ */
+@Service
+public class RejeuStockService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RejeuStockService.class);
+
+    @Autowired
+    private JournalStock journalStock;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private StockLedger stockLedger;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${com.lifat.circuitscourtsapi.stock.journal.rejeu.tailleLot: 500}")
+    private int tailleLot;
+
+    /**
+     * @param jusqua date de l'état à reconstruire, null pour l'état actuel du journal
+     * @param appliquer false pour seulement compter les différences
+     * @return le nombre de couples reconstruits, différents du stock actuel, absents du journal et réécrits
+     * @throws Exception si le journal n'est pas actif ou ne remonte pas jusqu'à la date demandée
+     */
+    public RejeuStockResponse rejouer(Date jusqua, boolean appliquer) throws Exception {
+        if (!journalStock.isActif()) {
+            throw new Exception("le journal de stock n'est pas actif");
+        }
+        Map<Long, Float> reconstruit = journalStock.reconstruire(jusqua);
+
+        Map<Long, Float> actuel = new HashMap<>();
+        jdbcTemplate.query("SELECT id_producteur, id_produit, quantite FROM produits_producteurs",
+                rs -> { actuel.put(CleStock.de(rs.getLong(1), rs.getLong(2)), rs.getFloat(3)); });
+        if (stockLedger.isActif()) {
+            //le registre est en avance sur la bd
+            actuel.putAll(stockService.lireStocks(actuel.keySet()));
+        }
+
+        TreeMap<Long, Float> differences = new TreeMap<>();
+        reconstruit.forEach((cle, quantite) -> {
+            Float stock = actuel.get(cle);
+            if (ReconciliationStockService.diverge(stock, quantite)) {
+                differences.put(cle, quantite);
+            }
+        });
+        long absents = actuel.keySet().stream().filter(cle -> !reconstruit.containsKey(cle)).count();
+
+        long ecrits = 0;
+        if (appliquer) {
+            List<Long> cles = new ArrayList<>(differences.keySet());
+            for (int debut = 0; debut < cles.size(); debut += tailleLot) {
+                TreeMap<Long, Float> lot = new TreeMap<>(differences.subMap(cles.get(debut), true,
+                        cles.get(Math.min(debut + tailleLot, cles.size()) - 1), true));
+                stockService.executerAvecReessai(status -> stockService.definirTout(lot));
+                ecrits += lot.size();
+            }
+            logger.info("stock reconstruit depuis le journal" + (jusqua == null ? "" : " au " + jusqua) + " : " + ecrits + " couple(s) reecrit(s)");
+        }
+        return new RejeuStockResponse(jusqua, reconstruit.size(), differences.size(), absents, ecrits);
+    }
+}
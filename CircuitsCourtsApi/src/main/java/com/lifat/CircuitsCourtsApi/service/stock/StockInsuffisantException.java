@@ -0,0 +1,28 @@
+package com.lifat.CircuitsCourtsApi.service.stock;
+
+/**
+ * Levée quand la réservation d'une ligne échoue parce que le stock du producteur ne suffit plus.
+ * C'est une RuntimeException pour que la transaction en cours annule toutes les lignes déjà réservées.
+ */
+public class StockInsuffisantException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Long idProducteur;
+
+    private final Long idProduit;
+
+    public StockInsuffisantException(Long idProducteur, Long idProduit) {
+        super("le producteur n°" + idProducteur + " n'a pas le produit n°" + idProduit + " en quantite suffiante");
+        this.idProducteur = idProducteur;
+        this.idProduit = idProduit;
+    }
+
+    public Long getIdProducteur() {
+        return idProducteur;
+    }
+
+    public Long getIdProduit() {
+        return idProduit;
+    }
+}
@@ -0,0 +1,283 @@
+package com.lifat.CircuitsCourtsApi.service.stock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registre en mémoire du stock de produits_producteurs.
+ *
+ * Les quantités sont réparties sur des segments, chacun protégé par son propre verrou, selon le hachage de leur CleStock :
+ * deux commandes sur des produits différents ne se bloquent presque jamais.
+ * Les réservations et libérations modifient la quantité en mémoire et ajoutent un delta en attente dans le segment ;
+ * les deltas sont écrits dans produits_producteurs par lots, en différé (write-behind), par flush().
+ * Pour chaque couple on a toujours : quantité en mémoire = quantité en bd + delta en attente.
+ *
+ * Le registre ne doit être activé que si une seule instance de l'api écrit dans produits_producteurs.
+ * Au démarrage la table est rechargée en entier.
+ */
+@Service
+public class StockLedger {
+
+    private static final Logger logger = LoggerFactory.getLogger(StockLedger.class);
+
+    private static final String SQL_DELTA = "UPDATE produits_producteurs SET quantite = quantite + ? WHERE id_producteur = ? AND id_produit = ?";
+
+    @Value("${com.lifat.circuitscourtsapi.stock.ledger.actif: false}")
+    private boolean actif;
+
+    @Value("${com.lifat.circuitscourtsapi.stock.ledger.segments: 64}")
+    private int nombreSegments;
+
+    @Value("${com.lifat.circuitscourtsapi.stock.ledger.tailleLot: 500}")
+    private int tailleLot;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    private Segment[] segments;
+
+    /**
+     * Une partie du registre : les quantités connues et les deltas pas encore écrits en bd, sous le même verrou.
+     */
+    private static final class Segment {
+        final ReentrantLock verrou = new ReentrantLock();
+        final LongFloatMap quantites = new LongFloatMap(256);
+        LongFloatMap deltas = new LongFloatMap(64);
+    }
+
+    @PostConstruct
+    private void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        if (actif) {
+            recharger();
+        }
+    }
+
+    public boolean isActif() {
+        return actif;
+    }
+
+    /**
+     * Recharge toute la table produits_producteurs dans le registre, les deltas en attente sont perdus.
+     * Appelé au démarrage, avant que l'api ne reçoive des requêtes.
+     */
+    public void recharger() {
+        int taille = Integer.highestOneBit(Math.max(1, nombreSegments - 1)) << 1;
+        Segment[] nouveauxSegments = new Segment[taille];
+        for (int i = 0; i < taille; i++) {
+            nouveauxSegments[i] = new Segment();
+        }
+        int[] lignes = {0};
+        jdbcTemplate.query("SELECT id_producteur, id_produit, quantite FROM produits_producteurs", rs -> {
+            long cle = CleStock.de(rs.getLong(1), rs.getLong(2));
+            nouveauxSegments[indiceSegment(cle, taille)].quantites.put(cle, rs.getFloat(3));
+            lignes[0]++;
+        });
+        segments = nouveauxSegments;
+        logger.info("registre de stock recharge : " + lignes[0] + " couples producteur/produit");
+    }
+
+    private static int indiceSegment(long cle, int taille) {
+        return (int) (LongFloatMap.melanger(cle) >>> 32) & (taille - 1);
+    }
+
+    private Segment segment(long cle) {
+        return segments[indiceSegment(cle, segments.length)];
+    }
+
+    /**
+     * @return la quantité en stock, null si le producteur ne possède pas le produit
+     */
+    public Float stock(long cle) {
+        chargerSiAbsent(cle);
+        Segment segment = segment(cle);
+        segment.verrou.lock();
+        try {
+            return segment.quantites.contient(cle) ? segment.quantites.get(cle, 0f) : null;
+        } finally {
+            segment.verrou.unlock();
+        }
+    }
+
+    /**
+     * Réserve toutes les quantités ou aucune.
+     * Les verrous des segments concernés sont pris dans l'ordre croissant de leur indice, pour éviter tout interblocage.
+     *
+     * @param quantites quantité à réserver par CleStock
+     * @throws StockInsuffisantException si un seul couple n'a pas assez de stock, rien n'est alors réservé
+     */
+    public void reserver(SortedMap<Long, Float> quantites) {
+        for (Long cle : quantites.keySet()) {
+            chargerSiAbsent(cle);
+        }
+        TreeSet<Integer> indices = new TreeSet<>();
+        for (Long cle : quantites.keySet()) {
+            indices.add(indiceSegment(cle, segments.length));
+        }
+        List<Segment> verrouilles = new ArrayList<>(indices.size());
+        try {
+            for (Integer indice : indices) {
+                Segment segment = segments[indice];
+                segment.verrou.lock();
+                verrouilles.add(segment);
+            }
+            for (Map.Entry<Long, Float> ligne : quantites.entrySet()) {
+                Segment segment = segment(ligne.getKey());
+                if (segment.quantites.get(ligne.getKey(), Float.NEGATIVE_INFINITY) < ligne.getValue()) {
+                    throw new StockInsuffisantException(CleStock.producteur(ligne.getKey()), CleStock.produit(ligne.getKey()));
+                }
+            }
+            for (Map.Entry<Long, Float> ligne : quantites.entrySet()) {
+                Segment segment = segment(ligne.getKey());
+                segment.quantites.ajouter(ligne.getKey(), -ligne.getValue());
+                segment.deltas.ajouter(ligne.getKey(), -ligne.getValue());
+            }
+        } finally {
+            for (Segment segment : verrouilles) {
+                segment.verrou.unlock();
+            }
+        }
+    }
+
+    /**
+     * Rend une quantité au producteur. Sans effet si le couple n'existe pas dans produits_producteurs.
+     */
+    public void liberer(long cle, float quantite) {
+        chargerSiAbsent(cle);
+        Segment segment = segment(cle);
+        segment.verrou.lock();
+        try {
+            if (segment.quantites.contient(cle)) {
+                segment.quantites.ajouter(cle, quantite);
+                segment.deltas.ajouter(cle, quantite);
+            }
+        } finally {
+            segment.verrou.unlock();
+        }
+    }
+
+    /**
+     * Fixe la quantité d'un couple déjà présent dans produits_producteurs.
+     * L'écart avec la quantité actuelle est ajouté au delta en attente, l'écriture en bd reste différée.
+     */
+    public void definir(long cle, float quantite) {
+        chargerSiAbsent(cle);
+        Segment segment = segment(cle);
+        segment.verrou.lock();
+        try {
+            if (segment.quantites.contient(cle)) {
+                float ecart = quantite - segment.quantites.get(cle, 0f);
+                segment.quantites.put(cle, quantite);
+                segment.deltas.ajouter(cle, ecart);
+            }
+        } finally {
+            segment.verrou.unlock();
+        }
+    }
+
+    /**
+     * Un couple ajouté dans produits_producteurs après le démarrage n'est pas encore dans le registre :
+     * on va le lire en bd, hors verrou, avant de l'utiliser.
+     */
+    private void chargerSiAbsent(long cle) {
+        Segment segment = segment(cle);
+        segment.verrou.lock();
+        try {
+            if (segment.quantites.contient(cle)) {
+                return;
+            }
+        } finally {
+            segment.verrou.unlock();
+        }
+        List<Float> lue = jdbcTemplate.query("SELECT quantite FROM produits_producteurs WHERE id_producteur = ? AND id_produit = ?",
+                (rs, i) -> rs.getFloat(1), CleStock.producteur(cle), CleStock.produit(cle));
+        if (lue.isEmpty()) {
+            return;
+        }
+        segment.verrou.lock();
+        try {
+            if (!segment.quantites.contient(cle)) {
+                segment.quantites.put(cle, lue.get(0));
+            }
+        } finally {
+            segment.verrou.unlock();
+        }
+    }
+
+    /**
+     * Écrit en bd les deltas en attente, par lots de tailleLot UPDATE dans une transaction par lot.
+     * Un lot qui échoue remet ses deltas en attente, ils seront écrits au prochain passage.
+     */
+    @Scheduled(fixedDelayString = "${com.lifat.circuitscourtsapi.stock.ledger.flushMs: 200}")
+    public void flush() {
+        if (!actif || segments == null) {
+            return;
+        }
+        List<Object[]> aEcrire = new ArrayList<>();
+        for (Segment segment : segments) {
+            LongFloatMap deltas;
+            segment.verrou.lock();
+            try {
+                if (segment.deltas.estVide()) {
+                    continue;
+                }
+                deltas = segment.deltas;
+                segment.deltas = new LongFloatMap(64);
+            } finally {
+                segment.verrou.unlock();
+            }
+            deltas.parcourir((cle, delta) -> {
+                if (delta != 0f) {
+                    aEcrire.add(new Object[]{delta, CleStock.producteur(cle), CleStock.produit(cle)});
+                }
+            });
+        }
+        for (int debut = 0; debut < aEcrire.size(); debut += tailleLot) {
+            ecrire(aEcrire.subList(debut, Math.min(debut + tailleLot, aEcrire.size())));
+        }
+    }
+
+    private void ecrire(List<Object[]> lot) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(SQL_DELTA, lot));
+        } catch (RuntimeException e) {
+            logger.error("ecriture differee du stock impossible, " + lot.size() + " deltas remis en attente", e);
+            for (Object[] ligne : lot) {
+                long cle = CleStock.de((Long) ligne[1], (Long) ligne[2]);
+                Segment segment = segment(cle);
+                segment.verrou.lock();
+                try {
+                    segment.deltas.ajouter(cle, (Float) ligne[0]);
+                } finally {
+                    segment.verrou.unlock();
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    private void arreter() {
+        flush();
+    }
+}
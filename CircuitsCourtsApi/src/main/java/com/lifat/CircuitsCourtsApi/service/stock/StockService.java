@@ -0,0 +1,469 @@
+package com.lifat.CircuitsCourtsApi.service.stock;
+
+import com.lifat.CircuitsCourtsApi.model.CommandeDetail;
+import com.lifat.CircuitsCourtsApi.model.CommandeInfo;
+import com.lifat.CircuitsCourtsApi.model.CommandeProducteur;
+import com.lifat.CircuitsCourtsApi.repository.CommandeProducteurRepository;
+import com.lifat.CircuitsCourtsApi.repository.ProducteurRepository;
+import com.lifat.CircuitsCourtsApi.repository.ProduitProducteurRepository;
+import com.lifat.CircuitsCourtsApi.service.disponibilite.DisponibiliteService;
+import com.lifat.CircuitsCourtsApi.service.evenement.OutboxService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Point d'entrée unique des mouvements de stock de produits_producteurs.
+ *
+ * Une réservation décrémente le stock avec un UPDATE conditionnel (quantite >= qte) par couple (producteur, produit) :
+ * le nombre de lignes modifiées suffit à savoir si le stock était suffisant, sans lecture préalable.
+ * Toutes les lignes d'une commande sont réservées dans la même transaction, si une seule échoue tout est annulé.
+ *
+ * Quand le StockLedger est actif, les mouvements sont faits dans le registre en mémoire et écrits en bd en différé ;
+ * une réservation faite dans une transaction annulée est alors rendue au registre.
+ *
+ * Chaque mouvement écrit un événement STOCK_* dans l'outbox, dans la même transaction, et après le commit
+ * il est reporté dans le cache des disponibilités ; le JournalStock le reçoit de l'outbox.
+ */
+@Service
+public class StockService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StockService.class);
+
+    @Autowired
+    private ProducteurRepository producteurRepository;
+
+    @Autowired
+    private CommandeProducteurRepository commandeProducteurRepository;
+
+    @Autowired
+    private ProduitProducteurRepository produitProducteurRepository;
+
+    @Autowired
+    private StockLedger stockLedger;
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private DisponibiliteService disponibiliteService;
+
+    @Value("${com.lifat.circuitscourtsapi.stock.reessais: 5}")
+    private int nombreReessais;
+
+    @Value("${com.lifat.circuitscourtsapi.stock.attenteReessaiMs: 20}")
+    private long attenteReessaiMs;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    private void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Exécute l'action dans une nouvelle transaction, rejouée si la base l'a annulée à cause d'un interblocage
+     * ou d'un délai d'attente de verrou dépassé. L'attente entre deux essais double à chaque fois, avec une part aléatoire
+     * pour que les requêtes en conflit ne se rejouent pas en même temps.
+     *
+     * @param action le travail à faire dans la transaction
+     * @return le résultat de l'action
+     */
+    public <T> T executerAvecReessai(TransactionCallback<T> action) {
+        int essai = 1;
+        while (true) {
+            try {
+                return transactionTemplate.execute(action);
+            } catch (ConcurrencyFailureException e) {
+                if (essai >= nombreReessais) {
+                    throw e;
+                }
+                long attente = attenteReessaiMs * (1L << (essai - 1));
+                attente += ThreadLocalRandom.current().nextLong(attente + 1);
+                logger.info("conflit de verrou sur le stock, essai " + essai + "/" + nombreReessais + ", nouvel essai dans " + attente + " ms");
+                try {
+                    Thread.sleep(attente);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                essai++;
+            }
+        }
+    }
+
+    /**
+     * Réserve le stock de toutes les commandesProducteur de la commandeInfo.
+     * Les quantités d'un même couple (producteur, produit) sont additionnées et les UPDATE sont faits dans l'ordre des clés
+     * pour que deux commandes concurrentes verrouillent les lignes dans le même ordre.
+     *
+     * @param commandeInfo une commandeInfo deja verifiee
+     * @throws StockInsuffisantException si le stock d'un couple ne suffit pas, la transaction est alors annulée
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void reserver(CommandeInfo commandeInfo) {
+        TreeMap<Long, Float> quantites = quantitesParCouple(commandeInfo);
+        if (stockLedger.isActif()) {
+            reserverDansLeRegistre(quantites);
+        } else {
+            for (Map.Entry<Long, Float> ligne : quantites.entrySet()) {
+                reserverCouple(CleStock.producteur(ligne.getKey()), CleStock.produit(ligne.getKey()), ligne.getValue());
+            }
+        }
+        signalerReserve(quantites);
+    }
+
+    /**
+     * Réserve une quantité d'un produit chez un producteur.
+     * @throws StockInsuffisantException si le stock ne suffit pas ou si le producteur ne possède pas le produit
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void reserver(Long idProducteur, Long idProduit, Float quantite) {
+        reserverCouple(idProducteur, idProduit, quantite);
+        signalerReserve(new TreeMap<>(Map.of(CleStock.de(idProducteur, idProduit), quantite)));
+    }
+
+    private void reserverCouple(Long idProducteur, Long idProduit, Float quantite) {
+        if (stockLedger.isActif()) {
+            TreeMap<Long, Float> quantites = new TreeMap<>();
+            quantites.put(CleStock.de(idProducteur, idProduit), quantite);
+            reserverDansLeRegistre(quantites);
+            return;
+        }
+        if (producteurRepository.reserverQteProduit(idProducteur, idProduit, quantite) == 0) {
+            throw new StockInsuffisantException(idProducteur, idProduit);
+        }
+    }
+
+    /**
+     * Applique la différence entre deux versions d'une commande : les écarts positifs sont réservés comme une nouvelle commande,
+     * tout ou rien et dans l'ordre des clés, les écarts négatifs sont rendus aux producteurs.
+     *
+     * @param ecarts quantité supplémentaire demandée par CleStock, négative si la commande en demande moins
+     * @throws StockInsuffisantException si le stock d'un couple ne suffit pas, la transaction est alors annulée
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void appliquerEcarts(SortedMap<Long, Float> ecarts) {
+        TreeMap<Long, Float> aReserver = new TreeMap<>();
+        for (Map.Entry<Long, Float> ecart : ecarts.entrySet()) {
+            if (ecart.getValue() > 0) {
+                aReserver.put(ecart.getKey(), ecart.getValue());
+            }
+        }
+        if (stockLedger.isActif()) {
+            if (!aReserver.isEmpty()) {
+                reserverDansLeRegistre(aReserver);
+            }
+        } else {
+            for (Map.Entry<Long, Float> ligne : aReserver.entrySet()) {
+                reserverCouple(CleStock.producteur(ligne.getKey()), CleStock.produit(ligne.getKey()), ligne.getValue());
+            }
+        }
+        signalerReserve(aReserver);
+        TreeMap<Long, Float> aLiberer = new TreeMap<>();
+        for (Map.Entry<Long, Float> ecart : ecarts.entrySet()) {
+            if (ecart.getValue() < 0) {
+                aLiberer.put(ecart.getKey(), -ecart.getValue());
+            }
+        }
+        libererTout(aLiberer);
+    }
+
+    /**
+     * @return la quantité à réserver en plus par CleStock pour passer de la version originale à la mise à jour d'une commande,
+     * négative si la mise à jour en demande moins, les couples inchangés sont absents
+     */
+    public static TreeMap<Long, Float> ecartsParCouple(CommandeInfo original, CommandeInfo miseAJour) {
+        TreeMap<Long, Float> ecarts = quantitesParCouple(miseAJour);
+        quantitesParCouple(original).forEach((cle, quantite) -> ecarts.merge(cle, -quantite, Float::sum));
+        ecarts.values().removeIf(ecart -> ecart == 0f);
+        return ecarts;
+    }
+
+    /**
+     * Rend au producteur une quantité précédemment réservée.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void liberer(Long idProducteur, Long idProduit, Float quantite) {
+        if (stockLedger.isActif()) {
+            Transactions.apresCommit(() -> stockLedger.liberer(CleStock.de(idProducteur, idProduit), quantite));
+        } else {
+            commandeProducteurRepository.reatributStockToProducteur(idProducteur, idProduit, quantite);
+        }
+        signalerLibere(new TreeMap<>(Map.of(CleStock.de(idProducteur, idProduit), quantite)));
+    }
+
+    /**
+     * Rend aux producteurs des quantités précédemment réservées, en un seul lot d'UPDATE, dans l'ordre des clés.
+     *
+     * @param quantites quantité à rendre par CleStock
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void libererTout(SortedMap<Long, Float> quantites) {
+        if (quantites.isEmpty()) {
+            return;
+        }
+        if (stockLedger.isActif()) {
+            Transactions.apresCommit(() -> quantites.forEach(stockLedger::liberer));
+        } else {
+            List<Object[]> lignes = new ArrayList<>(quantites.size());
+            quantites.forEach((cle, quantite) -> lignes.add(new Object[]{quantite, CleStock.producteur(cle), CleStock.produit(cle)}));
+            jdbcTemplate.batchUpdate("UPDATE produits_producteurs SET quantite = quantite + ? WHERE id_producteur = ? AND id_produit = ?", lignes);
+        }
+        signalerLibere(quantites);
+    }
+
+    /**
+     * Fixe le stock d'un produit chez un producteur, la ligne de produits_producteurs doit deja exister.
+     * @return true si le stock a ete modifie, false si le producteur ne possede pas le produit
+     */
+    @Transactional
+    public boolean definir(Long idProducteur, Long idProduit, Float quantite) {
+        long cle = CleStock.de(idProducteur, idProduit);
+        Map<Long, Float> anciennes = verrouillerStocks(Collections.singleton(cle));
+        if (!anciennes.containsKey(cle)) {
+            return false;
+        }
+        if (stockLedger.isActif()) {
+            stockLedger.definir(cle, quantite);
+        } else {
+            producteurRepository.definirQteProduit(idProducteur, idProduit, quantite);
+        }
+        outboxService.publierStock(OutboxService.STOCK_DEFINI, cle, quantite);
+        disponibiliteService.definir(cle, quantite);
+        enregistrerReferences(new TreeMap<>(Map.of(cle, quantite)), anciennes);
+        return true;
+    }
+
+    /**
+     * Fixe le stock de plusieurs couples en un lot, les couples absents de produits_producteurs sont créés.
+     * Les lignes existantes sont verrouillées dans l'ordre des clés, puis toutes les quantités sont écrites par un lot
+     * d'INSERT ... ON DUPLICATE KEY UPDATE ; avec le registre actif, seuls les nouveaux couples sont écrits en bd,
+     * les autres sont fixés dans le registre après le commit.
+     *
+     * @param quantites nouvelle quantité par CleStock
+     * @return les CleStock des couples créés
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Set<Long> definirTout(SortedMap<Long, Float> quantites) {
+        return definirTout(quantites, true);
+    }
+
+    /**
+     * @param referencer false pour une correction vers le stock attendu, qui ne change pas la référence des couples
+     * @see #definirTout(SortedMap)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Set<Long> definirTout(SortedMap<Long, Float> quantites, boolean referencer) {
+        if (quantites.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Map<Long, Float> anciennes = verrouillerStocks(quantites.keySet());
+        Set<Long> existants = anciennes.keySet();
+
+        Set<Long> crees = new HashSet<>();
+        List<Object[]> lignes = new ArrayList<>(quantites.size());
+        SortedMap<Long, Float> dansLeRegistre = new TreeMap<>();
+        quantites.forEach((cle, quantite) -> {
+            boolean existant = existants.contains(cle);
+            if (!existant) {
+                crees.add(cle);
+            }
+            if (existant && stockLedger.isActif()) {
+                dansLeRegistre.put(cle, quantite);
+            } else {
+                lignes.add(new Object[]{CleStock.producteur(cle), CleStock.produit(cle), quantite});
+            }
+        });
+        if (!lignes.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO produits_producteurs (id_producteur, id_produit, quantite) VALUES (?, ?, ?)" +
+                    " ON DUPLICATE KEY UPDATE quantite = VALUES(quantite)", lignes);
+        }
+        if (!dansLeRegistre.isEmpty()) {
+            Transactions.apresCommit(() -> dansLeRegistre.forEach(stockLedger::definir));
+        }
+        quantites.forEach((cle, quantite) -> {
+            outboxService.publierStock(OutboxService.STOCK_DEFINI, cle, quantite);
+            if (crees.contains(cle)) {
+                disponibiliteService.invalider(CleStock.produit(cle));
+            } else {
+                disponibiliteService.definir(cle, quantite);
+            }
+        });
+        if (referencer) {
+            enregistrerReferences(quantites, anciennes);
+        }
+        return crees;
+    }
+
+    /**
+     * Lit le stock des couples demandés, dans le registre s'il est actif, en une requete sinon.
+     * @param cles des CleStock
+     * @return la quantité par CleStock, les couples que le producteur ne possède pas sont absents
+     */
+    public Map<Long, Float> lireStocks(Collection<Long> cles) {
+        Map<Long, Float> stocks = new HashMap<>();
+        if (cles.isEmpty()) {
+            return stocks;
+        }
+        if (stockLedger.isActif()) {
+            for (Long cle : cles) {
+                Float stock = stockLedger.stock(cle);
+                if (stock != null) {
+                    stocks.put(cle, stock);
+                }
+            }
+            return stocks;
+        }
+        Set<Long> idProducteurs = new HashSet<>();
+        Set<Long> idProduits = new HashSet<>();
+        for (Long cle : cles) {
+            idProducteurs.add(CleStock.producteur(cle));
+            idProduits.add(CleStock.produit(cle));
+        }
+        for (ProduitProducteurRepository.StockProduitProducteur stock : produitProducteurRepository.findStocks(idProducteurs, idProduits)) {
+            long cle = CleStock.de(stock.getIdProducteur(), stock.getIdProduit());
+            if (cles.contains(cle)) {
+                stocks.put(cle, stock.getQuantite());
+            }
+        }
+        return stocks;
+    }
+
+    /**
+     * Réserve dans le registre en mémoire, et rend la réservation si la transaction en cours est annulée.
+     */
+    private void reserverDansLeRegistre(TreeMap<Long, Float> quantites) {
+        stockLedger.reserver(quantites);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        quantites.forEach(stockLedger::liberer);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Verrouille les lignes de produits_producteurs des couples, dans l'ordre des clés, et lit leur stock ; dans le registre
+     * s'il est actif, la bd est alors en retard.
+     * @param cles des CleStock
+     * @return la quantité par CleStock, les couples que le producteur ne possède pas sont absents
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Map<Long, Float> verrouillerStocks(Collection<Long> cles) {
+        Map<Long, Float> stocks = new HashMap<>();
+        if (cles.isEmpty()) {
+            return stocks;
+        }
+        List<Object[]> couples = new ArrayList<>(cles.size());
+        for (Long cle : cles) {
+            couples.add(new Object[]{CleStock.producteur(cle), CleStock.produit(cle)});
+        }
+        namedParameterJdbcTemplate.query("SELECT id_producteur, id_produit, quantite FROM produits_producteurs" +
+                        " WHERE (id_producteur, id_produit) IN (:couples) ORDER BY id_producteur, id_produit FOR UPDATE",
+                new MapSqlParameterSource("couples", couples), rs -> { stocks.put(CleStock.de(rs.getLong(1), rs.getLong(2)), rs.getFloat(3)); });
+        if (stockLedger.isActif()) {
+            stocks.replaceAll((cle, stock) -> {
+                Float dansLeRegistre = stockLedger.stock(cle);
+                return dansLeRegistre == null ? stock : dansLeRegistre;
+            });
+        }
+        return stocks;
+    }
+
+    /**
+     * Reporte une quantité fixée à la main sur la référence du couple pour la réconciliation du stock : la référence
+     * augmente de l'écart entre la nouvelle et l'ancienne quantité, sans relire les attributions.
+     * La référence d'un couple créé, qui peut rester d'un couple supprimé, est retirée : la prochaine réconciliation la
+     * recrée à partir du stock et des attributions, comme pour un couple existant sans référence.
+     * Doit être appelée dans la transaction qui fixe la quantité, avec les anciennes quantités lues sous verrou.
+     *
+     * @param quantites nouvelle quantité par CleStock
+     * @param anciennes quantité avant le changement par CleStock, absente pour un couple créé
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void enregistrerReferences(SortedMap<Long, Float> quantites, Map<Long, Float> anciennes) {
+        Date maintenant = new Date();
+        List<Object[]> ecarts = new ArrayList<>(quantites.size());
+        List<Object[]> crees = new ArrayList<>();
+        quantites.forEach((cle, quantite) -> {
+            long idProducteur = CleStock.producteur(cle);
+            long idProduit = CleStock.produit(cle);
+            Float ancienne = anciennes.get(cle);
+            if (ancienne == null) {
+                crees.add(new Object[]{idProducteur, idProduit});
+            } else if (quantite.floatValue() != ancienne.floatValue()) {
+                ecarts.add(new Object[]{(double) quantite - ancienne, maintenant, idProducteur, idProduit});
+            }
+        });
+        if (!ecarts.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE stock_reference SET quantite_totale = quantite_totale + ?, date_reference = ?" +
+                    " WHERE id_producteur = ? AND id_produit = ?", ecarts);
+        }
+        if (!crees.isEmpty()) {
+            jdbcTemplate.batchUpdate("DELETE FROM stock_reference WHERE id_producteur = ? AND id_produit = ?", crees);
+        }
+    }
+
+    /**
+     * Publie les réservations dans l'outbox, puis après le commit les reporte dans le cache des disponibilités.
+     */
+    private void signalerReserve(SortedMap<Long, Float> quantites) {
+        quantites.forEach((cle, quantite) -> outboxService.publierStock(OutboxService.STOCK_RESERVE, cle, quantite));
+        disponibiliteService.appliquer(CleStock.oppose(quantites));
+    }
+
+    private void signalerLibere(SortedMap<Long, Float> quantites) {
+        quantites.forEach((cle, quantite) -> outboxService.publierStock(OutboxService.STOCK_LIBERE, cle, quantite));
+        disponibiliteService.appliquer(quantites);
+    }
+
+    /**
+     * @param commandeInfo
+     * @return la quantité totale demandée par couple (producteur, produit), triée par CleStock
+     */
+    public static TreeMap<Long, Float> quantitesParCouple(CommandeInfo commandeInfo) {
+        Map<Long, Long> produitParCommandeDetail = new HashMap<>();
+        for (CommandeDetail cd : commandeInfo.getCommandesDetails()) {
+            produitParCommandeDetail.put(cd.getId(), cd.getIdProduit());
+        }
+        TreeMap<Long, Float> quantites = new TreeMap<>();
+        for (CommandeProducteur cp : commandeInfo.getCommandesProducteur()) {
+            Long idProduit = produitParCommandeDetail.get(cp.getIdCommandeDetails());
+            if (idProduit != null) {
+                quantites.merge(CleStock.de(cp.getIdProducteur(), idProduit), cp.getQuantite(), Float::sum);
+            }
+        }
+        return quantites;
+    }
+}
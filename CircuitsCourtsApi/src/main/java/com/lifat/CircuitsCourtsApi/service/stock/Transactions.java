@@ -0,0 +1,30 @@
+package com.lifat.CircuitsCourtsApi.service.stock;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Actions liées à la fin de la transaction en cours, pour les caches et registres en mémoire qui suivent le stock.
+ */
+public final class Transactions {
+
+    private Transactions() {
+    }
+
+    /**
+     * Exécute l'action après le commit de la transaction en cours, ou tout de suite s'il n'y en a pas.
+     * L'action n'est pas exécutée si la transaction est annulée.
+     */
+    public static void apresCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
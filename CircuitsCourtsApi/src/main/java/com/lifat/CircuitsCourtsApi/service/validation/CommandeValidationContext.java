@@ -0,0 +1,90 @@
+package com.lifat.CircuitsCourtsApi.service.validation;
+
+import com.lifat.CircuitsCourtsApi.model.Client;
+import com.lifat.CircuitsCourtsApi.model.Producteur;
+import com.lifat.CircuitsCourtsApi.model.Produit;
+import com.lifat.CircuitsCourtsApi.service.stock.CleStock;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Toutes les données dont la vérification d'une CommandeInfo a besoin, chargées en amont en quelques requêtes ensemblistes.
+ * La vérification se fait ensuite uniquement en mémoire à partir de ce contexte.
+ *
+ * Le stock est indexé par CleStock, un couple absent de la map signifie que le producteur ne possède pas le produit.
+ */
+public class CommandeValidationContext {
+
+    private final Client client;
+
+    private final Map<Long, Producteur> producteurs;
+
+    private final Map<Long, Produit> produits;
+
+    private final Map<Long, Float> stocks;
+
+    private final Set<Long> commandesDetailExistantes;
+
+    private final Set<Long> commandesProducteurExistantes;
+
+    public CommandeValidationContext(Client client, Map<Long, Producteur> producteurs, Map<Long, Produit> produits,
+                                     Map<Long, Float> stocks, Set<Long> commandesDetailExistantes,
+                                     Set<Long> commandesProducteurExistantes) {
+        this.client = client;
+        this.producteurs = producteurs;
+        this.produits = produits;
+        this.stocks = stocks;
+        this.commandesDetailExistantes = commandesDetailExistantes;
+        this.commandesProducteurExistantes = commandesProducteurExistantes;
+    }
+
+    public Client getClient() {
+        return client;
+    }
+
+    public Producteur getProducteur(Long idProducteur) {
+        return producteurs.get(idProducteur);
+    }
+
+    public Produit getProduit(Long idProduit) {
+        return produits.get(idProduit);
+    }
+
+    public boolean commandeDetailExiste(Long idCommandeDetail) {
+        return idCommandeDetail != null && commandesDetailExistantes.contains(idCommandeDetail);
+    }
+
+    public boolean commandeProducteurExiste(Long idCommandeProducteur) {
+        return idCommandeProducteur != null && commandesProducteurExistantes.contains(idCommandeProducteur);
+    }
+
+    /**
+     * @return true si le producteur possède le produit (une ligne existe dans produits_producteurs)
+     */
+    public boolean possedeProduit(Long idProducteur, Long idProduit) {
+        return stocks.containsKey(CleStock.de(idProducteur, idProduit));
+    }
+
+    /**
+     * @return la quantité en stock, null si le producteur ne possède pas le produit ou si la quantité n'est pas renseignée
+     */
+    public Float getStock(Long idProducteur, Long idProduit) {
+        return stocks.get(CleStock.de(idProducteur, idProduit));
+    }
+
+    /**
+     * retire une quantité du stock en mémoire, pour que les lignes suivantes de la même commande
+     * soient vérifiées sur le stock restant.
+     */
+    public void retirerStock(Long idProducteur, Long idProduit, Float quantite) {
+        stocks.computeIfPresent(CleStock.de(idProducteur, idProduit), (cle, stock) -> stock - quantite);
+    }
+
+    /**
+     * ajoute au stock en mémoire une quantité déjà réservée par la version originale d'une commande mise à jour.
+     */
+    public void rendreStock(long cleStock, Float quantite) {
+        stocks.computeIfPresent(cleStock, (cle, stock) -> stock + quantite);
+    }
+}
@@ -0,0 +1,182 @@
+package com.lifat.CircuitsCourtsApi.service.validation;
+
+import com.lifat.CircuitsCourtsApi.model.*;
+import com.lifat.CircuitsCourtsApi.repository.*;
+import com.lifat.CircuitsCourtsApi.service.calculTournee.CacheDistances;
+import com.lifat.CircuitsCourtsApi.service.stock.StockService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Vérification d'une CommandeInfo à partir d'un contexte préchargé.
+ *
+ * Tous les ids de la CommandeInfo (client, producteurs, produits, commandesDetail, commandesProducteur) sont collectés
+ * puis chargés en un nombre constant de requêtes, quel que soit le nombre de lignes de la commande.
+ * Les vérifications et les messages d'erreur sont ceux de CommandeService.
+ */
+@Service
+public class CommandeValidationService {
+
+    @Autowired
+    private ClientRepository clientRepository;
+
+    @Autowired
+    private ProducteurRepository producteurRepository;
+
+    @Autowired
+    private ProduitRepository produitRepository;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private CommandeDetailRepository commandeDetailRepository;
+
+    @Autowired
+    private CommandeProducteurRepository commandeProducteurRepository;
+
+    @Autowired
+    private CacheDistances cacheDistances;
+
+    /**
+     * Charge toutes les données nécessaires à la vérification de la commandeInfo.
+     *
+     * @param commandeInfo
+     * @param chargerIdsExistants true pour charger aussi les commandesDetail et commandesProducteur deja presentes dans la bd
+     * @return le contexte de validation
+     */
+    public CommandeValidationContext chargerContexte(CommandeInfo commandeInfo, boolean chargerIdsExistants) {
+        Client client = clientRepository.findById(commandeInfo.getCommande().getIdClient()).orElse(null);
+
+        Set<Long> idProduits = new HashSet<>();
+        Set<Long> idCommandesDetail = new HashSet<>();
+        for (CommandeDetail cd : commandeInfo.getCommandesDetails()) {
+            ajouterSiPresent(idProduits, cd.getIdProduit());
+            ajouterSiPresent(idCommandesDetail, cd.getId());
+        }
+        Set<Long> idProducteurs = new HashSet<>();
+        Set<Long> idCommandesProducteur = new HashSet<>();
+        for (CommandeProducteur cp : commandeInfo.getCommandesProducteur()) {
+            ajouterSiPresent(idProducteurs, cp.getIdProducteur());
+            ajouterSiPresent(idCommandesProducteur, cp.getId());
+        }
+
+        Map<Long, Producteur> producteurs = new HashMap<>();
+        Map<Long, Produit> produits = new HashMap<>();
+        if (!idProducteurs.isEmpty()) {
+            producteurRepository.findAllById(idProducteurs).forEach(p -> producteurs.put(p.getId_Producteur(), p));
+        }
+        if (!idProduits.isEmpty()) {
+            produitRepository.findAllById(idProduits).forEach(p -> produits.put(p.getId(), p));
+        }
+        Map<Long, Float> stocks = stockService.lireStocks(StockService.quantitesParCouple(commandeInfo).keySet());
+
+        Set<Long> commandesDetailExistantes = new HashSet<>();
+        Set<Long> commandesProducteurExistantes = new HashSet<>();
+        if (chargerIdsExistants) {
+            if (!idCommandesDetail.isEmpty()) {
+                commandeDetailRepository.findAllById(idCommandesDetail).forEach(cd -> commandesDetailExistantes.add(cd.getId()));
+            }
+            if (!idCommandesProducteur.isEmpty()) {
+                commandeProducteurRepository.findAllById(idCommandesProducteur).forEach(cp -> commandesProducteurExistantes.add(cp.getId()));
+            }
+        }
+
+        return new CommandeValidationContext(client, producteurs, produits, stocks, commandesDetailExistantes, commandesProducteurExistantes);
+    }
+
+    /**
+     * verifie l'existence du client, des producteurs et des produits
+     * verifie pour chaque commandeProducteur si stock producteur >= commandeProducteur quantite
+     * verifie pour chaque producteur que le client est dans son rayon de livraison
+     * Le stock n'est décrémenté que dans le contexte, la bd n'est pas modifiée.
+     *
+     * @param commandeInfo
+     * @param nouvelleCommande true si les commandesDetail et commandesProducteur ne doivent pas deja exister dans la bd
+     * @return le contexte utilisé pour la vérification
+     * @throws Exception a la premiere vérification qui échoue
+     */
+    public CommandeValidationContext verifier(CommandeInfo commandeInfo, boolean nouvelleCommande) throws Exception {
+        return verifier(commandeInfo, nouvelleCommande, Collections.emptyMap());
+    }
+
+    /**
+     * Vérification de la mise à jour d'une commande : le stock déjà réservé par la version originale
+     * est considéré comme disponible, seul l'écart entre les deux versions doit être en stock.
+     *
+     * @param commandeInfo la mise à jour
+     * @param nouvelleCommande
+     * @param dejaReserve quantité réservée par la version originale, par CleStock
+     * @throws Exception a la premiere vérification qui échoue
+     */
+    public CommandeValidationContext verifier(CommandeInfo commandeInfo, boolean nouvelleCommande, Map<Long, Float> dejaReserve) throws Exception {
+        CommandeValidationContext contexte = chargerContexte(commandeInfo, nouvelleCommande);
+        dejaReserve.forEach(contexte::rendreStock);
+        Commande commande = commandeInfo.getCommande();
+
+        if (contexte.getClient() == null) {
+            throw new Exception("Le client n°" + commande.getIdClient() + " n'existe pas");
+        }
+
+        Map<Long, List<CommandeProducteur>> commandesProdParDetail = new HashMap<>();
+        for (CommandeProducteur cp : commandeInfo.getCommandesProducteur()) {
+            commandesProdParDetail.computeIfAbsent(cp.getIdCommandeDetails(), id -> new ArrayList<>()).add(cp);
+        }
+
+        for (CommandeDetail cd : commandeInfo.getCommandesDetails()) {
+            if (nouvelleCommande && contexte.commandeDetailExiste(cd.getId())) {
+                throw new Exception("La commandeDetail n°" + cd.getId() + " existe deja");
+            }
+            if (contexte.getProduit(cd.getIdProduit()) == null) {
+                throw new Exception("Le produit n°" + cd.getIdProduit() + " n'existe pas");
+            }
+            cd.setIdCommande(commande.getId());
+
+            for (CommandeProducteur cp : commandesProdParDetail.getOrDefault(cd.getId(), Collections.emptyList())) {
+                if (nouvelleCommande && contexte.commandeProducteurExiste(cp.getId())) {
+                    throw new Exception("La commandeProducteur n°" + cp.getId() + " existe deja");
+                }
+                Producteur producteur = contexte.getProducteur(cp.getIdProducteur());
+                if (producteur == null) {
+                    throw new Exception("Le producteur n°" + cp.getIdProducteur() + " n'existe pas");
+                }
+                verifierRayonLivraison(producteur, contexte.getClient());
+                verifierStock(contexte, producteur, contexte.getProduit(cd.getIdProduit()), cp.getQuantite());
+                contexte.retirerStock(cp.getIdProducteur(), cd.getIdProduit(), cp.getQuantite());
+            }
+        }
+        return contexte;
+    }
+
+    /**
+     * @throws Exception si rayon_livraison inferieur a distance
+     */
+    private void verifierRayonLivraison(Producteur producteur, Client client) throws Exception {
+        double meter = cacheDistances.producteurClient(producteur.getId_Producteur(), producteur.getLatitude(), producteur.getLongitude(), client.getId(), client.getLatitude(), client.getLongitude());
+        if (meter > producteur.getRayon_Livraison()) {
+            throw new Exception("Le client se situe trop loin du producteur : " + producteur.getLibelle() + "," + producteur.getId_Producteur() + ", rayon de livraison " + producteur.getRayon_Livraison() + " km." + "\ndistance avec le client :" + client.getAdresse() + "\n" + meter + " km.");
+        }
+    }
+
+    /**
+     * @throws Exception si le producteur ne possede pas le produit, ou pas en quantite suffisante
+     */
+    private void verifierStock(CommandeValidationContext contexte, Producteur producteur, Produit produit, Float quantite) throws Exception {
+        Long idProducteur = producteur.getId_Producteur();
+        if (!contexte.possedeProduit(idProducteur, produit.getId())) {
+            throw new Exception("Le producteur n°" + idProducteur + " : " + producteur.getLibelle() + " ne possede pas le produit n°" + produit.getId() + " : " + produit.getLibelle());
+        }
+        Float stock = contexte.getStock(idProducteur, produit.getId());
+        if (stock == null || stock < quantite) {
+            throw new Exception("le producteur n°" + idProducteur + " n'a pas le produit n°" + produit.getId() + " en quantite suffiante");
+        }
+    }
+
+    private static void ajouterSiPresent(Set<Long> ids, Long id) {
+        if (id != null) {
+            ids.add(id);
+        }
+    }
+}
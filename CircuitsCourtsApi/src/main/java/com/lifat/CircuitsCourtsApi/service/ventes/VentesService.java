@@ -0,0 +1,235 @@
+package com.lifat.CircuitsCourtsApi.service.ventes;
+
+import com.lifat.CircuitsCourtsApi.model.Vente;
+import com.lifat.CircuitsCourtsApi.model.VenteJour;
+import com.lifat.CircuitsCourtsApi.model.VenteSemaine;
+import com.lifat.CircuitsCourtsApi.service.archive.ArchivageCommandesService;
+import com.lifat.CircuitsCourtsApi.service.stock.CleStock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+
+/**
+ * Ventes agrégées par jour et par semaine, par couple (produit, producteur), pour les tableaux de bord.
+ *
+ * Les tables ventes_jour et ventes_semaine sont tenues à jour dans la transaction qui enregistre, modifie ou supprime
+ * une commande : seul l'écart de quantité par couple est ajouté à la période de la commande (INSERT ... ON DUPLICATE KEY UPDATE).
+ * Les lectures ne touchent donc jamais les tables des commandes.
+ * reconstruire() recalcule les agrégats depuis les commandes et les commandes archivées, un jour par transaction,
+ * pour les reprises d'historique. Il n'est lancé que par un admin (POST /api/ventes/reconstruction), ou une fois au
+ * démarrage si reconstruireSiVide est activé et que les tables sont vides.
+ */
+@Service
+public class VentesService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VentesService.class);
+
+    private static final String AJOUTER_JOUR = "INSERT INTO ventes_jour (debut, id_produit, id_producteur, quantite) VALUES (?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE quantite = quantite + VALUES(quantite)";
+
+    private static final String AJOUTER_SEMAINE = "INSERT INTO ventes_semaine (debut, id_produit, id_producteur, quantite) VALUES (?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE quantite = quantite + VALUES(quantite)";
+
+    public enum Periode {
+        JOUR, SEMAINE
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${com.lifat.circuitscourtsapi.ventes.tailleMaxReponse: 5000}")
+    private int tailleMaxReponse;
+
+    //reconstruit les agregats au demarrage si les tables sont vides, a activer seulement pour la premiere mise en service
+    @Value("${com.lifat.circuitscourtsapi.ventes.reconstruireSiVide: false}")
+    private boolean reconstruireSiVide;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    private void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Ajoute des écarts de quantité aux ventes du jour et de la semaine d'une commande.
+     *
+     * @param dateCommande date de la commande
+     * @param ecarts clé de stock (producteur, produit) -> quantité à ajouter, négative pour une quantité retirée ;
+     *               les lignes sont écrites dans l'ordre des clés pour que deux commandes verrouillent les lignes dans le même ordre
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void appliquer(Date dateCommande, SortedMap<Long, Float> ecarts) {
+        if (ecarts.isEmpty()) {
+            return;
+        }
+        LocalDate jour = jour(dateCommande);
+        LocalDate lundi = lundi(jour);
+        List<Object[]> lignesJour = new ArrayList<>(ecarts.size());
+        List<Object[]> lignesSemaine = new ArrayList<>(ecarts.size());
+        for (Map.Entry<Long, Float> ecart : ecarts.entrySet()) {
+            if (ecart.getValue() == 0f) {
+                continue;
+            }
+            Long idProduit = CleStock.produit(ecart.getKey());
+            Long idProducteur = CleStock.producteur(ecart.getKey());
+            lignesJour.add(new Object[]{jour, idProduit, idProducteur, ecart.getValue().doubleValue()});
+            lignesSemaine.add(new Object[]{lundi, idProduit, idProducteur, ecart.getValue().doubleValue()});
+        }
+        jdbcTemplate.batchUpdate(AJOUTER_JOUR, lignesJour);
+        jdbcTemplate.batchUpdate(AJOUTER_SEMAINE, lignesSemaine);
+    }
+
+    /**
+     * @param periode jour ou semaine
+     * @param idProduit seules les ventes de ce produit si non null
+     * @param idProducteur seules les ventes de ce producteur si non null
+     * @param depuis début de la première période incluse
+     * @param avant début de la première période exclue
+     * @return les ventes par période, produit et producteur, au plus tailleMaxReponse lignes
+     */
+    public List<? extends Vente> lire(Periode periode, Long idProduit, Long idProducteur, LocalDate depuis, LocalDate avant) {
+        if (periode == Periode.JOUR) {
+            return lire("ventes_jour", VenteJour.class, idProduit, idProducteur, depuis, avant);
+        }
+        return lire("ventes_semaine", VenteSemaine.class, idProduit, idProducteur, lundi(depuis), avant);
+    }
+
+    /**
+     * Seuls les filtres présents entrent dans la clause WHERE : avec "(? IS NULL OR id_produit = ?)" mysql ne peut pas
+     * choisir l'index du produit ou du producteur et parcourt toute la période.
+     *
+     * @param table ventes_jour ou ventes_semaine
+     */
+    private <V extends Vente> List<V> lire(String table, Class<V> type, Long idProduit, Long idProducteur, LocalDate depuis, LocalDate avant) {
+        StringBuilder sql = new StringBuilder("SELECT debut, id_produit, id_producteur, quantite FROM ").append(table)
+                .append(" WHERE debut >= ? AND debut < ?");
+        List<Object> parametres = new ArrayList<>(List.of(depuis, avant));
+        if (idProduit != null) {
+            sql.append(" AND id_produit = ?");
+            parametres.add(idProduit);
+        }
+        if (idProducteur != null) {
+            sql.append(" AND id_producteur = ?");
+            parametres.add(idProducteur);
+        }
+        sql.append(" ORDER BY debut, id_produit, id_producteur LIMIT ?");
+        parametres.add(tailleMaxReponse);
+        return jdbcTemplate.query(sql.toString(), BeanPropertyRowMapper.newInstance(type), parametres.toArray());
+    }
+
+    /**
+     * Recalcule les ventes des semaines comprises entre deux dates à partir des commandes, par petites transactions :
+     * une par jour pour ventes_jour, puis une pour la semaine, recalculée depuis ses jours.
+     * Les verrous posés sur les commandes lues ne durent donc que le temps d'un jour.
+     *
+     * @param depuis ramené au lundi de sa semaine
+     * @param avant ramené au lundi suivant s'il tombe en cours de semaine
+     * @return le nombre de semaines recalculées
+     */
+    public int reconstruire(LocalDate depuis, LocalDate avant) {
+        LocalDate lundi = lundi(depuis);
+        LocalDate fin = avant.getDayOfWeek() == DayOfWeek.MONDAY ? avant : lundi(avant).plusWeeks(1);
+        int semaines = 0;
+        while (lundi.isBefore(fin)) {
+            LocalDate debut = lundi;
+            LocalDate suivant = lundi.plusWeeks(1);
+            for (LocalDate jour = debut; jour.isBefore(suivant); jour = jour.plusDays(1)) {
+                LocalDate debutJour = jour;
+                transactionTemplate.executeWithoutResult(status -> reconstruireJour(debutJour, debutJour.plusDays(1)));
+            }
+            transactionTemplate.executeWithoutResult(status -> reconstruireSemaine(debut, suivant));
+            semaines++;
+            lundi = suivant;
+        }
+        logger.info(semaines + " semaine(s) de ventes recalculee(s) du " + lundi(depuis) + " au " + fin);
+        return semaines;
+    }
+
+    private void reconstruireJour(LocalDate jour, LocalDate lendemain) {
+        jdbcTemplate.update("DELETE FROM ventes_jour WHERE debut = ?", jour);
+        //les commandes de la semaine peuvent etre en partie archivees
+        jdbcTemplate.update("INSERT INTO ventes_jour (debut, id_produit, id_producteur, quantite) " +
+                "SELECT DATE(v.date_commande), v.id_produit, v.id_producteur, SUM(v.quantite) FROM (" +
+                "SELECT c.date_commande, cd.id_produit, cp.id_producteur, cp.quantite FROM commandes c " +
+                "INNER JOIN commande_details cd ON cd.id_commande = c.id " +
+                "INNER JOIN commande_producteur cp ON cp.id_commande_details = cd.id " +
+                "WHERE c.date_commande >= ? AND c.date_commande < ? " +
+                "UNION ALL " +
+                "SELECT c.date_commande, cd.id_produit, cp.id_producteur, cp.quantite FROM " + ArchivageCommandesService.COMMANDES_ARCHIVE + " c " +
+                "INNER JOIN " + ArchivageCommandesService.COMMANDE_DETAILS_ARCHIVE + " cd ON cd.id_commande = c.id " +
+                "INNER JOIN " + ArchivageCommandesService.COMMANDE_PRODUCTEUR_ARCHIVE + " cp ON cp.id_commande_details = cd.id " +
+                "WHERE c.date_commande >= ? AND c.date_commande < ?" +
+                ") v GROUP BY DATE(v.date_commande), v.id_produit, v.id_producteur", jour, lendemain, jour, lendemain);
+    }
+
+    private void reconstruireSemaine(LocalDate lundi, LocalDate lundiSuivant) {
+        jdbcTemplate.update("DELETE FROM ventes_semaine WHERE debut = ?", lundi);
+        jdbcTemplate.update("INSERT INTO ventes_semaine (debut, id_produit, id_producteur, quantite) " +
+                "SELECT ?, id_produit, id_producteur, SUM(quantite) FROM ventes_jour WHERE debut >= ? AND debut < ? " +
+                "GROUP BY id_produit, id_producteur", lundi, lundi, lundiSuivant);
+    }
+
+    /**
+     * Recalcule les ventes de toutes les semaines où il y a des commandes.
+     *
+     * @return le nombre de semaines recalculées
+     */
+    public int reconstruireTout() {
+        Map<String, Object> bornes = jdbcTemplate.queryForMap("SELECT DATE(MIN(date_commande)) AS premier, DATE(MAX(date_commande)) AS dernier FROM (" +
+                "SELECT date_commande FROM commandes UNION ALL SELECT date_commande FROM " + ArchivageCommandesService.COMMANDES_ARCHIVE + ") c");
+        if (bornes.get("premier") == null) {
+            return 0;
+        }
+        LocalDate premier = ((java.sql.Date) bornes.get("premier")).toLocalDate();
+        LocalDate dernier = ((java.sql.Date) bornes.get("dernier")).toLocalDate();
+        return reconstruire(premier, dernier.plusDays(1));
+    }
+
+    //apres la creation des tables d'archive, desactive par defaut : la reconstruction d'un long historique se lance par
+    //POST /api/ventes/reconstruction
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void reconstruireAuDemarrage() {
+        if (!reconstruireSiVide) {
+            return;
+        }
+        List<Long> vente = jdbcTemplate.queryForList("SELECT 1 FROM ventes_jour LIMIT 1", Long.class);
+        if (vente.isEmpty()) {
+            reconstruireTout();
+        }
+    }
+
+    /**
+     * Les dates des commandes sont enregistrées en UTC (serverTimezone=UTC), le jour est pris en UTC comme DATE() dans mysql.
+     */
+    static LocalDate jour(Date date) {
+        return (date == null ? new Date() : date).toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    static LocalDate lundi(LocalDate jour) {
+        return jour.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+}
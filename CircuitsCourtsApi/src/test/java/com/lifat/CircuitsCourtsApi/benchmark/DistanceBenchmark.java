@@ -0,0 +1,128 @@
+package com.lifat.CircuitsCourtsApi.benchmark;
+
+import com.lifat.CircuitsCourtsApi.service.calculTournee.GeoPortailApiService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare le calcul d'une matrice de distances couple par couple, comme avant (radians et cosinus recalculés pour chaque
+ * couple), au calcul par lots de GeoPortailApiService, et le test de rayon de livraison avec et sans préfiltre
+ * equirectangulaire. Les points sont tirés dans un carré de 500 km autour de Tours.
+ *
+ * Sans bd, lancé seulement avec : mvn test -Dtest=DistanceBenchmark -Dbenchmark=true
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DistanceBenchmark {
+
+    @Param({"50", "500"})
+    public int taille;
+
+    private final GeoPortailApiService geoPortailApiService = new GeoPortailApiService();
+
+    private double[] latitudes;
+
+    private double[] longitudes;
+
+    private GeoPortailApiService.Points points;
+
+    private double[] matrice;
+
+    private double[] rayons;
+
+    @Setup
+    public void preparer() {
+        Random random = new Random(42);
+        latitudes = new double[taille];
+        longitudes = new double[taille];
+        rayons = new double[taille];
+        for (int i = 0; i < taille; i++) {
+            latitudes[i] = 47.39 + (random.nextDouble() - 0.5) * 4.5;
+            longitudes[i] = 0.69 + (random.nextDouble() - 0.5) * 6.6;
+            rayons[i] = 10 + random.nextDouble() * 90;
+        }
+        points = geoPortailApiService.preparer(latitudes, longitudes);
+        matrice = new double[taille * taille];
+    }
+
+    @Benchmark
+    public double[] matriceCoupleParCouple() {
+        for (int i = 0; i < taille; i++) {
+            for (int j = 0; j < taille; j++) {
+                matrice[i * taille + j] = ancienneDistance(latitudes[i], longitudes[i], latitudes[j], longitudes[j]);
+            }
+        }
+        return matrice;
+    }
+
+    @Benchmark
+    public double[] matriceParLignes() {
+        GeoPortailApiService.Points lot = geoPortailApiService.preparer(latitudes, longitudes);
+        for (int i = 0; i < taille; i++) {
+            geoPortailApiService.remplirLigne(lot, i, lot, matrice, i * taille);
+        }
+        return matrice;
+    }
+
+    @Benchmark
+    public double[] matriceSymetrique() {
+        geoPortailApiService.remplirMatrice(geoPortailApiService.preparer(latitudes, longitudes), matrice);
+        return matrice;
+    }
+
+    @Benchmark
+    public void rayonHaversine(Blackhole blackhole) {
+        for (int i = 0; i < taille; i++) {
+            for (int j = 0; j < taille; j++) {
+                blackhole.consume(geoPortailApiService.verifDistanceBetweenProducteurAndClient(latitudes[i], longitudes[i], latitudes[j], longitudes[j]) <= rayons[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    public void rayonPrefiltre(Blackhole blackhole) {
+        for (int i = 0; i < taille; i++) {
+            for (int j = 0; j < taille; j++) {
+                blackhole.consume(geoPortailApiService.dansRayon(points, i, points, j, rayons[i]));
+            }
+        }
+    }
+
+    /**
+     * Le calcul de verifDistanceBetweenProducteurAndClient avant les calculs par lots, sans ses System.out.
+     */
+    private static double ancienneDistance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        latitude1 = Math.toRadians(latitude1);
+        latitude2 = Math.toRadians(latitude2);
+        longitude1 = Math.toRadians(longitude1);
+        longitude2 = Math.toRadians(longitude2);
+        double diffLat = latitude2 - latitude1;
+        double diffLon = longitude2 - longitude1;
+        double a = Math.pow(Math.sin(diffLat / 2), 2)
+                + Math.cos(latitude1) * Math.cos(latitude2) * Math.pow(Math.sin(diffLon / 2), 2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return GeoPortailApiService.RAYON_TERRE_KM * c;
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void lancer() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(DistanceBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
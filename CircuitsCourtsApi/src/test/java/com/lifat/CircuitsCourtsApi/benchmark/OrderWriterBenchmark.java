@@ -0,0 +1,181 @@
+package com.lifat.CircuitsCourtsApi.benchmark;
+
+import com.lifat.CircuitsCourtsApi.model.Commande;
+import com.lifat.CircuitsCourtsApi.model.CommandeDetail;
+import com.lifat.CircuitsCourtsApi.model.CommandeInfo;
+import com.lifat.CircuitsCourtsApi.model.CommandeProducteur;
+import com.lifat.CircuitsCourtsApi.service.commande.OrderWriter;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compare l'ancien enregistrement d'une commande, ligne par ligne avec des ids IDENTITY, à l'enregistrement par
+ * l'OrderWriter (ids pris par blocs, INSERT par lots).
+ * Les entités n'étant plus en IDENTITY, l'ancien chemin est rejoué en jdbc : un INSERT par ligne, sans id, dont la clé
+ * générée par l'AUTO_INCREMENT est relue avant l'INSERT suivant, comme le faisait hibernate.
+ * Les transactions sont annulées, la bd n'est pas modifiée.
+ *
+ * Nécessite la bd de l'application, dont les tables viennent de l'ancien schéma (colonnes id en AUTO_INCREMENT, que
+ * ddl-auto: update ne retire pas), lancé seulement avec : mvn test -Dtest=OrderWriterBenchmark -Dbenchmark=true
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class OrderWriterBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderWriterBenchmark.class);
+
+    private static final int ITERATIONS = 50;
+
+    private static final int[] TAILLES = {1, 10, 50, 200};
+
+    @Autowired
+    private OrderWriter orderWriter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void comparerLigneParLigneEtParLots() {
+        Assumptions.assumeTrue(idsAutoIncrement(), "colonnes id sans AUTO_INCREMENT, l'ancien enregistrement ne peut pas etre rejoue");
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        for (int lignes : TAILLES) {
+            //echauffement
+            mesurer(transactionTemplate, lignes, true);
+            mesurer(transactionTemplate, lignes, false);
+
+            long ligneParLigne = 0;
+            long parLots = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                ligneParLigne += mesurer(transactionTemplate, lignes, false);
+                parLots += mesurer(transactionTemplate, lignes, true);
+            }
+            logger.info(lignes + " ligne(s) : ligne par ligne " + parLigne(ligneParLigne, lignes) + " µs/ligne, "
+                    + "OrderWriter " + parLigne(parLots, lignes) + " µs/ligne");
+        }
+    }
+
+    private static long parLigne(long nanos, int lignes) {
+        return nanos / 1000 / ITERATIONS / lignes;
+    }
+
+    /**
+     * @return la durée de l'enregistrement en nanosecondes, flush compris
+     */
+    private long mesurer(TransactionTemplate transactionTemplate, int lignes, boolean parLots) {
+        CommandeInfo commandeInfo = commandeInfo(lignes);
+        Long duree = transactionTemplate.execute(status -> {
+            long debut = System.nanoTime();
+            if (parLots) {
+                orderWriter.ecrire(commandeInfo);
+            } else {
+                enregistrerLigneParLigne(commandeInfo);
+            }
+            entityManager.flush();
+            long fin = System.nanoTime();
+            status.setRollbackOnly();
+            return fin - debut;
+        });
+        entityManager.clear();
+        return duree;
+    }
+
+    private boolean idsAutoIncrement() {
+        Integer colonnes = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.columns "
+                + "WHERE table_schema = DATABASE() AND column_name = 'id' AND extra LIKE '%auto_increment%' "
+                + "AND table_name IN ('commandes', 'commande_details', 'commande_producteur')", Integer.class);
+        return colonnes != null && colonnes == 3;
+    }
+
+    /**
+     * Reproduit l'ancien enregistrement en IDENTITY : chaque INSERT est envoyé seul et sa clé générée relue avant de
+     * passer au suivant.
+     */
+    private void enregistrerLigneParLigne(CommandeInfo commandeInfo) {
+        Commande commande = commandeInfo.getCommande();
+        long idCommande = inserer("INSERT INTO commandes (id_client, date_commande) VALUES (?, ?)",
+                commande.getIdClient(), new Timestamp(new Date().getTime()));
+        Map<Long, List<CommandeProducteur>> commandesProducteurParDetail = new HashMap<>();
+        for (CommandeProducteur cp : commandeInfo.getCommandesProducteur()) {
+            commandesProducteurParDetail.computeIfAbsent(cp.getIdCommandeDetails(), id -> new ArrayList<>()).add(cp);
+        }
+        for (CommandeDetail cd : commandeInfo.getCommandesDetails()) {
+            long idCommandeDetail = inserer("INSERT INTO commande_details (id_commande, id_produit, quantite) VALUES (?, ?, ?)",
+                    idCommande, cd.getIdProduit(), cd.getQuantite());
+            for (CommandeProducteur cp : commandesProducteurParDetail.getOrDefault(cd.getId(), new ArrayList<>())) {
+                inserer("INSERT INTO commande_producteur (id_commande_details, id_producteur, quantite) VALUES (?, ?, ?)",
+                        idCommandeDetail, cp.getIdProducteur(), cp.getQuantite());
+            }
+        }
+    }
+
+    /**
+     * @return l'id généré par l'INSERT
+     */
+    private long inserer(String sql, Object... valeurs) {
+        KeyHolder cle = new GeneratedKeyHolder();
+        jdbcTemplate.update(connexion -> {
+            PreparedStatement requete = connexion.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            for (int i = 0; i < valeurs.length; i++) {
+                requete.setObject(i + 1, valeurs[i]);
+            }
+            return requete;
+        }, cle);
+        return cle.getKey().longValue();
+    }
+
+    /**
+     * Une commande de lignes commandesDetails, chacune satisfaite par une commandeProducteur.
+     * Les ids ne servent qu'à relier les objets entre eux.
+     */
+    private static CommandeInfo commandeInfo(int lignes) {
+        Commande commande = new Commande();
+        commande.setIdClient(1L);
+        List<CommandeDetail> details = new ArrayList<>();
+        List<CommandeProducteur> commandesProducteur = new ArrayList<>();
+        for (long i = 1; i <= lignes; i++) {
+            CommandeDetail cd = new CommandeDetail();
+            cd.setId(i);
+            cd.setIdProduit(i);
+            cd.setQuantite(1f);
+            details.add(cd);
+
+            CommandeProducteur cp = new CommandeProducteur();
+            cp.setId(i);
+            cp.setIdCommandeDetails(i);
+            cp.setIdProducteur(1L);
+            cp.setQuantite(1f);
+            commandesProducteur.add(cp);
+        }
+        CommandeInfo commandeInfo = new CommandeInfo();
+        commandeInfo.setCommande(commande);
+        commandeInfo.setCommandesDetails(details);
+        commandeInfo.setCommandesProducteur(commandesProducteur);
+        return commandeInfo;
+    }
+}
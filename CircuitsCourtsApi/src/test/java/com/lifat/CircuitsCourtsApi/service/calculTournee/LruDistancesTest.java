@@ -0,0 +1,153 @@
+package com.lifat.CircuitsCourtsApi.service.calculTournee;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LruDistancesTest {
+
+    @Test
+    void lireUneDistanceEcrite() {
+        LruDistances lru = new LruDistances(4);
+        lru.ecrire(1, 7, 12.5);
+        assertEquals(12.5, lru.lire(1, 7), 0);
+        assertTrue(Double.isNaN(lru.lire(2, 7)));
+        assertEquals(1, lru.taille());
+    }
+
+    @Test
+    void uneAutreEmpreinteRetireLaDistance() {
+        LruDistances lru = new LruDistances(4);
+        lru.ecrire(1, 7, 12.5);
+        assertTrue(Double.isNaN(lru.lire(1, 8)));
+        assertEquals(0, lru.taille());
+        assertTrue(Double.isNaN(lru.lire(1, 7)));
+    }
+
+    @Test
+    void evinceLaMoinsRecemmentLue() {
+        LruDistances lru = new LruDistances(3);
+        lru.ecrire(1, 0, 1);
+        lru.ecrire(2, 0, 2);
+        lru.ecrire(3, 0, 3);
+        //1 est lue, 2 devient la plus ancienne
+        lru.lire(1, 0);
+        lru.ecrire(4, 0, 4);
+        assertTrue(Double.isNaN(lru.lire(2, 0)));
+        assertEquals(1, lru.lire(1, 0), 0);
+        assertEquals(3, lru.lire(3, 0), 0);
+        assertEquals(4, lru.lire(4, 0), 0);
+        assertEquals(1, lru.evictions());
+
+        //reecrire une cle la rend la plus recente sans eviction
+        lru.ecrire(1, 0, 10);
+        lru.ecrire(5, 0, 5);
+        assertTrue(Double.isNaN(lru.lire(3, 0)));
+        assertEquals(10, lru.lire(1, 0), 0);
+        assertEquals(2, lru.evictions());
+    }
+
+    @Test
+    void retirerSiNeRetireQueLesClesDuFiltre() {
+        LruDistances lru = new LruDistances(64);
+        for (long cle = 0; cle < 64; cle++) {
+            lru.ecrire(cle, 0, cle);
+        }
+        assertEquals(32, lru.retirerSi(cle -> cle % 2 == 0));
+        assertEquals(32, lru.taille());
+        for (long cle = 0; cle < 64; cle++) {
+            if (cle % 2 == 0) {
+                assertTrue(Double.isNaN(lru.lire(cle, 0)), "cle " + cle + " retiree");
+            } else {
+                assertEquals(cle, lru.lire(cle, 0), 0);
+            }
+        }
+        assertEquals(0, lru.retirerSi(cle -> cle % 2 == 0));
+    }
+
+    /**
+     * Table presque pleine : les retraits reculent des entrées de longs groupes de cases occupées,
+     * toutes doivent rester trouvables.
+     */
+    @Test
+    void retirerReculeLesEntreesSuivantes() {
+        LruDistances lru = new LruDistances(1000);
+        for (long cle = 0; cle < 1000; cle++) {
+            lru.ecrire(cle * 0x9E3779B97F4A7C15L, 0, cle);
+        }
+        for (long cle = 0; cle < 1000; cle += 3) {
+            assertTrue(Double.isNaN(lru.lire(cle * 0x9E3779B97F4A7C15L, 1)));
+        }
+        for (long cle = 0; cle < 1000; cle++) {
+            if (cle % 3 == 0) {
+                assertTrue(Double.isNaN(lru.lire(cle * 0x9E3779B97F4A7C15L, 0)));
+            } else {
+                assertEquals(cle, lru.lire(cle * 0x9E3779B97F4A7C15L, 0), 0, "cle n°" + cle);
+            }
+        }
+    }
+
+    /**
+     * Compare une suite d'opérations aléatoires avec un LinkedHashMap dans l'ordre des accès.
+     */
+    @Test
+    void seComporteCommeUnLinkedHashMap() {
+        int capacite = 16;
+        LruDistances lru = new LruDistances(capacite);
+        Map<Long, double[]> reference = new LinkedHashMap<>(16, 0.75f, true);
+        long evictions = 0;
+        Random aleatoire = new Random(42);
+        for (int operation = 0; operation < 200000; operation++) {
+            long cle = aleatoire.nextInt(48);
+            int empreinte = aleatoire.nextInt(3) == 0 ? 1 : 0;
+            int choix = aleatoire.nextInt(100);
+            if (choix < 50) {
+                double[] attendue = reference.get(cle);
+                double lue = lru.lire(cle, empreinte);
+                if (attendue == null) {
+                    assertTrue(Double.isNaN(lue));
+                } else if (attendue[1] != empreinte) {
+                    reference.remove(cle);
+                    assertTrue(Double.isNaN(lue));
+                } else {
+                    assertEquals(attendue[0], lue, 0);
+                }
+            } else if (choix < 98) {
+                if (!reference.containsKey(cle) && reference.size() == capacite) {
+                    Iterator<Long> plusAncienne = reference.keySet().iterator();
+                    plusAncienne.next();
+                    plusAncienne.remove();
+                    evictions++;
+                }
+                reference.put(cle, new double[]{operation, empreinte});
+                lru.ecrire(cle, empreinte, operation);
+            } else {
+                long modulo = 2 + aleatoire.nextInt(5);
+                int retirees = lru.retirerSi(c -> c % modulo == 0);
+                int avant = reference.size();
+                reference.keySet().removeIf(c -> c % modulo == 0);
+                assertEquals(avant - reference.size(), retirees);
+            }
+            assertEquals(reference.size(), lru.taille());
+        }
+        assertEquals(evictions, lru.evictions());
+    }
+
+    @Test
+    void viderRetireTout() {
+        LruDistances lru = new LruDistances(8);
+        for (long cle = 0; cle < 8; cle++) {
+            lru.ecrire(cle, 0, cle);
+        }
+        lru.vider();
+        assertEquals(0, lru.taille());
+        assertTrue(Double.isNaN(lru.lire(3, 0)));
+        lru.ecrire(3, 0, 3);
+        assertEquals(3, lru.lire(3, 0), 0);
+    }
+}
@@ -0,0 +1,173 @@
+package com.lifat.CircuitsCourtsApi.service.reservation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoueTemporelleTest {
+
+    private static final long TICK_MS = 20;
+
+    //marge pour les threads lents, les echeances ne doivent jamais etre traitees en avance
+    private static final long MARGE_MS = 500;
+
+    /**
+     * Un appel de l'action d'expiration : les éléments reçus et la date de l'appel.
+     */
+    private static final class Expiration {
+        final List<String> elements;
+        final long dateMs;
+
+        Expiration(List<String> elements) {
+            this.elements = elements;
+            this.dateMs = System.currentTimeMillis();
+        }
+    }
+
+    private final BlockingQueue<Expiration> expirations = new LinkedBlockingQueue<>();
+
+    private RoueTemporelle<String> roue(int nombreCases) {
+        return new RoueTemporelle<>("roue-test", TICK_MS, nombreCases, elements -> expirations.add(new Expiration(elements)));
+    }
+
+    @Test
+    void expireALEcheance() throws Exception {
+        RoueTemporelle<String> roue = roue(8);
+        try {
+            long echeance = System.currentTimeMillis() + 150;
+            roue.planifier("a", echeance);
+            assertEquals(1, roue.taille());
+
+            Expiration expiration = expirations.poll(150 + MARGE_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(expiration);
+            assertEquals(Collections.singletonList("a"), expiration.elements);
+            assertTrue(expiration.dateMs >= echeance, "expire " + (echeance - expiration.dateMs) + " ms en avance");
+            assertTrue(expiration.dateMs <= echeance + TICK_MS + MARGE_MS);
+            assertEquals(0, roue.taille());
+            assertNull(expirations.poll(3 * TICK_MS, TimeUnit.MILLISECONDS));
+        } finally {
+            roue.arreter();
+        }
+    }
+
+    /**
+     * Avec 4 cases de 20 ms, une échéance à 300 ms fait plusieurs tours de roue avant d'expirer.
+     */
+    @Test
+    void attendLesToursDeRoue() throws Exception {
+        RoueTemporelle<String> roue = roue(4);
+        try {
+            long echeance = System.currentTimeMillis() + 300;
+            roue.planifier("a", echeance);
+
+            Expiration expiration = expirations.poll(300 + MARGE_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(expiration);
+            assertEquals(Collections.singletonList("a"), expiration.elements);
+            assertTrue(expiration.dateMs >= echeance, "expire " + (echeance - expiration.dateMs) + " ms en avance");
+        } finally {
+            roue.arreter();
+        }
+    }
+
+    @Test
+    void uneDatePasseeExpireAuProchainTick() throws Exception {
+        RoueTemporelle<String> roue = roue(8);
+        try {
+            roue.planifier("a", System.currentTimeMillis() - 60_000);
+            Expiration expiration = expirations.poll(TICK_MS + MARGE_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(expiration);
+            assertEquals(Collections.singletonList("a"), expiration.elements);
+        } finally {
+            roue.arreter();
+        }
+    }
+
+    @Test
+    void annulerEtReplanifier() throws Exception {
+        RoueTemporelle<String> roue = roue(8);
+        try {
+            long maintenant = System.currentTimeMillis();
+            roue.planifier("annulee", maintenant + 100);
+            roue.planifier("replanifiee", maintenant + 100);
+            roue.planifier("temoin", maintenant + 100);
+            roue.annuler("annulee");
+            roue.annuler("absente");
+            long nouvelleEcheance = maintenant + 400;
+            roue.planifier("replanifiee", nouvelleEcheance);
+            assertEquals(2, roue.taille());
+
+            Expiration premiere = expirations.poll(100 + MARGE_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(premiere);
+            assertEquals(Collections.singletonList("temoin"), premiere.elements);
+
+            Expiration seconde = expirations.poll(400 + MARGE_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(seconde);
+            assertEquals(Collections.singletonList("replanifiee"), seconde.elements);
+            assertTrue(seconde.dateMs >= nouvelleEcheance, "replanifiee expire a son ancienne echeance");
+
+            //l'element annule et l'ancienne echeance de replanifiee ne sont jamais transmis
+            assertNull(expirations.poll(200, TimeUnit.MILLISECONDS));
+            assertEquals(0, roue.taille());
+        } finally {
+            roue.arreter();
+        }
+    }
+
+    /**
+     * Les éléments arrivés à échéance pendant le même tick sont transmis en un seul appel ; avec des ticks de 20 ms,
+     * des échéances espacées de 200 ms tombent dans des ticks différents.
+     */
+    @Test
+    void regroupeLesEcheancesDUnMemeTick() throws Exception {
+        RoueTemporelle<String> roue = roue(64);
+        try {
+            long echeance = System.currentTimeMillis() + 100;
+            for (int i = 0; i < 50; i++) {
+                roue.planifier("a" + i, echeance);
+            }
+            roue.planifier("b", echeance + 200);
+
+            Expiration groupe = expirations.poll(100 + MARGE_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(groupe);
+            assertEquals(50, groupe.elements.size());
+            assertEquals(50, new HashSet<>(groupe.elements).size());
+            for (String element : groupe.elements) {
+                assertTrue(element.startsWith("a"), element + " expire avec le groupe");
+            }
+
+            Expiration seul = expirations.poll(200 + MARGE_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(seul);
+            assertEquals(Collections.singletonList("b"), seul.elements);
+        } finally {
+            roue.arreter();
+        }
+    }
+
+    @Test
+    void uneExpirationEnEchecNArretePasLaRoue() throws Exception {
+        List<List<String>> recus = Collections.synchronizedList(new ArrayList<>());
+        RoueTemporelle<String> roue = new RoueTemporelle<>("roue-test", TICK_MS, 8, elements -> {
+            recus.add(elements);
+            if (elements.contains("echec")) {
+                throw new IllegalStateException("echec");
+            }
+            expirations.add(new Expiration(elements));
+        });
+        try {
+            long maintenant = System.currentTimeMillis();
+            roue.planifier("echec", maintenant + 50);
+            roue.planifier("suivante", maintenant + 250);
+            Expiration expiration = expirations.poll(250 + MARGE_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(expiration);
+            assertEquals(Collections.singletonList("suivante"), expiration.elements);
+            assertEquals(2, recus.size());
+        } finally {
+            roue.arreter();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.lifat.CircuitsCourtsApi.service.routage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HierarchieContractionTest {
+
+    @TempDir
+    Path dossier;
+
+    /**
+     * 0 -> 1 : sens unique, le retour passe par 2.
+     * 3 -> 4 -> 5 et 3 -> 6 -> 5 : le chemin par 6 est plus rapide, il sert de témoin quand 4 est contracté ;
+     * 4 est sur le chemin le plus court en mètres, mais pas le plus rapide.
+     * 7 -> 0 : sens unique, 7 ne peut pas être atteint.
+     * 8 <-> 9 : une autre composante.
+     */
+    private static ReseauRoutier reseauALaMain() {
+        ReseauRoutier reseau = new ReseauRoutier();
+        for (int i = 0; i < 10; i++) {
+            reseau.ajouterNoeud(470_000_000 + i * 10_000, 10_000 * (i % 3));
+        }
+        reseau.ajouterArc(0, 1, 10, 100);
+        doubleSens(reseau, 1, 2, 10, 100);
+        doubleSens(reseau, 2, 0, 50, 500);
+        doubleSens(reseau, 2, 3, 20, 200);
+        reseau.ajouterArc(3, 4, 30, 100);
+        reseau.ajouterArc(4, 5, 30, 100);
+        reseau.ajouterArc(3, 6, 20, 400);
+        reseau.ajouterArc(6, 5, 20, 400);
+        doubleSens(reseau, 5, 1, 15, 150);
+        reseau.ajouterArc(7, 0, 5, 50);
+        doubleSens(reseau, 8, 9, 10, 100);
+        return reseau;
+    }
+
+    private static void doubleSens(ReseauRoutier reseau, int a, int b, int temps, int longueur) {
+        reseau.ajouterArc(a, b, temps, longueur);
+        reseau.ajouterArc(b, a, temps, longueur);
+    }
+
+    @Test
+    void calculerSurUnReseauALaMain() {
+        ReseauRoutier reseau = reseauALaMain();
+        HierarchieContraction hierarchie = HierarchieContraction.construire(reseau, 1);
+        int[] tous = tousLesNoeuds(reseau);
+        int[] temps = new int[tous.length * tous.length];
+        int[] longueurs = new int[temps.length];
+        hierarchie.calculer(tous, tous, temps, longueurs);
+        comparerADijkstra(reseau, tous, tous, temps, longueurs);
+
+        //sens unique : 0 -> 1 direct, 1 -> 0 par 2
+        assertEquals(10, temps[0 * 10 + 1]);
+        assertEquals(60, temps[1 * 10 + 0]);
+        //le plus rapide de 3 a 5 passe par 6, avec sa longueur
+        assertEquals(40, temps[3 * 10 + 5]);
+        assertEquals(800, longueurs[3 * 10 + 5]);
+        //7 ne peut pas etre atteint, il atteint les autres
+        assertEquals(HierarchieContraction.INACCESSIBLE, temps[0 * 10 + 7]);
+        assertEquals(5, temps[7 * 10 + 0]);
+        //composantes separees
+        assertEquals(HierarchieContraction.INACCESSIBLE, temps[0 * 10 + 8]);
+        assertEquals(HierarchieContraction.INACCESSIBLE, temps[9 * 10 + 2]);
+        assertEquals(10, temps[8 * 10 + 9]);
+        assertEquals(0, temps[4 * 10 + 4]);
+    }
+
+    /**
+     * Une grille aux sens uniques et temps tirés au hasard : les longueurs sont proportionnelles aux temps,
+     * pour que deux chemins aussi rapides aient la même longueur.
+     */
+    @Test
+    void calculerCommeDijkstraSurUneGrille() {
+        Random aleatoire = new Random(7);
+        int cote = 20;
+        ReseauRoutier reseau = new ReseauRoutier();
+        for (int l = 0; l < cote; l++) {
+            for (int c = 0; c < cote; c++) {
+                reseau.ajouterNoeud(470_000_000 + l * 20_000, c * 20_000);
+            }
+        }
+        for (int l = 0; l < cote; l++) {
+            for (int c = 0; c < cote; c++) {
+                int noeud = l * cote + c;
+                if (c + 1 < cote) {
+                    relierAuHasard(reseau, aleatoire, noeud, noeud + 1);
+                }
+                if (l + 1 < cote) {
+                    relierAuHasard(reseau, aleatoire, noeud, noeud + cote);
+                }
+            }
+        }
+        HierarchieContraction hierarchie = HierarchieContraction.construire(reseau, 2);
+        assertTrue(hierarchie.nombreRaccourcis > 0);
+        int[] origines = new int[40];
+        int[] cibles = new int[30];
+        for (int i = 0; i < origines.length; i++) {
+            origines[i] = aleatoire.nextInt(reseau.nombreNoeuds);
+        }
+        for (int i = 0; i < cibles.length; i++) {
+            cibles[i] = aleatoire.nextInt(reseau.nombreNoeuds);
+        }
+        int[] temps = new int[origines.length * cibles.length];
+        int[] longueurs = new int[temps.length];
+        hierarchie.calculer(origines, cibles, temps, longueurs);
+        comparerADijkstra(reseau, origines, cibles, temps, longueurs);
+    }
+
+    private static void relierAuHasard(ReseauRoutier reseau, Random aleatoire, int a, int b) {
+        int temps = 1 + aleatoire.nextInt(100);
+        switch (aleatoire.nextInt(4)) {
+            case 0:
+                reseau.ajouterArc(a, b, temps, temps * 7);
+                break;
+            case 1:
+                reseau.ajouterArc(b, a, temps, temps * 7);
+                break;
+            default:
+                doubleSens(reseau, a, b, temps, temps * 7);
+                break;
+        }
+    }
+
+    @Test
+    void enregistrerPuisCharger() throws Exception {
+        ReseauRoutier reseau = reseauALaMain();
+        HierarchieContraction construite = HierarchieContraction.construire(reseau, 42);
+        Path fichier = dossier.resolve("reseau.ch");
+        construite.enregistrer(fichier);
+
+        assertNull(HierarchieContraction.charger(fichier, 43));
+        assertNull(HierarchieContraction.charger(dossier.resolve("absent.ch"), 42));
+        HierarchieContraction chargee = HierarchieContraction.charger(fichier, 42);
+        assertNotNull(chargee);
+        assertEquals(42, chargee.signature);
+        assertEquals(construite.nombreNoeuds, chargee.nombreNoeuds);
+        assertEquals(construite.nombreArcs(), chargee.nombreArcs());
+        assertEquals(construite.nombreRaccourcis, chargee.nombreRaccourcis);
+
+        int[] tous = tousLesNoeuds(reseau);
+        int[] temps = new int[tous.length * tous.length];
+        int[] longueurs = new int[temps.length];
+        int[] tempsCharges = new int[temps.length];
+        int[] longueursChargees = new int[temps.length];
+        construite.calculer(tous, tous, temps, longueurs);
+        chargee.calculer(tous, tous, tempsCharges, longueursChargees);
+        assertArrayEquals(temps, tempsCharges);
+        for (int i = 0; i < temps.length; i++) {
+            if (temps[i] != HierarchieContraction.INACCESSIBLE) {
+                assertEquals(longueurs[i], longueursChargees[i]);
+            }
+        }
+
+        double[] distance = new double[1];
+        assertEquals(construite.accrocher(47.00005, 0.001, 2000, distance), chargee.accrocher(47.00005, 0.001, 2000, distance));
+    }
+
+    private static int[] tousLesNoeuds(ReseauRoutier reseau) {
+        int[] noeuds = new int[reseau.nombreNoeuds];
+        for (int i = 0; i < noeuds.length; i++) {
+            noeuds[i] = i;
+        }
+        return noeuds;
+    }
+
+    private static void comparerADijkstra(ReseauRoutier reseau, int[] origines, int[] cibles, int[] temps, int[] longueurs) {
+        for (int o = 0; o < origines.length; o++) {
+            int[][] attendus = dijkstra(reseau, origines[o]);
+            for (int c = 0; c < cibles.length; c++) {
+                int i = o * cibles.length + c;
+                assertEquals(attendus[0][cibles[c]], temps[i], "temps de " + origines[o] + " a " + cibles[c]);
+                if (temps[i] != HierarchieContraction.INACCESSIBLE) {
+                    assertEquals(attendus[1][cibles[c]], longueurs[i], "longueur de " + origines[o] + " a " + cibles[c]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return les temps puis les longueurs des chemins les plus rapides depuis depart, sur les arcs du réseau
+     */
+    private static int[][] dijkstra(ReseauRoutier reseau, int depart) {
+        int[] temps = new int[reseau.nombreNoeuds];
+        int[] longueurs = new int[reseau.nombreNoeuds];
+        Arrays.fill(temps, HierarchieContraction.INACCESSIBLE);
+        temps[depart] = 0;
+        PriorityQueue<int[]> file = new PriorityQueue<>((a, b) -> Integer.compare(a[0], b[0]));
+        file.add(new int[]{0, depart});
+        while (!file.isEmpty()) {
+            int[] entree = file.poll();
+            int noeud = entree[1];
+            if (entree[0] > temps[noeud]) {
+                continue;
+            }
+            for (int a = 0; a < reseau.nombreArcs; a++) {
+                if (reseau.origines[a] != noeud) {
+                    continue;
+                }
+                int voisin = reseau.cibles[a];
+                int tempsVoisin = temps[noeud] + reseau.temps[a];
+                if (tempsVoisin < temps[voisin]) {
+                    temps[voisin] = tempsVoisin;
+                    longueurs[voisin] = longueurs[noeud] + reseau.longueurs[a];
+                    file.add(new int[]{tempsVoisin, voisin});
+                }
+            }
+        }
+        return new int[][]{temps, longueurs};
+    }
+}
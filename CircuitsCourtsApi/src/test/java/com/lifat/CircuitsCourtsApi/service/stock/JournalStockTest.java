@@ -0,0 +1,215 @@
+package com.lifat.CircuitsCourtsApi.service.stock;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lifat.CircuitsCourtsApi.model.EvenementOutbox;
+import com.lifat.CircuitsCourtsApi.service.evenement.OutboxService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reprise du journal après un arrêt, sur un répertoire temporaire : l'outbox est une liste en mémoire et
+ * produits_producteurs est vide, le premier événement de chaque test fixe le stock.
+ */
+class JournalStockTest {
+
+    //128 entrees par segment
+    private static final int TAILLE_SEGMENT = 128 * JournalStock.TAILLE_ENTREE;
+
+    private static final long CLE = CleStock.de(1, 2);
+
+    @TempDir
+    Path dossier;
+
+    private final List<EvenementOutbox> outbox = new ArrayList<>();
+
+    /**
+     * Un journal actif sur le répertoire du test, comme à un démarrage de l'api.
+     */
+    private JournalStock ouvrir(int retentionJours) {
+        JournalStock journal = new JournalStock();
+        ReflectionTestUtils.setField(journal, "actif", true);
+        ReflectionTestUtils.setField(journal, "repertoire", dossier.toString());
+        ReflectionTestUtils.setField(journal, "tailleSegment", TAILLE_SEGMENT);
+        ReflectionTestUtils.setField(journal, "retentionJours", retentionJours);
+        ReflectionTestUtils.setField(journal, "tailleLot", 7);
+        ReflectionTestUtils.setField(journal, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(journal, "jdbcTemplate", new JdbcTemplate() {
+            @Override
+            public void query(String sql, RowCallbackHandler rch) {
+            }
+        });
+        ReflectionTestUtils.setField(journal, "outboxService", new OutboxService() {
+            @Override
+            public long getDerniereSequence() {
+                return 0;
+            }
+
+            @Override
+            public List<EvenementOutbox> lire(long apres, int limite) {
+                List<EvenementOutbox> lus = new ArrayList<>();
+                for (EvenementOutbox evenement : outbox) {
+                    if (evenement.getSequence() > apres && lus.size() < limite) {
+                        lus.add(evenement);
+                    }
+                }
+                return lus;
+            }
+        });
+        ReflectionTestUtils.invokeMethod(journal, "init");
+        return journal;
+    }
+
+    private static void fermer(JournalStock journal) {
+        ReflectionTestUtils.invokeMethod(journal, "fermer");
+    }
+
+    /**
+     * Publie dans l'outbox un DEFINI de 100 puis des RESERVE de 1 jusqu'à la séquence derniere.
+     */
+    private void publier(int derniere, Date date) {
+        for (long sequence = outbox.size() + 1; sequence <= derniere; sequence++) {
+            String type = sequence == 1 ? OutboxService.STOCK_DEFINI : OutboxService.STOCK_RESERVE;
+            EvenementOutbox evenement = new EvenementOutbox(type, OutboxService.STOCK, CLE,
+                    "{\"quantite\":" + (sequence == 1 ? 100 : 1) + "}");
+            evenement.setSequence(sequence);
+            evenement.setDateCreation(date);
+            outbox.add(evenement);
+        }
+    }
+
+    private void transmettre(JournalStock journal, int depuis, int jusqua) throws Exception {
+        for (EvenementOutbox evenement : outbox.subList(depuis - 1, jusqua)) {
+            journal.recevoir(evenement);
+        }
+    }
+
+    private List<Path> fichiers(String extension) throws IOException {
+        try (Stream<Path> fichiers = Files.list(dossier)) {
+            return fichiers.filter(chemin -> chemin.toString().endsWith(extension)).sorted().toList();
+        }
+    }
+
+    /**
+     * Inverse un octet de la quantité d'une entrée, comme une page écrite à moitié par un arrêt brutal.
+     */
+    private static void dechirer(Path segment, int entree) throws IOException {
+        try (FileChannel canal = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer octet = ByteBuffer.allocate(1);
+            long position = (long) entree * JournalStock.TAILLE_ENTREE + 24;
+            canal.read(octet, position);
+            octet.put(0, (byte) (octet.get(0) ^ 0x5A));
+            octet.rewind();
+            canal.write(octet, position);
+        }
+    }
+
+    @Test
+    void tronqueLaFinDechireeEtLaRelitDansLOutbox() throws Exception {
+        publier(40, new Date());
+        JournalStock journal = ouvrir(90);
+        transmettre(journal, 1, 40);
+        assertEquals(61f, journal.stock(CLE), 0);
+        fermer(journal);
+
+        //la 31e entree est dechiree, les suivantes sont perdues avec elle
+        dechirer(fichiers(".journal").get(0), 30);
+        JournalStock rouvert = ouvrir(90);
+        assertEquals(61f, rouvert.stock(CLE), 0);
+        assertEquals(40, rouvert.historique(CLE, null, 1000).size());
+        assertEquals(61f, rouvert.reconstruire(null).get(CLE), 0);
+        fermer(rouvert);
+
+        //les entrees reecrites ont un controle juste
+        JournalStock relu = ouvrir(90);
+        assertEquals(40, relu.historique(CLE, null, 1000).size());
+        fermer(relu);
+    }
+
+    @Test
+    void rattrapeLesEvenementsPubliesPendantLArret() throws Exception {
+        publier(10, new Date());
+        JournalStock journal = ouvrir(90);
+        transmettre(journal, 1, 10);
+        fermer(journal);
+
+        //publies pendant l'arret, puis presentes de nouveau par le relais apres le redemarrage
+        publier(25, new Date());
+        JournalStock rouvert = ouvrir(90);
+        assertEquals(76f, rouvert.stock(CLE), 0);
+        transmettre(rouvert, 20, 25);
+        assertEquals(76f, rouvert.stock(CLE), 0);
+        assertEquals(25, rouvert.historique(CLE, null, 1000).size());
+
+        //les evenements qui ne sont pas des mouvements de stock sont ignores
+        EvenementOutbox commande = new EvenementOutbox(OutboxService.COMMANDE_CREEE, OutboxService.COMMANDE, 7L, "{}");
+        commande.setSequence(26L);
+        outbox.add(commande);
+        publier(27, new Date());
+        transmettre(rouvert, 26, 27);
+        assertEquals(75f, rouvert.stock(CLE), 0);
+        assertEquals(26, rouvert.historique(CLE, null, 1000).size());
+        fermer(rouvert);
+    }
+
+    /**
+     * Un instantané pris après la dernière entrée lisible compte des entrées perdues : il est supprimé, et l'état
+     * repart de l'instantané précédent et de l'outbox.
+     */
+    @Test
+    void ignoreUnInstantanePosterieurALaFinLisible() throws Exception {
+        publier(50, new Date());
+        JournalStock journal = ouvrir(90);
+        transmettre(journal, 1, 50);
+        journal.instantane();
+        assertEquals(2, fichiers(".etat").size());
+        fermer(journal);
+
+        dechirer(fichiers(".journal").get(0), 39);
+        JournalStock rouvert = ouvrir(90);
+        assertEquals(51f, rouvert.stock(CLE), 0);
+        assertEquals(1, fichiers(".etat").size());
+        assertEquals(50, rouvert.historique(CLE, null, 1000).size());
+        fermer(rouvert);
+    }
+
+    @Test
+    void compacteLesSegmentsCouvertsParUnInstantane() throws Exception {
+        Date ancienne = new Date(System.currentTimeMillis() - 10 * 86400000L);
+        publier(300, ancienne);
+        JournalStock journal = ouvrir(5);
+        transmettre(journal, 1, 300);
+        assertEquals(3, fichiers(".journal").size());
+        assertEquals(-199f, journal.stock(CLE), 0);
+
+        journal.instantane();
+        //le dernier segment reste ouvert aux ecritures, seul l'instantane qui le precede est garde
+        assertEquals(1, fichiers(".journal").size());
+        assertEquals(1, fichiers(".etat").size());
+        assertEquals(-199f, journal.reconstruire(null).get(CLE), 0);
+        assertThrows(Exception.class, () -> journal.reconstruire(new Date(ancienne.getTime() - 1)));
+        assertEquals(300 - 256, journal.historique(CLE, null, 1000).size());
+        fermer(journal);
+
+        publier(301, new Date());
+        JournalStock rouvert = ouvrir(5);
+        assertEquals(-200f, rouvert.stock(CLE), 0);
+        assertEquals(-200f, rouvert.reconstruire(null).get(CLE), 0);
+        fermer(rouvert);
+    }
+}